@@ -0,0 +1,44 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.iter;
+
+/**
+ * An instance generator that generates a whole set of instances before
+ * yielding any of them.  For example,
+ *   <blockquote>
+ *     <code>RRULE:FREQ=MONTHLY;BYDAY=MO,TU,WE,TH,FR;BYSETPOS=-1</code>
+ *   </blockquote>
+ * can't yield the last weekday of a month until it has seen the whole month.
+ * If the period generators it draws from are moved forward past the set it
+ * has buffered, the buffered instances are stale.
+ *
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+abstract class BufferingGenerator extends Generator {
+
+  /**
+   * discards any buffered instances so that the next call to {@link #generate}
+   * starts a new set at the first instance the period generators yield.
+   */
+  abstract void discardBuffered();
+
+  /**
+   * the year of the first instance of the next set if the period generators
+   * have already yielded it, so are past any years before it, or
+   * {@link Integer#MIN_VALUE} if they are still within the current set.
+   */
+  abstract int nextSetYear();
+
+}
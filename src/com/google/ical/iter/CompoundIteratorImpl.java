@@ -16,25 +16,48 @@ package com.google.ical.iter;
 
 import com.google.ical.values.DateValue;
 import java.util.Collection;
-import java.util.Comparator;
 import java.util.NoSuchElementException;
-import java.util.PriorityQueue;
 
 /**
  * a recurrence iterator that combines others.  Some may be inclusions, and
  * some may be exclusions.
+ * <p>The iterators are merged via a binary min-heap of their next dates in
+ * packed form.  The heap is kept in parallel arrays of keys and source
+ * indices, so merging allocates nothing per date even when there are
+ * thousands of sources.</p>
  *
  * @author mikesamuel+svn@gmail.com (Mike Samuel)
  */
 final class CompoundIteratorImpl implements RecurrenceIterator {
 
-  /** a queue that keeps the earliest dates at the head */
-  private PriorityQueue<HeapElement> queue;
-  private HeapElement pending;
+  /** the iterators being merged, indexed by source. */
+  private final RecurrenceIterator[] sources;
   /**
-   * the number of inclusions on queue.  We keep track of this so that we
-   * don't have to drain the exclusions to conclude that the series is
-   * exhausted.
+   * should the source's items be included in the series or should they
+   * nullify any matched items included by other series.
+   */
+  private final boolean[] inclusion;
+  /**
+   * the next date of each source on the heap as a
+   * {@link DateValueComparison#comparable}.  In utc.
+   * The first {@link #heapSize} form a heap with the earliest at 0.
+   */
+  private final long[] heapKeys;
+  /** the source whose next date is in the same position of heapKeys. */
+  private final int[] heapSources;
+  /** the number of sources on the heap. */
+  private int heapSize;
+  /**
+   * the source whose next date, {@link #pending}, is the next to return,
+   * held off the heap until it is consumed, or -1.
+   */
+  private int pendingSource = -1;
+  /** the next date to return, if there is a pendingSource. */
+  private long pending;
+  /**
+   * the number of inclusions on the heap or pending.  We keep track of this
+   * so that we don't have to drain the exclusions to conclude that the series
+   * is exhausted.
    */
   private int nInclusionsRemaining;
 
@@ -50,178 +73,200 @@ final class CompoundIteratorImpl implements RecurrenceIterator {
   CompoundIteratorImpl(
       Collection<RecurrenceIterator> inclusions,
       Collection<RecurrenceIterator> exclusions) {
-    queue = new PriorityQueue<HeapElement>(
-        inclusions.size() + exclusions.size(), HeapElement.CMP);
+    int n = inclusions.size() + exclusions.size();
+    sources = new RecurrenceIterator[n];
+    inclusion = new boolean[n];
+    heapKeys = new long[n];
+    heapSources = new int[n];
+    int src = 0;
     for (RecurrenceIterator it : inclusions) {
-      HeapElement el = new HeapElement(true, it);
-      if (el.shift()) {
-        queue.add(el);
+      sources[src] = it;
+      inclusion[src] = true;
+      if (it.hasNext()) {
+        push(it.nextPacked(), src);
         ++nInclusionsRemaining;
       }
+      ++src;
     }
     for (RecurrenceIterator it : exclusions) {
-      HeapElement el = new HeapElement(false, it);
-      if (el.shift()) { queue.add(el); }
+      sources[src] = it;
+      if (it.hasNext()) { push(it.nextPacked(), src); }
+      ++src;
     }
   }
 
   public boolean hasNext() {
     requirePending();
-    return null != pending;
+    return pendingSource >= 0;
   }
 
   public DateValue next() {
+    return DateValueComparison.fromComparable(nextPacked());
+  }
+
+  public long nextPacked() {
     requirePending();
-    if (null == pending) { throw new NoSuchElementException(); }
-    DateValue head = pending.head();
-    reattach(pending);
-    pending = null;
+    if (pendingSource < 0) { throw new NoSuchElementException(); }
+    long head = pending;
+    reattach(pendingSource);
+    pendingSource = -1;
     return head;
   }
 
+  public int nextPacked(long[] out, int off, int len) {
+    int n = 0;
+    while (n < len) {
+      requirePending();
+      if (pendingSource < 0) { break; }
+      int src = pendingSource;
+      pendingSource = -1;
+      out[off + n++] = pending;
+      if (0 == heapSize) {
+        // Only one series remains, so there is nothing left to merge or
+        // exclude, and we can let it fill the rest of the batch itself.
+        n += sources[src].nextPacked(out, off + n, len - n);
+        reattach(src);
+        break;
+      }
+      reattach(src);
+    }
+    return n;
+  }
+
   public void remove() { throw new UnsupportedOperationException(); }
 
   public void advanceTo(DateValue newStart) {
-    long newStartCmp = DateValueComparison.comparable(newStart);
-    if (null != pending) {
-      if (pending.comparable() >= newStartCmp) { return; }
-      pending.advanceTo(newStart);
-      reattach(pending);
-      pending = null;
+    advanceToPacked(DateValueComparison.comparable(newStart));
+  }
+
+  public void advanceToPacked(long newStartCmp) {
+    if (pendingSource >= 0) {
+      if (pending >= newStartCmp) { return; }
+      sources[pendingSource].advanceToPacked(newStartCmp);
+      reattach(pendingSource);
+      pendingSource = -1;
     }
 
-    // Pull each element off the stack in turn, and advance it.
+    // Pull each source off the heap in turn, and advance it.
     // Once we reach one we don't need to advance, we're done
-    while (0 != nInclusionsRemaining && !queue.isEmpty()
-           && queue.peek().comparable() < newStartCmp) {
-      HeapElement el = queue.poll();
-      el.advanceTo(newStart);
-      reattach(el);
+    while (0 != nInclusionsRemaining && 0 != heapSize
+           && heapKeys[0] < newStartCmp) {
+      int src = poll();
+      sources[src].advanceToPacked(newStartCmp);
+      reattach(src);
     }
   }
 
   /**
-   * if the given element's iterator has more data, then push back onto the
+   * if the given source has more data, then push its next date back onto the
    * heap.
    */
-  private void reattach(HeapElement el) {
-    if (el.shift()) {
-      queue.add(el);
-    } else if (el.inclusion) {
+  private void reattach(int src) {
+    RecurrenceIterator it = sources[src];
+    if (it.hasNext()) {
+      push(it.nextPacked(), src);
+    } else if (inclusion[src]) {
       // if we have no live inclusions, then the rest are exclusions which we
       // can safely discard.
       if (0 == --nInclusionsRemaining) {
-        queue.clear();
+        heapSize = 0;
       }
     }
   }
 
   /**
-   * make sure that pending contains the next inclusive HeapElement that doesn't
-   * match any exclusion, and remove any dupes of it.
+   * make sure that pending contains the next inclusive date that doesn't
+   * match any exclusion, and remove any dupes of it from other sources.
+   * A source that repeats a date is held off the heap while it is pending,
+   * so its repeats are not dupes.
    */
   private void requirePending() {
-    if (null != pending) { return; }
+    if (pendingSource >= 0) { return; }
 
     long exclusionComparable = Long.MIN_VALUE;
-    while (0 != nInclusionsRemaining && !queue.isEmpty()) {
+    while (0 != nInclusionsRemaining && 0 != heapSize) {
       // find a candidate that is not excluded
-      HeapElement inclusion = null;
+      int inclusionSource = -1;
       do {
-        HeapElement candidate = queue.poll();
-        if (candidate.inclusion) {
-          if (exclusionComparable != candidate.comparable()) {
-            inclusion = candidate;
+        long candidate = heapKeys[0];
+        int src = poll();
+        if (inclusion[src]) {
+          if (exclusionComparable != candidate) {
+            inclusionSource = src;
+            pending = candidate;
             break;
           }
         } else {
-          exclusionComparable = candidate.comparable();
+          exclusionComparable = candidate;
         }
-        reattach(candidate);
+        reattach(src);
         if (0 == nInclusionsRemaining) { return; }
-      } while (!queue.isEmpty());
-      if (inclusion == null) { return; }
-      long inclusionComparable = inclusion.comparable();
+      } while (0 != heapSize);
+      if (inclusionSource < 0) { return; }
 
       // Check for any following exclusions and for duplicates.
       // We could change the sort order so that exclusions always preceded
       // inclusions, but that would be less efficient and would make the
       // ordering different than the comparable value.
-      boolean excluded = exclusionComparable == inclusionComparable;
-      while (!queue.isEmpty()
-             && queue.peek().comparable() == inclusionComparable) {
-        HeapElement match = queue.poll();
-        excluded |= !match.inclusion;
+      boolean excluded = exclusionComparable == pending;
+      while (0 != heapSize && heapKeys[0] == pending) {
+        int match = poll();
+        excluded |= !inclusion[match];
         reattach(match);
         if (0 == nInclusionsRemaining) { return; }
       }
       if (!excluded) {
-        pending = inclusion;
+        pendingSource = inclusionSource;
         return;
       } else {
-        reattach(inclusion);
+        reattach(inclusionSource);
       }
     }
   }
 
-}
-
-final class HeapElement {
-  /**
-   * should iterators items be included in the series or should they
-   * nullify any matched items included by other series.
-   */
-  final boolean inclusion;
-  /** the {@link DateValueComparison#comparable} for {@link #head}. */
-  private long comparable;
-  /** the last value removed from it.  In utc. */
-  private DateValue head;
-  private RecurrenceIterator it;
-
-  HeapElement(boolean inclusion, RecurrenceIterator it) {
-    this.inclusion = inclusion;
-    this.it = it;
-  }
-
-  /** the last value removed from the iterator. */
-  DateValue head() { return head; }
-  /**
-   * A given HeapElement may be compared to many others as it bubbles towards
-   * the heap's root, so we cache this for each HeapElement.
-   */
-  long comparable() { return comparable; }
-  /**
-   * discard the current, and return true iff there is another head to
-   * replace it.
-   */
-  boolean shift() {
-    if (!it.hasNext()) { return false; }
-    head = it.next();
-    comparable = DateValueComparison.comparable(head);
-    return true;
-  }
-
-  /**
-   * advance the underlying iterator to the given date value a la
-   * {@link RecurrenceIterator#advanceTo}.
-   */
-  void advanceTo(DateValue dvUtc) {
-    it.advanceTo(dvUtc);
+  /** removes the top of the heap, returning its source. */
+  private int poll() {
+    int src = heapSources[0];
+    if (0 != --heapSize) {
+      heapKeys[0] = heapKeys[heapSize];
+      heapSources[0] = heapSources[heapSize];
+      siftDown(0);
+    }
+    return src;
   }
 
-  @Override
-  public String toString() {
-    return
-      "[" + head.toString() + (inclusion ? ", inclusion]" : ", exclusion]");
+  /** adds a source to the heap with the given next date. */
+  private void push(long key, int src) {
+    int i = heapSize++;
+    while (i > 0) {
+      int parent = (i - 1) >> 1;
+      if (heapKeys[parent] <= key) { break; }
+      heapKeys[i] = heapKeys[parent];
+      heapSources[i] = heapSources[parent];
+      i = parent;
+    }
+    heapKeys[i] = key;
+    heapSources[i] = src;
   }
 
-  /** compares to heap elements by comparing their heads. */
-  static Comparator<HeapElement> CMP = new Comparator<HeapElement>() {
-    public int compare(HeapElement a, HeapElement b) {
-      long ac = a.comparable(),
-           bc = b.comparable();
-      return ac < bc ? -1 : ac == bc ? 0 : 1;
+  /** restores the heap invariant below i after its key has increased. */
+  private void siftDown(int i) {
+    long key = heapKeys[i];
+    int src = heapSources[i];
+    int half = heapSize >> 1;
+    while (i < half) {
+      int child = 2 * i + 1;
+      int right = child + 1;
+      if (right < heapSize && heapKeys[right] < heapKeys[child]) {
+        child = right;
+      }
+      if (key <= heapKeys[child]) { break; }
+      heapKeys[i] = heapKeys[child];
+      heapSources[i] = heapSources[child];
+      i = child;
     }
-  };
+    heapKeys[i] = key;
+    heapSources[i] = src;
+  }
 
 }
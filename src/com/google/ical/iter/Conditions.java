@@ -14,7 +14,6 @@
 
 package com.google.ical.iter;
 
-import com.google.ical.util.Predicate;
 import com.google.ical.values.DateValue;
 
 /**
@@ -25,10 +24,11 @@ import com.google.ical.values.DateValue;
 final class Conditions {
 
   /** constructs a condition that fails after passing count dates. */
-  static Predicate<DateValue> countCondition(final int count) {
-    return new Predicate<DateValue>() {
+  static PackedPredicate countCondition(final int count) {
+    return new PackedPredicate() {
       int count_ = count;
-      public boolean apply(DateValue _) {
+      @Override
+      boolean applyPacked(long date) {
         return --count_ >= 0;
       }
       @Override
@@ -42,14 +42,24 @@ final class Conditions {
    * constructs a condition that passes for every date on or before until.
    * @param until non null.
    */
-  static Predicate<DateValue> untilCondition(final DateValue until) {
-    return new Predicate<DateValue>() {
-      public boolean apply(DateValue date) {
-        return date.compareTo(until) <= 0;
+  static PackedPredicate untilCondition(DateValue until) {
+    return untilCondition(DateValueComparison.comparable(until));
+  }
+
+  /**
+   * constructs a condition that passes for every date on or before until.
+   * @param untilComparable a {@link DateValueComparison#comparable}.
+   */
+  static PackedPredicate untilCondition(final long untilComparable) {
+    return new PackedPredicate() {
+      @Override
+      boolean applyPacked(long date) {
+        return date <= untilComparable;
       }
       @Override
       public String toString() {
-        return "UntilCondition:" + until;
+        return "UntilCondition:"
+            + DateValueComparison.fromComparable(untilComparable);
       }
     };
   }
@@ -14,6 +14,9 @@
 
 package com.google.ical.iter;
 
+import com.google.ical.util.DTBuilder;
+import com.google.ical.util.PackedDates;
+import com.google.ical.util.TimeUtils;
 import com.google.ical.values.DateValue;
 import com.google.ical.values.TimeValue;
 
@@ -53,30 +56,60 @@ import com.google.ical.values.TimeValue;
  * <p>The conversion to GMT is also an implementation detail, so it's not clear
  * which timezone we should consider midnight in, and a total ordering allows
  * us to avoid timezone conversions during iteration.</p>
+ * <p>The comparable values double as the packed representation of dates used
+ * by {@link PackedRecurrenceIterator}, and are described at
+ * {@link PackedDates}.</p>
  *
  * @author mikesamuel+svn@gmail.com (Mike Samuel)
  */
-final class DateValueComparison {
+public final class DateValueComparison {
 
   /**
    * reduces a date to a value that can be easily compared to others, consistent
    * with {@link com.google.ical.values.DateValueImpl#compareTo}.
    */
-  static long comparable(DateValue dv) {
-    long comp = (((((long) dv.year()) << 4) + dv.month()) << 5) + dv.day();
-    if (dv instanceof TimeValue) {
-      TimeValue tv = (TimeValue) dv;
-      // We add 1 to comparable for timed values to make sure that timed
-      // events are distinct from all-day events, in keeping with
-      // DateValue.compareTo.
+  public static long comparable(DateValue dv) {
+    return PackedDates.pack(dv);
+  }
+
+  /** the comparable for a date without a time. */
+  static long comparable(int year, int month, int day) {
+    return PackedDates.packDate(year, month, day);
+  }
 
-      // It would be odd if an all day exclusion matched a midnight event on
-      // the same day, but not one at another time of day.
-      return (((((comp << 5) + tv.hour()) << 6) + tv.minute()) << 6)
-        +  tv.second() + 1;
-    } else {
-      return comp << 17;
+  /** the comparable for a date-time. */
+  static long comparable(
+      int year, int month, int day, int hour, int minute, int second) {
+    // It would be odd if an all day exclusion matched a midnight event on
+    // the same day, but not one at another time of day, so timed values are
+    // distinct from all-day events, in keeping with DateValue.compareTo.
+    return PackedDates.packDateTime(year, month, day, hour, minute, second);
+  }
+
+  /**
+   * the inverse of {@link #comparable(DateValue)}.
+   * @return a {@link TimeValue} iff the comparable was derived from one.
+   */
+  public static DateValue fromComparable(long comparable) {
+    return PackedDates.unpack(comparable);
+  }
+
+  /**
+   * the {@link TimeUtils#secsSinceEpoch seconds since the epoch} of a
+   * comparable, treating a date without a time as midnight.
+   * The seconds may overflow into the next minute, as for one more than the
+   * comparable of a time, so the fields are normalized first.
+   */
+  static long secsSinceEpoch(long comparable) {
+    DTBuilder b = new DTBuilder(
+        PackedDates.year(comparable), PackedDates.month(comparable),
+        PackedDates.day(comparable), 0, 0, 0);
+    if (PackedDates.isTimed(comparable)) {
+      b.hour = PackedDates.hour(comparable);
+      b.minute = PackedDates.minute(comparable);
+      b.second = PackedDates.second(comparable);
     }
+    return TimeUtils.secsSinceEpoch(b.toDateTime());
   }
 
   private DateValueComparison() {
@@ -15,14 +15,14 @@
 package com.google.ical.iter;
 
 import com.google.ical.values.DateValue;
-import com.google.ical.values.TimeValue;
 import com.google.ical.values.Weekday;
 import com.google.ical.values.WeekdayNum;
 import com.google.ical.util.DTBuilder;
-import com.google.ical.util.Predicate;
-import com.google.ical.util.Predicates;
+import com.google.ical.util.PackedDates;
 import com.google.ical.util.TimeUtils;
 
+import java.util.List;
+
 
 /**
  * predicates used to filter out dates produced by a generator that do not
@@ -35,6 +35,11 @@ import com.google.ical.util.TimeUtils;
  * <p>A filter returns true to indicate the item is included in the
  * recurrence.</p>
  *
+ * <p>Filters are applied to every candidate date, most of which they reject,
+ * so they operate on the packed form produced by
+ * {@link DateValueComparison#comparable} to avoid allocating a DateValue per
+ * candidate.</p>
+ *
  * @author mikesamuel+svn@gmail.com (Mike Samuel)
  */
 class Filters {
@@ -45,28 +50,31 @@ class Filters {
    * @param weeksInYear are the week numbers meant to be weeks in the
    *   current year, or weeks in the current month.
    */
-  static Predicate<DateValue> byDayFilter(
+  static PackedPredicate byDayFilter(
       final WeekdayNum[] days, final boolean weeksInYear, final Weekday wkst) {
-    return new Predicate<DateValue>() {
-        public boolean apply(DateValue date) {
-          Weekday dow = Weekday.valueOf(date);
+    return new PackedPredicate() {
+        @Override
+        boolean applyPacked(long date) {
+          int year = PackedDates.year(date),
+              month = PackedDates.month(date),
+              day = PackedDates.day(date);
+          int fixedDay = TimeUtils.fixedFromGregorian(year, month, day);
+          Weekday dow = weekdayOf(fixedDay);
 
           int nDays;
-          // first day of the week in the given year or month
-          Weekday dow0;
           // where does date appear in the year or month?
           // in [0, lengthOfMonthOrYear - 1]
           int instance;
           if (weeksInYear) {
-            nDays = TimeUtils.yearLength(date.year());
-            dow0 = Weekday.firstDayOfWeekInMonth(date.year(), 1);
-            instance = TimeUtils.dayOfYear(
-                date.year(), date.month(), date.day());
+            nDays = TimeUtils.yearLength(year);
+            instance = TimeUtils.dayOfYear(year, month, day);
           } else {
-            nDays = TimeUtils.monthLength(date.year(), date.month());
-            dow0 = Weekday.firstDayOfWeekInMonth(date.year(), date.month());
-            instance = date.day() - 1;
+            nDays = TimeUtils.monthLength(year, month);
+            instance = day - 1;
           }
+          // first day of the week in the given year or month, which is
+          // instance days before date.
+          Weekday dow0 = weekdayOf(fixedDay - instance);
 
           // which week of the year or month does this date fall on?
           // one-indexed
@@ -87,14 +95,14 @@ class Filters {
           // a FREQ=YEARLY rule?
 
           for (int i = days.length; --i >= 0;) {
-            WeekdayNum day = days[i];
+            WeekdayNum wdayNum = days[i];
 
-            if (day.wday == dow) {
-              int weekNo = day.num;
+            if (wdayNum.wday == dow) {
+              int weekNo = wdayNum.num;
               if (0 == weekNo) { return true; }
 
               if (weekNo < 0) {
-                weekNo = Util.invertWeekdayNum(day, dow0, nDays);
+                weekNo = Util.invertWeekdayNum(wdayNum, dow0, nDays);
               }
 
               if (dateWeekNo == weekNo) { return true; }
@@ -109,14 +117,17 @@ class Filters {
    * constructs a day filter based on a BYDAY rule.
    * @param monthDays days of the month in [-31, 31] != 0
    */
-  static Predicate<DateValue> byMonthDayFilter(final int[] monthDays) {
-    return new Predicate<DateValue>() {
-      public boolean apply(DateValue date) {
-        int nDays = TimeUtils.monthLength(date.year(), date.month());
+  static PackedPredicate byMonthDayFilter(final int[] monthDays) {
+    return new PackedPredicate() {
+      @Override
+      boolean applyPacked(long date) {
+        int nDays = TimeUtils.monthLength(
+            PackedDates.year(date), PackedDates.month(date));
+        int dateDay = PackedDates.day(date);
         for (int i = monthDays.length; --i >= 0;) {
           int day = monthDays[i];
           if (day < 0) { day += nDays + 1; }
-          if (day == date.day()) { return true; }
+          if (day == dateDay) { return true; }
         }
         return false;
       }
@@ -130,20 +141,28 @@ class Filters {
    * @param wkst day of the week that the week starts on.
    * @param dtStart non null
    */
-  static Predicate<DateValue> weekIntervalFilter(
+  static PackedPredicate weekIntervalFilter(
       final int interval, final Weekday wkst, final DateValue dtStart) {
-    return new Predicate<DateValue>() {
-      DateValue wkStart;
+    return new PackedPredicate() {
+      /**
+       * the latest day with day of week wkst on or before dtStart as a
+       * {@link TimeUtils#fixedFromGregorian fixed} day.
+       */
+      final int wkStart;
       {
-        // the latest day with day of week wkst on or before dtStart
         DTBuilder wkStartB = new DTBuilder(dtStart);
         wkStartB.day -=
           (7 + Weekday.valueOf(dtStart).javaDayNum - wkst.javaDayNum) % 7;
-        wkStart = wkStartB.toDate();
+        DateValue wkStartDate = wkStartB.toDate();
+        wkStart = TimeUtils.fixedFromGregorian(
+            wkStartDate.year(), wkStartDate.month(), wkStartDate.day());
       }
 
-      public boolean apply(DateValue date) {
-        int daysBetween = TimeUtils.daysBetween(date, wkStart);
+      @Override
+      boolean applyPacked(long date) {
+        int daysBetween = TimeUtils.fixedFromGregorian(
+            PackedDates.year(date), PackedDates.month(date),
+            PackedDates.day(date)) - wkStart;
         if (daysBetween < 0) {
           // date must be before dtStart.  Shouldn't occur in practice.
           daysBetween += (interval * 7 * (1 + daysBetween / (-7 * interval)));
@@ -161,18 +180,18 @@ class Filters {
    * constructs an hour filter based on a BYHOUR rule.
    * @param hours hours of the day in [0, 23]
    */
-  static Predicate<DateValue> byHourFilter(int[] hours) {
+  static PackedPredicate byHourFilter(int[] hours) {
     int hoursByBit = 0;
     for (int hour : hours) { hoursByBit |= 1 << hour; }
     if ((hoursByBit & LOW_24_BITS) == LOW_24_BITS) {
-      return Predicates.alwaysTrue();
+      return PackedPredicate.ALWAYS_TRUE;
     }
     final int bitField = hoursByBit;
-    return new Predicate<DateValue>() {
-      public boolean apply(DateValue date) {
-        if (!(date instanceof TimeValue)) { return false; }
-        TimeValue tv = (TimeValue) date;
-        return (bitField & (1 << tv.hour())) != 0;
+    return new PackedPredicate() {
+      @Override
+      boolean applyPacked(long date) {
+        if (!PackedDates.isTimed(date)) { return false; }
+        return (bitField & (1 << PackedDates.hour(date))) != 0;
       }
     };
   }
@@ -181,18 +200,18 @@ class Filters {
    * constructs a minute filter based on a BYMINUTE rule.
    * @param minutes minutes of the hour in [0, 59]
    */
-  static Predicate<DateValue> byMinuteFilter(int[] minutes) {
+  static PackedPredicate byMinuteFilter(int[] minutes) {
     long minutesByBit = 0;
     for (int minute : minutes) { minutesByBit |= 1L << minute; }
     if ((minutesByBit & LOW_60_BITS) == LOW_60_BITS) {
-      return Predicates.alwaysTrue();
+      return PackedPredicate.ALWAYS_TRUE;
     }
     final long bitField = minutesByBit;
-    return new Predicate<DateValue>() {
-      public boolean apply(DateValue date) {
-        if (!(date instanceof TimeValue)) { return false; }
-        TimeValue tv = (TimeValue) date;
-        return (bitField & (1L << tv.minute())) != 0;
+    return new PackedPredicate() {
+      @Override
+      boolean applyPacked(long date) {
+        if (!PackedDates.isTimed(date)) { return false; }
+        return (bitField & (1L << PackedDates.minute(date))) != 0;
       }
     };
   }
@@ -202,22 +221,63 @@ class Filters {
    * constructs a second filter based on a BYMINUTE rule.
    * @param seconds seconds of the minute in [0, 59]
    */
-  static Predicate<DateValue> bySecondFilter(int[] seconds) {
+  static PackedPredicate bySecondFilter(int[] seconds) {
     long secondsByBit = 0;
     for (int second : seconds) { secondsByBit |= 1L << second; }
     if ((secondsByBit & LOW_60_BITS) == LOW_60_BITS) {
-      return Predicates.alwaysTrue();
+      return PackedPredicate.ALWAYS_TRUE;
     }
     final long bitField = secondsByBit;
-    return new Predicate<DateValue>() {
-      public boolean apply(DateValue date) {
-        if (!(date instanceof TimeValue)) { return false; }
-        TimeValue tv = (TimeValue) date;
-        return (bitField & (1L << tv.second())) != 0;
+    return new PackedPredicate() {
+      @Override
+      boolean applyPacked(long date) {
+        if (!PackedDates.isTimed(date)) { return false; }
+        return (bitField & (1L << PackedDates.second(date))) != 0;
       }
     };
   }
 
+  /**
+   * a filter that passes only dates that pass every one of the given filters.
+   * @param filters non null without null elements.
+   */
+  static PackedPredicate and(List<PackedPredicate> filters) {
+    int n = 0;
+    PackedPredicate[] components = new PackedPredicate[filters.size()];
+    for (PackedPredicate filter : filters) {
+      if (filter != PackedPredicate.ALWAYS_TRUE) { components[n++] = filter; }
+    }
+    switch (n) {
+      case 0: return PackedPredicate.ALWAYS_TRUE;
+      case 1: return components[0];
+      default:
+        final PackedPredicate[] all = new PackedPredicate[n];
+        System.arraycopy(components, 0, all, 0, n);
+        return new PackedPredicate() {
+          @Override
+          boolean applyPacked(long date) {
+            for (PackedPredicate filter : all) {
+              if (!filter.applyPacked(date)) { return false; }
+            }
+            return true;
+          }
+        };
+    }
+  }
+
+  /**
+   * the day of the week of the given {@link TimeUtils#fixedFromGregorian fixed
+   * day} without allocating a DateValue.
+   */
+  private static Weekday weekdayOf(int fixedDay) {
+    int dayIndex = fixedDay % 7;
+    if (dayIndex < 0) { dayIndex += 7; }
+    return WEEKDAYS[dayIndex];
+  }
+
+  /** indexed by {@link Weekday#ordinal}. */
+  private static final Weekday[] WEEKDAYS = Weekday.values();
+
   private Filters() {
     // uninstantiable
   }
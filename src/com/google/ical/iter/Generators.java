@@ -15,9 +15,9 @@
 package com.google.ical.iter;
 
 import com.google.ical.util.DTBuilder;
+import com.google.ical.util.RuleParts;
 import com.google.ical.util.TimeUtils;
 import com.google.ical.values.DateValue;
-import com.google.ical.values.DateValueImpl;
 import com.google.ical.values.TimeValue;
 import com.google.ical.values.Weekday;
 import com.google.ical.values.WeekdayNum;
@@ -39,7 +39,7 @@ final class Generators {
    * a span of 400 years before giving up and concluding that the rule generates
    * no usable dates.
    */
-  private static final int MAX_YEARS_BETWEEN_INSTANCES = 100;
+  static final int MAX_YEARS_BETWEEN_INSTANCES = 100;
 
   /**
    * constructs a generator that generates years successively counting from the
@@ -161,9 +161,8 @@ final class Generators {
               // Calculate the number of days between the first of the new
               // month andthe old date and extend it to make it an integer
               // multiple of interval
-              int daysBetween = TimeUtils.daysBetween(
-                  new DateValueImpl(builder.year, builder.month, 1),
-                  new DateValueImpl(year, month, date));
+              int daysBetween =
+                  builder.daysBetween(year, month, date) - (builder.day - 1);
               ndate = ((interval - (daysBetween % interval)) % interval) + 1;
               if (ndate > nDays) {
                 // need to early out without updating year or month so that the
@@ -209,8 +208,8 @@ final class Generators {
         int nhour;
         if (day != builder.day || month != builder.month
             || year != builder.year) {
-          int hoursBetween = daysBetween(
-              builder, year, month, day) * 24 - hour;
+          int hoursBetween =
+              builder.daysBetween(year, month, day) * 24 - hour;
           nhour = ((interval - (hoursBetween % interval)) % interval);
           if (nhour > 23) {
             // Don't update day so that the difference calculation above is
@@ -260,9 +259,8 @@ final class Generators {
         int nminute;
         if (hour != builder.hour || day != builder.day || month != builder.month
             || year != builder.year) {
-          int minutesBetween = (daysBetween(
-              builder, year, month, day) * 24 + builder.hour - hour) * 60
-              - minute;
+          int minutesBetween = (builder.daysBetween(year, month, day) * 24
+              + builder.hour - hour) * 60 - minute;
           nminute = ((interval - (minutesBetween % interval)) % interval);
           if (nminute > 59) {
             // Don't update day so that the difference calculation above is
@@ -319,9 +317,9 @@ final class Generators {
         if (minute != builder.minute || hour != builder.hour
             || day != builder.day || month != builder.month
             || year != builder.year) {
-          int secondsBetween = ((daysBetween(
-              builder, year, month, day) * 24 + builder.hour - hour) * 60
-              + builder.minute - minute) * 60 - second ;
+          int secondsBetween = ((builder.daysBetween(year, month, day) * 24
+              + builder.hour - hour) * 60 + builder.minute - minute) * 60
+              - second;
           nsecond = ((interval - (secondsBetween % interval)) % interval);
           if (nsecond > 59) {
             // Don't update day so that the difference calculation above is
@@ -353,7 +351,7 @@ final class Generators {
    * constructs a generator that yields the specified years in increasing order.
    */
   static Generator byYearGenerator(int[] years, final DateValue dtStart) {
-    final int[] uyears = Util.uniquify(years);
+    final int[] uyears = RuleParts.uniquify(years);
 
     // index into years
     return new Generator() {
@@ -381,7 +379,7 @@ final class Generators {
    * @param dtStart non null
    */
   static Generator byMonthGenerator(int[] months, final DateValue dtStart) {
-    final int[] umonths = Util.uniquify(months);
+    final int[] umonths = RuleParts.uniquify(months);
 
     return new Generator() {
         int i;
@@ -414,7 +412,7 @@ final class Generators {
   static Generator byHourGenerator(int[] hours, final DateValue dtStart) {
     int startHour = dtStart instanceof TimeValue
         ? ((TimeValue) dtStart).hour() : 0;
-    hours = Util.uniquify(hours);
+    hours = RuleParts.uniquify(hours);
     if (hours.length == 0) {
       hours = new int[] { startHour };
     }
@@ -489,7 +487,7 @@ final class Generators {
    */
   static Generator byMinuteGenerator(
       int[] minutes, final DateValue dtStart) {
-    minutes = Util.uniquify(minutes);
+    minutes = RuleParts.uniquify(minutes);
     if (minutes.length == 0) {
       minutes = new int[] {
           dtStart instanceof TimeValue ? ((TimeValue) dtStart).minute() : 0
@@ -571,7 +569,7 @@ final class Generators {
    */
   static Generator bySecondGenerator(
       int[] seconds, final DateValue dtStart) {
-    seconds = Util.uniquify(seconds);
+    seconds = RuleParts.uniquify(seconds);
     if (seconds.length == 0) {
       seconds = new int[] {
           dtStart instanceof TimeValue ? ((TimeValue) dtStart).second() : 0
@@ -661,21 +659,17 @@ final class Generators {
    * @param dtStart non null
    */
   static Generator byMonthDayGenerator(int[] dates, final DateValue dtStart) {
-    final int[] udates = Util.uniquify(dates);
-
-    return new Generator() {
-        int year = dtStart.year();
-        int month = dtStart.month();
-        /** list of generated dates for the current month */
-        int[] posDates;
-        /** index of next date to return */
-        int i = 0;
+    return maskedDayGenerator(
+        byMonthDayMasks(dates), dtStart, false, "byMonthDayGenerator");
+  }
 
-        {
-          convertDatesToAbsolute();
-        }
+  /** the days yielded by {@link #byMonthDayGenerator}. */
+  static YearShapeMasks byMonthDayMasks(int[] dates) {
+    final int[] udates = RuleParts.uniquify(dates);
 
-        private void convertDatesToAbsolute() {
+    return new YearShapeMasks(new YearShapeMasks.MonthDays() {
+        @Override
+        int[] daysIn(int year, int month) {
           IntSet posDates = new IntSet();
           int nDays = TimeUtils.monthLength(year, month);
           for (int j = 0; j < udates.length; ++j) {
@@ -687,27 +681,9 @@ final class Generators {
               posDates.add(date);
             }
           }
-          this.posDates = posDates.toIntArray();
+          return posDates.toIntArray();
         }
-
-        @Override
-        boolean generate(DTBuilder builder) {
-          if (year != builder.year || month != builder.month) {
-            year = builder.year;
-            month = builder.month;
-
-            convertDatesToAbsolute();
-
-            i = 0;
-          }
-          if (i >= posDates.length) { return false; }
-          builder.day = posDates[i++];
-          return true;
-        }
-
-        @Override
-        public String toString() { return "byMonthDayGenerator"; }
-      };
+      });
   }
 
   /**
@@ -720,46 +696,43 @@ final class Generators {
    * @param dtStart non null
    */
   static Generator byDayGenerator(
-      WeekdayNum[] days, final boolean weeksInYear, final DateValue dtStart) {
-    final WeekdayNum[] udays = days.clone();
-
-    return new Generator() {
-        int year = dtStart.year();
-        int month = dtStart.month();
-        /** list of generated dates for the current month */
-        int[] dates;
-        /** index of next date to return */
-        int i = 0;
+      WeekdayNum[] days, boolean weeksInYear, DateValue dtStart) {
+    return maskedDayGenerator(
+        byDayMasks(days, weeksInYear), dtStart, true,
+        byDayGeneratorName(days, weeksInYear));
+  }
 
-        {
-          generateDates();
-          int day = dtStart.day();
-          while (i < dates.length && dates[i] < day) { ++i; }
-        }
+  /** the days yielded by {@link #byDayGenerator}. */
+  static YearShapeMasks byDayMasks(
+      WeekdayNum[] days, final boolean weeksInYear) {
+    final WeekdayNum[] udays = days.clone();
 
-        void generateDates() {
+    return new YearShapeMasks(new YearShapeMasks.MonthDays() {
+        @Override
+        int[] daysIn(int year, int month) {
           int nDays;
           Weekday dow0;
           int nDaysInMonth = TimeUtils.monthLength(year, month);
+          DTBuilder month1 = new DTBuilder(year, month, 1);
           // index of the first day of the month in the month or year
           int d0;
 
           if (weeksInYear) {
             nDays = TimeUtils.yearLength(year);
-            dow0 = Weekday.firstDayOfWeekInMonth(year, 1);
-            d0 = TimeUtils.dayOfYear(year, month, 1);
+            dow0 = month1.firstDayOfWeekInYear();
+            d0 = month1.dayOfYear();
           } else {
             nDays = nDaysInMonth;
-            dow0 = Weekday.firstDayOfWeekInMonth(year, month);
+            dow0 = month1.firstDayOfWeekInMonth();
             d0 = 0;
           }
 
-          // an index not greater than the first week of the month in the month
-          // or year
+          // an index not greater than the first week of the month in the
+          // month or year
           int w0 = d0 / 7;
 
-          // iterate through days and resolve each [week, day of week] pair to a
-          // day of the month
+          // iterate through days and resolve each [week, day of week] pair
+          // to a day of the month
           IntSet udates = new IntSet();
           for (int j = 0; j < udays.length; ++j) {
             WeekdayNum day = udays[j];
@@ -776,30 +749,15 @@ final class Generators {
               }
             }
           }
-          dates = udates.toIntArray();
-        }
-
-        @Override
-        boolean generate(DTBuilder builder) {
-          if (year != builder.year || month != builder.month) {
-            year = builder.year;
-            month = builder.month;
-
-            generateDates();
-            // start at the beginning of the month
-            i = 0;
-          }
-          if (i >= dates.length) { return false; }
-          builder.day = dates[i++];
-          return true;
+          return udates.toIntArray();
         }
+      });
+  }
 
-        @Override
-        public String toString() {
-          return "byDayGenerator:" + Arrays.toString(udays)
-              + " by " + (weeksInYear ? "year" : "week");
-        }
-      };
+  /** the name of a {@link #byDayGenerator} for debugging. */
+  static String byDayGeneratorName(WeekdayNum[] days, boolean weeksInYear) {
+    return "byDayGenerator:" + Arrays.toString(days)
+        + " by " + (weeksInYear ? "year" : "week");
   }
 
   /**
@@ -810,57 +768,45 @@ final class Generators {
    * @param dtStart non null
    */
   static Generator byWeekNoGenerator(
-      int[] weekNos, final Weekday wkst, final DateValue dtStart) {
-    final int[] uWeekNos = Util.uniquify(weekNos);
-
-    return new Generator() {
-        int year = dtStart.year();
-        int month = dtStart.month();
-        /** number of weeks in the last year seen */
-        int weeksInYear;
-        /** dates generated anew for each month seen */
-        int[] dates;
-        /** index into dates */
-        int i = 0;
-
-        /**
-         * day of the year of the start of week 1 of the current year.
-         * Since week 1 may start on the previous year, this may be negative.
-         */
-        int doyOfStartOfWeek1;
+      int[] weekNos, Weekday wkst, DateValue dtStart) {
+    return maskedDayGenerator(
+        byWeekNoMasks(weekNos, wkst), dtStart, false, "byWeekNoGenerator");
+  }
 
-        {
-          checkYear();
-          checkMonth();
-        }
+  /** the days yielded by {@link #byWeekNoGenerator}. */
+  static YearShapeMasks byWeekNoMasks(int[] weekNos, final Weekday wkst) {
+    final int[] uWeekNos = RuleParts.uniquify(weekNos);
 
-        void checkYear() {
+    return new YearShapeMasks(new YearShapeMasks.MonthDays() {
+        @Override
+        int[] daysIn(int year, int month) {
+          DTBuilder month1 = new DTBuilder(year, month, 1);
           // if the first day of jan is wkst, then there are 7.
           // if the first day of jan is wkst + 1, then there are 6
           // if the first day of jan is wkst + 6, then there is 1
-          Weekday dowJan1 = Weekday.firstDayOfWeekInMonth(year, 1);
+          Weekday dowJan1 = month1.firstDayOfWeekInYear();
           int nDaysInFirstWeek =
             7 - ((7 + dowJan1.javaDayNum - wkst.javaDayNum) % 7);
           // number of days not in any week
           int nOrphanedDays = 0;
           // according to RFC 2445
-          //     Week number one of the calendar year is the first week which
-          //     contains at least four (4) days in that calendar year.
+          //     Week number one of the calendar year is the first week
+          //     which contains at least four (4) days in that calendar
+          //     year.
           if (nDaysInFirstWeek < 4) {
             nOrphanedDays = nDaysInFirstWeek;
             nDaysInFirstWeek = 7;
           }
 
-          // calculate the day of year (possibly negative) of the start of the
-          // first week in the year.  This day must be of wkst.
-          doyOfStartOfWeek1 = nDaysInFirstWeek - 7 + nOrphanedDays;
+          // calculate the day of year (possibly negative) of the start of
+          // the first week in the year.  This day must be of wkst.
+          int doyOfStartOfWeek1 = nDaysInFirstWeek - 7 + nOrphanedDays;
 
-          weeksInYear = (TimeUtils.yearLength(year) - nOrphanedDays + 6) / 7;
-        }
+          int weeksInYear =
+            (TimeUtils.yearLength(year) - nOrphanedDays + 6) / 7;
 
-        void checkMonth() {
           // the day of the year of the 1st day in the month
-          int doyOfMonth1 = TimeUtils.dayOfYear(year, month, 1);
+          int doyOfMonth1 = month1.dayOfYear();
           // the week of the year of the 1st day of the month.  approximate.
           int weekOfMonth = ((doyOfMonth1 - doyOfStartOfWeek1) / 7) + 1;
           // number of days in the month
@@ -875,41 +821,17 @@ final class Generators {
             }
             if (weekNo >= weekOfMonth - 1 && weekNo <= weekOfMonth + 6) {
               for (int d = 0; d < 7; ++d) {
-                int date =
-                  ((weekNo - 1) * 7 + d + doyOfStartOfWeek1 - doyOfMonth1) + 1;
+                int date = ((weekNo - 1) * 7 + d + doyOfStartOfWeek1
+                            - doyOfMonth1) + 1;
                 if (date >= 1 && date <= nDays) {
                   udates.add(date);
                 }
               }
             }
           }
-          dates = udates.toIntArray();
+          return udates.toIntArray();
         }
-
-        @Override
-        boolean generate(DTBuilder builder) {
-
-          // this is a bit odd, since we're generating days within the given
-          // weeks of the year within the month/year from builder
-          if (year != builder.year || month != builder.month) {
-            if (year != builder.year) {
-              year = builder.year;
-              checkYear();
-            }
-            month = builder.month;
-            checkMonth();
-
-            i = 0;
-          }
-
-          if (i >= dates.length) { return false; }
-          builder.day = dates[i++];
-          return true;
-        }
-
-        @Override
-        public String toString() { return "byWeekNoGenerator"; }
-      };
+      });
   }
 
   /**
@@ -917,20 +839,20 @@ final class Generators {
    * fall on one of the given days of the year.
    * @param yearDays elements in [-366,366] != 0
    */
-  static Generator byYearDayGenerator(int[] yearDays, final DateValue dtStart) {
-    final int[] uYearDays = Util.uniquify(yearDays);
-
-    return new Generator() {
-        int year = dtStart.year();
-        int month = dtStart.month();
-        int[] dates;
-        int i = 0;
+  static Generator byYearDayGenerator(int[] yearDays, DateValue dtStart) {
+    return maskedDayGenerator(
+        byYearDayMasks(yearDays), dtStart, false, "byYearDayGenerator");
+  }
 
-        { checkMonth(); }
+  /** the days yielded by {@link #byYearDayGenerator}. */
+  static YearShapeMasks byYearDayMasks(int[] yearDays) {
+    final int[] uYearDays = RuleParts.uniquify(yearDays);
 
-        void checkMonth() {
+    return new YearShapeMasks(new YearShapeMasks.MonthDays() {
+        @Override
+        int[] daysIn(int year, int month) {
           // now, calculate the first week of the month
-          int doyOfMonth1 = TimeUtils.dayOfYear(year, month, 1);
+          int doyOfMonth1 = new DTBuilder(year, month, 1).dayOfYear();
           int nDays = TimeUtils.monthLength(year, month);
           int nYearDays = TimeUtils.yearLength(year);
           IntSet udates = new IntSet();
@@ -940,39 +862,71 @@ final class Generators {
             int date = yearDay - doyOfMonth1;
             if (date >= 1 && date <= nDays) { udates.add(date); }
           }
-          dates = udates.toIntArray();
+          return udates.toIntArray();
+        }
+      });
+  }
+
+  /**
+   * constructs a day generator that yields, in increasing order, the days in
+   * each month seen that are set in the mask for the month's year.
+   * @param masks the days to generate for each shape of year.
+   * @param dtStart non null.
+   * @param skipBeforeDtStart true to skip days before dtStart in the month
+   *   containing dtStart.
+   * @param name used by toString.
+   */
+  static Generator maskedDayGenerator(
+      final YearShapeMasks masks, final DateValue dtStart,
+      final boolean skipBeforeDtStart, final String name) {
+    return new Generator() {
+        int year = dtStart.year();
+        int month = dtStart.month();
+        /** the mask for year. */
+        long[] mask = masks.maskForYear(year);
+        /** the day of the year of the first of the month. */
+        int doyOfMonth1 = TimeUtils.dayOfYear(year, month, 1);
+        /** the day of the year after the end of the month. */
+        int doyLimit = doyOfMonth1 + TimeUtils.monthLength(year, month);
+        /** the day of the year of the next candidate. */
+        int doy = doyOfMonth1;
+
+        {
+          if (skipBeforeDtStart) {
+            doy += dtStart.day() - 1;
+          }
         }
 
         @Override
         boolean generate(DTBuilder builder) {
           if (year != builder.year || month != builder.month) {
-            year = builder.year;
+            if (year != builder.year) {
+              year = builder.year;
+              mask = masks.maskForYear(year);
+            }
             month = builder.month;
-
-            checkMonth();
-
-            i = 0;
+            // The builder's day is not yet set, but only its year and month
+            // need be normalized.
+            doyOfMonth1 = builder.dayOfYear() - (builder.day - 1);
+            doyLimit = doyOfMonth1 + TimeUtils.monthLength(year, month);
+            // start at the beginning of the month
+            doy = doyOfMonth1;
+          }
+          int next = YearShapeMasks.nextSetBit(mask, doy, doyLimit);
+          if (next < 0) {
+            doy = doyLimit;
+            return false;
           }
-          if (i >= dates.length) { return false; }
-          builder.day = dates[i++];
+          doy = next + 1;
+          builder.day = next - doyOfMonth1 + 1;
           return true;
         }
 
         @Override
-        public String toString() { return "byYearDayGenerator"; }
+        public String toString() { return name; }
       };
   }
 
-  private static int daysBetween(
-      DTBuilder builder, int year, int month, int day) {
-    if (year == builder.year && month == builder.month) {
-      return builder.day - day;
-    } else {
-      return TimeUtils.daysBetween(
-          builder.year, builder.month, builder.day, year, month, day);
-    }
-  }
-
   private Generators() {
     // uninstantiable
   }
@@ -0,0 +1,794 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.iter;
+
+import com.google.ical.util.PackedDates;
+import com.google.ical.util.TimeUtils;
+import com.google.ical.util.TimeZoneTransitions;
+import com.google.ical.values.DateTimeValue;
+import com.google.ical.values.DateValue;
+import com.google.ical.values.Frequency;
+import com.google.ical.values.TimeValue;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/**
+ * counts the instances of a {@link RecurrencePlan} in a range of dates without
+ * generating them.
+ *
+ * <p>A plan without a BYSETPOS generates, in local time, the days in a
+ * {@link YearShapeMasks mask} or every few days from dtStart, in the months
+ * and years it selects, that pass its day filters, and on each such day the
+ * times that its hour, minute and second generators select.  Each of those is
+ * a set, or a serial generator yielding every interval-th unit counted from
+ * dtStart, and only the generator for the rule's frequency has an interval
+ * other than one.  So the instances on a day depend only on where the day
+ * falls relative to that interval, and the counter sums them a month at a
+ * time, caching the count for a whole day by its position.  When every
+ * generated day has the same count and no day filter applies, the whole days
+ * in a month are counted by popping the bits of its day mask, or by division
+ * for serial days.</p>
+ *
+ * <p>Only instances after the first instance of an iterator over the plan are
+ * counted this way, so that whatever the iterator does to find its first
+ * instance, near dtStart, need not be modelled.  Where iteration would not
+ * yield what the generators do, counts are given up on and
+ * {@link #UNKNOWN} returned: where the years without instances would trip the
+ * year generator's throttle, for dates outside the years 1 through 9999,
+ * and for timed rules in zones with daylight savings shifts, where the first
+ * instance is within two days of a shift, shifts are within two days of one
+ * another, or dates are outside the years that {@link TimeZoneTransitions}
+ * tabulates.  Elsewhere, when clocks spring forward, an instance just after
+ * the shift may convert to a time in UTC no later than the last instance
+ * before it, and is dropped as the iterator drops it.</p>
+ *
+ * <p>A counter remembers how far it has checked the throttle, so like the
+ * iterators it is not thread safe.</p>
+ *
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+final class InstanceCounter {
+
+  /** returned when instances can't be counted without generating them. */
+  static final long UNKNOWN = -1;
+
+  private final int startYear;
+  /** dtStart's year * 12 + month - 1. */
+  private final int startMonthIndex;
+  /** dtStart as a {@link TimeUtils#fixedFromGregorian fixed} day. */
+  private final int startDay;
+
+  /** the interval between the years generated. */
+  private final int yearInterval;
+  /** the interval of a serial month generator, or 0 to use months. */
+  private final int monthInterval;
+  /** months[m] is true iff month m is generated, if monthInterval is 0. */
+  private final boolean[] months;
+  /** the days generated, or null to generate every dayInterval days. */
+  private final YearShapeMasks dayMasks;
+  private final int dayInterval;
+  /** the filters that depend only on the date. */
+  private final PackedPredicate dayFilter;
+
+  /** bit h is set iff hour h may be generated and passes the filters. */
+  private final int hourMask;
+  /** bit m is set iff minute m may be generated and passes the filters. */
+  private final long minuteMask;
+  /** bit s is set iff second s may be generated and passes the filters. */
+  private final long secondMask;
+  /**
+   * the number of seconds in the unit of the serial time generator with an
+   * interval greater than one, or 0 if there is none.  That generator yields
+   * only the units that start a multiple of latticeSecs after latticeOrigin.
+   */
+  private final long latticeUnit;
+  private final long latticeSecs;
+  /** dtStart's local time truncated to latticeUnit. */
+  private final long latticeOrigin;
+  /** the number of instances on a whole day with a given phase. */
+  private final long[] dayCounts;
+  /**
+   * the number of days after which days are again in the same position
+   * relative to the time lattice, so have the same instances.
+   */
+  private final int dayPeriod;
+
+  /** true iff dtStart has a time. */
+  private final boolean timed;
+  /**
+   * the offsets of the zone, if instances are converted to UTC by it and it
+   * is not UTC, or null.
+   */
+  private final TimeZoneTransitions transitions;
+  /** the first instance, in local seconds since the epoch. */
+  private final long firstLocal;
+  /**
+   * the first instance in seconds since the epoch in UTC, or in local time
+   * if transitions is null.
+   */
+  private final long firstSecs;
+  private final int firstOffset;
+
+  /** the last year whose instances are known to be reached by iteration. */
+  private int checkedYear;
+  /** the last year up to checkedYear that has an instance after the first. */
+  private int productiveYear;
+  /** true if iteration would give up before the year after checkedYear. */
+  private boolean stalled;
+
+  /**
+   * @param dtStart the start of the series, from which serial generators
+   *   count.
+   * @param tzid the timezone that the plan converts local times from.
+   * @param yearInterval the interval of the year generator.
+   * @param monthInterval the interval of a serial month generator, or 0.
+   * @param byMonth the months generated if monthInterval is 0.
+   * @param dayMasks the days generated, or null.
+   * @param dayInterval the interval of a serial day generator if dayMasks is
+   *   null.
+   * @param dayFilter the filters that read only the date.
+   * @param freq the frequency of the rule.
+   * @param hourInterval the interval of a serial hour generator, or 0.
+   * @param byHour the hours generated if hourInterval is 0, or none for
+   *   dtStart's.
+   * @param minuteInterval like hourInterval.
+   * @param byMinute like byHour.
+   * @param secondInterval like hourInterval.
+   * @param bySecond like byHour.
+   * @param timeFilter the filter on the field that freq names, if any.
+   * @param firstUtc the first instance of an iterator over the plan as a
+   *   {@link DateValueComparison#comparable}.
+   * @param firstLocal that instance in local seconds since the epoch, with the
+   *   time it was generated at even if dtStart has no time.
+   */
+  InstanceCounter(
+      DateValue dtStart, TimeZone tzid, int yearInterval,
+      int monthInterval, int[] byMonth, YearShapeMasks dayMasks,
+      int dayInterval, PackedPredicate dayFilter, Frequency freq,
+      int hourInterval, int[] byHour, int minuteInterval, int[] byMinute,
+      int secondInterval, int[] bySecond, PackedPredicate timeFilter,
+      long firstUtc, long firstLocal) {
+    this.startYear = dtStart.year();
+    this.startMonthIndex = dtStart.year() * 12 + dtStart.month() - 1;
+    this.startDay = TimeUtils.fixedFromGregorian(
+        dtStart.year(), dtStart.month(), dtStart.day());
+    this.yearInterval = yearInterval;
+    this.monthInterval = monthInterval;
+    this.months = new boolean[13];
+    if (0 == monthInterval) {
+      for (int month : byMonth) { months[month] = true; }
+    }
+    this.dayMasks = dayMasks;
+    this.dayInterval = dayInterval;
+    this.dayFilter = dayFilter;
+
+    this.timed = dtStart instanceof TimeValue;
+    int hour0 = 0, minute0 = 0, second0 = 0;
+    if (timed) {
+      TimeValue tv = (TimeValue) dtStart;
+      hour0 = tv.hour();
+      minute0 = tv.minute();
+      second0 = tv.second();
+    }
+    int hours = (int) unitMask(24, hourInterval, byHour, hour0);
+    long minutes = unitMask(60, minuteInterval, byMinute, minute0);
+    long seconds = unitMask(60, secondInterval, bySecond, second0);
+    for (int i = 0; i < 60; ++i) {
+      // The time filter tests the field for the rule's frequency.
+      boolean passes;
+      switch (freq) {
+        case HOURLY:
+          passes = i >= 24 || timeFilter.applyPacked(
+              PackedDates.packDateTime(2000, 1, 1, i, 0, 0));
+          if (!passes) { hours &= ~(1 << i); }
+          break;
+        case MINUTELY:
+          passes = timeFilter.applyPacked(
+              PackedDates.packDateTime(2000, 1, 1, 0, i, 0));
+          if (!passes) { minutes &= ~(1L << i); }
+          break;
+        case SECONDLY:
+          passes = timeFilter.applyPacked(
+              PackedDates.packDateTime(2000, 1, 1, 0, 0, i));
+          if (!passes) { seconds &= ~(1L << i); }
+          break;
+        default:
+          assert PackedPredicate.ALWAYS_TRUE == timeFilter;
+      }
+    }
+    this.hourMask = hours;
+    this.minuteMask = minutes;
+    this.secondMask = seconds;
+
+    long dayStartSecs = (long) startDay * SECS_PER_DAY;
+    if (hourInterval > 1) {
+      latticeUnit = 60 * 60;
+      latticeSecs = latticeUnit * hourInterval;
+      latticeOrigin = dayStartSecs + hour0 * latticeUnit;
+    } else if (minuteInterval > 1) {
+      latticeUnit = 60;
+      latticeSecs = latticeUnit * minuteInterval;
+      latticeOrigin = dayStartSecs + (hour0 * 60 + minute0) * latticeUnit;
+    } else if (secondInterval > 1) {
+      latticeUnit = 1;
+      latticeSecs = secondInterval;
+      latticeOrigin = dayStartSecs + (hour0 * 60 + minute0) * 60 + second0;
+    } else {
+      latticeUnit = 0;
+      latticeSecs = 0;
+      latticeOrigin = 0;
+    }
+    long period = 0 != latticeSecs
+        ? latticeSecs / gcd(latticeSecs, SECS_PER_DAY) : 1;
+    this.dayPeriod = (int) Math.min(period, Integer.MAX_VALUE);
+    if (period <= MAX_CACHED_PHASES) {
+      this.dayCounts = new long[dayPeriod];
+      Arrays.fill(dayCounts, -1);
+    } else {
+      this.dayCounts = null;
+    }
+
+    this.transitions = timed && !tzid.hasSameRules(TimeUtils.utcTimezone())
+        ? TimeZoneTransitions.forZone(tzid) : null;
+    this.firstLocal = firstLocal;
+    if (null != transitions) {
+      this.firstSecs = DateValueComparison.secsSinceEpoch(firstUtc);
+      this.firstOffset = transitions.offsetFromUtc(firstSecs);
+    } else {
+      this.firstSecs = firstLocal;
+      this.firstOffset = 0;
+    }
+
+    int firstYear = TimeUtils.timeFromSecsSinceEpoch(firstLocal).year();
+    this.checkedYear = firstYear - yearInterval;
+    // Years generated before the first instance count towards the throttle
+    // until iteration produces another, so the gap is measured from the
+    // first year generated.
+    this.productiveYear = startYear - yearInterval;
+  }
+
+  /**
+   * true iff a counter can be built for the given generator parameters, which
+   * are as for the constructor.
+   */
+  static boolean canCount(
+      DateValue dtStart, int monthInterval, int[] byMonth,
+      int hourInterval, int[] byHour, int minuteInterval, int[] byMinute,
+      int secondInterval, int[] bySecond) {
+    int year = dtStart.year();
+    return year >= MIN_YEAR && year <= MAX_YEAR
+        && (0 != monthInterval || allIn(byMonth, 1, 12))
+        && (0 != hourInterval || allIn(byHour, 0, 23))
+        && (0 != minuteInterval || allIn(byMinute, 0, 59))
+        && (0 != secondInterval || allIn(bySecond, 0, 59));
+  }
+
+  /**
+   * the number of instances that the plan's iterators yield on or after from
+   * and before to, counting an instance each time it is yielded, or
+   * {@link #UNKNOWN}.
+   * @param from a {@link DateValueComparison#comparable}, or
+   *   {@link RRuleIteratorImpl#NO_DATE} to count from the first instance.
+   * @param to a {@link DateValueComparison#comparable}.
+   * @param limit counting stops once this many instances have been found, so
+   *   the result is at most limit.
+   */
+  long count(long from, long to, long limit) {
+    int toYear = PackedDates.year(to);
+    if (toYear > MAX_YEAR) { return UNKNOWN; }
+    if (toYear < MIN_YEAR || limit <= 0) { return 0; }
+    long lo = RRuleIteratorImpl.NO_DATE == from
+        || PackedDates.year(from) < MIN_YEAR
+        ? Long.MIN_VALUE : boundSecs(from);
+    long hi = boundSecs(to);
+    if (lo >= hi) { return 0; }
+
+    long n = lo <= firstSecs && firstSecs < hi ? 1 : 0;
+    long rest;
+    if (null == transitions) {
+      long afterFirst = Math.max(lo, firstLocal + 1);
+      rest = afterFirst < hi ? countLocal(afterFirst, hi, limit - n) : 0;
+    } else {
+      rest = countShifted(lo, hi, limit - n);
+    }
+    return UNKNOWN != rest ? Math.min(n + rest, limit) : UNKNOWN;
+  }
+
+  /**
+   * the seconds since the epoch, in UTC or in local time as for
+   * {@link #firstSecs}, before which an instance must fall to be less than
+   * the given comparable.
+   */
+  private long boundSecs(long comparable) {
+    if (timed) { return DateValueComparison.secsSinceEpoch(comparable); }
+    // A date sorts before any time on the same day, so an untimed instance
+    // is before a time iff it is on or before its day.
+    long day = TimeUtils.fixedFromGregorian(
+        PackedDates.year(comparable), PackedDates.month(comparable),
+        PackedDates.day(comparable));
+    return (PackedDates.isTimed(comparable) ? day + 1 : day) * SECS_PER_DAY;
+  }
+
+  /**
+   * counts the instances after the first that fall in [lo, hi) in UTC in a
+   * zone with transitions.
+   * The local times between two transitions convert to UTC by a single
+   * offset, so are counted locally, except that when the offset increases,
+   * the local times after the shift that convert to no later than the last
+   * instance before it are dropped.
+   */
+  private long countShifted(long lo, long hi, long limit) {
+    long limitSecs = hi + MARGIN_SECS;
+    if (transitions.nextTransition(
+            firstSecs - MARGIN_SECS, firstSecs + MARGIN_SECS)
+        != firstSecs + MARGIN_SECS) {
+      return UNKNOWN;
+    }
+    long n = 0;
+    // the local times from pieceStart until the next cut are converted by
+    // offset.
+    long pieceStart = firstLocal + 1;
+    int offset = firstOffset;
+    long transition = firstSecs;
+    if (Long.MIN_VALUE != lo) {
+      // The pieces before lo hold nothing to count, so start from the piece
+      // after the last transition before it, which is set up as the loop
+      // below would have left it.
+      long last = lastTransitionBefore(lo);
+      if (last > firstSecs + MARGIN_SECS) {
+        int before = transitions.offsetFromUtc(last - 1);
+        int after = transitions.offsetFromUtc(last);
+        long cut = cut(last, before, after);
+        if (UNKNOWN == cut) { return UNKNOWN; }
+        pieceStart = pieceStart(cut, before, after);
+        offset = after;
+        transition = last;
+      }
+    }
+    while (true) {
+      long next = transitions.nextTransition(transition, limitSecs);
+      if (next < 0) { return UNKNOWN; }
+      long cut = Long.MAX_VALUE;
+      int nextOffset = offset;
+      if (next != limitSecs) {
+        if (next - transition < MARGIN_SECS) { return UNKNOWN; }
+        nextOffset = transitions.offsetFromUtc(next);
+        cut = cut(next, offset, nextOffset);
+        if (UNKNOWN == cut) { return UNKNOWN; }
+      }
+
+      long start = Long.MIN_VALUE != lo
+          ? Math.max(pieceStart, lo + offset) : pieceStart;
+      long end = Math.min(cut, hi + offset);
+      if (start < end) {
+        long k = countLocal(start, end, limit - n);
+        if (UNKNOWN == k) { return UNKNOWN; }
+        n += k;
+        if (n >= limit) { break; }
+      }
+      // Local times after the cut convert to cut - nextOffset or later.
+      if (Long.MAX_VALUE == cut || cut - nextOffset >= hi) { break; }
+
+      pieceStart = pieceStart(cut, offset, nextOffset);
+      offset = nextOffset;
+      transition = next;
+    }
+    return n;
+  }
+
+  /**
+   * the first local time counted after a cut, which is the cut unless the
+   * offset increases there.
+   */
+  private long pieceStart(long cut, int before, int after) {
+    if (after > before) {
+      int shift = after - before;
+      long last = lastLocalBefore(cut, cut - shift);
+      if (Long.MIN_VALUE != last) { return Math.max(cut, last + shift + 1); }
+    }
+    return cut;
+  }
+
+  /**
+   * the last transition before utcSecs that is at least {@link #MARGIN_SECS}
+   * after the one before it, or -1 if there is none in the year before
+   * utcSecs or the transitions are not known.
+   */
+  private long lastTransitionBefore(long utcSecs) {
+    long last = -1;
+    // the transition before last, or where the search started
+    long prev = utcSecs - SECS_PER_YEAR;
+    for (long t = prev;
+         (t = transitions.nextTransition(t, utcSecs)) >= 0 && t < utcSecs;) {
+      if (last >= 0) { prev = last; }
+      last = t;
+    }
+    return last >= 0 && last - prev >= MARGIN_SECS ? last : -1;
+  }
+
+  /**
+   * the first local time that converts to UTC by the offset after a
+   * transition, or {@link #UNKNOWN} if the times on either side of it do not
+   * convert as expected.
+   * Local times skipped or repeated by the transition convert as a calendar
+   * converts them, which is consistently by one offset or the other.
+   */
+  private long cut(long transition, int before, int after) {
+    long cut = transition + Math.min(before, after);
+    if (!convertsAt(cut, before, after)) {
+      cut = transition + Math.max(before, after);
+      if (!convertsAt(cut, before, after)) { return UNKNOWN; }
+    }
+    return cut;
+  }
+
+  private boolean convertsAt(long cut, int before, int after) {
+    return transitions.offsetFromLocal(cut - 1) == before
+        && transitions.offsetFromLocal(cut) == after;
+  }
+
+  /**
+   * the number of instances at or after lo and before hi in local time,
+   * where lo is after the first instance, or {@link #UNKNOWN}.
+   */
+  private long countLocal(long lo, long hi, long limit) {
+    long n = 0;
+    int year = TimeUtils.timeFromSecsSinceEpoch(lo).year();
+    year += floorMod(startYear - year, yearInterval);
+    while (n < limit) {
+      long yearStart = yearStart(year);
+      if (yearStart >= hi) { break; }
+      if (!reachable(year)) { return UNKNOWN; }
+      n += countInYear(
+          year, Math.max(lo, yearStart), Math.min(hi, yearStart(year + 1)),
+          limit - n);
+      year += yearInterval;
+    }
+    return n;
+  }
+
+  /**
+   * true iff iteration reaches the instances in the given year without the
+   * year generator's throttle stopping it first.
+   */
+  private boolean reachable(int year) {
+    while (!stalled && checkedYear < year) {
+      int next = checkedYear + yearInterval;
+      long start = Math.max(yearStart(next), firstLocal + 1);
+      long end = yearStart(next + 1);
+      if (start < end && countInYear(next, start, end, 1) != 0) {
+        productiveYear = next;
+      } else if ((next - productiveYear) / yearInterval
+                 >= MAX_GENERATIONS_WITHOUT_INSTANCE) {
+        stalled = true;
+      }
+      checkedYear = next;
+    }
+    return !stalled;
+  }
+
+  /**
+   * counts the instances in [lo, hi), which are local times within the given
+   * year, which is generated.
+   */
+  private long countInYear(int year, long lo, long hi, long limit) {
+    int monthFrom = TimeUtils.timeFromSecsSinceEpoch(lo).month();
+    int monthTo = TimeUtils.timeFromSecsSinceEpoch(hi - 1).month();
+    long n = 0;
+    for (int month = monthFrom; month <= monthTo && n < limit; ++month) {
+      if (0 != monthInterval
+          ? 0 != floorMod(year * 12 + month - 1 - startMonthIndex,
+                          monthInterval)
+          : !months[month]) {
+        continue;
+      }
+      n += countInMonth(year, month, lo, hi, limit - n);
+    }
+    return n;
+  }
+
+  private long countInMonth(
+      int year, int month, long lo, long hi, long limit) {
+    int first = TimeUtils.fixedFromGregorian(year, month, 1);
+    int dayFrom = (int) Math.max(first, lo / SECS_PER_DAY);
+    int dayTo = (int) Math.min(
+        first + TimeUtils.monthLength(year, month),
+        (hi - 1) / SECS_PER_DAY + 1);
+    long perDay = wholeDayCount();
+    if (perDay < 0) {
+      return countOnDays(year, month, first, dayFrom, dayTo, lo, hi, limit);
+    }
+    // Every generated day has perDay instances, so the days that [lo, hi)
+    // covers whole need only be counted.
+    int wholeFrom = (int) Math.min(
+        Math.max(dayFrom, (lo + SECS_PER_DAY - 1) / SECS_PER_DAY), dayTo);
+    int wholeTo = (int) Math.max(Math.min(dayTo, hi / SECS_PER_DAY), wholeFrom);
+    long n = countOnDays(
+        year, month, first, dayFrom, wholeFrom, lo, hi, limit);
+    n += perDay * daysIn(year, month, first, wholeFrom, wholeTo);
+    if (n < limit) {
+      n += countOnDays(year, month, first, wholeTo, dayTo, lo, hi, limit - n);
+    }
+    return n;
+  }
+
+  /**
+   * counts the instances in [lo, hi) on the generated days in
+   * [dayFrom, dayTo), which are fixed days in the given month.
+   * @param first the fixed day of the first of the month.
+   */
+  private long countOnDays(
+      int year, int month, int first, int dayFrom, int dayTo, long lo, long hi,
+      long limit) {
+    long n = 0;
+    if (null != dayMasks) {
+      long[] mask = dayMasks.maskForYear(year);
+      // the day of the year minus the fixed day
+      int doyOffset = TimeUtils.dayOfYear(year, month, 1) - first;
+      int end = dayTo + doyOffset;
+      for (int doy = YearShapeMasks.nextSetBit(mask, dayFrom + doyOffset, end);
+           doy >= 0 && n < limit;
+           doy = YearShapeMasks.nextSetBit(mask, doy + 1, end)) {
+        n += countOnDay(year, month, doy - doyOffset, first, lo, hi);
+      }
+    } else {
+      for (int day = dayFrom + floorMod(startDay - dayFrom, dayInterval);
+           day < dayTo && n < limit; day += dayInterval) {
+        n += countOnDay(year, month, day, first, lo, hi);
+      }
+    }
+    return n;
+  }
+
+  /**
+   * the number of days in [dayFrom, dayTo), fixed days in the given month,
+   * that the day generators yield, before any day filters.
+   */
+  private int daysIn(int year, int month, int first, int dayFrom, int dayTo) {
+    if (dayFrom >= dayTo) { return 0; }
+    if (null != dayMasks) {
+      int doyOffset = TimeUtils.dayOfYear(year, month, 1) - first;
+      return YearShapeMasks.bitCount(
+          dayMasks.maskForYear(year), dayFrom + doyOffset, dayTo + doyOffset);
+    }
+    int day = dayFrom + floorMod(startDay - dayFrom, dayInterval);
+    return day < dayTo ? (dayTo - 1 - day) / dayInterval + 1 : 0;
+  }
+
+  /**
+   * the number of instances on every whole generated day, or -1 if that
+   * depends on the day, because of a day filter or because generated days
+   * fall in different positions relative to the time lattice.
+   */
+  private long wholeDayCount() {
+    if (PackedPredicate.ALWAYS_TRUE != dayFilter || null == dayCounts
+        || (1 != dayPeriod
+            && (null != dayMasks || 0 != dayInterval % dayPeriod))) {
+      return -1;
+    }
+    // Generated days are all in the same position as startDay.
+    long n = dayCounts[0];
+    if (n < 0) {
+      dayCounts[0] = n = timesIn(startDay, 0, (int) SECS_PER_DAY);
+    }
+    return n;
+  }
+
+  /**
+   * counts the instances in [lo, hi) on a generated day.
+   * @param day a fixed day in the given month.
+   * @param first the fixed day of the first of the month.
+   */
+  private long countOnDay(
+      int year, int month, int day, int first, long lo, long hi) {
+    if (PackedPredicate.ALWAYS_TRUE != dayFilter
+        && !dayFilter.applyPacked(
+            PackedDates.packDate(year, month, day - first + 1))) {
+      return 0;
+    }
+    long dayStart = day * SECS_PER_DAY;
+    int from = (int) Math.max(lo - dayStart, 0);
+    int to = (int) Math.min(hi - dayStart, SECS_PER_DAY);
+    if (0 != from || SECS_PER_DAY != to) {
+      return timesIn(day, from, to);
+    }
+    if (null == dayCounts) { return timesIn(day, 0, (int) SECS_PER_DAY); }
+    int phase = floorMod(day - startDay, dayPeriod);
+    long n = dayCounts[phase];
+    if (n < 0) { dayCounts[phase] = n = timesIn(day, 0, (int) SECS_PER_DAY); }
+    return n;
+  }
+
+  /**
+   * the number of times generated on the given fixed day that are at or
+   * after from and before to seconds into the day.
+   */
+  private long timesIn(int day, int from, int to) {
+    long n = 0;
+    if (0 == latticeUnit) {
+      for (int hour = from / 3600; hour * 3600 < to; ++hour) {
+        if (0 != (hourMask & (1 << hour))) {
+          n += minutesIn(
+              Math.max(from - hour * 3600, 0),
+              Math.min(to - hour * 3600, 3600));
+        }
+      }
+      return n;
+    }
+    // Step through the units that the serial generator yields.
+    int unit = (int) latticeUnit;
+    long dayStart = day * SECS_PER_DAY;
+    long unitStart = dayStart + from - from % unit;
+    for (long t = unitStart + floorMod(latticeOrigin - unitStart, latticeSecs);
+         t < dayStart + to; t += latticeSecs) {
+      int secs = (int) (t - dayStart);
+      if (0 == (hourMask & (1 << (secs / 3600)))) { continue; }
+      int a = Math.max(from - secs, 0);
+      int b = Math.min(to - secs, unit);
+      if (3600 == unit) {
+        n += minutesIn(a, b);
+      } else if (0 != (minuteMask & (1L << (secs / 60 % 60)))) {
+        n += 60 == unit
+            ? secondsIn(a, b) : (secondMask >> (secs % 60)) & 1;
+      }
+    }
+    return n;
+  }
+
+  /**
+   * the number of minutes and seconds generated from a seconds into an hour
+   * until b.
+   */
+  private long minutesIn(int a, int b) {
+    if (0 == a && 3600 == b) {
+      return Long.bitCount(minuteMask) * Long.bitCount(secondMask);
+    }
+    long n = 0;
+    for (int minute = a / 60; minute * 60 < b; ++minute) {
+      if (0 != (minuteMask & (1L << minute))) {
+        n += secondsIn(
+            Math.max(a - minute * 60, 0), Math.min(b - minute * 60, 60));
+      }
+    }
+    return n;
+  }
+
+  /** the number of seconds generated in [a, b) in a minute. */
+  private long secondsIn(int a, int b) {
+    long range = ((1L << b) - 1) & (-1L << a);
+    return Long.bitCount(secondMask & range);
+  }
+
+  /**
+   * the latest instance at or after start and before end, in local time, or
+   * Long.MIN_VALUE if none.  The range must be less than a few days long.
+   */
+  private long lastLocalBefore(long end, long start) {
+    for (long day = (end - 1) / SECS_PER_DAY; (day + 1) * SECS_PER_DAY > start;
+         --day) {
+      long dayStart = day * SECS_PER_DAY;
+      if (!isGeneratedDay((int) day)) { continue; }
+      long from = Math.max(start - dayStart, 0);
+      long secs = Math.min(end - dayStart, SECS_PER_DAY);
+      while (--secs >= from) {
+        if (isGeneratedTime(dayStart + secs)) { return dayStart + secs; }
+      }
+    }
+    return Long.MIN_VALUE;
+  }
+
+  /** true iff the given fixed day is generated and passes the filters. */
+  private boolean isGeneratedDay(int day) {
+    DateTimeValue date = TimeUtils.timeFromSecsSinceEpoch(
+        day * SECS_PER_DAY);
+    int year = date.year(), month = date.month();
+    if (0 != floorMod(year - startYear, yearInterval)) { return false; }
+    if (0 != monthInterval
+        ? 0 != floorMod(year * 12 + month - 1 - startMonthIndex,
+                        monthInterval)
+        : !months[month]) {
+      return false;
+    }
+    if (null != dayMasks) {
+      int doy = TimeUtils.dayOfYear(year, month, date.day());
+      if (0 == (dayMasks.maskForYear(year)[doy >> 6] & (1L << doy))) {
+        return false;
+      }
+    } else if (0 != floorMod(day - startDay, dayInterval)) {
+      return false;
+    }
+    return PackedPredicate.ALWAYS_TRUE == dayFilter
+        || dayFilter.applyPacked(
+            PackedDates.packDate(year, month, date.day()));
+  }
+
+  /** true iff a time is generated at the given local time on its day. */
+  private boolean isGeneratedTime(long local) {
+    int secs = (int) (local % SECS_PER_DAY);
+    if (0 == (hourMask & (1 << (secs / 3600)))
+        || 0 == (minuteMask & (1L << (secs / 60 % 60)))
+        || 0 == (secondMask & (1L << (secs % 60)))) {
+      return false;
+    }
+    return 0 == latticeUnit
+        || 0 == floorMod(local - local % latticeUnit - latticeOrigin,
+                         latticeSecs);
+  }
+
+  /**
+   * a mask of the units yielded by a serial generator with the given
+   * interval, which may yield any of the n units, or else of values, or of
+   * the unit of dtStart if there are none.
+   */
+  private static long unitMask(
+      int n, int interval, int[] values, int startValue) {
+    if (0 != interval) { return (1L << n) - 1; }
+    if (0 == values.length) { return 1L << startValue; }
+    long mask = 0;
+    for (int value : values) { mask |= 1L << value; }
+    return mask;
+  }
+
+  private static boolean allIn(int[] values, int min, int max) {
+    for (int value : values) {
+      if (value < min || value > max) { return false; }
+    }
+    return true;
+  }
+
+  private static long yearStart(int year) {
+    return TimeUtils.fixedFromGregorian(year, 1, 1) * SECS_PER_DAY;
+  }
+
+  private static int floorMod(int a, int b) {
+    int mod = a % b;
+    return mod < 0 ? mod + b : mod;
+  }
+
+  private static long floorMod(long a, long b) {
+    long mod = a % b;
+    return mod < 0 ? mod + b : mod;
+  }
+
+  private static long gcd(long a, long b) {
+    while (0 != b) {
+      long t = a % b;
+      a = b;
+      b = t;
+    }
+    return a;
+  }
+
+  private static final long SECS_PER_DAY = 24L * 60 * 60;
+  private static final long SECS_PER_YEAR = 366 * SECS_PER_DAY;
+  /** the years in which dates are counted. */
+  private static final int MIN_YEAR = 1;
+  private static final int MAX_YEAR = 9999;
+  /**
+   * more than the difference between any two offsets, so a local time this
+   * far from a transition can't be skipped or repeated.
+   */
+  private static final long MARGIN_SECS = 2 * SECS_PER_DAY;
+  /** the most whole-day counts cached, one per phase. */
+  private static final int MAX_CACHED_PHASES = 4096;
+  /**
+   * the number of years generated without an instance at which counting gives
+   * up.  Well short of the throttle, so that counts agree with iteration.
+   */
+  private static final int MAX_GENERATIONS_WITHOUT_INSTANCE =
+      Generators.MAX_YEARS_BETWEEN_INSTANCES / 2;
+
+}
@@ -15,16 +15,14 @@
 package com.google.ical.iter;
 
 import com.google.ical.util.DTBuilder;
-import com.google.ical.util.Predicate;
+import com.google.ical.util.PackedDates;
+import com.google.ical.util.RuleParts;
 import com.google.ical.util.TimeUtils;
+import com.google.ical.values.DateTimeValue;
 import com.google.ical.values.Frequency;
-import com.google.ical.values.TimeValue;
 import com.google.ical.values.Weekday;
 import com.google.ical.values.DateValue;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * factory for generators that operate on groups of generators to generate full
  * dates.
@@ -38,7 +36,7 @@ class InstanceGenerators {
    * collecting.
    */
   static Generator serialInstanceGenerator(
-      final Predicate<? super DateValue> filter,
+      final PackedPredicate filter,
       final Generator yearGenerator, final Generator monthGenerator,
       final Generator dayGenerator, final Generator hourGenerator,
       final Generator minuteGenerator, final Generator secondGenerator) {
@@ -62,7 +60,7 @@ class InstanceGenerators {
               }
             }
             // apply filters to generated dates
-          } while (!filter.apply(builder.toDateTime()));
+          } while (!filter.applyPacked(packedDateTime(builder)));
 
           return true;
         }
@@ -95,7 +93,7 @@ class InstanceGenerators {
               }
             }
             // apply filters to generated dates
-          } while (!filter.apply(builder.toDateTime()));
+          } while (!filter.applyPacked(packedDateTime(builder)));
           // TODO: maybe group the filters into different kinds so we don't
           // apply filters that only affect days to every second.
 
@@ -107,38 +105,43 @@ class InstanceGenerators {
 
   static Generator bySetPosInstanceGenerator(
       int[] setPos, final Frequency freq, final Weekday wkst,
-      final Predicate<? super DateValue> filter,
+      final PackedPredicate filter,
       final Generator yearGenerator, final Generator monthGenerator,
       final Generator dayGenerator, final Generator hourGenerator,
       final Generator minuteGenerator, final Generator secondGenerator) {
-    final int[] uSetPos = Util.uniquify(setPos);
+    final int[] uSetPos = RuleParts.uniquify(setPos);
 
     final Generator serialInstanceGenerator = serialInstanceGenerator(
           filter, yearGenerator, monthGenerator, dayGenerator,
           hourGenerator, minuteGenerator, secondGenerator);
 
-    final boolean allPositive;
-    final int maxPos;
-    if (false) {
-      int mp = 0;
-      boolean ap = true;
-      for (int i = setPos.length; --i >= 0;) {
-        if (setPos[i] < 0) {
-          ap = false;
-          break;
-        }
-        mp = Math.max(setPos[i], mp);
-      }
-      maxPos = mp;
-      allPositive = ap;
-    } else {
-      // TODO(msamuel): does this work?
-      maxPos = uSetPos[uSetPos.length - 1];
-      allPositive = uSetPos[0] > 0;
+    // uSetPos is sorted, so the extremes are at its ends.
+    final int maxPos = uSetPos[uSetPos.length - 1];
+    final boolean allPositive = uSetPos[0] > 0;
+
+    // Split the positions into those relative to the end of the set, and the
+    // rest, both in increasing order of the absolute positions they resolve to.
+    int nNegative = 0;
+    while (nNegative < uSetPos.length && uSetPos[nNegative] < 0) {
+      ++nNegative;
     }
+    final int[] negSetPos = new int[nNegative];
+    final int[] posSetPos = new int[uSetPos.length - nNegative];
+    System.arraycopy(uSetPos, 0, negSetPos, 0, negSetPos.length);
+    System.arraycopy(uSetPos, nNegative, posSetPos, 0, posSetPos.length);
 
-    return new Generator() {
-        DateValue pushback = null;
+    // Positive positions can only pick out the first maxPos dates in a set, and
+    // negative positions only the last -uSetPos[0], so we need not keep the
+    // rest.
+    final int prefixLength = posSetPos.length != 0 ? Math.max(maxPos, 0) : 0;
+    final int suffixLength = nNegative != 0 ? -uSetPos[0] : 0;
+
+    return new BufferingGenerator() {
+        /**
+         * the first date past the last set, as a
+         * {@link DateValueComparison#comparable}, or NO_DATE.
+         */
+        long pushback = NO_DATE;
         /**
          * Is this the first instance we generate?
          * We need to know so that we don't clobber dtStart.
@@ -146,9 +149,29 @@ class InstanceGenerators {
         boolean first = true;
         /** Do we need to halt iteration once the current set has been used? */
         boolean done = false;
+        /**
+         * the last date the serial generator produced, as a
+         * {@link DateValueComparison#comparable}.  The builder is overwritten
+         * with each emitted candidate, so we restore this before asking the
+         * serial generator for more or the sub-daily generators would see a
+         * different hour or minute and start it over.
+         */
+        long lastGenerated = NO_DATE;
+
+        /** the first prefixLength dates in the current set. */
+        final long[] prefix = new long[prefixLength];
+        /**
+         * a ring buffer containing the last suffixLength dates in the current
+         * set.  The nth date, zero indexed, is at n % suffixLength.
+         */
+        final long[] suffix = new long[suffixLength];
+        /** the number of dates in the current set. */
+        int nDates;
 
         /** The elements in the current set, filtered by set pos */
-        List<DateValue> candidates;
+        final long[] candidates = new long[uSetPos.length];
+        /** the number of elements in candidates. */
+        int nCandidates;
         /**
          * index into candidates.  The number of elements in candidates already
          * consumed.
@@ -158,19 +181,17 @@ class InstanceGenerators {
         @Override
         public boolean generate(DTBuilder builder)
             throws IteratorShortCircuitingException {
-          while (null == candidates || i >= candidates.size()) {
+          while (i >= nCandidates) {
             if (done) { return false; }
 
             // (1) Make sure that builder is appropriately initialized so that
             // we only generate instances in the next set
 
-            DateValue d0 = null;
-            if (null != pushback) {
+            if (NO_DATE != lastGenerated) { restore(builder, lastGenerated); }
+            long d0 = NO_DATE;
+            if (NO_DATE != pushback) {
               d0 = pushback;
-              builder.year = d0.year();
-              builder.month = d0.month();
-              builder.day = d0.day();
-              pushback = null;
+              pushback = NO_DATE;
             } else if (!first) {
               // we need to skip ahead to the next item since we didn't exhaust
               // the last period
@@ -185,14 +206,16 @@ class InstanceGenerators {
                   break;
                 case WEEKLY:
                   // consume because just incrementing date doesn't do anything
-                  DateValue nextWeek =
-                    Util.nextWeekStart(builder.toDateTime(), wkst);
+                  builder.normalize();
+                  int fixed = builder.fixedDay();
+                  int nextWeek = fixed
+                      + (7 - ((7 + dayOfWeek(fixed) - wkst.ordinal()) % 7)) % 7;
                   do {
                     if (!serialInstanceGenerator.generate(builder)) {
                       return false;
                     }
-                  } while (builder.compareTo(nextWeek) < 0);
-                  d0 = builder.toDateTime();
+                  } while (builder.fixedDay() < nextWeek);
+                  d0 = lastGenerated = packedDateTime(builder);
                   break;
                 default:
                   break;
@@ -203,8 +226,9 @@ class InstanceGenerators {
 
             // (2) Build a set of the dates in the year/month/week that match
             // the other rule.
-            List<DateValue> dates = new ArrayList<DateValue>();
-            if (null != d0) { dates.add(d0); }
+            nDates = 0;
+            if (NO_DATE != d0) { addDate(d0); }
+            int d0Fixed = NO_DATE != d0 ? fixedDay(d0) : 0;
 
             // Optimization: if min(bySetPos) > 0 then we already have absolute
             // positions, so we don't need to generate all of the instances for
@@ -217,7 +241,7 @@ class InstanceGenerators {
             // distribution of set positions within the year.
             int limit = allPositive ? maxPos : Integer.MAX_VALUE;
 
-            while (limit > dates.size()) {
+            while (limit > nDates) {
               if (!serialInstanceGenerator.generate(builder)) {
                 // If we can't generate any, then make sure we return false
                 // once the instances we have generated are exhausted.
@@ -228,31 +252,34 @@ class InstanceGenerators {
                 done = true;
                 break;
               }
-              DateValue d = builder.toDateTime();
+              long d = lastGenerated = packedDateTime(builder);
               boolean contained = false;
-              if (null == d0) {
+              if (NO_DATE == d0) {
                 d0 = d;
+                d0Fixed = fixedDay(d);
                 contained = true;
               } else {
                 switch (freq) {
                   case WEEKLY:
-                    int nb = TimeUtils.daysBetween(d, d0);
+                    int dFixed = fixedDay(d);
+                    int nb = dFixed - d0Fixed;
                     // Two dates (d, d0) are in the same week
                     // if there isn't a whole week in between them and the
                     // later day is later in the week than the earlier day.
                     contained =
                       nb < 7
-                      && ((7 + Weekday.valueOf(d).javaDayNum
-                           - wkst.javaDayNum) % 7)
-                      > ((7 + Weekday.valueOf(d0).javaDayNum
-                          - wkst.javaDayNum) % 7);
+                      && ((7 + dayOfWeek(dFixed) - wkst.ordinal()) % 7)
+                      > ((7 + dayOfWeek(d0Fixed) - wkst.ordinal()) % 7);
                     break;
                   case MONTHLY:
-                    contained =
-                      d0.month() == d.month() && d0.year() == d.year();
+                    contained = PackedDates.month(d0)
+                        == PackedDates.month(d)
+                        && PackedDates.year(d0)
+                        == PackedDates.year(d);
                     break;
                   case YEARLY:
-                    contained = d0.year() == d.year();
+                    contained = PackedDates.year(d0)
+                        == PackedDates.year(d);
                     break;
                   default:
                     done = true;
@@ -260,7 +287,7 @@ class InstanceGenerators {
                 }
               }
               if (contained) {
-                dates.add(d);
+                addDate(d);
               } else {
                 // reached end of the set
                 pushback = d;  // save d so we can use it later
@@ -268,50 +295,159 @@ class InstanceGenerators {
               }
             }
 
-            // (3) Resolve the positions to absolute positions and order them
-            int[] absSetPos;
-            if (allPositive) {
-              absSetPos = uSetPos;
-            } else {
-              IntSet uAbsSetPos = new IntSet();
-              for (int j = 0; j < uSetPos.length; ++j) {
-                int p = uSetPos[j];
-                if (p < 0) { p = dates.size() + p + 1; }
-                uAbsSetPos.add(p);
+            // (3) Resolve the positions to absolute positions and merge the
+            // two sorted lists of positions, dropping duplicates.
+            nCandidates = 0;
+            i = 0;
+            int a = 0, b = 0;
+            while (a < posSetPos.length || b < negSetPos.length) {
+              int pa = a < posSetPos.length ? posSetPos[a] : Integer.MAX_VALUE;
+              int pb = b < negSetPos.length
+                  ? nDates + negSetPos[b] + 1 : Integer.MAX_VALUE;
+              int p;
+              if (pa <= pb) {
+                p = pa;
+                ++a;
+                if (pa == pb) { ++b; }
+              } else {
+                p = pb;
+                ++b;
               }
-              absSetPos = uAbsSetPos.toIntArray();
-            }
-
-            candidates = new ArrayList<DateValue>();
-            for (int p : absSetPos) {
-              if (p >= 1 && p <= dates.size()) {  // p is 1-indexed
-                candidates.add(dates.get(p - 1));
+              if (p >= 1 && p <= nDates) {  // p is 1-indexed
+                candidates[nCandidates++] = p <= prefix.length
+                    ? prefix[p - 1] : suffix[(p - 1) % suffix.length];
               }
             }
-            i = 0;
-            if (candidates.isEmpty()) {
-              // none in this region, so keep looking
-              candidates = null;
-              continue;
-            }
+            // if none in this region, keep looking
           }
           // (5) Emit a date.  It will be checked against the end condition and
           // dtStart elsewhere
-          DateValue d = candidates.get(i++);
-          builder.year = d.year();
-          builder.month = d.month();
-          builder.day = d.day();
-          if (d instanceof TimeValue) {
-            TimeValue t = (TimeValue) d;
-            builder.hour = t.hour();
-            builder.minute = t.minute();
-            builder.second = t.second();
-          }
+          restore(builder, candidates[i++]);
+          return true;
+        }
+
+        @Override
+        void discardBuffered() {
+          pushback = lastGenerated = NO_DATE;
+          first = true;
+          nCandidates = i = 0;
+        }
+
+        @Override
+        int nextSetYear() {
+          return NO_DATE != pushback
+              ? PackedDates.year(pushback) : Integer.MIN_VALUE;
+        }
+
+        private void restore(DTBuilder builder, long d) {
+          builder.year = PackedDates.year(d);
+          builder.month = PackedDates.month(d);
+          builder.day = PackedDates.day(d);
+          builder.hour = PackedDates.hour(d);
+          builder.minute = PackedDates.minute(d);
+          builder.second = PackedDates.second(d);
+        }
+
+        private void addDate(long d) {
+          if (nDates < prefix.length) { prefix[nDates] = d; }
+          if (0 != suffix.length) { suffix[nDates % suffix.length] = d; }
+          ++nDates;
+        }
+      };
+  }
+
+  /** a date that is not the comparable of any generated date. */
+  private static final long NO_DATE = Long.MIN_VALUE;
+
+  /** the {@link TimeUtils#fixedFromGregorian fixed} day of a comparable. */
+  private static int fixedDay(long comparable) {
+    return TimeUtils.fixedFromGregorian(
+        PackedDates.year(comparable),
+        PackedDates.month(comparable),
+        PackedDates.day(comparable));
+  }
+
+  /** the {@link Weekday#ordinal} of the given fixed day. */
+  private static int dayOfWeek(int fixed) {
+    int dow = fixed % 7;
+    return dow >= 0 ? dow : dow + 7;
+  }
+
+  /**
+   * a generator that yields dtStart and every instance a multiple of stepSecs
+   * seconds later in local time, for rules like FREQ=DAILY;INTERVAL=3 that
+   * have no BY* parts to filter or expand the period.
+   * Since the nth instance can be computed directly, the generator can
+   * {@link SeekableGenerator#seek seek} in constant time.
+   * @param stepSecs a positive number of seconds between instances.
+   * @param dtStart the first instance.
+   */
+  static SeekableGenerator arithmeticInstanceGenerator(
+      final long stepSecs, final DateValue dtStart) {
+    final long startSecs = TimeUtils.secsSinceEpoch(dtStart);
+    // split the step so that large steps don't overflow the builder's fields.
+    final int stepDays = (int) (stepSecs / SECS_PER_DAY);
+    final int stepRemainder = (int) (stepSecs % SECS_PER_DAY);
+    return new SeekableGenerator() {
+        /** the index of the next instance to generate.  dtStart is 0. */
+        long index;
+        /** the next instance to generate.  Always normalized. */
+        final DTBuilder next = new DTBuilder(dtStart);
+
+        @Override
+        boolean generate(DTBuilder builder) {
+          builder.year = next.year;
+          builder.month = next.month;
+          builder.day = next.day;
+          builder.hour = next.hour;
+          builder.minute = next.minute;
+          builder.second = next.second;
+          ++index;
+          next.day += stepDays;
+          next.second += stepRemainder;
+          next.normalize();
           return true;
         }
+
+        @Override
+        void seek(long secsSinceEpochLocal) {
+          long delta = secsSinceEpochLocal - startSecs;
+          if (delta <= 0) { return; }
+          // the index of the first instance at or after secsSinceEpochLocal
+          long target = (delta + stepSecs - 1) / stepSecs;
+          if (target <= index) { return; }
+          index = target;
+          DateTimeValue t = TimeUtils.timeFromSecsSinceEpoch(
+              startSecs + target * stepSecs);
+          next.year = t.year();
+          next.month = t.month();
+          next.day = t.day();
+          next.hour = t.hour();
+          next.minute = t.minute();
+          next.second = t.second();
+        }
+
+        @Override
+        public String toString() {
+          return "arithmeticInstanceGenerator:" + stepSecs;
+        }
       };
   }
 
+  private static final long SECS_PER_DAY = 24L * 60 * 60;
+
+  /**
+   * normalizes the builder and returns its date-time in the packed form
+   * filters operate on, like <code>comparable(builder.toDateTime())</code> but
+   * without allocating.
+   */
+  private static long packedDateTime(DTBuilder builder) {
+    builder.normalize();
+    return DateValueComparison.comparable(
+        builder.year, builder.month, builder.day,
+        builder.hour, builder.minute, builder.second);
+  }
+
   static boolean skipSubDayGenerators(
       Generator hourGenerator, Generator minuteGenerator,
       Generator secondGenerator) {
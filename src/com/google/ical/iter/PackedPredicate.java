@@ -0,0 +1,47 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.iter;
+
+import com.google.ical.util.Predicate;
+import com.google.ical.values.DateValue;
+
+/**
+ * a predicate over dates in the packed form produced by
+ * {@link DateValueComparison#comparable}, so that it can be applied to every
+ * generated date without allocating a DateValue.
+ *
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+abstract class PackedPredicate implements Predicate<DateValue> {
+
+  /**
+   * @param date a date as produced by {@link DateValueComparison#comparable}.
+   */
+  abstract boolean applyPacked(long date);
+
+  public final boolean apply(DateValue date) {
+    return applyPacked(DateValueComparison.comparable(date));
+  }
+
+  /** a predicate that passes every date. */
+  static final PackedPredicate ALWAYS_TRUE = new PackedPredicate() {
+      @Override
+      boolean applyPacked(long date) { return true; }
+
+      @Override
+      public String toString() { return "true"; }
+    };
+
+}
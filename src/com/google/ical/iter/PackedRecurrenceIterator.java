@@ -0,0 +1,64 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.iter;
+
+/**
+ * an iterator over dates in order where each date is represented as a long as
+ * produced by {@link DateValueComparison#comparable}.
+ * <p>Unlike {@link RecurrenceIterator#next}, {@link #nextPacked} need not
+ * allocate an object per date, so this is the interface to use when expanding
+ * large numbers of occurrences.  Packed values can be converted back to
+ * {@link com.google.ical.values.DateValue}s via
+ * {@link DateValueComparison#fromComparable}.</p>
+ *
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+public interface PackedRecurrenceIterator {
+
+  /** true iff there are more dates in the series. */
+  boolean hasNext();
+
+  /**
+   * returns the next date in the series, in UTC, in packed form.
+   * If <code>!hasNext()</code>, then behavior is undefined.
+   *
+   * @return a packed date that is strictly greater than any date previously
+   *   returned by this iterator.
+   */
+  long nextPacked();
+
+  /**
+   * writes up to len of the next dates in the series, in UTC, in packed form
+   * into out starting at off, and consumes them.
+   * This is equivalent to, but cheaper than,
+   * <pre>
+   *   int n = 0;
+   *   while (n &lt; len &amp;&amp; hasNext()) { out[off + n++] = nextPacked(); }
+   *   return n;
+   * </pre>
+   *
+   * @return the number of dates written, which is less than len only if the
+   *   series is exhausted.
+   */
+  int nextPacked(long[] out, int off, int len);
+
+  /**
+   * skips all dates in the series before the given date.
+   *
+   * @param newStartUtc a packed date in UTC.
+   */
+  void advanceToPacked(long newStartUtc);
+
+}
@@ -18,30 +18,58 @@ import com.google.ical.values.DateValue;
 
 /**
  * a recurrence iterator that iterates over an array of dates.
+ * <p>The dates are kept packed and sorted, so {@link #advanceToPacked} can
+ * gallop to its target in time logarithmic in the number of dates skipped
+ * without allocating.</p>
  *
  * @author mikesamuel+svn@gmail.com (Mike Samuel)
  */
 final class RDateIteratorImpl implements RecurrenceIterator {
   private int i;
-  private DateValue[] datesUtc;
+  /** the dates in UTC as {@link DateValueComparison#comparable}s. */
+  private final long[] datesUtc;
 
   RDateIteratorImpl(DateValue[] datesUtc) {
-    this.datesUtc = datesUtc.clone();  // defensive copy
     assert increasing(datesUtc);  // indirectly checks that not-null.
+    this.datesUtc = new long[datesUtc.length];
+    for (int j = 0; j < datesUtc.length; ++j) {
+      this.datesUtc[j] = DateValueComparison.comparable(datesUtc[j]);
+    }
+  }
+
+  /**
+   * @param datesUtc {@link DateValueComparison#comparable}s in utc in
+   *   non-decreasing order.  Not copied, so must not be modified.
+   */
+  RDateIteratorImpl(long[] datesUtc) {
+    assert increasing(datesUtc);
+    this.datesUtc = datesUtc;
   }
 
   public boolean hasNext() { return i < datesUtc.length; }
 
-  public DateValue next() { return datesUtc[i++]; }
+  public DateValue next() {
+    return DateValueComparison.fromComparable(nextPacked());
+  }
+
+  public long nextPacked() { return datesUtc[i++]; }
+
+  public int nextPacked(long[] out, int off, int len) {
+    int n = Math.min(len, datesUtc.length - i);
+    if (n <= 0) { return 0; }
+    System.arraycopy(datesUtc, i, out, off, n);
+    i += n;
+    return n;
+  }
 
   public void remove() { throw new UnsupportedOperationException(); }
 
   public void advanceTo(DateValue newStartUtc) {
-    long startCmp = DateValueComparison.comparable(newStartUtc);
-    while (i < datesUtc.length
-           && startCmp > DateValueComparison.comparable(datesUtc[i])) {
-      ++i;
-    }
+    advanceToPacked(DateValueComparison.comparable(newStartUtc));
+  }
+
+  public void advanceToPacked(long newStartUtc) {
+    i = Util.gallopTo(datesUtc, i, newStartUtc);
   }
 
   /** monotonically. */
@@ -52,4 +80,12 @@ final class RDateIteratorImpl implements RecurrenceIterator {
     return true;
   }
 
+  /** monotonically. */
+  private static boolean increasing(long[] els) {
+    for (int i = els.length; --i >= 1;) {
+      if (els[i - 1] > els[i]) { return false; }
+    }
+    return true;
+  }
+
 }
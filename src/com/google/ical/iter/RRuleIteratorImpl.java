@@ -15,10 +15,9 @@
 package com.google.ical.iter;
 
 import com.google.ical.util.DTBuilder;
-import com.google.ical.util.Predicate;
 import com.google.ical.util.TimeUtils;
+import com.google.ical.util.TimeZoneTransitions;
 import com.google.ical.values.DateValue;
-import com.google.ical.values.DateValueImpl;
 import com.google.ical.values.TimeValue;
 
 import java.util.TimeZone;
@@ -34,7 +33,7 @@ final class RRuleIteratorImpl implements RecurrenceIterator {
    * Takes a date builder and yields shouldContinue:boolean.
    * The condition is applied <b>after</b> the date is converted to utc.
    */
-  private final Predicate<? super DateValue> condition_;
+  private PackedPredicate condition_;
   /**
    * a function that applies the various period generators to generate an entire
    * date.
@@ -53,9 +52,27 @@ final class RRuleIteratorImpl implements RecurrenceIterator {
    */
   private final Generator monthGenerator_;
   /**
-   * a date that has been computed but not yet yielded to the user.
+   * the year, month, day, hour and minute generators, if instances have times
+   * generated, so that skipping months in advanceTo can start the finer ones
+   * afresh, or null.
    */
-  private DateValue pendingUtc_;
+  private final Generator[] dayAndTimeGenerators_;
+  /**
+   * instanceGenerator_ if it can jump to a date without generating the
+   * instances in between, or null.
+   */
+  private final SeekableGenerator seekableGenerator_;
+  /**
+   * instanceGenerator_ if it buffers whole sets of instances, or null.
+   * Such a generator must see the start of every set, so advanceTo can only
+   * skip whole years before it.
+   */
+  private final BufferingGenerator bufferingGenerator_;
+  /**
+   * a date that has been computed but not yet yielded to the user, as a
+   * {@link DateValueComparison#comparable}, or {@link #NO_DATE}.
+   */
+  private long pendingUtc_ = NO_DATE;
   /**
    * used to build successive dates.
    * At the start of the building process, contains the last date generated.
@@ -72,16 +89,51 @@ final class RRuleIteratorImpl implements RecurrenceIterator {
    * every item.
    */
   private final boolean canShortcutAdvance_;
+  /**
+   * for a COUNT rule, the plan that this iterates over, from which to build
+   * {@link #counter_}; otherwise null.
+   * @see #countUsing
+   */
+  private RecurrencePlan countedPlan_;
+  /** the COUNT of the rule if countedPlan_ is non null. */
+  private int count_;
+  /**
+   * counts the instances that advanceTo skips, once built from countedPlan_,
+   * or null if none has been built or they can't be counted.
+   */
+  private InstanceCounter counter_;
+  /** the first instance, as a {@link DateValueComparison#comparable}. */
+  private long firstUtc_ = NO_DATE;
+  /** the first instance in local seconds since the epoch. */
+  private long firstLocalSecs_;
   /**
    * the timezone that result dates should be converted <b>from</b>.
    * All date fields, parameters, and local variables in this class are in
    * the tzid_ timezone, unless they carry the Utc suffix.
    */
   private final TimeZone tzid_;
+  /** true iff no conversion is needed to convert local times to utc. */
+  private final boolean tzidIsUtc_;
+  /** the offsets of tzid_ if !tzidIsUtc_, or null. */
+  private final TimeZoneTransitions tzTransitions_;
+  /** scratch space for converting local times to utc. */
+  private final DTBuilder utcBuilder_ = new DTBuilder(0, 0, 0);
+  /**
+   * the offset from utc, in seconds, of the local times in
+   * [{@link #offsetRunStart_}, {@link #offsetRunEnd_}), which are seconds
+   * since the epoch between two daylight savings transitions.  Consecutive
+   * instances usually fall in the same run, so we only need to look up the
+   * offset when one falls outside it.
+   */
+  private int offsetRunSecs_;
+  private long offsetRunStart_;
+  private long offsetRunEnd_;
+  /** true iff the dates generated have a time component. */
+  private final boolean timed_;
 
   /** An iterator that generates dates from an RFC2445 Recurrence Rule */
   RRuleIteratorImpl(
-    DateValue dtStart, TimeZone tzid, Predicate<? super DateValue> condition,
+    DateValue dtStart, TimeZone tzid, PackedPredicate condition,
     Generator instanceGenerator, ThrottledGenerator yearGenerator,
     Generator monthGenerator, Generator dayGenerator,
     Generator hourGenerator, Generator minuteGenerator,
@@ -92,8 +144,16 @@ final class RRuleIteratorImpl implements RecurrenceIterator {
     this.instanceGenerator_ = instanceGenerator;
     this.yearGenerator_ = yearGenerator;
     this.monthGenerator_ = monthGenerator;
+    this.seekableGenerator_ = instanceGenerator instanceof SeekableGenerator
+        ? (SeekableGenerator) instanceGenerator : null;
+    this.bufferingGenerator_ = instanceGenerator instanceof BufferingGenerator
+        ? (BufferingGenerator) instanceGenerator : null;
     this.dtStart_ = dtStart;
     this.tzid_ = tzid;
+    this.tzidIsUtc_ = tzid.hasSameRules(TimeUtils.utcTimezone());
+    this.tzTransitions_ = this.tzidIsUtc_
+        ? null : TimeZoneTransitions.forZone(tzid);
+    this.timed_ = dtStart instanceof TimeValue;
     this.canShortcutAdvance_ = canShortcutAdvance;
 
     int initWorkLimit = 1000;
@@ -103,19 +163,23 @@ final class RRuleIteratorImpl implements RecurrenceIterator {
     this.builder_ = builder;
     // Apply the generators from largest field to smallest so we can start by
     // applying the smallest field iterator when asked to generate a date.
+    boolean skipSubDayGenerators = InstanceGenerators.skipSubDayGenerators(
+        hourGenerator, minuteGenerator, secondGenerator);
+    this.dayAndTimeGenerators_ = skipSubDayGenerators
+        ? null
+        : new Generator[] {
+            yearGenerator, monthGenerator, dayGenerator,
+            hourGenerator, minuteGenerator,
+          };
     try {
       Generator[] toInitialize;
-      if (InstanceGenerators.skipSubDayGenerators(
-              hourGenerator, minuteGenerator, secondGenerator)) {
+      if (skipSubDayGenerators) {
         toInitialize = new Generator[] { yearGenerator, monthGenerator };
         builder.hour = ((SingleValueGenerator) hourGenerator).getValue();
         builder.minute = ((SingleValueGenerator) minuteGenerator).getValue();
         builder.second = ((SingleValueGenerator) secondGenerator).getValue();
       } else {
-        toInitialize = new Generator[] {
-            yearGenerator, monthGenerator, dayGenerator,
-            hourGenerator, minuteGenerator,
-        };
+        toInitialize = this.dayAndTimeGenerators_;
       }
       for (int i = 0; i != toInitialize.length;) {
         if (toInitialize[i].generate(builder)) {
@@ -135,18 +199,19 @@ final class RRuleIteratorImpl implements RecurrenceIterator {
       this.done_ = true;
     }
 
+    long dtStartUtc = DateValueComparison.comparable(
+        TimeUtils.toUtc(dtStart, tzid));
     while (!this.done_) {
       this.pendingUtc_ = this.generateInstance();
-      if (null == this.pendingUtc_) {
+      if (NO_DATE == this.pendingUtc_) {
         this.done_ = true;
         break;
-      } else if (this.pendingUtc_.compareTo(
-                     TimeUtils.toUtc(dtStart, tzid)) >= 0) {
+      } else if (this.pendingUtc_ >= dtStartUtc) {
         // We only apply the condition to the ones past dtStart to avoid
         // counting useless instances
-        if (!this.condition_.apply(this.pendingUtc_)) {
+        if (!this.condition_.applyPacked(this.pendingUtc_)) {
           this.done_ = true;
-          this.pendingUtc_ = null;
+          this.pendingUtc_ = NO_DATE;
         }
         break;
       }
@@ -155,24 +220,83 @@ final class RRuleIteratorImpl implements RecurrenceIterator {
         break;
       }
     }
+    // If the work limit ran out, iteration stops after any pending instance,
+    // so there is nothing for a counter to count.
+    if (NO_DATE != this.pendingUtc_ && !this.done_) {
+      this.firstUtc_ = this.pendingUtc_;
+      this.firstLocalSecs_ = builder.fixedDay() * SECS_PER_DAY
+          + (builder.hour * 60 + builder.minute) * 60 + builder.second;
+    }
+  }
+
+  /**
+   * allows advanceTo to skip ahead even though this iterator's condition is a
+   * count, by counting the instances skipped instead of generating them.
+   * @param plan the plan this iterates over.
+   * @param count the COUNT.
+   */
+  void countUsing(RecurrencePlan plan, int count) {
+    this.countedPlan_ = plan;
+    this.count_ = count;
+  }
+
+  /**
+   * a counter for the instances of the given plan, which this must iterate
+   * over, from this iterator's first instance, or null if there is none or
+   * they can't be counted.
+   */
+  InstanceCounter counter(RecurrencePlan plan) {
+    return NO_DATE != this.firstUtc_
+        ? plan.counter(this.firstUtc_, this.firstLocalSecs_) : null;
   }
 
   /** are there more dates in this recurrence? */
   public boolean hasNext() {
-    if (null == this.pendingUtc_) { this.fetchNext(); }
-    return null != this.pendingUtc_;
+    if (NO_DATE == this.pendingUtc_) { this.fetchNext(); }
+    return NO_DATE != this.pendingUtc_;
   }
 
   /** fetch and return the next date in this recurrence. */
   public DateValue next() {
-    if (null == this.pendingUtc_) {
+    long next = this.nextPacked();
+    return NO_DATE != next ? DateValueComparison.fromComparable(next) : null;
+  }
+
+  /** fetch and return the next date in this recurrence in packed form. */
+  public long nextPacked() {
+    if (NO_DATE == this.pendingUtc_) {
       this.fetchNext();
     }
-    DateValue next = this.pendingUtc_;
-    this.pendingUtc_ = null;
+    long next = this.pendingUtc_;
+    this.pendingUtc_ = NO_DATE;
     return next;
   }
 
+  /**
+   * fetch up to len dates into out in packed form.
+   * Dates are written as soon as they are generated instead of being staged in
+   * {@link #pendingUtc_}.
+   */
+  public int nextPacked(long[] out, int off, int len) {
+    if (len <= 0) { return 0; }
+    int n = 0;
+    if (NO_DATE != this.pendingUtc_) {
+      out[off + n++] = this.pendingUtc_;
+      this.pendingUtc_ = NO_DATE;
+    }
+    while (n < len && !this.done_) {
+      long dUtc = this.generateInstance();
+      // check the exit condition
+      if (NO_DATE != dUtc && this.condition_.applyPacked(dUtc)) {
+        out[off + n++] = dUtc;
+        this.yearGenerator_.workDone();
+      } else {
+        this.done_ = true;
+      }
+    }
+    return n;
+  }
+
   public void remove() { throw new UnsupportedOperationException(); }
 
   /**
@@ -181,36 +305,117 @@ final class RRuleIteratorImpl implements RecurrenceIterator {
    * date, assuming the recurrence includes such a date.
    */
   public void advanceTo(DateValue dateUtc) {
+    advanceToPacked(DateValueComparison.comparable(dateUtc));
+  }
+
+  /**
+   * like {@link #advanceTo} but takes a
+   * {@link DateValueComparison#comparable}.
+   */
+  public void advanceToPacked(long dateUtc) {
+    advanceToPacked(dateUtc, false);
+  }
+
+  /**
+   * like {@link #advanceToPacked(long)} but for callers that know the series
+   * has instances in the years skipped, so that skipping them doesn't count
+   * towards the year generator's throttle.
+   */
+  void advanceOverInstancesTo(long dateUtc) {
+    advanceToPacked(dateUtc, true);
+  }
+
+  private void advanceToPacked(long dateUtc, boolean overInstances) {
     // Don't throw away a future pending date since the iterators will not
     // generate it again.
-    if (this.pendingUtc_ !=  null && dateUtc.compareTo(this.pendingUtc_) <= 0) {
+    if (NO_DATE != this.pendingUtc_ && dateUtc <= this.pendingUtc_) {
       return;
     }
 
-    DateValue dateLocal = TimeUtils.fromUtc(dateUtc, tzid_);
+    DateValue dateLocal = TimeUtils.fromUtc(
+        DateValueComparison.fromComparable(dateUtc), tzid_);
     // Short-circuit if we're already past dateUtc.
-    if (dateLocal.compareTo(this.builder_.toDate()) <= 0) { return; }
-    this.pendingUtc_ = null;
+    this.builder_.normalize();
+    if (DateValueComparison.comparable(dateLocal)
+        <= DateValueComparison.comparable(
+            builder_.year, builder_.month, builder_.day)) {
+      return;
+    }
+    this.pendingUtc_ = NO_DATE;
+
+    // A count condition must see every instance, unless we can count the ones
+    // before dateUtc, which is only worth doing when whole months can be
+    // skipped.  If the generators are already past dateUtc there is nothing
+    // to skip, and the condition has already seen every instance before it.
+    boolean canShortcutAdvance = this.canShortcutAdvance_;
+    int remaining = -1;
+    if (null != this.countedPlan_ && this.generatedUtc_ < dateUtc
+        && (null != this.seekableGenerator_
+            || dateLocal.year() * 12 + dateLocal.month()
+               > this.builder_.year * 12 + this.builder_.month)) {
+      long skipped = this.countSkipped(dateUtc);
+      if (skipped >= this.count_) {
+        this.done_ = true;
+        return;
+      }
+      if (InstanceCounter.UNKNOWN != skipped) {
+        canShortcutAdvance = overInstances = true;
+        remaining = this.count_ - (int) skipped - 1;
+        this.condition_ = PackedPredicate.ALWAYS_TRUE;
+      }
+    }
 
     try {
-      if (this.canShortcutAdvance_) {
-        // skip years before date.year
-        if (this.builder_.year < dateLocal.year()) {
+      if (canShortcutAdvance && null != this.seekableGenerator_) {
+        // jump straight to the first instance near dateLocal.  Because of
+        // daylight savings shifts, instances a little before dateLocal in
+        // local time may still fall on or after dateUtc, so leave a day's
+        // margin for the loop below to sort out.
+        long secsLocal = TimeUtils.secsSinceEpoch(dateLocal);
+        this.seekableGenerator_.seek(
+            this.tzidIsUtc_ ? secsLocal : secsLocal - SECS_PER_DAY);
+      } else if (canShortcutAdvance) {
+        // A date is not converted from UTC, but timed instances on it may fall
+        // on the day before in local time, so skip only up to that day.
+        if (this.timed_ && !this.tzidIsUtc_
+            && !(dateLocal instanceof TimeValue)) {
+          DTBuilder dayBefore = new DTBuilder(dateLocal);
+          --dayBefore.day;
+          dateLocal = dayBefore.toDate();
+        }
+        // skip years before date.year.  A set of instances may start in the
+        // year before the one it is yielded in, as for a week spanning the new
+        // year, so when generating whole sets leave a year's margin.
+        int year = null != this.bufferingGenerator_
+            ? dateLocal.year() - 1 : dateLocal.year();
+        int monthIndex = this.builder_.year * 12 + this.builder_.month;
+        // The builder holds the last instance yielded, but the period
+        // generators may already have yielded the first instance of the next
+        // set, which would be lost if the years were skipped from there.
+        if (this.builder_.year < year
+            && (null == this.bufferingGenerator_
+                || this.bufferingGenerator_.nextSetYear() < year)) {
           do {
+            if (overInstances) { this.yearGenerator_.workDone(); }
             if (!this.yearGenerator_.generate(this.builder_)) {
               this.done_ = true;
               return;
             }
-          } while (this.builder_.year < dateLocal.year());
+          } while (this.builder_.year < year);
           while (!this.monthGenerator_.generate(this.builder_)) {
             if (!this.yearGenerator_.generate(this.builder_)) {
               this.done_ = true;
               return;
             }
           }
+          if (null != this.bufferingGenerator_) {
+            this.bufferingGenerator_.discardBuffered();
+          }
         }
-        // skip months before date.year/date.month
-        while (this.builder_.year == dateLocal.year()
+        // skip months before date.year/date.month unless that would split a
+        // set
+        while (null == this.bufferingGenerator_
+               && this.builder_.year == dateLocal.year()
                && this.builder_.month < dateLocal.month()) {
           while (!this.monthGenerator_.generate(this.builder_)) {
             // if there are more years available fetch one
@@ -221,17 +426,22 @@ final class RRuleIteratorImpl implements RecurrenceIterator {
             }
           }
         }
+        if (monthIndex != this.builder_.year * 12 + this.builder_.month
+            && !this.startDayAndTime()) {
+          this.done_ = true;
+          return;
+        }
       }
 
       // consume any remaining instances
       while (!this.done_) {
-        DateValue dUtc = this.generateInstance();
-        if (null == dUtc) {
+        long dUtc = this.generateInstance();
+        if (NO_DATE == dUtc) {
           this.done_ = true;
         } else {
-          if (!this.condition_.apply(dUtc)) {
+          if (!this.condition_.applyPacked(dUtc)) {
             this.done_ = true;
-          } else if (dUtc.compareTo(dateUtc) >= 0) {
+          } else if (dUtc >= dateUtc) {
             this.pendingUtc_ = dUtc;
             break;
           }
@@ -240,16 +450,55 @@ final class RRuleIteratorImpl implements RecurrenceIterator {
     } catch (Generator.IteratorShortCircuitingException ex) {
       this.done_ = true;
     }
+    if (remaining >= 0) {
+      this.condition_ = Conditions.countCondition(remaining);
+    }
+  }
+
+  /**
+   * generates the first day, hour and minute in the month that advanceTo
+   * skipped to, as the constructor does for dtStart's month.  Otherwise the
+   * finer generators would carry on from the day and time that the builder
+   * held in the month before, which need not be generated in this one.
+   * @return false if the recurrence is exhausted.
+   */
+  private boolean startDayAndTime()
+      throws Generator.IteratorShortCircuitingException {
+    Generator[] generators = this.dayAndTimeGenerators_;
+    if (null == generators) { return true; }
+    for (int i = 2; i != generators.length;) {
+      if (generators[i].generate(this.builder_)) {
+        ++i;
+      } else if (--i < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * the number of instances of a COUNT rule, up to the COUNT, before dateUtc,
+   * or {@link InstanceCounter#UNKNOWN}.
+   */
+  private long countSkipped(long dateUtc) {
+    if (null == this.counter_) {
+      this.counter_ = this.counter(this.countedPlan_);
+      if (null == this.counter_) {
+        this.countedPlan_ = null;
+        return InstanceCounter.UNKNOWN;
+      }
+    }
+    return this.countedPlan_.countBefore(this.counter_, dateUtc);
   }
 
   /** calculates and stored the next date in this recurrence. */
   private void fetchNext() {
-    if (null != this.pendingUtc_ || this.done_) { return; }
+    if (NO_DATE != this.pendingUtc_ || this.done_) { return; }
 
-    DateValue dUtc = this.generateInstance();
+    long dUtc = this.generateInstance();
 
     // check the exit condition
-    if (null != dUtc && this.condition_.apply(dUtc)) {
+    if (NO_DATE != dUtc && this.condition_.applyPacked(dUtc)) {
       this.pendingUtc_ = dUtc;
       this.yearGenerator_.workDone();
     } else {
@@ -257,31 +506,86 @@ final class RRuleIteratorImpl implements RecurrenceIterator {
     }
   }
 
-  private static final DateValue MIN_DATE =
-    new DateValueImpl(Integer.MIN_VALUE, 1, 1);
   /**
-   * make sure the iterator is monotonically increasing.
+   * a packed value that is not the {@link DateValueComparison#comparable} of
+   * any date that can be generated.
+   */
+  static final long NO_DATE = Long.MIN_VALUE;
+
+  private static final long SECS_PER_DAY = 24L * 60 * 60;
+
+  private static final long MIN_DATE =
+    DateValueComparison.comparable(Integer.MIN_VALUE, 1, 1);
+  /**
+   * the last instance generated, used to make sure the iterator is
+   * monotonically increasing.
    * The local time is guaranteed to be monotonic, but because of daylight
-   * savings shifts, the time in UTC may not be.
+   * savings shifts, the time in UTC may not be.  A local time skipped when
+   * clocks spring forward converts to an hour later in UTC, so may fall on or
+   * before an instance generated just before the shift.
+   * <p>Only timed instances are converted, and untimed ones are allowed to
+   * repeat, as for an HOURLY rule with an untimed start, so this is only
+   * updated for timed ones.</p>
    */
-  private DateValue lastUtc_ = MIN_DATE;
+  private long lastUtc_ = MIN_DATE;
+  /** the last instance generated, timed or not, or {@link #NO_DATE}. */
+  private long generatedUtc_ = NO_DATE;
   /**
-   * @return a date value in UTC.
+   * @return a packed date value in UTC or {@link #NO_DATE} if there are no
+   *   more instances.
    */
-  private DateValue generateInstance() {
+  private long generateInstance() {
     try {
       do {
-        if (!this.instanceGenerator_.generate(this.builder_)) { return null; }
-        DateValue dUtc = this.dtStart_ instanceof TimeValue
-            ? TimeUtils.toUtc(this.builder_.toDateTime(), this.tzid_)
-            : this.builder_.toDate();
-        if (dUtc.compareTo(this.lastUtc_) > 0) {
+        if (!this.instanceGenerator_.generate(this.builder_)) {
+          return NO_DATE;
+        }
+        long dUtc = toUtcComparable(this.builder_);
+        if (dUtc > this.lastUtc_) {
+          if (this.timed_) { this.lastUtc_ = dUtc; }
+          this.generatedUtc_ = dUtc;
           return dUtc;
         }
       } while (true);
     } catch (Generator.IteratorShortCircuitingException ex) {
-      return null;
+      return NO_DATE;
+    }
+  }
+
+  /**
+   * normalizes the builder and returns the packed form of the date it
+   * contains converted to UTC.
+   * This allocates nothing, even when the local time is not UTC.
+   */
+  private long toUtcComparable(DTBuilder builder) {
+    builder.normalize();
+    if (!this.timed_) {
+      return DateValueComparison.comparable(
+          builder.year, builder.month, builder.day);
+    }
+    if (this.tzidIsUtc_) {
+      return DateValueComparison.comparable(
+          builder.year, builder.month, builder.day,
+          builder.hour, builder.minute, builder.second);
+    }
+    long secsLocal = builder.fixedDay() * SECS_PER_DAY
+        + (builder.hour * 60 + builder.minute) * 60 + builder.second;
+    if (secsLocal < this.offsetRunStart_ || secsLocal >= this.offsetRunEnd_) {
+      TimeZoneTransitions transitions = this.tzTransitions_;
+      this.offsetRunSecs_ = transitions.offsetFromLocal(secsLocal);
+      this.offsetRunStart_ = transitions.offsetRunStart(secsLocal);
+      this.offsetRunEnd_ = transitions.offsetRunEnd(secsLocal);
     }
+    DTBuilder utc = this.utcBuilder_;
+    utc.year = builder.year;
+    utc.month = builder.month;
+    utc.day = builder.day;
+    utc.hour = builder.hour;
+    utc.minute = builder.minute;
+    utc.second = builder.second - this.offsetRunSecs_;
+    utc.normalize();
+    return DateValueComparison.comparable(
+        utc.year, utc.month, utc.day, utc.hour, utc.minute, utc.second);
   }
 
 }
@@ -20,10 +20,14 @@ import java.util.Iterator;
 /**
  * an iterator over date values in order.  Does not support the
  * <code>remove</code> operation.
+ * <p>Every recurrence iterator can also be consumed in packed form via the
+ * {@link PackedRecurrenceIterator} methods, and {@link #next} and
+ * {@link #advanceTo} are equivalent to their packed counterparts.</p>
  *
  * @author mikesamuel+svn@gmail.com (Mike Samuel)
  */
-public interface RecurrenceIterator extends Iterator<DateValue> {
+public interface RecurrenceIterator
+    extends Iterator<DateValue>, PackedRecurrenceIterator {
 
   /** true iff there are more dates in the series. */
   boolean hasNext();
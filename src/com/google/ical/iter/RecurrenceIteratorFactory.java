@@ -23,10 +23,8 @@ import com.google.ical.values.IcalObject;
 import com.google.ical.values.RDateList;
 import com.google.ical.values.RRule;
 import com.google.ical.values.TimeValue;
-import com.google.ical.values.Weekday;
 import com.google.ical.values.WeekdayNum;
-import com.google.ical.util.Predicate;
-import com.google.ical.util.Predicates;
+import com.google.ical.util.RuleParts;
 import com.google.ical.util.TimeUtils;
 import java.text.ParseException;
 import java.util.ArrayList;
@@ -87,33 +85,78 @@ public class RecurrenceIteratorFactory {
     return createRecurrenceIterable(rdata, dtStart, tzid, strict).iterator();
   }
 
+  public static RecurrenceIterable createRecurrenceIterable(
+      String rdata, DateValue dtStart, TimeZone tzid, boolean strict)
+      throws ParseException {
+    return createRecurrenceIterable(rdata, dtStart, tzid, strict, null);
+  }
+
+  /**
+   * like {@link #createRecurrenceIterable(String,DateValue,TimeZone,boolean)}
+   * but looks up RRULEs and EXRULEs in a cache, so that rules seen before are
+   * not parsed or compiled again.
+   * @param cache null to parse and compile every rule.
+   */
   public static RecurrenceIterable createRecurrenceIterable(
       String rdata, final DateValue dtStart, final TimeZone tzid,
-      final boolean strict)
+      final boolean strict, final RecurrencePlanCache cache)
       throws ParseException {
-    final IcalObject[] contentLines = parseContentLines(rdata, tzid, strict);
+    final List<RecurrencePlanCache.CachedRule> cachedRules =
+        null != cache ? new ArrayList<RecurrencePlanCache.CachedRule>() : null;
+    final IcalObject[] contentLines = parseContentLines(
+        rdata, tzid, strict, cache, cachedRules);
+    // Compile the rules once so that each iterator need only create
+    // generators.  A rule that fails to compile is left null and compiled,
+    // or looked up in the cache, again in iterator() so that the failure is
+    // reported as before.
+    final RecurrencePlan[] plans = new RecurrencePlan[contentLines.length];
+    for (int i = 0; i < contentLines.length; ++i) {
+      if (contentLines[i] instanceof RRule) {
+        try {
+          plans[i] = planFor(
+              null, contentLines[i], cachedRules, i, dtStart, tzid, cache);
+        } catch (IllegalArgumentException ex) {
+          // reported by iterator()
+        }
+      }
+    }
+    final long dtStartUtc =
+        DateValueComparison.comparable(TimeUtils.toUtc(dtStart, tzid));
+    // The most common shape is a single RRULE with some EXDATEs, which we can
+    // iterate without merging via a heap.
+    final RecurrencePlan singleRule =
+        singleRule(contentLines, plans, dtStart);
+    final long[] exclusionsUtc =
+        null != singleRule ? exclusionsUtc(contentLines) : null;
 
     return new RecurrenceIterable() {
         public RecurrenceIterator iterator() {
+          if (null != singleRule) {
+            return new SingleRuleIteratorImpl(
+                dtStartUtc, singleRule.iterator(), exclusionsUtc);
+          }
           List<RecurrenceIterator> inclusions =
                new ArrayList<RecurrenceIterator>();
           List<RecurrenceIterator> exclusions =
                new ArrayList<RecurrenceIterator>();
           // always include DTStart
-          inclusions.add(new RDateIteratorImpl(
-                             new DateValue[] {TimeUtils.toUtc(dtStart, tzid)}));
-          for (IcalObject contentLine : contentLines) {
+          inclusions.add(
+              new RDateIteratorImpl(new long[] { dtStartUtc }));
+          for (int i = 0; i < contentLines.length; ++i) {
+            IcalObject contentLine = contentLines[i];
             try {
               String name = contentLine.getName();
               if ("rrule".equalsIgnoreCase(name)) {
-                inclusions.add(createRecurrenceIterator(
-                                   (RRule) contentLine, dtStart, tzid));
+                inclusions.add(
+                    planFor(plans[i], contentLine, cachedRules, i,
+                            dtStart, tzid, cache).iterator());
               } else if ("rdate".equalsIgnoreCase(name)) {
                 inclusions.add(
                     createRecurrenceIterator((RDateList) contentLine));
               } else if ("exrule".equalsIgnoreCase(name)) {
-                exclusions.add(createRecurrenceIterator(
-                                   (RRule) contentLine, dtStart, tzid));
+                exclusions.add(
+                    planFor(plans[i], contentLine, cachedRules, i,
+                            dtStart, tzid, cache).iterator());
               } else if ("exdate".equalsIgnoreCase(name)) {
                 exclusions.add(
                     createRecurrenceIterator((RDateList) contentLine));
@@ -132,6 +175,106 @@ public class RecurrenceIteratorFactory {
       };
   }
 
+  /**
+   * the plan for the RRULE if contentLines consist of exactly one RRULE and
+   * any number of EXDATEs, or null otherwise, if the RRULE didn't compile, or
+   * if it may repeat dates.
+   * A rule that repeats dates is merged with dtStart and the EXDATEs like any
+   * other series, so that it yields as many of each as the merge does.
+   * @param plans the compiled plans of any rules in contentLines.
+   */
+  private static RecurrencePlan singleRule(
+      IcalObject[] contentLines, RecurrencePlan[] plans, DateValue dtStart) {
+    RecurrencePlan rule = null;
+    for (int i = 0; i < contentLines.length; ++i) {
+      String name = contentLines[i].getName();
+      if ("rrule".equalsIgnoreCase(name)) {
+        if (null != rule || null == plans[i]
+            || mayRepeatDates((RRule) contentLines[i], dtStart)) {
+          return null;
+        }
+        rule = plans[i];
+      } else if (!"exdate".equalsIgnoreCase(name)) {
+        return null;
+      }
+    }
+    return rule;
+  }
+
+  /**
+   * true if the rule may yield the same date more than once, as when it
+   * yields several times of day but dtStart is a date, so its instances are
+   * dates.
+   */
+  private static boolean mayRepeatDates(RRule rrule, DateValue dtStart) {
+    return !(dtStart instanceof TimeValue)
+        && (rrule.getFreq().compareTo(Frequency.DAILY) < 0
+            || rrule.getByHour().length > 1
+            || rrule.getByMinute().length > 1
+            || rrule.getBySecond().length > 1);
+  }
+
+  /**
+   * plan if non null, or else the plan for the given rule, which is compiled
+   * or fetched from the cache so that any failure is reported.
+   * @param cachedRules if cache is non null, the cached form of each rule.
+   * @param i the index of rule among the cachedRules.
+   */
+  private static RecurrencePlan planFor(
+      RecurrencePlan plan, IcalObject rule,
+      List<RecurrencePlanCache.CachedRule> cachedRules, int i,
+      DateValue dtStart, TimeZone tzid, RecurrencePlanCache cache) {
+    if (null != plan) { return plan; }
+    return null != cache
+        ? cache.plan(cachedRules.get(i), dtStart, tzid)
+        : createRecurrencePlan((RRule) rule, dtStart, tzid);
+  }
+
+  /**
+   * the dates in all the EXDATEs in contentLines as
+   * {@link DateValueComparison#comparable}s, sorted and without duplicates.
+   * Not to be modified, since it may be an RDateList's own sorted dates.
+   */
+  private static long[] exclusionsUtc(IcalObject[] contentLines) {
+    int n = 0;
+    long[] dates = new long[0];
+    // A single EXDATE needs no merging, so share its sorted dates.
+    long[] onlyDates = null;
+    int nLists = 0;
+    for (IcalObject contentLine : contentLines) {
+      if (!"exdate".equalsIgnoreCase(contentLine.getName())) { continue; }
+      long[] datesUtc = ((RDateList) contentLine).getSortedPackedDatesUtc();
+      onlyDates = datesUtc;
+      ++nLists;
+      if (n + datesUtc.length > dates.length) {
+        long[] grown = new long[Math.max(n + datesUtc.length, 2 * n)];
+        System.arraycopy(dates, 0, grown, 0, n);
+        dates = grown;
+      }
+      System.arraycopy(datesUtc, 0, dates, n, datesUtc.length);
+      n += datesUtc.length;
+    }
+    return 1 == nLists ? onlyDates : sortedUnique(dates, n);
+  }
+
+  /**
+   * sorts the first n of dates and removes duplicates, returning an array
+   * that holds exactly the unique values, which may be dates itself.
+   */
+  private static long[] sortedUnique(long[] dates, int n) {
+    Arrays.sort(dates, 0, n);
+    int k = 0;
+    for (int i = 0; i < n; ++i) {
+      if (0 == k || dates[i] != dates[k - 1]) { dates[k++] = dates[i]; }
+    }
+    if (k < dates.length) {
+      long[] unique = new long[k];
+      System.arraycopy(dates, 0, unique, 0, k);
+      dates = unique;
+    }
+    return dates;
+  }
+
   /**
    * like {@link #createRecurrenceIterator(String,DateValue,TimeZone,boolean)}
    * but defaults to strict parsing.
@@ -146,18 +289,8 @@ public class RecurrenceIteratorFactory {
    * create a recurrence iterator from an rdate or exdate list.
    */
   public static RecurrenceIterator createRecurrenceIterator(RDateList rdates) {
-    DateValue[] dates = rdates.getDatesUtc();
-    Arrays.sort(dates);
-    int k = 0;
-    for (int i = 1; i < dates.length; ++i) {
-      if (!dates[i].equals(dates[k])) { dates[++k] = dates[i]; }
-    }
-    if (++k < dates.length) {
-      DateValue[] uniqueDates = new DateValue[k ];
-      System.arraycopy(dates, 0, uniqueDates, 0, k);
-      dates = uniqueDates;
-    }
-    return new RDateIteratorImpl(dates);
+    // The list sorts its dates once and shares them between iterators.
+    return new RDateIteratorImpl(rdates.getSortedPackedDatesUtc());
   }
 
   /**
@@ -168,326 +301,654 @@ public class RecurrenceIteratorFactory {
    */
   public static RecurrenceIterator createRecurrenceIterator(
       RRule rrule, DateValue dtStart, TimeZone tzid) {
-    assert null != tzid;
-    assert null != dtStart;
+    return createRecurrencePlan(rrule, dtStart, tzid).iterator();
+  }
 
-    Frequency freq = rrule.getFreq();
-    Weekday wkst = rrule.getWkSt();
-    DateValue untilUtc = rrule.getUntil();
-    int count = rrule.getCount();
-    int interval = rrule.getInterval();
-    WeekdayNum[] byDay = rrule.getByDay().toArray(new WeekdayNum[0]);
-    int[] byMonth = rrule.getByMonth();
-    int[] byMonthDay = rrule.getByMonthDay();
-    int[] byWeekNo = rrule.getByWeekNo();
-    int[] byYearDay = rrule.getByYearDay();
-    int[] bySetPos = rrule.getBySetPos();
-    int[] byHour = rrule.getByHour();
-    int[] byMinute = rrule.getByMinute();
-    int[] bySecond = rrule.getBySecond();
-
-    if (interval <= 0) {  interval = 1; }
-
-    if (null == wkst) {
-      wkst = Weekday.MO;
-    }
-
-    // Optimize out BYSETPOS where possible.
-    if (bySetPos.length != 0) {
-      switch (freq) {
-        case HOURLY:
-          // ;BYHOUR=3,6,9;BYSETPOS=-1,1
-          //     is equivalent to
-          // ;BYHOUR=3,9
-          if (byHour.length != 0 && byMinute.length <= 1
-              && bySecond.length <= 1) {
-            byHour = filterBySetPos(byHour, bySetPos);
-          }
-          // Handling bySetPos for rules that are more frequent than daily
-          // tends to lead to large amounts of processor being used before other
-          // work limiting features can kick in since there many seconds between
-          // dtStart and where the year limit kicks in.
-          // There are no known use cases for the use of bySetPos with hourly
-          // minutely and secondly rules so we just ignore it.
-          bySetPos = NO_INTS;
-          break;
-        case MINUTELY:
-          // ;BYHOUR=3,6,9;BYSETPOS=-1,1
-          //     is equivalent to
-          // ;BYHOUR=3,9
-          if (byMinute.length != 0 && bySecond.length <= 1) {
-            byMinute = filterBySetPos(byMinute, bySetPos);
-          }
-          // See bySetPos handling comment above.
-          bySetPos = NO_INTS;
-          break;
-        case SECONDLY:
-          // ;BYHOUR=3,6,9;BYSETPOS=-1,1
-          //     is equivalent to
-          // ;BYHOUR=3,9
-          if (bySecond.length != 0) {
-            bySecond = filterBySetPos(bySecond, bySetPos);
+  /**
+   * compile an rrule into a plan that can cheaply create many iterators over
+   * the same series, possibly from different threads.
+   * @param rrule the recurrence rule to iterate.  Later changes to it do not
+   *   affect the plan.
+   * @param dtStart the start of the series, in tzid.
+   * @param tzid the timezone to iterate in.
+   */
+  public static RecurrencePlan createRecurrencePlan(
+      RRule rrule, DateValue dtStart, TimeZone tzid) {
+    return new RecurrencePlan(rrule, dtStart, tzid);
+  }
+
+  /**
+   * given a block of RRULE, EXRULE, RDATE, and EXDATE content lines, create an
+   * iterator over the dates in the series on or before endUtc, latest first.
+   * @param endUtc the latest date that the iterator may return.
+   * @see #createRecurrenceIterator(String,DateValue,TimeZone,boolean)
+   */
+  public static ReverseRecurrenceIterator createReverseRecurrenceIterator(
+      String rdata, DateValue dtStart, TimeZone tzid, boolean strict,
+      DateValue endUtc)
+      throws ParseException {
+    return createReverseRecurrenceIterator(
+        createRecurrenceIterable(rdata, dtStart, tzid, strict), endUtc);
+  }
+
+  /**
+   * create an iterator over the dates in an rrule on or before endUtc, latest
+   * first.
+   * @param rrule the recurrence rule to iterate.
+   * @param dtStart the start of the series, in tzid.
+   * @param tzid the timezone to iterate in.
+   * @param endUtc the latest date that the iterator may return.
+   */
+  public static ReverseRecurrenceIterator createReverseRecurrenceIterator(
+      RRule rrule, DateValue dtStart, TimeZone tzid, DateValue endUtc) {
+    // Each window's iterator shares the plan, and so the instances counted.
+    final RecurrencePlan plan = createRecurrencePlan(rrule, dtStart, tzid);
+    return createReverseRecurrenceIterator(
+        new RecurrenceIterable() {
+          public RecurrenceIterator iterator() {
+            return plan.iterator();
           }
-          // See bySetPos handling comment above.
-          bySetPos = NO_INTS;
-          break;
-        default:
+        },
+        endUtc);
+  }
+
+  /**
+   * create an iterator over the dates in a series on or before endUtc, latest
+   * first.
+   * The series is walked backwards by advancing fresh iterators from it, so
+   * each step back costs about as much as an
+   * {@link RecurrenceIterator#advanceTo advanceTo} on the series.
+   * @param series non null.
+   * @param endUtc the latest date that the iterator may return.
+   */
+  public static ReverseRecurrenceIterator createReverseRecurrenceIterator(
+      RecurrenceIterable series, DateValue endUtc) {
+    return new ReverseRecurrenceIteratorImpl(
+        series, DateValueComparison.comparable(endUtc));
+  }
+
+  /**
+   * the number of dates in the series described by a block of RRULE, EXRULE,
+   * RDATE, and EXDATE content lines that fall on or after fromUtc and before
+   * toUtc.
+   * @see #createRecurrenceIterator(String,DateValue,TimeZone,boolean)
+   */
+  public static long count(
+      String rdata, DateValue dtStart, TimeZone tzid, boolean strict,
+      DateValue fromUtc, DateValue toUtc)
+      throws ParseException {
+    IcalObject[] contentLines = parseContentLines(rdata, tzid, strict);
+    if (contentLines.length == 1
+        && "rrule".equalsIgnoreCase(contentLines[0].getName())) {
+      // dtStart is always included, and is the first instance of any rule
+      // that can be counted arithmetically, so no merging is needed.
+      RRule rrule = (RRule) contentLines[0];
+      long stepSecs = arithmeticStepSecs(rrule, dtStart, tzid);
+      if (0 != stepSecs) {
+        long from = DateValueComparison.comparable(fromUtc);
+        long to = DateValueComparison.comparable(toUtc);
+        if (from >= to) { return 0; }
+        return countArithmetic(rrule, stepSecs, dtStart, true, from, to);
+      }
+      // How often the merge yields a repeated date depends on the order of
+      // its heap, so only rules that don't repeat dates can be counted.
+      if (!mayRepeatDates(rrule, dtStart)) {
+        long n = countWithStart(rrule, dtStart, tzid, fromUtc, toUtc);
+        if (InstanceCounter.UNKNOWN != n) { return n; }
       }
     }
+    return count(
+        createRecurrenceIterable(rdata, dtStart, tzid, strict).iterator(),
+        DateValueComparison.comparable(fromUtc),
+        DateValueComparison.comparable(toUtc));
+  }
+
+  /**
+   * like {@link #count(String,DateValue,TimeZone,boolean,DateValue,DateValue)}
+   * but defaults to strict parsing.
+   */
+  public static long count(
+      String rdata, DateValue dtStart, TimeZone tzid,
+      DateValue fromUtc, DateValue toUtc)
+      throws ParseException {
+    return count(rdata, dtStart, tzid, true, fromUtc, toUtc);
+  }
+
+  /**
+   * the number of instances of a timed rule that fall on or after fromUtc and
+   * before toUtc, plus one for dtStart if it falls there but is not an
+   * instance, or {@link InstanceCounter#UNKNOWN}.
+   */
+  private static long countWithStart(
+      RRule rrule, DateValue dtStart, TimeZone tzid,
+      DateValue fromUtc, DateValue toUtc) {
+    RecurrencePlan plan;
+    try {
+      plan = createRecurrencePlan(rrule, dtStart, tzid);
+    } catch (IllegalArgumentException ex) {
+      return InstanceCounter.UNKNOWN;  // reported by the iterator
+    }
+    long from = DateValueComparison.comparable(fromUtc);
+    long to = DateValueComparison.comparable(toUtc);
+    if (from >= to) { return 0; }
+    long n = plan.count(from, to);
+    long start = DateValueComparison.comparable(TimeUtils.toUtc(dtStart, tzid));
+    if (InstanceCounter.UNKNOWN == n || start < from || start >= to) {
+      return n;
+    }
+    long atStart = plan.count(start, start + 1);
+    return InstanceCounter.UNKNOWN != atStart
+        ? n + (0 == atStart ? 1 : 0) : InstanceCounter.UNKNOWN;
+  }
+
+  /**
+   * the number of instances of an rrule that fall on or after fromUtc and
+   * before toUtc.
+   * <p>Rules without BY* parts whose instances are a fixed number of seconds
+   * apart in UTC are counted arithmetically, so the cost does not depend on
+   * the number of instances.  Other rules are counted a month at a time by an
+   * {@link InstanceCounter} from the plan's day masks and the number of
+   * times each BY* part selects, adjusting for daylight savings shifts.  Only
+   * rules that it can't count, as with a BYSETPOS, are counted from the
+   * packed dates of an iterator advanced to fromUtc, without allocating a
+   * date per instance.</p>
+   * @param rrule the recurrence rule to count.
+   * @param dtStart the start of the series, in tzid.
+   * @param tzid the timezone to iterate in.
+   */
+  public static long count(
+      RRule rrule, DateValue dtStart, TimeZone tzid,
+      DateValue fromUtc, DateValue toUtc) {
+    long from = DateValueComparison.comparable(fromUtc);
+    long to = DateValueComparison.comparable(toUtc);
+    if (from >= to) { return 0; }
+    long stepSecs = arithmeticStepSecs(rrule, dtStart, tzid);
+    if (0 != stepSecs) {
+      return countArithmetic(rrule, stepSecs, dtStart, false, from, to);
+    }
+    RecurrencePlan plan = createRecurrencePlan(rrule, dtStart, tzid);
+    long n = plan.count(from, to);
+    return InstanceCounter.UNKNOWN != n ? n : count(plan.iterator(), from, to);
+  }
 
-    DateValue start = dtStart;
-    if (bySetPos.length != 0) {
-      // Roll back till the beginning of the period to make sure that any
-      // positive indices are indexed properly.
-      // The actual iterator implementation is responsible for anything
-      // < dtStart.
-      switch (freq) {
-        case YEARLY:
-          start = dtStart instanceof TimeValue
-              ? new DateTimeValueImpl(start.year(), 1, 1, 0, 0, 0)
-              : new DateValueImpl(start.year(), 1, 1);
-          break;
-        case MONTHLY:
-          start = dtStart instanceof TimeValue
-              ? new DateTimeValueImpl(start.year(), start.month(), 1, 0, 0, 0)
-              : new DateValueImpl(start.year(), start.month(), 1);
-          break;
-        case WEEKLY:
-          int d = (7 + wkst.ordinal() - Weekday.valueOf(dtStart).ordinal()) % 7;
-          start = TimeUtils.add(dtStart, new DateValueImpl(0, 0, -d));
-          break;
-        default: break;
+  /**
+   * the number of dates from the iterator on or after from and before to.
+   * @param from a {@link DateValueComparison#comparable}.
+   * @param to a {@link DateValueComparison#comparable}.
+   */
+  private static long count(PackedRecurrenceIterator it, long from, long to) {
+    it.advanceToPacked(from);
+    long[] batch = new long[COUNT_BATCH_SIZE];
+    long n = 0;
+    for (int len; (len = it.nextPacked(batch, 0, batch.length)) != 0;) {
+      for (int i = 0; i < len; ++i) {
+        if (batch[i] >= to) { return n; }
+        if (batch[i] >= from) { ++n; }
       }
     }
+    return n;
+  }
 
-    // recurrences are implemented as a sequence of periodic generators.
-    // First a year is generated, and then months, and within months, days
-    ThrottledGenerator yearGenerator = Generators.serialYearGenerator(
-        freq == Frequency.YEARLY ? interval : 1, dtStart);
-    Generator monthGenerator = null;
-    Generator dayGenerator = null;
-    Generator secondGenerator = null;
-    Generator minuteGenerator = null;
-    Generator hourGenerator = null;
-
-    // When multiple generators are specified for a period, they act as a union
-    // operator.  We could have multiple generators (for day say) and then
-    // run each and merge the results, but some generators are more efficient
-    // than others, so to avoid generating 53 sundays and throwing away all but
-    // 1 for RRULE:FREQ=YEARLY;BYDAY=TU;BYWEEKNO=1, we reimplement some of the
-    // more prolific generators as filters.
-    // TODO(msamuel): don't need a list here
-    List<Predicate<? super DateValue>> filters =
-      new ArrayList<Predicate<? super DateValue>>();
+  private static final int COUNT_BATCH_SIZE = 256;
 
-    switch (freq) {
-      case SECONDLY:
-        if (bySecond.length == 0 || interval != 1) {
-          secondGenerator = Generators.serialSecondGenerator(interval, dtStart);
-          if (bySecond.length != 0) {
-            filters.add(Filters.bySecondFilter(bySecond));
-          }
-        }
-        break;
-      case MINUTELY:
-        if (byMinute.length == 0 || interval != 1) {
-          minuteGenerator = Generators.serialMinuteGenerator(interval, dtStart);
-          if (byMinute.length != 0) {
-            filters.add(Filters.byMinuteFilter(byMinute));
-          }
-        }
-        break;
-      case HOURLY:
-        if (byHour.length == 0 || interval != 1) {
-          hourGenerator = Generators.serialHourGenerator(interval, dtStart);
-          if (byHour.length != 0) {
-            filters.add(Filters.byHourFilter(bySecond));
-          }
-        }
-        break;
-      case DAILY:
-        break;
-      case WEEKLY:
-        // week is not considered a period because a week may span multiple
-        // months &| years.  There are no week generators, but so a filter is
-        // used to make sure that FREQ=WEEKLY;INTERVAL=2 only generates dates
-        // within the proper week.
-        if (0 != byDay.length) {
-          dayGenerator = Generators.byDayGenerator(byDay, false, start);
-          byDay = NO_DAYS;
-          if (interval > 1) {
-            filters.add(Filters.weekIntervalFilter(interval, wkst, dtStart));
-          }
-        } else {
-          dayGenerator = Generators.serialDayGenerator(interval * 7, dtStart);
-        }
-        break;
-      case YEARLY:
-        if (0 != byYearDay.length) {
-          // The BYYEARDAY rule part specifies a COMMA separated list of days of
-          // the year. Valid values are 1 to 366 or -366 to -1. For example, -1
-          // represents the last day of the year (December 31st) and -306
-          // represents the 306th to the last day of the year (March 1st).
-          dayGenerator = Generators.byYearDayGenerator(byYearDay, start);
-          break;
-        }
-        // $FALL-THROUGH$
-      case MONTHLY:
-        if (0 != byMonthDay.length) {
-          // The BYMONTHDAY rule part specifies a COMMA separated list of days
-          // of the month. Valid values are 1 to 31 or -31 to -1. For example,
-          // -10 represents the tenth to the last day of the month.
-          dayGenerator = Generators.byMonthDayGenerator(byMonthDay, start);
-          byMonthDay = NO_INTS;
-        } else if (0 != byWeekNo.length && Frequency.YEARLY == freq) {
-          // The BYWEEKNO rule part specifies a COMMA separated list of ordinals
-          // specifying weeks of the year.  This rule part is only valid for
-          // YEARLY rules.
-          dayGenerator = Generators.byWeekNoGenerator(byWeekNo, wkst, start);
-          byWeekNo = NO_INTS;
-        } else if (0 != byDay.length) {
-          // Each BYDAY value can also be preceded by a positive (n) or negative
-          // (-n) integer. If present, this indicates the nth occurrence of the
-          // specific day within the MONTHLY or YEARLY RRULE. For example,
-          // within a MONTHLY rule, +1MO (or simply 1MO) represents the first
-          // Monday within the month, whereas -1MO represents the last Monday of
-          // the month. If an integer modifier is not present, it means all days
-          // of this type within the specified frequency. For example, within a
-          // MONTHLY rule, MO represents all Mondays within the month.
-          dayGenerator = Generators.byDayGenerator(
-              byDay, Frequency.YEARLY == freq && 0 == byMonth.length, start);
-          byDay = NO_DAYS;
+  /**
+   * true iff the given date is in the series described by a block of RRULE,
+   * EXRULE, RDATE, and EXDATE content lines.
+   * Each content line is tested on its own, so no iterators are merged, and
+   * exclusions trump inclusions as in
+   * {@link #createRecurrenceIterator(String,DateValue,TimeZone,boolean)}.
+   */
+  public static boolean contains(
+      String rdata, DateValue dtStart, TimeZone tzid, boolean strict,
+      DateValue dateUtc)
+      throws ParseException {
+    long date = DateValueComparison.comparable(dateUtc);
+    // always include DTStart
+    boolean included = date == DateValueComparison.comparable(
+        TimeUtils.toUtc(dtStart, tzid));
+    for (IcalObject contentLine : parseContentLines(rdata, tzid, strict)) {
+      String name = contentLine.getName();
+      boolean exclusion = "exrule".equalsIgnoreCase(name)
+          || "exdate".equalsIgnoreCase(name);
+      if (included && !exclusion) { continue; }
+      boolean matches;
+      try {
+        if ("rrule".equalsIgnoreCase(name)
+            || "exrule".equalsIgnoreCase(name)) {
+          matches = contains((RRule) contentLine, dtStart, tzid, dateUtc);
+        } else if ("rdate".equalsIgnoreCase(name)
+                   || "exdate".equalsIgnoreCase(name)) {
+          matches = contains((RDateList) contentLine, date);
         } else {
-          if (Frequency.YEARLY == freq) {
-            monthGenerator = Generators.byMonthGenerator(
-                new int[] { dtStart.month() }, start);
-          }
-          dayGenerator = Generators.byMonthDayGenerator(
-              new int[] { dtStart.day() }, start);
+          continue;
         }
-        break;
+      } catch (IllegalArgumentException ex) {
+        // bad frequency on rrule or exrule
+        if (strict) { throw ex; }
+        LOGGER.log(
+            Level.SEVERE,
+            "Dropping bad recurrence rule line: " + contentLine.toIcal(),
+            ex);
+        continue;
+      }
+      if (matches) {
+        if (exclusion) { return false; }
+        included = true;
+      }
     }
+    return included;
+  }
+
+  /**
+   * like {@link #contains(String,DateValue,TimeZone,boolean,DateValue)} but
+   * defaults to strict parsing.
+   */
+  public static boolean contains(
+      String rdata, DateValue dtStart, TimeZone tzid, DateValue dateUtc)
+      throws ParseException {
+    return contains(rdata, dtStart, tzid, true, dateUtc);
+  }
 
-    if (secondGenerator == null) {
-      secondGenerator = Generators.bySecondGenerator(bySecond, start);
+  /**
+   * true iff the given date is an instance of the rrule.
+   * <p>Rules that can be {@link #count counted} arithmetically are tested by
+   * computing the index of the date.  Other rules are tested against the
+   * plan's day masks, filters and intervals by an {@link InstanceCounter},
+   * which also counts the instances before the date for a COUNT.  Only rules
+   * that it can't count, as with a BYSETPOS, are tested by advancing an
+   * iterator to the date.  The COUNT is then only taken into account once the
+   * date is known to be an instance of the rule without it.</p>
+   * @param rrule the recurrence rule.
+   * @param dtStart the start of the series, in tzid.
+   * @param tzid the timezone to iterate in.
+   */
+  public static boolean contains(
+      RRule rrule, DateValue dtStart, TimeZone tzid, DateValue dateUtc) {
+    // Dates and date-times never match one another.
+    if ((dateUtc instanceof TimeValue) != (dtStart instanceof TimeValue)) {
+      return false;
     }
-    if (minuteGenerator == null) {
-      if (byMinute.length == 0 && freq.compareTo(Frequency.MINUTELY) < 0) {
-        minuteGenerator = Generators.serialMinuteGenerator(1, dtStart);
-      } else {
-        minuteGenerator = Generators.byMinuteGenerator(byMinute, start);
-      }
+    long date = DateValueComparison.comparable(dateUtc);
+    long stepSecs = arithmeticStepSecs(rrule, dtStart, tzid);
+    if (0 != stepSecs) {
+      return 1 == countArithmetic(
+          rrule, stepSecs, dtStart, false, date, date + 1);
     }
-    if (hourGenerator == null) {
-      if (byHour.length == 0 && freq.compareTo(Frequency.HOURLY) < 0) {
-        hourGenerator = Generators.serialHourGenerator(1, dtStart);
-      } else {
-        hourGenerator = Generators.byHourGenerator(byHour, start);
-      }
+    // Without daylight savings shifts, the month an instance is generated in
+    // is the month it falls in.
+    int[] byMonth = rrule.getByMonth();
+    if (byMonth.length != 0
+        && (!(dtStart instanceof TimeValue)
+            || tzid.hasSameRules(TimeUtils.utcTimezone()))
+        && Arrays.binarySearch(
+            RuleParts.uniquify(byMonth), dateUtc.month()) < 0) {
+      return false;
+    }
+    RecurrencePlan plan = createRecurrencePlan(rrule, dtStart, tzid);
+    long n = plan.count(date, date + 1);
+    if (InstanceCounter.UNKNOWN != n) { return 0 != n; }
+    if (0 != rrule.getCount()
+        && !contains(uncounted(rrule, dtStart, tzid).iterator(), date)) {
+      return false;
     }
+    return contains(plan.iterator(), date);
+  }
 
-    if (dayGenerator == null) {
-      boolean dailyOrMoreOften = freq.compareTo(Frequency.DAILY) <= 0;
-      if (byMonthDay.length != 0) {
-        dayGenerator = Generators.byMonthDayGenerator(byMonthDay, start);
-        byMonthDay = NO_INTS;
-      } else if (byDay.length != 0) {
-        dayGenerator = Generators.byDayGenerator(
-            byDay, Frequency.YEARLY == freq, start);
-        byDay = NO_DAYS;
-      } else if (dailyOrMoreOften) {
-        dayGenerator = Generators.serialDayGenerator(
-            Frequency.DAILY == freq ? interval : 1, dtStart);
-      } else {
-        dayGenerator = Generators.byMonthDayGenerator(
-            new int[] { dtStart.day() }, start);
-      }
+  /** true iff the given comparable is in the list. */
+  private static boolean contains(RDateList rdates, long date) {
+    return Arrays.binarySearch(rdates.getSortedPackedDatesUtc(), date) >= 0;
+  }
+
+  /** true iff the iterator yields the given comparable. */
+  private static boolean contains(PackedRecurrenceIterator it, long date) {
+    it.advanceToPacked(date);
+    return it.hasNext() && it.nextPacked() == date;
+  }
+
+  /**
+   * the date at the given zero-based index in the series described by a block
+   * of RRULE, EXRULE, RDATE, and EXDATE content lines, or null if the series
+   * has no more than index dates.
+   * Since inclusions and exclusions have to be merged, the dates before it are
+   * stepped over in packed form.
+   * @see #createRecurrenceIterator(String,DateValue,TimeZone,boolean)
+   */
+  public static DateValue occurrenceAt(
+      String rdata, DateValue dtStart, TimeZone tzid, boolean strict,
+      int index)
+      throws ParseException {
+    if (index < 0) { throw new IndexOutOfBoundsException("" + index); }
+    long date = skip(
+        createRecurrenceIterator(rdata, dtStart, tzid, strict), index);
+    return RRuleIteratorImpl.NO_DATE != date
+        ? DateValueComparison.fromComparable(date) : null;
+  }
+
+  /**
+   * like {@link #occurrenceAt(String,DateValue,TimeZone,boolean,int)} but
+   * defaults to strict parsing.
+   */
+  public static DateValue occurrenceAt(
+      String rdata, DateValue dtStart, TimeZone tzid, int index)
+      throws ParseException {
+    return occurrenceAt(rdata, dtStart, tzid, true, index);
+  }
+
+  /**
+   * the instance of the rrule at the given zero-based index, or null if the
+   * rule has no more than index instances.
+   * <p>Rules without BY* parts compute the instance directly.  Rules that
+   * recur daily or less often and whose years are alike, since they recur
+   * every year or are YEARLY, skip whole years at a time, using the number of
+   * instances in a year, which depends only on its
+   * {@link YearShapeMasks#shapeOf shape}.  The rest, including any with a
+   * BYSETPOS, step over the instances before it in packed form.</p>
+   * @param rrule the recurrence rule.
+   * @param dtStart the start of the series, in tzid.
+   * @param tzid the timezone to iterate in.
+   */
+  public static DateValue occurrenceAt(
+      RRule rrule, DateValue dtStart, TimeZone tzid, int index) {
+    if (index < 0) { throw new IndexOutOfBoundsException("" + index); }
+    int count = rrule.getCount();
+    if (0 != count && index >= count) { return null; }
+
+    long date;
+    long stepSecs = hasByParts(rrule)
+        ? 0 : fixedStepSecs(
+            rrule.getFreq(), Math.max(1, rrule.getInterval()), dtStart);
+    if (0 != stepSecs) {
+      // Every instance is yielded, so the nth is n steps from dtStart in local
+      // time.
+      DateTimeValue local = TimeUtils.timeFromSecsSinceEpoch(
+          TimeUtils.secsSinceEpoch(dtStart) + index * stepSecs);
+      date = dtStart instanceof TimeValue
+          ? DateValueComparison.comparable(TimeUtils.toUtc(local, tzid))
+          : DateValueComparison.comparable(
+              local.year(), local.month(), local.day());
+    } else {
+      date = occurrenceAtByYear(rrule, dtStart, tzid, index);
     }
 
-    if (0 != byDay.length) {
-      filters.add(Filters.byDayFilter(byDay, Frequency.YEARLY == freq, wkst));
-      byDay = NO_DAYS;
+    if (RRuleIteratorImpl.NO_DATE == date) { return null; }
+    // Like the iterator, only apply UNTIL from dtStart on, since a rule that
+    // runs out of work before reaching dtStart yields the instance it stopped
+    // at.
+    if (0 == count && null != rrule.getUntil()
+        && date > untilComparable(rrule.getUntil(), dtStart)
+        && date >= DateValueComparison.comparable(
+            TimeUtils.toUtc(dtStart, tzid))) {
+      return null;
     }
+    return DateValueComparison.fromComparable(date);
+  }
 
-    if (0 != byMonthDay.length) {
-      filters.add(Filters.byMonthDayFilter(byMonthDay));
+  /**
+   * the packed instance at the given index of the rule without its COUNT or
+   * UNTIL, or {@link RRuleIteratorImpl#NO_DATE}.
+   */
+  private static long occurrenceAtByYear(
+      RRule rrule, DateValue dtStart, TimeZone tzid, int index) {
+    RecurrenceIterable series = uncounted(rrule, dtStart, tzid);
+    Frequency freq = rrule.getFreq();
+    int interval = Math.max(1, rrule.getInterval());
+    int yearStep;
+    if (0 != rrule.getBySetPos().length) {
+      // A set may be drawn from two years, and the positions within it depend
+      // on the instances of both, so years don't have fixed counts.
+      return skip(series.iterator(), index);
+    } else if (Frequency.YEARLY == freq) {
+      yearStep = interval;
+    } else if (freq.compareTo(Frequency.DAILY) >= 0 && 1 == interval
+               // weekly rules step from dtStart unless they have a BYDAY
+               && !(Frequency.WEEKLY == freq && rrule.getByDay().isEmpty())) {
+      yearStep = 1;
+    } else {
+      return skip(series.iterator(), index);
     }
 
-    // generator inference common to all periods
-    if (0 != byMonth.length) {
-      monthGenerator = Generators.byMonthGenerator(byMonth, start);
-    } else if (null == monthGenerator) {
-      monthGenerator = Generators.serialMonthGenerator(
-          freq == Frequency.MONTHLY ? interval : 1, dtStart);
+    // The first years are stepped through, since their instances depend on
+    // dtStart, and sets of instances may spill into the next year.
+    int year = dtStart.year() + 2 * yearStep;
+    long yearStartUtc = startOfYearUtc(year, dtStart, tzid);
+    long remaining = index;
+    PackedRecurrenceIterator it = series.iterator();
+    boolean reachedYear = false;
+    while (it.hasNext()) {
+      long date = it.nextPacked();
+      if (date >= yearStartUtc) {
+        reachedYear = true;
+        break;
+      }
+      if (0 == remaining--) { return date; }
     }
+    if (!reachedYear) { return RRuleIteratorImpl.NO_DATE; }
 
-    // the condition tells the iterator when to halt.
-    // The condition is exclusive, so the date that triggers it will not be
-    // included.
-    Predicate<DateValue> condition;
-    boolean canShortcutAdvance = true;
-    if (0 != count) {
-      condition = Conditions.countCondition(count);
-      // We can't shortcut because the countCondition must see every generated
-      // instance.
-      // TODO(msamuel): if count is large, we might try predicting the end date
-      // so that we can convert the COUNT condition to an UNTIL condition.
-      canShortcutAdvance = false;
-    } else if (null != untilUtc) {
-      if ((untilUtc instanceof TimeValue) != (dtStart instanceof TimeValue)) {
-        // TODO(msamuel): warn
-        if (dtStart instanceof TimeValue) {
-          untilUtc = TimeUtils.dayStart(untilUtc);
-        } else {
-          untilUtc = TimeUtils.toDateValue(untilUtc);
+    long[] countsByShape = new long[YearShapeMasks.N_SHAPES];
+    Arrays.fill(countsByShape, -1);
+    int emptyYears = 0;
+    while (true) {
+      int shape = YearShapeMasks.shapeOf(year);
+      long nextYearStartUtc = startOfYearUtc(year + 1, dtStart, tzid);
+      if (countsByShape[shape] < 0) {
+        it = series.iterator();
+        advanceOverInstancesTo(it, yearStartUtc);
+        countsByShape[shape] = count(it, yearStartUtc, nextYearStartUtc);
+      }
+      long n = countsByShape[shape];
+      if (remaining < n) { break; }
+      remaining -= n;
+      if (0 == n) {
+        // give up where the year generator's throttle would
+        emptyYears += yearStep;
+        if (emptyYears >= Generators.MAX_YEARS_BETWEEN_INSTANCES) {
+          return RRuleIteratorImpl.NO_DATE;
         }
+      } else {
+        emptyYears = 0;
       }
-      condition = Conditions.untilCondition(untilUtc);
+      year += yearStep;
+      yearStartUtc = 1 == yearStep
+          ? nextYearStartUtc : startOfYearUtc(year, dtStart, tzid);
+    }
+
+    it = series.iterator();
+    advanceOverInstancesTo(it, yearStartUtc);
+    return skip(it, remaining);
+  }
+
+  /**
+   * advances the iterator to a date that the caller knows the series has
+   * instances before, so that skipping years doesn't trip the throttle that
+   * stops unproductive rules.
+   * @see RRuleIteratorImpl#advanceOverInstancesTo
+   */
+  private static void advanceOverInstancesTo(
+      PackedRecurrenceIterator it, long dateUtc) {
+    if (it instanceof RRuleIteratorImpl) {
+      ((RRuleIteratorImpl) it).advanceOverInstancesTo(dateUtc);
     } else {
-      condition = Predicates.<DateValue>alwaysTrue();
+      it.advanceToPacked(dateUtc);
     }
+  }
 
-    // combine filters into a single function
-    Predicate<? super DateValue> filter;
-    switch (filters.size()) {
-      case 0:
-        filter = Predicates.<DateValue>alwaysTrue();
-        break;
-      case 1:
-        filter = filters.get(0);
-        break;
-      default:
-        filter = Predicates.and(filters);
-        break;
+  /** the packed start of the given local year in UTC. */
+  private static long startOfYearUtc(
+      int year, DateValue dtStart, TimeZone tzid) {
+    return DateValueComparison.comparable(
+        dtStart instanceof TimeValue
+        ? TimeUtils.toUtc(new DateTimeValueImpl(year, 1, 1, 0, 0, 0), tzid)
+        : new DateValueImpl(year, 1, 1));
+  }
+
+  /**
+   * the date n dates after the next date from the iterator, or
+   * {@link RRuleIteratorImpl#NO_DATE} if there are not that many.
+   */
+  private static long skip(PackedRecurrenceIterator it, long n) {
+    long[] batch = new long[COUNT_BATCH_SIZE];
+    while (true) {
+      int len = it.nextPacked(
+          batch, 0, (int) Math.min(batch.length, n + 1));
+      if (0 == len) { return RRuleIteratorImpl.NO_DATE; }
+      if (n < len) { return batch[(int) n]; }
+      n -= len;
     }
+  }
 
-    if (false) {
-      System.err.println("  start=" + start + "\ndtStart=" + dtStart);
-      System.err.println("  yearGenerator=" + yearGenerator);
-      System.err.println(" monthGenerator=" + monthGenerator);
-      System.err.println("   dayGenerator=" + dayGenerator);
-      System.err.println("  hourGenerator=" + hourGenerator);
-      System.err.println("minuteGenerator=" + minuteGenerator);
-      System.err.println("secondGenerator=" + secondGenerator);
+  /**
+   * the number of seconds between successive instances of the rule in UTC, or
+   * 0 if the rule can't be counted arithmetically.
+   * Instances that are a fixed number of seconds apart in local time are only
+   * so in UTC if there are no daylight savings shifts, or no times to shift.
+   */
+  private static long arithmeticStepSecs(
+      RRule rrule, DateValue dtStart, TimeZone tzid) {
+    if (hasByParts(rrule)) { return 0; }
+    if (dtStart instanceof TimeValue
+        && !tzid.hasSameRules(TimeUtils.utcTimezone())) {
+      return 0;
     }
+    return fixedStepSecs(
+        rrule.getFreq(), Math.max(1, rrule.getInterval()), dtStart);
+  }
 
-    Generator instanceGenerator = null;
-    if (0 != bySetPos.length) {
-      instanceGenerator = InstanceGenerators.bySetPosInstanceGenerator(
-          bySetPos, freq, wkst, filter,
-          yearGenerator, monthGenerator, dayGenerator, hourGenerator,
-          minuteGenerator, secondGenerator);
-    } else {
-      instanceGenerator = InstanceGenerators.serialInstanceGenerator(
-          filter, yearGenerator, monthGenerator, dayGenerator,
-          hourGenerator, minuteGenerator, secondGenerator);
+  /**
+   * counts the instances of a rule whose nth instance is dtStart plus n times
+   * stepSecs, in UTC, that fall on or after from and before to, subject to the
+   * rule's COUNT or UNTIL.
+   * @param includeDtStart true if dtStart is an instance even if the COUNT or
+   *   UNTIL excludes it, as in an rdata block.
+   */
+  private static long countArithmetic(
+      RRule rrule, long stepSecs, DateValue dtStart, boolean includeDtStart,
+      long from, long to) {
+    long startSecs = TimeUtils.secsSinceEpoch(dtStart);
+    boolean timed = dtStart instanceof TimeValue;
+    // the index past the last instance
+    long end = Long.MAX_VALUE;
+    DateValue untilUtc = rrule.getUntil();
+    if (0 != rrule.getCount()) {
+      end = rrule.getCount();
+    } else if (null != untilUtc) {
+      end = firstIndexOnOrAfter(
+          untilComparable(untilUtc, dtStart) + 1, startSecs, stepSecs, timed);
     }
+    if (includeDtStart) { end = Math.max(end, 1); }
+    long first = Math.min(
+        firstIndexOnOrAfter(from, startSecs, stepSecs, timed), end);
+    long last = Math.min(
+        firstIndexOnOrAfter(to, startSecs, stepSecs, timed), end);
+    return last - first;
+  }
 
-    return new RRuleIteratorImpl(
-        dtStart, tzid, condition, instanceGenerator,
-        yearGenerator, monthGenerator, dayGenerator,
-        hourGenerator, minuteGenerator, secondGenerator,
-        canShortcutAdvance);
+  /**
+   * the comparable of an UNTIL, converted to a date or a date-time as dtStart
+   * is, as in {@link #createRecurrenceIterator(RRule,DateValue,TimeZone)}.
+   */
+  private static long untilComparable(DateValue untilUtc, DateValue dtStart) {
+    if ((untilUtc instanceof TimeValue) != (dtStart instanceof TimeValue)) {
+      untilUtc = dtStart instanceof TimeValue
+          ? TimeUtils.dayStart(untilUtc) : TimeUtils.toDateValue(untilUtc);
+    }
+    return DateValueComparison.comparable(untilUtc);
+  }
+
+  /**
+   * the least n such that the nth instance of an arithmetic rule is on or after
+   * the given comparable.
+   */
+  private static long firstIndexOnOrAfter(
+      long comparable, long startSecs, long stepSecs, boolean timed) {
+    long delta = DateValueComparison.secsSinceEpoch(comparable) - startSecs;
+    long n = delta <= 0 ? 0 : (delta + stepSecs - 1) / stepSecs;
+    // A date without a time sorts before any time on the same day, so the
+    // estimate may be one off.
+    while (n > 0
+           && instance(n - 1, startSecs, stepSecs, timed) >= comparable) {
+      --n;
+    }
+    while (instance(n, startSecs, stepSecs, timed) < comparable) {
+      ++n;
+    }
+    return n;
+  }
+
+  /** the comparable of the nth instance of an arithmetic rule. */
+  private static long instance(
+      long n, long startSecs, long stepSecs, boolean timed) {
+    DateTimeValue t = TimeUtils.timeFromSecsSinceEpoch(
+        startSecs + n * stepSecs);
+    return timed
+        ? DateValueComparison.comparable(t)
+        : DateValueComparison.comparable(t.year(), t.month(), t.day());
+  }
+
+  /** true iff the rule has any BY* parts. */
+  static boolean hasByParts(RRule rrule) {
+    return !rrule.getByDay().isEmpty() || rrule.getByMonth().length != 0
+        || rrule.getByMonthDay().length != 0
+        || rrule.getByWeekNo().length != 0
+        || rrule.getByYearDay().length != 0
+        || rrule.getBySetPos().length != 0 || rrule.getByHour().length != 0
+        || rrule.getByMinute().length != 0
+        || rrule.getBySecond().length != 0;
+  }
+
+  /** an iterable over the given rule with any COUNT or UNTIL removed. */
+  private static RecurrenceIterable uncounted(
+      RRule rrule, DateValue dtStart, TimeZone tzid) {
+    return createRecurrencePlan(uncountedRule(rrule), dtStart, tzid);
+  }
+
+  /**
+   * a copy of the given rule with any COUNT or UNTIL removed.
+   * The rule is copied so that later changes to it don't affect the result.
+   */
+  private static RRule uncountedRule(RRule rrule) {
+    RRule copy = new RRule();
+    copy.setFreq(rrule.getFreq());
+    copy.setWkSt(rrule.getWkSt());
+    copy.setInterval(rrule.getInterval());
+    copy.setByDay(new ArrayList<WeekdayNum>(rrule.getByDay()));
+    copy.setByMonth(rrule.getByMonth().clone());
+    copy.setByMonthDay(rrule.getByMonthDay().clone());
+    copy.setByWeekNo(rrule.getByWeekNo().clone());
+    copy.setByYearDay(rrule.getByYearDay().clone());
+    copy.setBySetPos(rrule.getBySetPos().clone());
+    copy.setByHour(rrule.getByHour().clone());
+    copy.setByMinute(rrule.getByMinute().clone());
+    copy.setBySecond(rrule.getBySecond().clone());
+    return copy;
+  }
+
+  /**
+   * the number of seconds between successive instances of a rule with the
+   * given frequency and interval and no BY* parts, or 0 if the instances are
+   * not a fixed number of seconds apart.
+   * Months and years vary in length, and sub-daily rules are only
+   * fixed-width when dtStart has a time, since otherwise the time is dropped.
+   */
+  static long fixedStepSecs(
+      Frequency freq, int interval, DateValue dtStart) {
+    long unit;
+    switch (freq) {
+      case SECONDLY: unit = 1; break;
+      case MINUTELY: unit = 60; break;
+      case HOURLY: unit = 60 * 60; break;
+      case DAILY: unit = 24 * 60 * 60; break;
+      case WEEKLY: unit = 7 * 24 * 60 * 60; break;
+      default: return 0;
+    }
+    if (unit < 24 * 60 * 60 && !(dtStart instanceof TimeValue)) { return 0; }
+    long stepSecs = unit * interval;
+    // Leave rules with gaps long enough to trip the year generator's throttle
+    // to the period generators, so that they halt in the same place.
+    if (stepSecs / (24 * 60 * 60)
+        >= 365L * (Generators.MAX_YEARS_BETWEEN_INSTANCES - 1)) {
+      return 0;
+    }
+    return stepSecs;
   }
 
   /**
@@ -528,16 +989,37 @@ public class RecurrenceIteratorFactory {
   private static IcalObject[] parseContentLines(
       String rdata, TimeZone tzid, boolean strict)
       throws ParseException {
+    return parseContentLines(rdata, tzid, strict, null, null);
+  }
+
+  /**
+   * @param cache if non null, rules are fetched from it instead of being
+   *   parsed.  The rules returned are then shared, so must not be modified.
+   * @param cachedRulesOut if cache is non null, receives for each content
+   *   line returned, its rule from the cache or null if it is not a rule.
+   */
+  private static IcalObject[] parseContentLines(
+      String rdata, TimeZone tzid, boolean strict,
+      RecurrencePlanCache cache,
+      List<RecurrencePlanCache.CachedRule> cachedRulesOut)
+      throws ParseException {
     String unfolded = FOLD.matcher(rdata).replaceAll("").trim();
     if ("".equals(unfolded)) { return new IcalObject[0]; }
     String[] lines = NEWLINE.split(unfolded);
     IcalObject[] out = new IcalObject[lines.length];
+    RecurrencePlanCache.CachedRule[] cachedRules =
+        new RecurrencePlanCache.CachedRule[lines.length];
     int nbad = 0;
     for (int i = 0; i < lines.length; ++i) {
       String line = lines[i].trim();
       try {
         if (RULE.matcher(line).find()) {
-          out[i] = new RRule(line);
+          if (null != cache) {
+            cachedRules[i] = cache.rule(line);
+            out[i] = cachedRules[i].rule;
+          } else {
+            out[i] = new RRule(line);
+          }
         } else if (DATE.matcher(line).find()) {
           out[i] = new RDateList(line, tzid);
         } else {
@@ -561,38 +1043,23 @@ public class RecurrenceIteratorFactory {
     }
     if (0 != nbad) {
       IcalObject[] trimmed = new IcalObject[out.length - nbad];
+      RecurrencePlanCache.CachedRule[] trimmedRules =
+          new RecurrencePlanCache.CachedRule[trimmed.length];
       for (int i = 0, k = 0; i < trimmed.length; ++k) {
-        if (null != out[k]) { trimmed[i++] = out[k]; }
+        if (null != out[k]) {
+          trimmedRules[i] = cachedRules[k];
+          trimmed[i++] = out[k];
+        }
       }
       out = trimmed;
+      cachedRules = trimmedRules;
     }
-    return out;
-  }
-
-  /**
-   * Given an array like BYMONTH=2,3,4,5 and a set pos like BYSETPOS=1,-1
-   * reduce both clauses to a single one, BYMONTH=2,5 in the preceding.
-   */
-  private static int[] filterBySetPos(int[] members, int[] bySetPos) {
-    members = Util.uniquify(members);
-    IntSet iset = new IntSet();
-    for (int pos : bySetPos) {
-      if (pos == 0) { continue; }
-      if (pos < 0) {
-        pos += members.length;
-      } else {
-        --pos;  // Zero-index.
-      }
-      if (pos >= 0 && pos < members.length) {
-        iset.add(members[pos]);
-      }
+    if (null != cachedRulesOut) {
+      cachedRulesOut.addAll(Arrays.asList(cachedRules));
     }
-    return iset.toIntArray();
+    return out;
   }
 
-  private static final int[] NO_INTS = new int[0];
-  private static final WeekdayNum[] NO_DAYS = new WeekdayNum[0];
-
   private RecurrenceIteratorFactory() {
     // uninstantiable
   }
@@ -0,0 +1,705 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.iter;
+
+import com.google.ical.util.PackedDates;
+import com.google.ical.util.RuleParts;
+import com.google.ical.util.TimeUtils;
+import com.google.ical.values.DateTimeValueImpl;
+import com.google.ical.values.DateValue;
+import com.google.ical.values.DateValueImpl;
+import com.google.ical.values.Frequency;
+import com.google.ical.values.RRule;
+import com.google.ical.values.TimeValue;
+import com.google.ical.values.Weekday;
+import com.google.ical.values.WeekdayNum;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * a recurrence rule compiled for a particular start date and timezone, which
+ * can be iterated many times.
+ *
+ * <p>Generators are stateful, so each iterator needs its own, but most of the
+ * work of creating them, such as deciding which generators and filters a rule
+ * needs, folding BYSETPOS into other rule parts, and computing the days
+ * selected in each {@link YearShapeMasks shape of year}, depends only on the
+ * rule.  A plan does that work once, so {@link #iterator} only has to create
+ * the generators themselves.</p>
+ *
+ * <p>Plans are immutable, and so may be shared between threads.  The iterators
+ * they create are not.</p>
+ *
+ * @see RecurrenceIteratorFactory#createRecurrencePlan
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+public final class RecurrencePlan implements RecurrenceIterable {
+
+  private final DateValue dtStart;
+  private final TimeZone tzid;
+  /** true if the rule can never generate a date. */
+  private final boolean empty;
+
+  private final Frequency freq;
+  private final Weekday wkst;
+  private final int interval;
+  private final int[] bySetPos;
+  /**
+   * the date from which the period generators start, which is rolled back to
+   * the start of the period when there is a BYSETPOS.
+   */
+  private final DateValue start;
+  /** see {@link RecurrenceIteratorFactory#fixedStepSecs}. */
+  private final long arithmeticStepSecs;
+
+  /** the interval of a serial month generator, or 0 to use byMonth. */
+  private final int monthInterval;
+  private final int[] byMonth;
+  /**
+   * the days yielded by the day generator, or null to generate days serially
+   * every dayInterval.
+   */
+  private final YearShapeMasks dayMasks;
+  private final boolean dayMasksSkipBeforeStart;
+  private final String dayGeneratorName;
+  private final int dayInterval;
+  /** the interval of a serial hour generator, or 0 to use byHour. */
+  private final int hourInterval;
+  private final int[] byHour;
+  /** the interval of a serial minute generator, or 0 to use byMinute. */
+  private final int minuteInterval;
+  private final int[] byMinute;
+  /** the interval of a serial second generator, or 0 to use bySecond. */
+  private final int secondInterval;
+  private final int[] bySecond;
+
+  /** filters are stateless so can be shared by all iterators. */
+  private final PackedPredicate filter;
+  /** the filters that do not depend on dtStart. */
+  private final PackedPredicate startIndependentFilter;
+  /** the filter on the field that freq names, which is the only time filter. */
+  private final PackedPredicate timeFilter;
+  /** the filters that do not depend on dtStart and read only the date. */
+  private final PackedPredicate startIndependentDayFilter;
+  /**
+   * the interval of a FREQ=WEEKLY rule whose weeks are filtered relative to
+   * dtStart's, or 0.
+   */
+  private final int weekFilterInterval;
+  /** the COUNT or 0 if none. */
+  private final int count;
+  /** the condition for rules without a COUNT, which is stateless. */
+  private final PackedPredicate uncountedCondition;
+  /**
+   * the UNTIL as a {@link DateValueComparison#comparable} of the same type as
+   * dtStart, or {@link RRuleIteratorImpl#NO_DATE}.
+   */
+  private final long until;
+  /**
+   * the instances of a COUNT rule that an iterator last counted before a
+   * date, or null.  Iterators over a series walked backwards, a window at a
+   * time, advance to dates near one another, so each need only count the
+   * instances between its date and the last.  Plans are shared between
+   * threads, so checkpoints are replaced, never modified.
+   */
+  private volatile CountCheckpoint checkpoint;
+
+  /**
+   * @param rrule the recurrence rule to iterate.  Later changes to it do not
+   *   affect the plan.
+   * @param dtStart the start of the series, in tzid.
+   * @param tzid the timezone to iterate in.
+   */
+  RecurrencePlan(RRule rrule, DateValue dtStart, TimeZone tzid) {
+    assert null != tzid;
+    assert null != dtStart;
+
+    this.dtStart = dtStart;
+    this.tzid = tzid;
+    this.empty = RuleAnalyzer.isEmpty(rrule, dtStart);
+
+    Frequency freq = rrule.getFreq();
+    Weekday wkst = rrule.getWkSt();
+    DateValue untilUtc = rrule.getUntil();
+    int count = rrule.getCount();
+    int interval = rrule.getInterval();
+    WeekdayNum[] byDay = rrule.getByDay().toArray(new WeekdayNum[0]);
+    int[] byMonth = rrule.getByMonth().clone();
+    int[] byMonthDay = rrule.getByMonthDay().clone();
+    int[] byWeekNo = rrule.getByWeekNo().clone();
+    int[] byYearDay = rrule.getByYearDay().clone();
+    int[] bySetPos = rrule.getBySetPos().clone();
+    int[] byHour = rrule.getByHour().clone();
+    int[] byMinute = rrule.getByMinute().clone();
+    int[] bySecond = rrule.getBySecond().clone();
+
+    if (interval <= 0) {  interval = 1; }
+
+    if (null == wkst) {
+      wkst = Weekday.MO;
+    }
+
+    // Rules without any BY* parts step a fixed amount from dtStart, so can be
+    // computed arithmetically instead of via the period generators.
+    long arithmeticStepSecs = 0;
+    if (!RecurrenceIteratorFactory.hasByParts(rrule)) {
+      arithmeticStepSecs = RecurrenceIteratorFactory.fixedStepSecs(
+          freq, interval, dtStart);
+    }
+
+    // Optimize out BYSETPOS where possible.
+    if (bySetPos.length != 0) {
+      switch (freq) {
+        case HOURLY:
+          // ;BYHOUR=3,6,9;BYSETPOS=-1,1
+          //     is equivalent to
+          // ;BYHOUR=3,9
+          if (byHour.length != 0 && byMinute.length <= 1
+              && bySecond.length <= 1) {
+            byHour = RuleParts.filterBySetPos(byHour, bySetPos);
+          }
+          // Handling bySetPos for rules that are more frequent than daily
+          // tends to lead to large amounts of processor being used before other
+          // work limiting features can kick in since there many seconds between
+          // dtStart and where the year limit kicks in.
+          // There are no known use cases for the use of bySetPos with hourly
+          // minutely and secondly rules so we just ignore it.
+          bySetPos = NO_INTS;
+          break;
+        case MINUTELY:
+          // ;BYHOUR=3,6,9;BYSETPOS=-1,1
+          //     is equivalent to
+          // ;BYHOUR=3,9
+          if (byMinute.length != 0 && bySecond.length <= 1) {
+            byMinute = RuleParts.filterBySetPos(byMinute, bySetPos);
+          }
+          // See bySetPos handling comment above.
+          bySetPos = NO_INTS;
+          break;
+        case SECONDLY:
+          // ;BYHOUR=3,6,9;BYSETPOS=-1,1
+          //     is equivalent to
+          // ;BYHOUR=3,9
+          if (bySecond.length != 0) {
+            bySecond = RuleParts.filterBySetPos(bySecond, bySetPos);
+          }
+          // See bySetPos handling comment above.
+          bySetPos = NO_INTS;
+          break;
+        default:
+      }
+    }
+
+    DateValue start = periodStart(freq, wkst, bySetPos, dtStart);
+
+    // recurrences are implemented as a sequence of periodic generators.
+    // First a year is generated, and then months, and within months, days.
+    // Here we decide which generators to use, and create them in iterator().
+    int[] monthGeneratorMonths = null;
+    YearShapeMasks dayMasks = null;
+    boolean dayMasksSkipBeforeStart = false;
+    String dayGeneratorName = null;
+    int dayInterval = 0;
+    int hourInterval = 0;
+    int minuteInterval = 0;
+    int secondInterval = 0;
+    int weekFilterInterval = 0;
+
+    // When multiple generators are specified for a period, they act as a union
+    // operator.  We could have multiple generators (for day say) and then
+    // run each and merge the results, but some generators are more efficient
+    // than others, so to avoid generating 53 sundays and throwing away all but
+    // 1 for RRULE:FREQ=YEARLY;BYDAY=TU;BYWEEKNO=1, we reimplement some of the
+    // more prolific generators as filters.
+    // TODO(msamuel): don't need a list here
+    List<PackedPredicate> dayFilters = new ArrayList<PackedPredicate>();
+    PackedPredicate timeFilter = PackedPredicate.ALWAYS_TRUE;
+
+    switch (freq) {
+      case SECONDLY:
+        if (bySecond.length == 0 || interval != 1) {
+          secondInterval = interval;
+          if (bySecond.length != 0) {
+            timeFilter = Filters.bySecondFilter(bySecond);
+          }
+        }
+        break;
+      case MINUTELY:
+        if (byMinute.length == 0 || interval != 1) {
+          minuteInterval = interval;
+          if (byMinute.length != 0) {
+            timeFilter = Filters.byMinuteFilter(byMinute);
+          }
+        }
+        break;
+      case HOURLY:
+        if (byHour.length == 0 || interval != 1) {
+          hourInterval = interval;
+          if (byHour.length != 0) {
+            timeFilter = Filters.byHourFilter(bySecond);
+          }
+        }
+        break;
+      case DAILY:
+        break;
+      case WEEKLY:
+        // week is not considered a period because a week may span multiple
+        // months &| years.  There are no week generators, but so a filter is
+        // used to make sure that FREQ=WEEKLY;INTERVAL=2 only generates dates
+        // within the proper week.
+        if (0 != byDay.length) {
+          dayMasks = Generators.byDayMasks(byDay, false);
+          dayMasksSkipBeforeStart = true;
+          dayGeneratorName = Generators.byDayGeneratorName(byDay, false);
+          byDay = NO_DAYS;
+          if (interval > 1) {
+            weekFilterInterval = interval;
+          }
+        } else {
+          dayInterval = interval * 7;
+        }
+        break;
+      case YEARLY:
+        if (0 != byYearDay.length) {
+          // The BYYEARDAY rule part specifies a COMMA separated list of days of
+          // the year. Valid values are 1 to 366 or -366 to -1. For example, -1
+          // represents the last day of the year (December 31st) and -306
+          // represents the 306th to the last day of the year (March 1st).
+          dayMasks = Generators.byYearDayMasks(byYearDay);
+          dayGeneratorName = "byYearDayGenerator";
+          break;
+        }
+        // $FALL-THROUGH$
+      case MONTHLY:
+        if (0 != byMonthDay.length) {
+          // The BYMONTHDAY rule part specifies a COMMA separated list of days
+          // of the month. Valid values are 1 to 31 or -31 to -1. For example,
+          // -10 represents the tenth to the last day of the month.
+          dayMasks = Generators.byMonthDayMasks(byMonthDay);
+          dayGeneratorName = "byMonthDayGenerator";
+          byMonthDay = NO_INTS;
+        } else if (0 != byWeekNo.length && Frequency.YEARLY == freq) {
+          // The BYWEEKNO rule part specifies a COMMA separated list of ordinals
+          // specifying weeks of the year.  This rule part is only valid for
+          // YEARLY rules.
+          dayMasks = Generators.byWeekNoMasks(byWeekNo, wkst);
+          dayGeneratorName = "byWeekNoGenerator";
+          byWeekNo = NO_INTS;
+        } else if (0 != byDay.length) {
+          // Each BYDAY value can also be preceded by a positive (n) or negative
+          // (-n) integer. If present, this indicates the nth occurrence of the
+          // specific day within the MONTHLY or YEARLY RRULE. For example,
+          // within a MONTHLY rule, +1MO (or simply 1MO) represents the first
+          // Monday within the month, whereas -1MO represents the last Monday of
+          // the month. If an integer modifier is not present, it means all days
+          // of this type within the specified frequency. For example, within a
+          // MONTHLY rule, MO represents all Mondays within the month.
+          boolean weeksInYear =
+              Frequency.YEARLY == freq && 0 == byMonth.length;
+          dayMasks = Generators.byDayMasks(byDay, weeksInYear);
+          dayMasksSkipBeforeStart = true;
+          dayGeneratorName = Generators.byDayGeneratorName(byDay, weeksInYear);
+          byDay = NO_DAYS;
+        } else {
+          if (Frequency.YEARLY == freq) {
+            monthGeneratorMonths = new int[] { dtStart.month() };
+          }
+          dayMasks = Generators.byMonthDayMasks(new int[] { dtStart.day() });
+          dayGeneratorName = "byMonthDayGenerator";
+        }
+        break;
+    }
+
+    if (0 == minuteInterval
+        && byMinute.length == 0 && freq.compareTo(Frequency.MINUTELY) < 0) {
+      minuteInterval = 1;
+    }
+    if (0 == hourInterval
+        && byHour.length == 0 && freq.compareTo(Frequency.HOURLY) < 0) {
+      hourInterval = 1;
+    }
+
+    if (null == dayMasks && 0 == dayInterval) {
+      boolean dailyOrMoreOften = freq.compareTo(Frequency.DAILY) <= 0;
+      if (byMonthDay.length != 0) {
+        dayMasks = Generators.byMonthDayMasks(byMonthDay);
+        dayGeneratorName = "byMonthDayGenerator";
+        byMonthDay = NO_INTS;
+      } else if (byDay.length != 0) {
+        boolean weeksInYear = Frequency.YEARLY == freq;
+        dayMasks = Generators.byDayMasks(byDay, weeksInYear);
+        dayMasksSkipBeforeStart = true;
+        dayGeneratorName = Generators.byDayGeneratorName(byDay, weeksInYear);
+        byDay = NO_DAYS;
+      } else if (dailyOrMoreOften) {
+        dayInterval = Frequency.DAILY == freq ? interval : 1;
+      } else {
+        dayMasks = Generators.byMonthDayMasks(new int[] { dtStart.day() });
+        dayGeneratorName = "byMonthDayGenerator";
+      }
+    }
+
+    if (0 != byDay.length) {
+      dayFilters.add(
+          Filters.byDayFilter(byDay, Frequency.YEARLY == freq, wkst));
+      byDay = NO_DAYS;
+    }
+
+    if (0 != byMonthDay.length) {
+      dayFilters.add(Filters.byMonthDayFilter(byMonthDay));
+    }
+
+    // generator inference common to all periods
+    int monthInterval = 0;
+    if (0 != byMonth.length) {
+      monthGeneratorMonths = byMonth;
+    } else if (null == monthGeneratorMonths) {
+      monthInterval = freq == Frequency.MONTHLY ? interval : 1;
+    }
+
+    // the condition tells the iterator when to halt.
+    // The condition is exclusive, so the date that triggers it will not be
+    // included.
+    PackedPredicate uncountedCondition = null;
+    long until = RRuleIteratorImpl.NO_DATE;
+    if (0 != count) {
+      // Count conditions are stateful so are created in iterator().
+    } else if (null != untilUtc) {
+      if ((untilUtc instanceof TimeValue) != (dtStart instanceof TimeValue)) {
+        // TODO(msamuel): warn
+        if (dtStart instanceof TimeValue) {
+          untilUtc = TimeUtils.dayStart(untilUtc);
+        } else {
+          untilUtc = TimeUtils.toDateValue(untilUtc);
+        }
+      }
+      until = DateValueComparison.comparable(untilUtc);
+      uncountedCondition = Conditions.untilCondition(untilUtc);
+    } else {
+      uncountedCondition = PackedPredicate.ALWAYS_TRUE;
+    }
+
+    this.freq = freq;
+    this.wkst = wkst;
+    this.interval = interval;
+    this.bySetPos = bySetPos;
+    this.start = start;
+    this.arithmeticStepSecs = arithmeticStepSecs;
+    this.monthInterval = monthInterval;
+    this.byMonth = monthGeneratorMonths;
+    this.dayMasks = dayMasks;
+    this.dayMasksSkipBeforeStart = dayMasksSkipBeforeStart;
+    this.dayGeneratorName = dayGeneratorName;
+    this.dayInterval = dayInterval;
+    this.hourInterval = hourInterval;
+    this.byHour = byHour;
+    this.minuteInterval = minuteInterval;
+    this.byMinute = byMinute;
+    this.secondInterval = secondInterval;
+    this.bySecond = bySecond;
+    // combine filters into a single function
+    List<PackedPredicate> filters = new ArrayList<PackedPredicate>();
+    filters.add(timeFilter);
+    filters.addAll(dayFilters);
+    this.startIndependentFilter = Filters.and(filters);
+    this.timeFilter = timeFilter;
+    this.startIndependentDayFilter = Filters.and(dayFilters);
+    this.weekFilterInterval = weekFilterInterval;
+    this.filter = withWeekFilter(
+        startIndependentFilter, weekFilterInterval, wkst, dtStart);
+    this.count = count;
+    this.uncountedCondition = uncountedCondition;
+    this.until = until;
+  }
+
+  /** see {@link #withStart}. */
+  private RecurrencePlan(
+      RecurrencePlan plan, RRule rrule, DateValue dtStart) {
+    this.dtStart = dtStart;
+    this.tzid = plan.tzid;
+    this.empty = RuleAnalyzer.isEmpty(rrule, dtStart);
+    this.freq = plan.freq;
+    this.wkst = plan.wkst;
+    this.interval = plan.interval;
+    this.bySetPos = plan.bySetPos;
+    this.start = periodStart(freq, wkst, bySetPos, dtStart);
+    this.arithmeticStepSecs = plan.arithmeticStepSecs;
+    this.monthInterval = plan.monthInterval;
+    this.byMonth = plan.byMonth;
+    this.dayMasks = plan.dayMasks;
+    this.dayMasksSkipBeforeStart = plan.dayMasksSkipBeforeStart;
+    this.dayGeneratorName = plan.dayGeneratorName;
+    this.dayInterval = plan.dayInterval;
+    this.hourInterval = plan.hourInterval;
+    this.byHour = plan.byHour;
+    this.minuteInterval = plan.minuteInterval;
+    this.byMinute = plan.byMinute;
+    this.secondInterval = plan.secondInterval;
+    this.bySecond = plan.bySecond;
+    this.startIndependentFilter = plan.startIndependentFilter;
+    this.timeFilter = plan.timeFilter;
+    this.startIndependentDayFilter = plan.startIndependentDayFilter;
+    this.weekFilterInterval = plan.weekFilterInterval;
+    this.filter = withWeekFilter(
+        startIndependentFilter, weekFilterInterval, wkst, dtStart);
+    this.count = plan.count;
+    this.uncountedCondition = plan.uncountedCondition;
+    this.until = plan.until;
+  }
+
+  /**
+   * a plan for the same rule from another start with the same
+   * {@link #startShape}, which shares this plan's masks and filters instead of
+   * compiling the rule again.
+   * @param rrule the rule that this plan was compiled from.
+   * @param dtStart the start of the series, in this plan's timezone.
+   */
+  RecurrencePlan withStart(RRule rrule, DateValue dtStart) {
+    assert startShape(rrule, dtStart) == startShape(rrule, this.dtStart);
+    if (DateValueComparison.comparable(dtStart)
+        == DateValueComparison.comparable(this.dtStart)) {
+      return this;
+    }
+    return new RecurrencePlan(this, rrule, dtStart);
+  }
+
+  /**
+   * the parts of dtStart that a plan for rrule is compiled from, so plans for
+   * starts with the same shape differ only in what {@link #withStart}
+   * recomputes.
+   * Those parts are whether dtStart has a time, and the month and day for
+   * MONTHLY and YEARLY rules that take their day, and for YEARLY rules their
+   * month, from dtStart.
+   */
+  static int startShape(RRule rrule, DateValue dtStart) {
+    int shape = dtStart instanceof TimeValue ? 1 : 0;
+    Frequency freq = rrule.getFreq();
+    boolean yearly = Frequency.YEARLY == freq;
+    if ((yearly || Frequency.MONTHLY == freq)
+        && 0 == rrule.getByMonthDay().length && rrule.getByDay().isEmpty()
+        && !(yearly && (0 != rrule.getByYearDay().length
+                        || 0 != rrule.getByWeekNo().length))) {
+      shape |= dtStart.day() << 1;
+      if (yearly && 0 == rrule.getByMonth().length) {
+        shape |= dtStart.month() << 6;
+      }
+    }
+    return shape;
+  }
+
+  /** a new iterator over the dates generated by the rule, in UTC. */
+  public RecurrenceIterator iterator() {
+    if (empty) {
+      // Don't spin until the year generator gives up.
+      return new RDateIteratorImpl(NO_DATES);
+    }
+
+    ThrottledGenerator yearGenerator = Generators.serialYearGenerator(
+        freq == Frequency.YEARLY ? interval : 1, dtStart);
+    Generator monthGenerator = 0 != monthInterval
+        ? Generators.serialMonthGenerator(monthInterval, dtStart)
+        : Generators.byMonthGenerator(byMonth, start);
+    Generator dayGenerator = null != dayMasks
+        ? Generators.maskedDayGenerator(
+            dayMasks, start, dayMasksSkipBeforeStart, dayGeneratorName)
+        : Generators.serialDayGenerator(dayInterval, dtStart);
+    Generator hourGenerator = 0 != hourInterval
+        ? Generators.serialHourGenerator(hourInterval, dtStart)
+        : Generators.byHourGenerator(byHour, start);
+    Generator minuteGenerator = 0 != minuteInterval
+        ? Generators.serialMinuteGenerator(minuteInterval, dtStart)
+        : Generators.byMinuteGenerator(byMinute, start);
+    Generator secondGenerator = 0 != secondInterval
+        ? Generators.serialSecondGenerator(secondInterval, dtStart)
+        : Generators.bySecondGenerator(bySecond, start);
+
+    Generator instanceGenerator;
+    if (0 != arithmeticStepSecs) {
+      instanceGenerator = InstanceGenerators.arithmeticInstanceGenerator(
+          arithmeticStepSecs, dtStart);
+    } else if (0 != bySetPos.length) {
+      instanceGenerator = InstanceGenerators.bySetPosInstanceGenerator(
+          bySetPos, freq, wkst, filter,
+          yearGenerator, monthGenerator, dayGenerator, hourGenerator,
+          minuteGenerator, secondGenerator);
+    } else {
+      instanceGenerator = InstanceGenerators.serialInstanceGenerator(
+          filter, yearGenerator, monthGenerator, dayGenerator,
+          hourGenerator, minuteGenerator, secondGenerator);
+    }
+
+    // We can't shortcut advancing a counted rule because the countCondition
+    // must see every generated instance, unless the iterator can count the
+    // instances it skips.  See RRuleIteratorImpl#countUsing.
+    RRuleIteratorImpl it = new RRuleIteratorImpl(
+        dtStart, tzid,
+        0 != count ? Conditions.countCondition(count) : uncountedCondition,
+        instanceGenerator,
+        yearGenerator, monthGenerator, dayGenerator,
+        hourGenerator, minuteGenerator, secondGenerator,
+        0 == count);
+    if (0 != count) {
+      it.countUsing(this, count);
+    }
+    return it;
+  }
+
+  /**
+   * a counter for the instances of this plan after the given first instance
+   * of an iterator over it, or null if they can't be counted without
+   * generating them, as when the rule has a BYSETPOS.
+   * @param firstUtc the first instance as a
+   *   {@link DateValueComparison#comparable}.
+   * @param firstLocalSecs the first instance in local seconds since the
+   *   epoch.
+   */
+  InstanceCounter counter(long firstUtc, long firstLocalSecs) {
+    if (empty || 0 != bySetPos.length
+        || !InstanceCounter.canCount(
+            dtStart, monthInterval, byMonth, hourInterval, byHour,
+            minuteInterval, byMinute, secondInterval, bySecond)) {
+      return null;
+    }
+    return new InstanceCounter(
+        dtStart, tzid, Frequency.YEARLY == freq ? interval : 1,
+        monthInterval, byMonth, dayMasks, dayInterval,
+        withWeekFilter(
+            startIndependentDayFilter, weekFilterInterval, wkst, dtStart),
+        freq, hourInterval, byHour, minuteInterval, byMinute,
+        secondInterval, bySecond, timeFilter, firstUtc, firstLocalSecs);
+  }
+
+  /**
+   * like {@link #counter(long,long)} for the first instance of a new iterator,
+   * or null if there is none.
+   */
+  InstanceCounter counter() {
+    RecurrenceIterator it = iterator();
+    return it instanceof RRuleIteratorImpl
+        ? ((RRuleIteratorImpl) it).counter(this) : null;
+  }
+
+  /**
+   * the number of instances of a COUNT rule, up to the COUNT, before dateUtc,
+   * or {@link InstanceCounter#UNKNOWN}.
+   * @param counter a counter for an iterator over this plan.
+   * @param dateUtc a {@link DateValueComparison#comparable}.
+   */
+  long countBefore(InstanceCounter counter, long dateUtc) {
+    CountCheckpoint cp = checkpoint;
+    long n = InstanceCounter.UNKNOWN;
+    int year = PackedDates.year(dateUtc);
+    // Count from the checkpoint only if it is nearer than the start.
+    if (null != cp
+        && Math.abs(PackedDates.year(cp.dateUtc) - year)
+           < year - dtStart.year()) {
+      if (dateUtc <= cp.dateUtc) {
+        long between = counter.count(dateUtc, cp.dateUtc, Long.MAX_VALUE);
+        if (InstanceCounter.UNKNOWN != between) { n = cp.before - between; }
+      } else {
+        long between = counter.count(cp.dateUtc, dateUtc, count - cp.before);
+        if (InstanceCounter.UNKNOWN != between) { n = cp.before + between; }
+      }
+    }
+    if (InstanceCounter.UNKNOWN == n) {
+      n = counter.count(RRuleIteratorImpl.NO_DATE, dateUtc, count);
+    }
+    if (InstanceCounter.UNKNOWN != n && n < count) {
+      checkpoint = new CountCheckpoint(dateUtc, n);
+    }
+    return n;
+  }
+
+  /** the number of instances of a COUNT rule before a date. */
+  private static final class CountCheckpoint {
+    /** a {@link DateValueComparison#comparable}. */
+    final long dateUtc;
+    /** the instances before dateUtc, which are fewer than the COUNT. */
+    final long before;
+
+    CountCheckpoint(long dateUtc, long before) {
+      this.dateUtc = dateUtc;
+      this.before = before;
+    }
+  }
+
+  /**
+   * the number of instances that an iterator over this plan yields on or
+   * after from and before to, within any COUNT or UNTIL, or
+   * {@link InstanceCounter#UNKNOWN} if they can't be counted without
+   * generating them.
+   * @param from a {@link DateValueComparison#comparable}, or
+   *   {@link RRuleIteratorImpl#NO_DATE} to count from the start.
+   * @param to a {@link DateValueComparison#comparable}.
+   */
+  long count(long from, long to) {
+    InstanceCounter counter = counter();
+    if (null == counter) {
+      return empty ? 0 : InstanceCounter.UNKNOWN;
+    }
+    if (RRuleIteratorImpl.NO_DATE != until) {
+      to = Math.min(to, until + 1);
+    }
+    if (0 == count) { return counter.count(from, to, Long.MAX_VALUE); }
+    long before = RRuleIteratorImpl.NO_DATE != from
+        ? countBefore(counter, from) : 0;
+    return InstanceCounter.UNKNOWN != before
+        ? counter.count(from, to, count - before) : InstanceCounter.UNKNOWN;
+  }
+
+  /**
+   * the date from which the period generators start, which is dtStart rolled
+   * back to the start of its period when there is a BYSETPOS, so that any
+   * positive indices are indexed properly.
+   * The iterator is responsible for anything before dtStart.
+   */
+  private static DateValue periodStart(
+      Frequency freq, Weekday wkst, int[] bySetPos, DateValue dtStart) {
+    if (bySetPos.length == 0) { return dtStart; }
+    switch (freq) {
+      case YEARLY:
+        return dtStart instanceof TimeValue
+            ? new DateTimeValueImpl(dtStart.year(), 1, 1, 0, 0, 0)
+            : new DateValueImpl(dtStart.year(), 1, 1);
+      case MONTHLY:
+        return dtStart instanceof TimeValue
+            ? new DateTimeValueImpl(
+                dtStart.year(), dtStart.month(), 1, 0, 0, 0)
+            : new DateValueImpl(dtStart.year(), dtStart.month(), 1);
+      case WEEKLY:
+        int d = (7 + wkst.ordinal() - Weekday.valueOf(dtStart).ordinal()) % 7;
+        return TimeUtils.add(dtStart, new DateValueImpl(0, 0, -d));
+      default:
+        return dtStart;
+    }
+  }
+
+  /** filter with any filter on weeks relative to dtStart's week. */
+  private static PackedPredicate withWeekFilter(
+      PackedPredicate filter, int weekFilterInterval, Weekday wkst,
+      DateValue dtStart) {
+    if (0 == weekFilterInterval) { return filter; }
+    List<PackedPredicate> filters = new ArrayList<PackedPredicate>();
+    filters.add(Filters.weekIntervalFilter(weekFilterInterval, wkst, dtStart));
+    filters.add(filter);
+    return Filters.and(filters);
+  }
+
+  private static final int[] NO_INTS = new int[0];
+  private static final WeekdayNum[] NO_DAYS = new WeekdayNum[0];
+  private static final long[] NO_DATES = new long[0];
+
+}
@@ -0,0 +1,244 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.iter;
+
+import com.google.ical.values.CanonicalRRule;
+import com.google.ical.values.DateValue;
+import com.google.ical.values.RRule;
+import java.text.ParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * a bounded cache of parsed and compiled recurrence rules, so that rules that
+ * recur across many series are only parsed once, and
+ * {@link RecurrencePlan compiled} once per timezone and shape of start date.
+ *
+ * <p>Rules are parsed once per content line, and compiled once per
+ * {@link CanonicalRRule canonical form}, so differently spelled rules share
+ * a plan.  A plan depends only on some parts of the start date, its
+ * {@link RecurrencePlan#startShape shape}, so a plan compiled for one start is
+ * reused for others with the same shape.  A rule that fails to compile is
+ * cached too, so the failure is reported without compiling it again.</p>
+ *
+ * <p>When full, the least recently used rule or plan is evicted.  A cache may
+ * be shared between threads, and is used by passing it to
+ * {@link RecurrenceIteratorFactory#createRecurrenceIterable(
+ * String,DateValue,TimeZone,boolean,RecurrencePlanCache)}.</p>
+ *
+ * <p>The hit, miss, and eviction counts of plans are kept so that the cache
+ * can be sized for a workload.</p>
+ *
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+public final class RecurrencePlanCache {
+
+  private final int maxSize;
+  /** parsed rules by content line.  Guarded by itself. */
+  private final Map<String, CachedRule> rules;
+  /** compiled plans.  Guarded by itself. */
+  private final Map<PlanKey, CompiledPlan> plans;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /** @param maxSize the most rules, and the most plans, to keep.  Positive. */
+  public RecurrencePlanCache(int maxSize) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize=" + maxSize);
+    }
+    this.maxSize = maxSize;
+    this.rules = new LinkedHashMap<String, CachedRule>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(
+            Map.Entry<String, CachedRule> eldest) {
+          return size() > RecurrencePlanCache.this.maxSize;
+        }
+      };
+    this.plans = new LinkedHashMap<PlanKey, CompiledPlan>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(
+            Map.Entry<PlanKey, CompiledPlan> eldest) {
+          if (size() <= RecurrencePlanCache.this.maxSize) { return false; }
+          evictions.incrementAndGet();
+          return true;
+        }
+      };
+  }
+
+  /**
+   * the plan for the given RRULE or EXRULE content line.
+   * @param contentLine the text of a single RRULE or EXRULE.
+   * @param dtStart the start of the series, in tzid.
+   * @param tzid the timezone to iterate in.
+   * @throws ParseException if contentLine is not a well-formed rule.
+   * @throws IllegalArgumentException if the rule cannot be iterated.
+   */
+  public RecurrencePlan get(
+      String contentLine, DateValue dtStart, TimeZone tzid)
+      throws ParseException {
+    return plan(rule(contentLine), dtStart, tzid);
+  }
+
+  /**
+   * the parsed rule for the given content line, parsing it on a miss.
+   * The rule is shared, so must not be modified.
+   */
+  CachedRule rule(String contentLine) throws ParseException {
+    CachedRule rule;
+    synchronized (rules) {
+      rule = rules.get(contentLine);
+    }
+    if (null == rule) {
+      // Parse outside the lock.  If another thread does the same, the
+      // results are equivalent, so it doesn't matter which we keep.
+      rule = new CachedRule(new RRule(contentLine));
+      synchronized (rules) {
+        rules.put(contentLine, rule);
+      }
+    }
+    return rule;
+  }
+
+  /**
+   * the plan for the given rule, compiling it on a miss.
+   * @throws IllegalArgumentException if the rule cannot be iterated.
+   */
+  RecurrencePlan plan(CachedRule rule, DateValue dtStart, TimeZone tzid) {
+    PlanKey key = new PlanKey(
+        rule.canonical.toIcal(), tzid,
+        RecurrencePlan.startShape(rule.compiled, dtStart));
+    CompiledPlan compiled;
+    synchronized (plans) {
+      compiled = plans.get(key);
+    }
+    if (null != compiled) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+      // Compile outside the lock, as in rule(String) above.
+      try {
+        compiled = new CompiledPlan(
+            RecurrenceIteratorFactory.createRecurrencePlan(
+                rule.compiled, dtStart, tzid),
+            null);
+      } catch (IllegalArgumentException ex) {
+        compiled = new CompiledPlan(null, ex);
+      }
+      synchronized (plans) {
+        plans.put(key, compiled);
+      }
+    }
+    if (null != compiled.failure) {
+      throw new IllegalArgumentException(
+          compiled.failure.getMessage(), compiled.failure);
+    }
+    return compiled.plan.withStart(rule.compiled, dtStart);
+  }
+
+  /** the number of lookups that found a plan already in the cache. */
+  public long hitCount() { return hits.get(); }
+
+  /** the number of lookups that had to compile a plan. */
+  public long missCount() { return misses.get(); }
+
+  /** the number of plans removed to keep the cache within its size. */
+  public long evictionCount() { return evictions.get(); }
+
+  /** the number of plans currently in the cache. */
+  public int size() {
+    synchronized (plans) {
+      return plans.size();
+    }
+  }
+
+  /** the most rules, and the most plans, that the cache will hold. */
+  public int maxSize() { return maxSize; }
+
+  /**
+   * removes all rules and plans from the cache but leaves the counts
+   * unchanged.
+   */
+  public void clear() {
+    synchronized (rules) {
+      rules.clear();
+    }
+    synchronized (plans) {
+      plans.clear();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "RecurrencePlanCache:size=" + size() + "/" + maxSize
+        + ",hits=" + hitCount() + ",misses=" + missCount()
+        + ",evictions=" + evictionCount();
+  }
+
+  /** a parsed rule and its canonical form. */
+  static final class CachedRule {
+    final RRule rule;
+    final CanonicalRRule canonical;
+    /** the canonical form's parts, which plans are compiled from. */
+    private final RRule compiled;
+
+    CachedRule(RRule rule) {
+      this.rule = rule;
+      this.canonical = rule.canonicalize();
+      this.compiled = canonical.toRRule();
+    }
+  }
+
+  /** a plan, or the reason that the rule could not be compiled. */
+  private static final class CompiledPlan {
+    final RecurrencePlan plan;
+    final IllegalArgumentException failure;
+
+    CompiledPlan(RecurrencePlan plan, IllegalArgumentException failure) {
+      this.plan = plan;
+      this.failure = failure;
+    }
+  }
+
+  private static final class PlanKey {
+    final String canonical;
+    final TimeZone tzid;
+    /** see {@link RecurrencePlan#startShape}. */
+    final int startShape;
+
+    PlanKey(String canonical, TimeZone tzid, int startShape) {
+      this.canonical = canonical;
+      this.tzid = tzid;
+      this.startShape = startShape;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof PlanKey)) { return false; }
+      PlanKey that = (PlanKey) o;
+      return this.startShape == that.startShape
+          && this.canonical.equals(that.canonical)
+          && this.tzid.equals(that.tzid);
+    }
+
+    @Override
+    public int hashCode() {
+      return (canonical.hashCode() * 31 + startShape) * 31 + tzid.hashCode();
+    }
+  }
+
+}
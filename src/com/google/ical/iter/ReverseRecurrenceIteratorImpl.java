@@ -0,0 +1,161 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.iter;
+
+import com.google.ical.util.TimeUtils;
+import com.google.ical.values.DateValue;
+
+import java.util.NoSuchElementException;
+
+/**
+ * a reverse iterator over a series that walks it backwards a window at a time.
+ * <p>Each window is generated forwards by advancing a fresh iterator over the
+ * series to the window's start, so the cost of stepping back depends on the
+ * number of dates visited and on how cheaply the series can
+ * {@link RecurrenceIterator#advanceTo advance}, not on how far the end of the
+ * iteration is from the start of the series.  Windows widen while they come up
+ * empty and narrow when they hold more dates than needed.</p>
+ *
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+final class ReverseRecurrenceIteratorImpl implements ReverseRecurrenceIterator {
+
+  /** the series to walk backwards. */
+  private final RecurrenceIterable series_;
+  /**
+   * only dates strictly before this packed date remain to be put in a window.
+   */
+  private long limitUtc_;
+  /**
+   * the first date in the series in packed form.  Only valid once
+   * {@link #started_}.
+   */
+  private long firstUtc_;
+  /** true iff the series has been checked for a first date. */
+  private boolean started_;
+  /** true iff the series has no dates. */
+  private boolean empty_;
+  /**
+   * the dates in the current window in ascending order.  The first
+   * {@link #nWindow_} have not yet been returned.
+   */
+  private long[] window_ = new long[16];
+  /** the number of dates in window_ that remain to be returned. */
+  private int nWindow_;
+  /** the width in seconds of the next window. */
+  private long spanSecs_ = SECS_PER_DAY;
+
+  /**
+   * @param series the series to iterate over.
+   * @param endUtc the latest date, in packed form, that should be returned.
+   */
+  ReverseRecurrenceIteratorImpl(RecurrenceIterable series, long endUtc) {
+    this.series_ = series;
+    this.limitUtc_ = endUtc + 1;
+  }
+
+  public boolean hasNext() {
+    fill();
+    return 0 != nWindow_;
+  }
+
+  public DateValue next() {
+    return DateValueComparison.fromComparable(nextPacked());
+  }
+
+  public long nextPacked() {
+    fill();
+    if (0 == nWindow_) { throw new NoSuchElementException(); }
+    return window_[--nWindow_];
+  }
+
+  public void retreatTo(DateValue newEndUtc) {
+    retreatToPacked(DateValueComparison.comparable(newEndUtc));
+  }
+
+  public void retreatToPacked(long newEndUtc) {
+    while (0 != nWindow_ && window_[nWindow_ - 1] > newEndUtc) {
+      --nWindow_;
+    }
+    if (newEndUtc < limitUtc_) { limitUtc_ = newEndUtc + 1; }
+  }
+
+  public void remove() { throw new UnsupportedOperationException(); }
+
+  /**
+   * generates windows working backwards from limitUtc_ until one contains a
+   * date or the start of the series is reached.
+   */
+  private void fill() {
+    if (0 != nWindow_) { return; }
+    if (!started_) {
+      started_ = true;
+      RecurrenceIterator it = series_.iterator();
+      if (it.hasNext()) {
+        firstUtc_ = it.nextPacked();
+      } else {
+        empty_ = true;
+      }
+    }
+    if (empty_) { return; }
+
+    while (0 == nWindow_ && limitUtc_ > firstUtc_) {
+      long startUtc = Math.max(windowStart(limitUtc_, spanSecs_), firstUtc_);
+
+      // Iterators over a COUNT rule share a plan, so this one counts the
+      // instances that it skips from those counted for the last window.
+      // See RecurrencePlan#countBefore.
+      RecurrenceIterator it = series_.iterator();
+      it.advanceToPacked(startUtc);
+      while (it.hasNext()) {
+        long dUtc = it.nextPacked();
+        if (dUtc >= limitUtc_) { break; }
+        if (dUtc < startUtc) { continue; }
+        if (nWindow_ == window_.length) {
+          long[] newWindow = new long[nWindow_ * 2];
+          System.arraycopy(window_, 0, newWindow, 0, nWindow_);
+          window_ = newWindow;
+        }
+        window_[nWindow_++] = dUtc;
+      }
+      limitUtc_ = startUtc;
+
+      if (0 == nWindow_) {
+        if (spanSecs_ < MAX_SPAN_SECS) { spanSecs_ *= 2; }
+      } else if (nWindow_ > TARGET_WINDOW_SIZE && spanSecs_ > 1) {
+        spanSecs_ /= 2;
+      }
+    }
+  }
+
+  /** the packed date spanSecs seconds before limitUtc. */
+  private static long windowStart(long limitUtc, long spanSecs) {
+    // don't go back past the start of the proleptic Gregorian calendar.
+    long secs = Math.max(
+        DateValueComparison.secsSinceEpoch(limitUtc) - spanSecs, SECS_PER_DAY);
+    return DateValueComparison.comparable(
+        TimeUtils.timeFromSecsSinceEpoch(secs));
+  }
+
+  private static final long SECS_PER_DAY = 24L * 60 * 60;
+  /** wider than any series, so that widening stops before overflow. */
+  private static final long MAX_SPAN_SECS = SECS_PER_DAY * 366 * 10000;
+  /**
+   * the number of dates per window above which we narrow windows to keep
+   * fine-grained series from buffering a large number of dates at once.
+   */
+  private static final int TARGET_WINDOW_SIZE = 256;
+
+}
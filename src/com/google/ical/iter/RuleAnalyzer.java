@@ -0,0 +1,183 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.iter;
+
+import com.google.ical.util.TimeUtils;
+import com.google.ical.values.DateValue;
+import com.google.ical.values.Frequency;
+import com.google.ical.values.RRule;
+import com.google.ical.values.Weekday;
+import com.google.ical.values.WeekdayNum;
+
+/**
+ * static analysis of recurrence rules that finds rules that can never
+ * generate a date, such as <code>FREQ=YEARLY;BYMONTH=2;BYMONTHDAY=30</code>.
+ *
+ * <p>Without this, an iterator over such a rule only gives up once its year
+ * generator has gone {@link Generators#MAX_YEARS_BETWEEN_INSTANCES} years
+ * without an instance, which wastes a lot of work on garbage rules.</p>
+ *
+ * <p>The analysis is conservative.  It considers only the rule parts that
+ * constrain which days of the year are generated, the same ones the factory
+ * would apply, and only concludes that a rule is empty if no day in any year
+ * the rule visits satisfies all of them.  Since the calendar repeats every
+ * 400 years, and a year's days depend only on its
+ * {@link YearShapeMasks#shapeOf shape}, that is a finite check.  It also
+ * catches a BYSETPOS that selects no position at all.</p>
+ *
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+final class RuleAnalyzer {
+
+  /** the number of years after which the gregorian calendar repeats. */
+  private static final int GREGORIAN_CYCLE_YEARS = 400;
+
+  private static final int[] NO_INTS = new int[0];
+
+  /**
+   * true if the rule can be proven to never generate a date no matter how far
+   * it is iterated.  False does not mean that the rule generates a date.
+   * @param rrule non null.
+   * @param dtStart the start of the series, which supplies the day and
+   *   month of some rules.
+   */
+  static boolean isEmpty(RRule rrule, DateValue dtStart) {
+    Frequency freq = rrule.getFreq();
+    if (null == freq) { return false; }
+    if (freq.compareTo(Frequency.DAILY) >= 0
+        && selectsNoPosition(rrule.getBySetPos())) {
+      // Positions are one-indexed, so BYSETPOS=0 selects nothing.  Sub-daily
+      // rules ignore BYSETPOS.
+      return true;
+    }
+    boolean yearly = Frequency.YEARLY == freq;
+    int[] byMonth = rrule.getByMonth();
+    int[] byMonthDay = rrule.getByMonthDay();
+    // BYYEARDAY is only applied to yearly rules.
+    int[] byYearDay = yearly ? rrule.getByYearDay() : NO_INTS;
+    // the allowed days of the week as a bitmask indexed by ordinal or 0 for
+    // any.  Ordinals such as the 5 in 5MO can only make this stricter, so we
+    // can ignore them.
+    int weekdays = 0;
+    for (WeekdayNum wdn : rrule.getByDay()) {
+      weekdays |= 1 << wdn.wday.ordinal();
+    }
+
+    // Fill in the parts that the factory infers from dtStart.
+    if ((yearly || Frequency.MONTHLY == freq) && 0 == byMonthDay.length
+        && 0 == byYearDay.length && 0 == weekdays
+        && !(yearly && 0 != rrule.getByWeekNo().length)) {
+      byMonthDay = new int[] { dtStart.day() };
+      if (yearly && 0 == byMonth.length) {
+        byMonth = new int[] { dtStart.month() };
+      }
+    } else if (Frequency.WEEKLY == freq && 0 == weekdays) {
+      weekdays = 1 << Weekday.valueOf(dtStart).ordinal();
+    }
+
+    // Every month has every day of the week, so only day of month and day of
+    // year constraints can conflict.
+    if (0 == byMonthDay.length && 0 == byYearDay.length) { return false; }
+
+    // Only yearly rules skip years.
+    int interval = yearly ? Math.max(1, rrule.getInterval()) : 1;
+    // true for shapes known to have no selected day, indexed by shape.
+    boolean[] checked = new boolean[YearShapeMasks.N_SHAPES];
+    int nChecked = 0;
+    int startInCycle = mod(dtStart.year(), GREGORIAN_CYCLE_YEARS);
+    for (int k = 0; k < GREGORIAN_CYCLE_YEARS
+             && nChecked < YearShapeMasks.N_SHAPES; ++k) {
+      // A year with the same shape as the k-th year the rule visits.
+      int year = 2000 + (int) ((startInCycle + (long) k * interval)
+                               % GREGORIAN_CYCLE_YEARS);
+      int shape = YearShapeMasks.shapeOf(year);
+      if (!checked[shape]) {
+        if (anyDaySelected(year, byMonth, byMonthDay, byYearDay, weekdays)) {
+          return false;
+        }
+        checked[shape] = true;
+        ++nChecked;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * true iff some day in the given year falls in byMonth, byMonthDay,
+   * byYearDay, and weekdays, ignoring any that are empty.
+   */
+  private static boolean anyDaySelected(
+      int year, int[] byMonth, int[] byMonthDay, int[] byYearDay,
+      int weekdays) {
+    int nYearDays = TimeUtils.yearLength(year);
+    for (int month = 1; month <= 12; ++month) {
+      if (0 != byMonth.length && !contains(byMonth, month)) { continue; }
+      int nDays = TimeUtils.monthLength(year, month);
+      // the one-indexed day of the year of the 0th of the month.
+      int doy0 = TimeUtils.dayOfYear(year, month, 1);
+      int dow0 = Weekday.firstDayOfWeekInMonth(year, month).ordinal();
+      for (int day = 1; day <= nDays; ++day) {
+        if (0 != byMonthDay.length && !selects(byMonthDay, day, nDays)) {
+          continue;
+        }
+        if (0 != byYearDay.length
+            && !selects(byYearDay, doy0 + day, nYearDays)) {
+          continue;
+        }
+        if (0 != weekdays && 0 == (weekdays & (1 << ((dow0 + day - 1) % 7)))) {
+          continue;
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * true iff one of the one-indexed values selects n in a period size long
+   * where negative values count back from the end.
+   */
+  private static boolean selects(int[] values, int n, int size) {
+    for (int value : values) {
+      if (value == (value < 0 ? n - size - 1 : n)) { return true; }
+    }
+    return false;
+  }
+
+  /** true iff bySetPos is present but has only zeroes. */
+  private static boolean selectsNoPosition(int[] bySetPos) {
+    for (int pos : bySetPos) {
+      if (0 != pos) { return false; }
+    }
+    return 0 != bySetPos.length;
+  }
+
+  private static boolean contains(int[] values, int n) {
+    for (int value : values) {
+      if (value == n) { return true; }
+    }
+    return false;
+  }
+
+  private static int mod(int n, int d) {
+    int m = n % d;
+    return m < 0 ? m + d : m;
+  }
+
+  private RuleAnalyzer() {
+    // uninstantiable
+  }
+
+}
@@ -0,0 +1,38 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.iter;
+
+/**
+ * An instance generator whose instances are a fixed number of seconds apart in
+ * local time, so that it can jump to an arbitrary point in the series without
+ * generating the instances in between.  For example,
+ *   <blockquote>
+ *     <code>RRULE:FREQ=MINUTELY;INTERVAL=15</code>
+ *   </blockquote>
+ * generates instances 900 seconds apart starting at dtStart.
+ *
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+abstract class SeekableGenerator extends Generator {
+
+  /**
+   * skips forward so that the next call to {@link #generate} yields the first
+   * instance on or after the given time.  Never moves backwards.
+   * @param secsSinceEpochLocal a time in the local timezone as per
+   *   {@link com.google.ical.util.TimeUtils#secsSinceEpoch}.
+   */
+  abstract void seek(long secsSinceEpochLocal);
+
+}
@@ -0,0 +1,162 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.iter;
+
+import com.google.ical.values.DateValue;
+import java.util.NoSuchElementException;
+
+/**
+ * a recurrence iterator for the common case of a series defined by a start
+ * date, a single RRULE, and some EXDATEs.
+ * <p>This produces the same dates as a {@link CompoundIteratorImpl} over the
+ * same inclusions and exclusions, but merges the start date with the rule's
+ * dates directly, and checks exclusions against a cursor into a sorted array
+ * instead of keeping every source on a heap.  The rule must not repeat
+ * dates, since how often the merge yields a repeated date depends on the
+ * order of its heap.</p>
+ *
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+final class SingleRuleIteratorImpl implements RecurrenceIterator {
+
+  /** the iterator over the rule's dates. */
+  private final RecurrenceIterator rule;
+  /** true iff {@link #ruleHead} holds the rule's next date. */
+  private boolean hasRuleHead;
+  /** the rule's next date, if hasRuleHead. */
+  private long ruleHead;
+  /** true iff the start date has not yet been consumed. */
+  private boolean hasStart;
+  /** the start of the series as a {@link DateValueComparison#comparable}. */
+  private final long startUtc;
+  /**
+   * the excluded dates as {@link DateValueComparison#comparable}s, sorted and
+   * without duplicates.  Shared between iterators so must not be modified.
+   */
+  private final long[] exclusionsUtc;
+  /** index into exclusionsUtc of the first exclusion not yet passed. */
+  private int exclusionIdx;
+  /** true iff {@link #pending} holds a date not yet returned. */
+  private boolean hasPending;
+  /** the next date to return, if hasPending. */
+  private long pending;
+
+  /**
+   * @param startUtc the start of the series, in utc, in packed form.
+   *   It is always included unless excluded.
+   * @param rule an iterator over the rule's dates.
+   * @param exclusionsUtc packed utc dates, sorted and without duplicates.
+   */
+  SingleRuleIteratorImpl(
+      long startUtc, RecurrenceIterator rule, long[] exclusionsUtc) {
+    this.startUtc = startUtc;
+    this.hasStart = true;
+    this.rule = rule;
+    this.exclusionsUtc = exclusionsUtc;
+    fetchRuleHead();
+  }
+
+  public boolean hasNext() {
+    requirePending();
+    return hasPending;
+  }
+
+  public DateValue next() {
+    return DateValueComparison.fromComparable(nextPacked());
+  }
+
+  public long nextPacked() {
+    requirePending();
+    if (!hasPending) { throw new NoSuchElementException(); }
+    hasPending = false;
+    return pending;
+  }
+
+  public int nextPacked(long[] out, int off, int len) {
+    int n = 0;
+    while (n < len) {
+      requirePending();
+      if (!hasPending) { break; }
+      out[off + n++] = pending;
+      hasPending = false;
+      if (!hasStart && exclusionIdx == exclusionsUtc.length && hasRuleHead
+          && n < len) {
+        // Nothing is left to merge or exclude, so let the rule fill the rest
+        // of the batch itself.
+        out[off + n++] = ruleHead;
+        n += rule.nextPacked(out, off + n, len - n);
+        fetchRuleHead();
+      }
+    }
+    return n;
+  }
+
+  public void remove() { throw new UnsupportedOperationException(); }
+
+  public void advanceTo(DateValue newStart) {
+    advanceToPacked(DateValueComparison.comparable(newStart));
+  }
+
+  public void advanceToPacked(long newStartUtc) {
+    if (hasPending) {
+      if (pending >= newStartUtc) { return; }
+      hasPending = false;
+    }
+    if (hasStart && startUtc < newStartUtc) { hasStart = false; }
+    if (hasRuleHead && ruleHead < newStartUtc) {
+      rule.advanceToPacked(newStartUtc);
+      fetchRuleHead();
+    }
+    if (hasStart || hasRuleHead) {
+      exclusionIdx = Util.gallopTo(exclusionsUtc, exclusionIdx, newStartUtc);
+    }
+  }
+
+  /**
+   * make sure that pending contains the next date that is included but not
+   * excluded, consuming the rule's copy of the start date.
+   */
+  private void requirePending() {
+    if (hasPending) { return; }
+    while (hasStart || hasRuleHead) {
+      long date;
+      if (hasStart && !(hasRuleHead && ruleHead < startUtc)) {
+        date = startUtc;
+        hasStart = false;
+      } else {
+        date = ruleHead;
+      }
+      if (hasRuleHead && ruleHead == date) { fetchRuleHead(); }
+
+      // The exclusions are sorted, and the dates we produce increase, so we
+      // need only move forward.
+      exclusionIdx = Util.gallopTo(exclusionsUtc, exclusionIdx, date);
+      if (exclusionIdx < exclusionsUtc.length
+          && exclusionsUtc[exclusionIdx] == date) {
+        ++exclusionIdx;
+        continue;
+      }
+      pending = date;
+      hasPending = true;
+      return;
+    }
+  }
+
+  private void fetchRuleHead() {
+    hasRuleHead = rule.hasNext();
+    if (hasRuleHead) { ruleHead = rule.nextPacked(); }
+  }
+
+}
@@ -33,8 +33,8 @@ class Util {
    * @param wkst the day of the week that the week starts on
    */
   static void rollToNextWeekStart(DTBuilder builder, Weekday wkst) {
-    DateValue bd = builder.toDate();
-    builder.day += (7 - ((7 + (Weekday.valueOf(bd).javaDayNum
+    builder.normalize();
+    builder.day += (7 - ((7 + (builder.dayOfWeek().javaDayNum
                                - wkst.javaDayNum))
                          % 7)) % 7;
     builder.normalize();
@@ -52,18 +52,36 @@ class Util {
     return builder.toDate();
   }
 
-  /** returns a sorted unique copy of ints. */
-  static int[] uniquify(int[] ints) {
-    return uniquify(ints, 0, ints.length);
-  }
-
-  /** returns a sorted unique copy of ints. */
-  static int[] uniquify(int[] ints, int start, int end) {
-    IntSet iset = new IntSet();
-    for (int i = end; --i >= start;) {
-      iset.add(ints[i]);
+  /**
+   * the index of the first element of sorted at or after start that is not
+   * less than key, or sorted.length if there is none.
+   * <p>This gallops forward from start, probing at exponentially increasing
+   * distances before binary searching the last gap, so is cheap both when
+   * the result is near start, as when stepping through a series, and when
+   * it is far away, as when skipping.</p>
+   * @param sorted in non-decreasing order.
+   * @param start in [0, sorted.length].
+   */
+  static int gallopTo(long[] sorted, int start, long key) {
+    int lo = start;  // all elements before lo are less than key.
+    int step = 1;
+    int hi = start;
+    while (hi < sorted.length && sorted[hi] < key) {
+      lo = hi + 1;
+      hi += step;
+      step <<= 1;
+    }
+    if (hi > sorted.length) { hi = sorted.length; }
+    // The result is in [lo, hi].
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (sorted[mid] < key) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
     }
-    return iset.toIntArray();
+    return lo;
   }
 
   /**
@@ -0,0 +1,153 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.iter;
+
+import com.google.ical.util.TimeUtils;
+import com.google.ical.values.Weekday;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * the days of the year selected by a day generator, as bitmasks for each of
+ * the 14 shapes a gregorian year can take.
+ *
+ * <p>A year's shape is whether it is a leap year and the day of the week it
+ * starts on.  Two years with the same shape have the same months, the same
+ * lengths, and the same weekdays on the same days of the year, so any BYDAY,
+ * BYMONTHDAY, BYWEEKNO, or BYYEARDAY rule part selects the same days in both.
+ * Rather than recomputing the days for each month seen, day generators compute
+ * them once per shape and scan the mask.</p>
+ *
+ * <p>Masks are computed lazily from a representative year, and once computed
+ * never change, so an instance can be shared between generators and threads.
+ * </p>
+ *
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+final class YearShapeMasks {
+
+  /**
+   * a function from a month to the days in it selected by a rule part.
+   * The result must depend only on the shape of the year.
+   */
+  static abstract class MonthDays {
+    /**
+     * @param year a year.
+     * @param month in [1,12].
+     * @return days of the month in [1,31] in any order, possibly with dupes.
+     */
+    abstract int[] daysIn(int year, int month);
+  }
+
+  /** the number of distinct year shapes. */
+  static final int N_SHAPES = 14;
+  /** the number of longs in a mask.  Enough bits for 366 days. */
+  static final int MASK_LENGTH = 6;
+
+  /** a year of each shape, indexed by {@link #shapeOf}. */
+  private static final int[] REPRESENTATIVE_YEARS = new int[N_SHAPES];
+  static {
+    int nFound = 0;
+    for (int year = 2000; nFound < N_SHAPES; ++year) {
+      int shape = shapeOf(year);
+      if (0 == REPRESENTATIVE_YEARS[shape]) {
+        REPRESENTATIVE_YEARS[shape] = year;
+        ++nFound;
+      }
+    }
+  }
+
+  private final MonthDays monthDays;
+  /** indexed by shape.  Elements are null until first used. */
+  private final AtomicReferenceArray<long[]> masks =
+    new AtomicReferenceArray<long[]>(N_SHAPES);
+
+  YearShapeMasks(MonthDays monthDays) {
+    this.monthDays = monthDays;
+  }
+
+  /**
+   * the index of the shape of the given year in [0,13]: 7 for leap years plus
+   * the {@link Weekday#ordinal} of the first day of January.
+   */
+  static int shapeOf(int year) {
+    return (TimeUtils.isLeapYear(year) ? 7 : 0)
+        + Weekday.firstDayOfWeekInMonth(year, 1).ordinal();
+  }
+
+  /**
+   * a bitmask with bit n set iff the day with {@link TimeUtils#dayOfYear} n
+   * in any year with the given shape is selected.  Callers must not modify the
+   * result.
+   * @param shape as returned by {@link #shapeOf}.
+   */
+  long[] maskForShape(int shape) {
+    long[] mask = masks.get(shape);
+    if (null == mask) {
+      mask = computeMask(REPRESENTATIVE_YEARS[shape]);
+      // If another thread got there first, its mask is identical.
+      masks.compareAndSet(shape, null, mask);
+    }
+    return mask;
+  }
+
+  /** like {@link #maskForShape} but for the shape of the given year. */
+  long[] maskForYear(int year) {
+    return maskForShape(shapeOf(year));
+  }
+
+  private long[] computeMask(int year) {
+    long[] mask = new long[MASK_LENGTH];
+    for (int month = 1; month <= 12; ++month) {
+      int doyOfMonth1 = TimeUtils.dayOfYear(year, month, 1);
+      for (int day : monthDays.daysIn(year, month)) {
+        int doy = doyOfMonth1 + day - 1;
+        mask[doy >> 6] |= 1L << doy;
+      }
+    }
+    return mask;
+  }
+
+  /**
+   * the index of the first bit set in mask in [from, end), or -1 if none.
+   */
+  static int nextSetBit(long[] mask, int from, int end) {
+    if (from >= end) { return -1; }
+    int w = from >> 6;
+    long word = mask[w] & (-1L << from);
+    while (true) {
+      if (0 != word) {
+        int bit = (w << 6) + Long.numberOfTrailingZeros(word);
+        return bit < end ? bit : -1;
+      }
+      if ((++w << 6) >= end) { return -1; }
+      word = mask[w];
+    }
+  }
+
+  /** the number of bits set in mask in [from, end). */
+  static int bitCount(long[] mask, int from, int end) {
+    if (from >= end) { return 0; }
+    int w = from >> 6, last = (end - 1) >> 6;
+    long lastWord = -1L >>> (63 - ((end - 1) & 63));
+    if (w == last) {
+      return Long.bitCount(mask[w] & (-1L << from) & lastWord);
+    }
+    int n = Long.bitCount(mask[w] & (-1L << from));
+    while (++w < last) { n += Long.bitCount(mask[w]); }
+    return n + Long.bitCount(mask[last] & lastWord);
+  }
+
+}
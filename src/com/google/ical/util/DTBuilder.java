@@ -20,6 +20,7 @@ import com.google.ical.values.DateValue;
 import com.google.ical.values.DateValueImpl;
 import com.google.ical.util.TimeUtils;
 import com.google.ical.values.TimeValue;
+import com.google.ical.values.Weekday;
 
 /**
  * a mutable buffer that can be used to build {@link DateValue}s and
@@ -42,6 +43,16 @@ public class DTBuilder {
   /** zero indexed */
   public int second;
 
+  /**
+   * the year and month whose first day is {@link #memoMonthStart}, so that
+   * {@link #fixedDay} and the other calendar arithmetic need only be redone
+   * when the month changes.  memoMonth is 0 until the first call.
+   */
+  private int memoYear, memoMonth;
+  private int memoMonthStart;
+  /** the zero-indexed day of the year of the first of memoMonth. */
+  private int memoMonthDayOfYear;
+
   public DTBuilder(int year, int month, int day,
                    int hour, int minute, int second) {
     this.year = year;
@@ -115,10 +126,95 @@ public class DTBuilder {
    * 32 January to 1 February, or month 0 to December of the year before.
    */
   public void normalize() {
+    if (second >= 0 && second < 60 && minute >= 0 && minute < 60
+        && hour >= 0 && hour < 24 && month >= 1 && month <= 12 && day >= 1
+        && (day <= 28 || day <= TimeUtils.monthLength(year, month))) {
+      // Generators usually produce fields that are already in range, and
+      // builders are normalized repeatedly, so check before doing any
+      // arithmetic.
+      return;
+    }
     this.normalizeTime();
     this.normalizeDate();
   }
 
+  /**
+   * the number of days since the epoch, the same as
+   * <code>TimeUtils.fixedFromGregorian(year, month, day)</code>.
+   * <p>The start of the month is remembered, so as a builder steps through
+   * the days of a month, this is an addition.</p>
+   */
+  public int fixedDay() {
+    remember();
+    return memoMonthStart + day - 1;
+  }
+
+  /**
+   * the number of days from the given date to this builder's, the same as
+   * <code>TimeUtils.daysBetween(year, month, day, y, m, d)</code> for this
+   * builder's year, month and day.
+   * Like {@link #fixedDay}, only this builder's year and month need be
+   * normalized.  Only the given date needs any calendar arithmetic, and none
+   * if it is in this builder's month.
+   */
+  public int daysBetween(int y, int m, int d) {
+    if (y == year && m == month) { return day - d; }
+    return fixedDay() - TimeUtils.fixedFromGregorian(y, m, d);
+  }
+
+  /**
+   * the zero-indexed day of the year, the same as
+   * <code>TimeUtils.dayOfYear(year, month, day)</code>.
+   * Like {@link #fixedDay}, this counts on from the first of the month, so
+   * only the year and month need be normalized.
+   */
+  public int dayOfYear() {
+    remember();
+    return memoMonthDayOfYear + day - 1;
+  }
+
+  /**
+   * the day of the week, like {@link Weekday#valueOf} but without
+   * allocating a date.  Behavior undefined unless normalized.
+   */
+  public Weekday dayOfWeek() {
+    return weekdayOf(fixedDay());
+  }
+
+  /**
+   * the day of the week of the first of this builder's month, the same as
+   * <code>Weekday.firstDayOfWeekInMonth(year, month)</code>.
+   */
+  public Weekday firstDayOfWeekInMonth() {
+    remember();
+    return weekdayOf(memoMonthStart);
+  }
+
+  /**
+   * the day of the week of the first of January of this builder's year, the
+   * same as <code>Weekday.firstDayOfWeekInMonth(year, 1)</code>.
+   */
+  public Weekday firstDayOfWeekInYear() {
+    remember();
+    return weekdayOf(memoMonthStart - memoMonthDayOfYear);
+  }
+
+  /** recomputes the month start if the month has changed. */
+  private void remember() {
+    if (month != memoMonth || year != memoYear) {
+      memoMonthStart = TimeUtils.fixedFromGregorian(year, month, 1);
+      memoMonthDayOfYear = TimeUtils.dayOfYear(year, month, 1);
+      memoYear = year;
+      memoMonth = month;
+    }
+  }
+
+  private static Weekday weekdayOf(int fixedDay) {
+    int dayIndex = fixedDay % 7;
+    if (dayIndex < 0) { dayIndex += 7; }
+    return WEEKDAYS[dayIndex];
+  }
+
   @Override
   public String toString() {
     return year + "-" + month + "-" + day + " " + hour + ":" + minute + ":"
@@ -144,6 +240,9 @@ public class DTBuilder {
        << 6) + second;
   }
 
+  /** indexed by {@link Weekday#ordinal}. */
+  private static final Weekday[] WEEKDAYS = Weekday.values();
+
   private void normalizeTime() {
     int addMinutes = ((second < 0) ? (second - 59) : second) / 60;
     second -= addMinutes * 60;
@@ -0,0 +1,107 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.util;
+
+import com.google.ical.values.DateTimeValueImpl;
+import com.google.ical.values.DateValue;
+import com.google.ical.values.DateValueImpl;
+import com.google.ical.values.TimeValue;
+
+/**
+ * packs dates and date-times into longs that sort the same way as
+ * {@link DateValue#compareTo}.
+ * <p>The low 17 bits hold the time of day plus one, or zero for a date
+ * without a time, and the high bits hold the year, month and day, so a date
+ * sorts before any time on the same day.  This is the form of
+ * <code>com.google.ical.iter.DateValueComparison.comparable</code> and of
+ * the packed dates of an RDATE or EXDATE.</p>
+ *
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+public final class PackedDates {
+
+  /** the packed form of a date or date-time. */
+  public static long pack(DateValue dv) {
+    if (dv instanceof TimeValue) {
+      TimeValue tv = (TimeValue) dv;
+      return packDateTime(dv.year(), dv.month(), dv.day(),
+                          tv.hour(), tv.minute(), tv.second());
+    }
+    return packDate(dv.year(), dv.month(), dv.day());
+  }
+
+  /** the packed form of a date without a time. */
+  public static long packDate(int year, int month, int day) {
+    return ((((((long) year) << 4) + month) << 5) + day) << 17;
+  }
+
+  /** the packed form of a date-time. */
+  public static long packDateTime(
+      int year, int month, int day, int hour, int minute, int second) {
+    // Times are offset by one so that they are distinct from, and sort
+    // after, the date alone.
+    return packDate(year, month, day) + (((hour << 6) + minute) << 6) + second
+        + 1;
+  }
+
+  /**
+   * the inverse of {@link #pack}.
+   * @return a {@link TimeValue} iff the packed value was derived from one.
+   */
+  public static DateValue unpack(long packed) {
+    int year = year(packed),
+        month = month(packed),
+        day = day(packed);
+    if (!isTimed(packed)) {
+      return new DateValueImpl(year, month, day);
+    }
+    return new DateTimeValueImpl(
+        year, month, day, hour(packed), minute(packed), second(packed));
+  }
+
+  /** true iff the packed value was derived from a {@link TimeValue}. */
+  public static boolean isTimed(long packed) {
+    return 0 != (packed & TIME_MASK);
+  }
+
+  public static int year(long packed) { return (int) (packed >> 26); }
+
+  public static int month(long packed) { return (int) (packed >> 22) & 0xf; }
+
+  public static int day(long packed) { return (int) (packed >> 17) & 0x1f; }
+
+  /** the hour of a packed date-time. */
+  public static int hour(long packed) {
+    return (int) (((packed & TIME_MASK) - 1) >> 12);
+  }
+
+  /** the minute of a packed date-time. */
+  public static int minute(long packed) {
+    return (int) (((packed & TIME_MASK) - 1) >> 6) & 0x3f;
+  }
+
+  /** the second of a packed date-time. */
+  public static int second(long packed) {
+    return (int) ((packed & TIME_MASK) - 1) & 0x3f;
+  }
+
+  /** the bits that hold the time of day. */
+  private static final long TIME_MASK = (1L << 17) - 1;
+
+  private PackedDates() {
+    // uninstantiable
+  }
+
+}
@@ -0,0 +1,67 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.util;
+
+import java.util.Arrays;
+
+/**
+ * helpers for the lists of integers in the BY* parts of a recurrence rule,
+ * shared by the iterators and the canonical form of a rule so that the two
+ * agree on which values a rule selects.
+ *
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+public final class RuleParts {
+
+  /** returns a sorted unique copy of ints. */
+  public static int[] uniquify(int[] ints) {
+    if (0 == ints.length) { return ints.clone(); }
+    int[] sorted = ints.clone();
+    Arrays.sort(sorted);
+    int n = 1;
+    for (int i = 1; i < sorted.length; ++i) {
+      if (sorted[i] != sorted[n - 1]) { sorted[n++] = sorted[i]; }
+    }
+    return n == sorted.length ? sorted : Arrays.copyOf(sorted, n);
+  }
+
+  /**
+   * Given an array like BYMONTH=2,3,4,5 and a set pos like BYSETPOS=1,-1
+   * reduce both clauses to a single one, BYMONTH=2,5 in the preceding.
+   * @return a sorted unique array.
+   */
+  public static int[] filterBySetPos(int[] members, int[] bySetPos) {
+    members = uniquify(members);
+    int[] selected = new int[bySetPos.length];
+    int n = 0;
+    for (int pos : bySetPos) {
+      if (pos == 0) { continue; }
+      if (pos < 0) {
+        pos += members.length;
+      } else {
+        --pos;  // Zero-index.
+      }
+      if (pos >= 0 && pos < members.length) {
+        selected[n++] = members[pos];
+      }
+    }
+    return uniquify(Arrays.copyOf(selected, n));
+  }
+
+  private RuleParts() {
+    // uninstantiable
+  }
+
+}
@@ -22,8 +22,6 @@ import com.google.ical.values.DateTimeValueImpl;
 import com.google.ical.values.DateValue;
 import com.google.ical.values.DateValueImpl;
 import com.google.ical.values.TimeValue;
-import java.util.Calendar;
-import java.util.GregorianCalendar;
 import java.util.SimpleTimeZone;
 import java.util.TimeZone;
 import java.util.regex.Matcher;
@@ -41,25 +39,6 @@ public class TimeUtils {
     return ZULU;
   }
 
-  /**
-   * Get a "time_t" in millis given a number of seconds since
-   * Dershowitz/Reingold epoch relative to a given timezone.
-   * @param epochSecs Number of seconds since Dershowitz/Reingold
-   * epoch, relatve to zone.
-   * @param zone Timezone against which epochSecs applies
-   * @return Number of milliseconds since 00:00:00 Jan 1, 1970 GMT
-   */
-  private static long timetMillisFromEpochSecs(long epochSecs,
-                                               TimeZone zone) {
-    DateTimeValue date = timeFromSecsSinceEpoch(epochSecs);
-    Calendar cal = new GregorianCalendar(zone);
-    cal.clear(); // clear millis
-    cal.setTimeZone(zone);
-    cal.set(date.year(), date.month() - 1, date.day(),
-            date.hour(), date.minute(), date.second());
-    return cal.getTimeInMillis();
-  }
-
   private static DateTimeValue convert(DateTimeValue time,
                                        TimeZone zone,
                                        int sense) {
@@ -69,20 +48,11 @@ public class TimeUtils {
       return time;
     }
 
-    long timetMillis = 0;
-
-    if (sense > 0) {
-      // time is in UTC
-      timetMillis = timetMillisFromEpochSecs(secsSinceEpoch(time), ZULU);
-    } else {
-      // time is in local time; since zone.getOffset() expects millis
-      // in UTC, need to convert before we can get the offset (ironic)
-      timetMillis = timetMillisFromEpochSecs(secsSinceEpoch(time), zone);
-    }
-
-    int millisecondOffset = zone.getOffset(timetMillis);
-    int millisecondRound = millisecondOffset < 0 ? -500 : 500;
-    int secondOffset = (millisecondOffset + millisecondRound) / 1000;
+    TimeZoneTransitions transitions = TimeZoneTransitions.forZone(zone);
+    long secs = secsSinceEpoch(time);
+    int secondOffset = sense > 0
+        ? transitions.offsetFromUtc(secs)  // time is in UTC
+        : transitions.offsetFromLocal(secs);  // time is in local time
     return addSeconds(time, sense * secondOffset);
   }
 
@@ -0,0 +1,359 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.util;
+
+import com.google.ical.values.DateTimeValue;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * the UTC offsets of a timezone as a table of the instants at which they
+ * change, so that converting between local time and UTC is a binary search
+ * instead of a {@link GregorianCalendar} per conversion.
+ *
+ * <p>Times are {@link TimeUtils#secsSinceEpoch seconds since the epoch}, and
+ * offsets are in seconds, rounded as {@link TimeUtils#toUtc} always has.
+ * The table is built a year at a time, as conversions need it, by probing
+ * the zone's offset every few hours and bisecting any change down to the
+ * second, so it would miss an offset that changed and changed back within
+ * {@link #PROBE_SECS}; no zone does that.  Once built, a year's transitions
+ * are immutable and shared between threads.</p>
+ *
+ * <p>Local times that are near a transition, and so may be skipped or
+ * repeated, and times outside the years the table covers are converted the
+ * way they always were, via a calendar, so this gives exactly the results
+ * that the calendar does.</p>
+ *
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+public final class TimeZoneTransitions {
+
+  /** a private copy, so that changes to the caller's zone don't affect us. */
+  private final TimeZone zone;
+  /**
+   * the transitions for each year in [MIN_YEAR, MAX_YEAR), indexed by year
+   * - MIN_YEAR, or null if not yet computed.
+   */
+  private final AtomicReferenceArray<Year> years =
+      new AtomicReferenceArray<Year>(MAX_YEAR - MIN_YEAR);
+
+  private TimeZoneTransitions(TimeZone zone) {
+    this.zone = zone;
+  }
+
+  /** the shared transition table for the given zone. */
+  public static TimeZoneTransitions forZone(TimeZone zone) {
+    TimeZoneTransitions transitions = TABLES.get(zone);
+    if (null == transitions) {
+      if (TABLES.size() >= MAX_TABLES) {
+        // Zones that are created per use, instead of fetched via
+        // TimeZone.getTimeZone, could otherwise grow this without bound.
+        TABLES.clear();
+      }
+      TimeZone copy = (TimeZone) zone.clone();
+      transitions = new TimeZoneTransitions(copy);
+      TimeZoneTransitions existing = TABLES.putIfAbsent(copy, transitions);
+      if (null != existing) { transitions = existing; }
+    }
+    return transitions;
+  }
+
+  /**
+   * the offset from UTC of the local time at the given time in UTC.
+   * @param utcSecs seconds since the epoch in UTC.
+   * @return the number of seconds to add to utcSecs to get local time.
+   */
+  public int offsetFromUtc(long utcSecs) {
+    Year year = yearContaining(utcSecs);
+    if (null == year) {
+      return calendarOffset(utcSecs, TimeUtils.utcTimezone());
+    }
+    return year.offsets[year.indexOf(utcSecs)];
+  }
+
+  /**
+   * the offset from UTC of the given local time.  A local time that is
+   * skipped or repeated by a transition is resolved as
+   * {@link GregorianCalendar} resolves it.
+   * @param localSecs seconds since the epoch in this zone.
+   * @return the number of seconds to subtract from localSecs to get UTC.
+   */
+  public int offsetFromLocal(long localSecs) {
+    Year year = yearContaining(localSecs);
+    if (null != year) {
+      int i = unambiguousIndex(year, localSecs);
+      if (i >= 0) { return year.offsets[i]; }
+    }
+    return calendarOffset(localSecs, zone);
+  }
+
+  /**
+   * the start, inclusive, of the run of local times around localSecs that
+   * all have the same {@link #offsetFromLocal offset} and that are far from
+   * any transition, or localSecs if it is near one.
+   * A caller converting many nearby local times can look up the offset once
+   * per run instead of once per time.
+   * @see #offsetRunEnd
+   */
+  public long offsetRunStart(long localSecs) {
+    Year year = yearContaining(localSecs);
+    if (null != year) {
+      int i = unambiguousIndex(year, localSecs);
+      if (i >= 0) {
+        return (0 != i ? year.transitions[i - 1] : year.startSecs)
+            + MARGIN_SECS + year.offsets[i];
+      }
+    }
+    return localSecs;
+  }
+
+  /**
+   * the end, exclusive, of the run of local times around localSecs that all
+   * have the same {@link #offsetFromLocal offset} and that are far from any
+   * transition, or localSecs + 1 if it is near one.
+   * @see #offsetRunStart
+   */
+  public long offsetRunEnd(long localSecs) {
+    Year year = yearContaining(localSecs);
+    if (null != year) {
+      int i = unambiguousIndex(year, localSecs);
+      if (i >= 0) {
+        return (i != year.transitions.length
+                ? year.transitions[i] : year.endSecs)
+            - MARGIN_SECS + year.offsets[i];
+      }
+    }
+    return localSecs + 1;
+  }
+
+  /**
+   * the first transition after utcSecs and before limitSecs, that is the first
+   * time in UTC at which the offset differs from that at the second before,
+   * or limitSecs if there is none.
+   * @param utcSecs seconds since the epoch in UTC.
+   * @param limitSecs seconds since the epoch in UTC after utcSecs.
+   * @return -1 if a time between is outside the years tabulated, where the
+   *   transitions are not known.
+   */
+  public long nextTransition(long utcSecs, long limitSecs) {
+    long secs = utcSecs;
+    do {
+      Year year = yearContaining(secs);
+      if (null == year) { return -1; }
+      int i = year.indexOf(utcSecs);
+      if (i != year.transitions.length) {
+        return Math.min(year.transitions[i], limitSecs);
+      }
+      // Any later transition is in the next year's table, which starts
+      // PAD_SECS before the next year as this one ends PAD_SECS after it.
+      secs = year.endSecs - PAD_SECS;
+    } while (secs < limitSecs);
+    return limitSecs;
+  }
+
+  /**
+   * the index of the offset of localSecs in year, or -1 if localSecs is near
+   * enough to a transition that it might be skipped or repeated.
+   */
+  private static int unambiguousIndex(Year year, long localSecs) {
+    // Guess the offset from a UTC time near localSecs and then check that
+    // the guess is far enough from any transition that no other offset
+    // could map localSecs into the year.
+    int i = year.indexOf(localSecs - year.offsets[year.indexOf(localSecs)]);
+    long utcSecs = localSecs - year.offsets[i];
+    long start = 0 != i ? year.transitions[i - 1] : year.startSecs;
+    long end = i != year.transitions.length
+        ? year.transitions[i] : year.endSecs;
+    return utcSecs - start >= MARGIN_SECS && end - utcSecs > MARGIN_SECS
+        ? i : -1;
+  }
+
+  /**
+   * the transitions for the year containing secs, or null if it is outside
+   * the years that we tabulate.
+   */
+  private Year yearContaining(long secs) {
+    if (secs < MIN_SECS || secs >= MAX_SECS) { return null; }
+    int days = (int) (secs / SECS_PER_DAY);
+    int index = (int) ((days - MIN_DAY) * 400L / 146097);
+    // The estimate may be off by one either way.
+    while (days < TimeUtils.fixedFromGregorian(MIN_YEAR + index, 1, 1)) {
+      --index;
+    }
+    while (days >= TimeUtils.fixedFromGregorian(MIN_YEAR + index + 1, 1, 1)) {
+      ++index;
+    }
+    Year year = years.get(index);
+    if (null == year) {
+      // Racing threads compute the same transitions so it doesn't matter
+      // whose we keep.
+      year = computeYear(MIN_YEAR + index);
+      years.set(index, year);
+    }
+    return year;
+  }
+
+  private Year computeYear(int year) {
+    long startSecs = TimeUtils.fixedFromGregorian(year, 1, 1) * SECS_PER_DAY
+        - PAD_SECS;
+    long endSecs = TimeUtils.fixedFromGregorian(year + 1, 1, 1) * SECS_PER_DAY
+        + PAD_SECS;
+    long[] transitions = new long[8];
+    int[] offsets = new int[9];
+    int n = 0;
+    offsets[0] = offsetAt(startSecs);
+    // the last time probed, whose offset is offsets[n].
+    long lastSecs = startSecs;
+    while (lastSecs < endSecs - 1) {
+      long secs = Math.min(lastSecs + PROBE_SECS, endSecs - 1);
+      int offset = offsetAt(secs);
+      while (offset != offsets[n]) {
+        // Find the first second after lastSecs with a different offset.
+        long lo = lastSecs, hi = secs;  // offset(lo) == offsets[n] != (hi)
+        while (hi - lo > 1) {
+          long mid = lo + ((hi - lo) >> 1);
+          if (offsetAt(mid) == offsets[n]) {
+            lo = mid;
+          } else {
+            hi = mid;
+          }
+        }
+        if (n == transitions.length) {
+          transitions = copyOf(transitions, n * 2);
+          offsets = copyOf(offsets, n * 2 + 1);
+        }
+        transitions[n] = hi;
+        offsets[++n] = offsetAt(hi);
+        lastSecs = hi;
+      }
+      lastSecs = secs;
+    }
+    return new Year(
+        startSecs, endSecs, copyOf(transitions, n), copyOf(offsets, n + 1));
+  }
+
+  /** the rounded offset in seconds at the given UTC time. */
+  private int offsetAt(long utcSecs) {
+    return roundToSecs(zone.getOffset((utcSecs - UNIX_EPOCH_SECS) * 1000));
+  }
+
+  /**
+   * the offset in seconds of the zone at the given time, interpreting secs as
+   * a time in timeBasis, as {@link TimeUtils} did before this table existed.
+   */
+  private int calendarOffset(long secs, TimeZone timeBasis) {
+    // Before year 1, TimeUtils.timeFromSecsSinceEpoch is not defined, and
+    // TimeUtils does not convert year 0.
+    if (secs < SECS_PER_DAY) { return 0; }
+    return calendarOffset(TimeUtils.timeFromSecsSinceEpoch(secs), timeBasis);
+  }
+
+  private int calendarOffset(DateTimeValue date, TimeZone timeBasis) {
+    Calendar cal = new GregorianCalendar(timeBasis);
+    cal.clear(); // clear millis
+    cal.setTimeZone(timeBasis);
+    cal.set(date.year(), date.month() - 1, date.day(),
+            date.hour(), date.minute(), date.second());
+    return roundToSecs(zone.getOffset(cal.getTimeInMillis()));
+  }
+
+  private static int roundToSecs(int millis) {
+    int millisecondRound = millis < 0 ? -500 : 500;
+    return (millis + millisecondRound) / 1000;
+  }
+
+  private static long[] copyOf(long[] arr, int n) {
+    long[] copy = new long[n];
+    System.arraycopy(arr, 0, copy, 0, Math.min(n, arr.length));
+    return copy;
+  }
+
+  private static int[] copyOf(int[] arr, int n) {
+    int[] copy = new int[n];
+    System.arraycopy(arr, 0, copy, 0, Math.min(n, arr.length));
+    return copy;
+  }
+
+  /**
+   * the offsets in effect during a year and a few days either side of it.
+   * offsets[i] is in effect from transitions[i - 1], or startSecs, until
+   * transitions[i], or endSecs.
+   */
+  private static final class Year {
+    final long startSecs;
+    final long endSecs;
+    final long[] transitions;
+    final int[] offsets;
+
+    Year(long startSecs, long endSecs, long[] transitions, int[] offsets) {
+      this.startSecs = startSecs;
+      this.endSecs = endSecs;
+      this.transitions = transitions;
+      this.offsets = offsets;
+    }
+
+    /** the index into offsets of the offset in effect at utcSecs. */
+    int indexOf(long utcSecs) {
+      int lo = 0, hi = transitions.length;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (transitions[mid] <= utcSecs) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      return lo;
+    }
+  }
+
+  private static final long SECS_PER_DAY = 24L * 60 * 60;
+  /** the seconds since the epoch at the start of 1970, the unix epoch. */
+  private static final long UNIX_EPOCH_SECS =
+      TimeUtils.fixedFromGregorian(1970, 1, 1) * SECS_PER_DAY;
+  /**
+   * the first year tabulated.  It is well after the Julian to Gregorian
+   * cutover, where calendars stop agreeing with TimeUtils on what day it is.
+   */
+  private static final int MIN_YEAR = 1600;
+  /** the year after the last tabulated. */
+  private static final int MAX_YEAR = 2600;
+  private static final int MIN_DAY = TimeUtils.fixedFromGregorian(
+      MIN_YEAR, 1, 1);
+  private static final long MIN_SECS = MIN_DAY * SECS_PER_DAY;
+  private static final long MAX_SECS =
+      TimeUtils.fixedFromGregorian(MAX_YEAR, 1, 1) * SECS_PER_DAY;
+  /** how often to sample a zone's offset when looking for transitions. */
+  private static final long PROBE_SECS = 3 * 60 * 60;
+  /**
+   * more than the difference between any two offsets, so a local time this
+   * far from a transition can't be skipped or repeated.
+   */
+  private static final long MARGIN_SECS = 2 * SECS_PER_DAY;
+  /**
+   * how far before and after each year we find transitions so that times
+   * near the start or end of the year can be checked against the margin.
+   */
+  private static final long PAD_SECS = 3 * SECS_PER_DAY;
+
+  private static final int MAX_TABLES = 256;
+  private static final ConcurrentMap<TimeZone, TimeZoneTransitions> TABLES =
+      new ConcurrentHashMap<TimeZone, TimeZoneTransitions>();
+
+}
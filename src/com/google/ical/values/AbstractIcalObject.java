@@ -16,6 +16,7 @@ package com.google.ical.values;
 
 
 import java.text.ParseException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -49,10 +50,27 @@ abstract class AbstractIcalObject implements IcalObject {
    */
   protected void parse(String icalString, IcalSchema schema)
       throws ParseException {
+    try {
+      parseContentLine(icalString, schema);
+    } catch (ParseException ex) {
+      throw IcalSchema.reportable(ex);
+    }
+  }
 
+  private void parseContentLine(String icalString, IcalSchema schema)
+      throws ParseException {
     String paramText;
     String content;
-    {
+    int nameEnd = plainNameEnd(icalString);
+    if (nameEnd > 0) {
+      // Long lists of dates are slow to match against CONTENT_LINE_RE, so
+      // split lines without quotes or line breaks the same way by hand.
+      int colon = icalString.indexOf(':', nameEnd);
+      if (colon < 0 || colon == nameEnd + 1) { schema.badContent(icalString); }
+      setName(icalString.substring(0, nameEnd).toUpperCase());
+      paramText = icalString.substring(nameEnd, colon);
+      content = icalString.substring(colon + 1);
+    } else {
       String unfolded = IcalParseUtil.unfoldIcal(icalString);
       Matcher m = CONTENT_LINE_RE.matcher(unfolded);
       if (!m.matches()) { schema.badContent(icalString); }
@@ -64,7 +82,9 @@ abstract class AbstractIcalObject implements IcalObject {
     }
 
     // parse parameters
-    Map<String, String> params = new HashMap<String, String>();
+    Map<String, String> params = "".equals(paramText)
+        ? Collections.<String, String>emptyMap()
+        : new HashMap<String, String>();
     String rest = paramText;
     while (!"".equals(rest)) {
       Matcher m = PARAM_RE.matcher(rest);
@@ -82,6 +102,30 @@ abstract class AbstractIcalObject implements IcalObject {
     schema.applyObjectSchema(this.name, params, content, this);
   }
 
+  /**
+   * the end of the name of a content line with no quotes or line
+   * terminators, which is the index of the first colon or semicolon.
+   * -1 if the line has other characters that CONTENT_LINE_RE must handle,
+   * and 0 if the name is empty.
+   */
+  private static int plainNameEnd(String icalString) {
+    int nameEnd = -1;
+    for (int i = 0, n = icalString.length(); i < n; ++i) {
+      char ch = icalString.charAt(i);
+      switch (ch) {
+        case ':': case ';':
+          if (nameEnd < 0) { nameEnd = i; }
+          break;
+        case '"': case '\r': case '\n': case '\u0085': case '\u2028':
+        case '\u2029':
+          return -1;
+        default:
+          break;
+      }
+    }
+    return nameEnd;
+  }
+
   /** the object name such as RRULE, EXRULE, VEVENT.  @see #setName */
   public String getName() { return name; }
   /** @see #getName */
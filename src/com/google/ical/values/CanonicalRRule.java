@@ -0,0 +1,209 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.values;
+
+import com.google.ical.util.RuleParts;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * an immutable, normalized form of an {@link RRule}, so that rules that differ
+ * only in how they are spelled can be recognized as the same.
+ *
+ * <p>Two rules have equal canonical forms, and so equal
+ * {@link #fingerprint}s, if they differ only in
+ * <ul>
+ * <li>the order of their parts and of the values in their BY* parts,</li>
+ * <li>repeated values in their BY* parts,</li>
+ * <li>an INTERVAL of 1 or a WKST of MO, which are the defaults,</li>
+ * <li>a BYSETPOS on an HOURLY, MINUTELY, or SECONDLY rule, which is either
+ *   folded into the rule's BYHOUR, BYMINUTE or BYSECOND as the iterators do,
+ *   or ignored, as the iterators also do,</li>
+ * <li>or the order of their extension parameters.</li>
+ * </ul>
+ * Rules with the same canonical form produce the same dates from the same
+ * start, but the converse does not hold.</p>
+ *
+ * <p>{@link com.google.ical.iter.RecurrencePlanCache} compiles rules with the
+ * same canonical form only once.</p>
+ *
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+public final class CanonicalRRule {
+
+  /** never exposed, so never modified after construction. */
+  private final RRule rule;
+  private final String ical;
+  private final long fingerprint;
+
+  CanonicalRRule(RRule source) {
+    RRule rule = new RRule();
+    rule.setName(source.getName());
+    if (source.hasExtParams()) {
+      // sort so that X-A=1;X-B=2 and X-B=2;X-A=1 are the same.
+      rule.getExtParams().putAll(
+          new TreeMap<String, String>(source.getExtParams()));
+    }
+    Frequency freq = source.getFreq();
+    rule.setFreq(freq);
+    if (null != source.getWkSt() && Weekday.MO != source.getWkSt()) {
+      rule.setWkSt(source.getWkSt());
+    }
+    rule.setUntil(source.getUntil());
+    rule.setCount(source.getCount());
+    if (source.getInterval() > 1) {
+      rule.setInterval(source.getInterval());
+    }
+
+    int[] bySetPos = source.getBySetPos();
+    int[] byHour = source.getByHour();
+    int[] byMinute = source.getByMinute();
+    int[] bySecond = source.getBySecond();
+    // Sub-daily rules ignore BYSETPOS, but fold it into the smallest BY* part
+    // first where that is equivalent.  This has to be decided on the parts as
+    // given, before removing duplicates, to match the iterators.
+    // See RecurrencePlan.
+    if (0 != bySetPos.length) {
+      switch (freq) {
+        case HOURLY:
+          if (byHour.length != 0 && byMinute.length <= 1
+              && bySecond.length <= 1) {
+            byHour = RuleParts.filterBySetPos(byHour, bySetPos);
+          }
+          bySetPos = NO_INTS;
+          break;
+        case MINUTELY:
+          if (byMinute.length != 0 && bySecond.length <= 1) {
+            byMinute = RuleParts.filterBySetPos(byMinute, bySetPos);
+          }
+          bySetPos = NO_INTS;
+          break;
+        case SECONDLY:
+          if (bySecond.length != 0) {
+            bySecond = RuleParts.filterBySetPos(bySecond, bySetPos);
+          }
+          bySetPos = NO_INTS;
+          break;
+        default:
+      }
+    }
+
+    rule.setByDay(uniqueDays(source.getByDay()));
+    rule.setByMonth(RuleParts.uniquify(source.getByMonth()));
+    rule.setByMonthDay(RuleParts.uniquify(source.getByMonthDay()));
+    rule.setByWeekNo(RuleParts.uniquify(source.getByWeekNo()));
+    rule.setByYearDay(RuleParts.uniquify(source.getByYearDay()));
+    rule.setByHour(RuleParts.uniquify(byHour));
+    rule.setByMinute(RuleParts.uniquify(byMinute));
+    rule.setBySecond(RuleParts.uniquify(bySecond));
+    rule.setBySetPos(RuleParts.uniquify(bySetPos));
+
+    this.rule = rule;
+    this.ical = rule.toIcal();
+    this.fingerprint = fingerprint(ical);
+  }
+
+  /** the canonical form as an *unfolded* RFC 2445 content line. */
+  public String toIcal() { return ical; }
+
+  /**
+   * a 64 bit hash of the canonical form.  Unlike {@link #hashCode}, this is
+   * the same across JVMs and releases, so may be stored to find duplicate
+   * rules.
+   */
+  public long fingerprint() { return fingerprint; }
+
+  /** a new mutable rule with the canonical form's parts. */
+  public RRule toRRule() {
+    RRule copy = new RRule();
+    copy.setName(rule.getName());
+    if (rule.hasExtParams()) {
+      copy.getExtParams().putAll(rule.getExtParams());
+    }
+    copy.setFreq(rule.getFreq());
+    copy.setWkSt(rule.getWkSt());
+    copy.setUntil(rule.getUntil());
+    copy.setCount(rule.getCount());
+    copy.setInterval(rule.getInterval());
+    copy.setByDay(rule.getByDay());
+    copy.setByMonth(rule.getByMonth());
+    copy.setByMonthDay(rule.getByMonthDay());
+    copy.setByWeekNo(rule.getByWeekNo());
+    copy.setByYearDay(rule.getByYearDay());
+    copy.setByHour(rule.getByHour());
+    copy.setByMinute(rule.getByMinute());
+    copy.setBySecond(rule.getBySecond());
+    copy.setBySetPos(rule.getBySetPos());
+    return copy;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof CanonicalRRule)) { return false; }
+    CanonicalRRule that = (CanonicalRRule) o;
+    return this.fingerprint == that.fingerprint && this.ical.equals(that.ical);
+  }
+
+  @Override
+  public int hashCode() {
+    return (int) (fingerprint ^ (fingerprint >>> 32));
+  }
+
+  @Override
+  public String toString() {
+    return ical;
+  }
+
+  /**
+   * the 64 bit FNV-1a hash of the UTF-16 code units of s.
+   * See http://www.isthe.com/chongo/tech/comp/fnv/
+   */
+  private static long fingerprint(String s) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0, n = s.length(); i < n; ++i) {
+      char ch = s.charAt(i);
+      h = (h ^ (ch & 0xff)) * 0x100000001b3L;
+      h = (h ^ (ch >>> 8)) * 0x100000001b3L;
+    }
+    return h;
+  }
+
+  /** returns a unique copy of days sorted by day of the week and then num. */
+  private static List<WeekdayNum> uniqueDays(List<WeekdayNum> days) {
+    List<WeekdayNum> sorted = new ArrayList<WeekdayNum>(days);
+    Collections.sort(sorted, WEEKDAY_NUM_ORDER);
+    List<WeekdayNum> unique = new ArrayList<WeekdayNum>(sorted.size());
+    for (WeekdayNum day : sorted) {
+      if (unique.isEmpty() || !unique.get(unique.size() - 1).equals(day)) {
+        unique.add(day);
+      }
+    }
+    return unique;
+  }
+
+  private static final Comparator<WeekdayNum> WEEKDAY_NUM_ORDER =
+      new Comparator<WeekdayNum>() {
+        public int compare(WeekdayNum a, WeekdayNum b) {
+          int delta = a.wday.ordinal() - b.wday.ordinal();
+          return 0 != delta ? delta : a.num - b.num;
+        }
+      };
+
+  private static final int[] NO_INTS = new int[0];
+
+}
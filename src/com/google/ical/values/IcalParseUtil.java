@@ -15,7 +15,9 @@
 package com.google.ical.values;
 
 import com.google.ical.util.DTBuilder;
+import com.google.ical.util.PackedDates;
 import com.google.ical.util.TimeUtils;
+import com.google.ical.util.TimeZoneTransitions;
 import java.text.ParseException;
 import java.util.TimeZone;
 import java.util.regex.Matcher;
@@ -65,6 +67,150 @@ public final class IcalParseUtil {
     }
   }
 
+  /**
+   * like {@link #parseDateValue(String, TimeZone)} but parses the characters
+   * in [start, end) of s to a packed date in UTC.
+   * <p>The packed form is that of {@link PackedDates}.  The common forms
+   * are read and range checked in place, without allocating.</p>
+   */
+  public static long parseDateValuePacked(
+      CharSequence s, int start, int end, TimeZone tzid)
+      throws ParseException {
+    return parseDateValuePacked(s, start, end, tzid, transitionsFor(tzid));
+  }
+
+  /**
+   * parses a comma separated list of dates, as in the content of an RDATE or
+   * EXDATE, to packed dates in UTC, in the order they appear.
+   * @see #parseDateValuePacked(CharSequence, int, int, TimeZone)
+   */
+  public static long[] parseDateValueListPacked(CharSequence s, TimeZone tzid)
+      throws ParseException {
+    TimeZoneTransitions transitions = transitionsFor(tzid);
+    // Split on commas, dropping trailing empty items as String.split does.
+    int end = s.length();
+    if (indexOf(',', s, 0, end) >= 0) {
+      while (end > 0 && ',' == s.charAt(end - 1)) { --end; }
+    }
+    if (0 == end && 0 != s.length()) { return new long[0]; }
+    int n = 1;
+    for (int i = 0; i < end; ++i) {
+      if (',' == s.charAt(i)) { ++n; }
+    }
+    long[] out = new long[n];
+    for (int i = 0, start = 0; i < n; ++i) {
+      int itemEnd = indexOf(',', s, start, end);
+      if (itemEnd < 0) { itemEnd = end; }
+      out[i] = parseDateValuePacked(s, start, itemEnd, tzid, transitions);
+      start = itemEnd + 1;
+    }
+    return out;
+  }
+
+  /**
+   * @param transitions the transitions of tzid, or null if dates need no
+   *     conversion to UTC.
+   */
+  private static long parseDateValuePacked(
+      CharSequence s, int start, int end, TimeZone tzid,
+      TimeZoneTransitions transitions)
+      throws ParseException {
+    int len = end - start;
+    if (8 == len || 15 == len || 16 == len) {
+      int year = digits(s, start, 4),
+          month = digits(s, start + 4, 2),
+          day = digits(s, start + 6, 2);
+      if (month >= 1 && month <= 12 && day >= 1 && year >= 0
+          && (day <= 28 || day <= TimeUtils.monthLength(year, month))) {
+        if (8 == len) { return PackedDates.packDate(year, month, day); }
+        int hour = digits(s, start + 9, 2),
+            minute = digits(s, start + 11, 2),
+            second = digits(s, start + 13, 2);
+        boolean utc = 16 == len;
+        if ('T' == s.charAt(start + 8) && (!utc || 'Z' == s.charAt(end - 1))
+            && hour >= 0 && hour <= 23 && minute >= 0 && minute <= 59
+            && second >= 0 && second <= 59) {
+          if (utc || null == transitions || 0 == year) {
+            return PackedDates.packDateTime(
+                year, month, day, hour, minute, second);
+          }
+          return packUtc(year, month, day, hour * 3600 + minute * 60 + second,
+                         transitions);
+        }
+      }
+    }
+    // Leave unusual forms, dates that need normalizing, and errors to the
+    // regular expression.
+    return PackedDates.pack(
+        parseDateValue(s.subSequence(start, end).toString(), tzid));
+  }
+
+  /**
+   * the transitions to use to convert dates in tzid to UTC, or null if none
+   * are needed, as for {@link TimeUtils#toUtc}.
+   */
+  private static TimeZoneTransitions transitionsFor(TimeZone tzid) {
+    return null == tzid || tzid.hasSameRules(TimeUtils.utcTimezone())
+        ? null : TimeZoneTransitions.forZone(tzid);
+  }
+
+  /**
+   * packs a local date and time of day, given in seconds, after converting it
+   * to UTC the way {@link TimeUtils#toUtc} does.
+   */
+  private static long packUtc(int year, int month, int day, int secsInDay,
+                              TimeZoneTransitions transitions) {
+    long localSecs = ((long) TimeUtils.fixedFromGregorian(year, month, day))
+        * SECS_PER_DAY + secsInDay;
+    secsInDay -= transitions.offsetFromLocal(localSecs);
+    // Offsets are less than a day, so the date moves by at most one day.
+    if (secsInDay < 0) {
+      secsInDay += SECS_PER_DAY;
+      if (--day < 1) {
+        if (--month < 1) {
+          month = 12;
+          --year;
+        }
+        day = TimeUtils.monthLength(year, month);
+      }
+    } else if (secsInDay >= SECS_PER_DAY) {
+      secsInDay -= SECS_PER_DAY;
+      if (++day > TimeUtils.monthLength(year, month)) {
+        day = 1;
+        if (++month > 12) {
+          month = 1;
+          ++year;
+        }
+      }
+    }
+    return PackedDates.packDateTime(year, month, day, secsInDay / 3600,
+                        secsInDay / 60 % 60, secsInDay % 60);
+  }
+
+  private static final int SECS_PER_DAY = 24 * 60 * 60;
+
+  /**
+   * the value of the len ASCII digits at start, or -1 if there are any other
+   * characters.
+   */
+  private static int digits(CharSequence s, int start, int len) {
+    int n = 0;
+    for (int i = start, end = start + len; i < end; ++i) {
+      int d = s.charAt(i) - '0';
+      if (d < 0 || d > 9) { return -1; }
+      n = n * 10 + d;
+    }
+    return n;
+  }
+
+  /** the index of the first ch in [start, end) of s, or -1. */
+  private static int indexOf(char ch, CharSequence s, int start, int end) {
+    for (int i = start; i < end; ++i) {
+      if (ch == s.charAt(i)) { return i; }
+    }
+    return -1;
+  }
+
   /**
    * parse a period value of the form &lt;start&gt;/&lt;end&gt;.
    * This does not yet recognize the &lt;start&gt;/&lt;duration&gt; form.
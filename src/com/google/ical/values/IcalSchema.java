@@ -16,6 +16,7 @@ package com.google.ical.values;
 
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -25,6 +26,11 @@ import java.util.regex.Pattern;
  * are often one or more value types or key=value pairs.
  * This schema encapsulates rules that can be applied to parse each part before
  * inserting the results into the {@link IcalObject}.
+ * <p>Schemas hold no parse state, so one instance can be shared by any number
+ * of threads.  The productions being processed only appear in the message of
+ * a {@link ParseException}, so rather than tracking them on every call, each
+ * production adds itself to an exception as it propagates, and the parse
+ * reports it via {@link #reportable}.</p>
  *
  * @author mikesamuel+svn@gmail.com (Mike Samuel)
  */
@@ -42,9 +48,6 @@ class IcalSchema {
   /** rules for parsing value types */
   private final Map<String, XformRule> xformRules;
 
-  /** list of productions that we're processing for debugging. */
-  private final List<String> ruleStack = new ArrayList<String>();
-
   private static final Pattern EXTENSION_PARAM_NAME_RE =
       Pattern.compile("^X-[A-Z0-9\\-]+$", Pattern.CASE_INSENSITIVE);
 
@@ -80,17 +83,15 @@ class IcalSchema {
       return;
     }
     // if not an extension, apply the rule
-    ruleStack.add(rule);
     try {
       (paramRules.get(rule)).apply(this, name, value, out);
-    } finally {
-      ruleStack.remove(ruleStack.get(ruleStack.size() - 1));
+    } catch (SchemaParseException ex) {
+      throw ex.within(rule);
     }
   }
 
   public void applyContentSchema(String rule, String content, IcalObject out)
       throws ParseException {
-    ruleStack.add(rule);
     try {
       try {
         (contentRules.get(rule)).apply(this, content, out);
@@ -99,25 +100,23 @@ class IcalSchema {
       } catch (IllegalArgumentException ex) {
         badContent(content);
       }
-    } finally {
-      ruleStack.remove(ruleStack.get(ruleStack.size() - 1));
+    } catch (SchemaParseException ex) {
+      throw ex.within(rule);
     }
   }
 
   public void applyObjectSchema(
       String rule, Map<String, String> params, String content, IcalObject out)
       throws ParseException {
-    ruleStack.add(rule);
     try {
       (objectRules.get(rule)).apply(this, params, content, out);
-    } finally {
-      ruleStack.remove(ruleStack.get(ruleStack.size() - 1));
+    } catch (SchemaParseException ex) {
+      throw ex.within(rule);
     }
   }
 
   public Object applyXformSchema(String rule, String content)
       throws ParseException {
-    ruleStack.add(rule);
     try {
       try {
         return (xformRules.get(rule)).apply(this, content);
@@ -127,8 +126,8 @@ class IcalSchema {
         badContent(content);
       }
       throw new AssertionError();  // badContent raises an exception
-    } finally {
-      ruleStack.remove(ruleStack.get(ruleStack.size() - 1));
+    } catch (SchemaParseException ex) {
+      throw ex.within(rule);
     }
   }
 
@@ -138,30 +137,75 @@ class IcalSchema {
 
   public void badParam(String name, String value)
       throws ParseException {
-    throw new ParseException("parameter " + name + " has bad value [[" +
-                             value + "]] in " + ruleStack, 0);
+    throw new SchemaParseException(
+        "parameter " + name + " has bad value [[" + value + "]]", "");
   }
 
   public void badPart(String part, String msg) throws ParseException {
     if (null != msg) { msg = " : " + msg; } else { msg = ""; }
-    throw new ParseException("cannot parse [[" + part + "]] in " +
-                             ruleStack + msg, 0);
+    throw new SchemaParseException("cannot parse [[" + part + "]]", msg);
   }
 
   public void dupePart(String part) throws ParseException {
-    throw new ParseException(
-        "duplicate part [[" + part + "]] in " + ruleStack, 0);
+    throw new SchemaParseException("duplicate part [[" + part + "]]", "");
   }
 
   public void missingPart(String partName, String content)
       throws ParseException {
-    throw new ParseException("missing part " + partName + " from [[" + content +
-                             "]] in " + ruleStack, 0);
+    throw new SchemaParseException(
+        "missing part " + partName + " from [[" + content + "]]", "");
   }
 
   public void badContent(String content) throws ParseException {
-    throw new ParseException(
-        "cannot parse content line [[" + content + "]] in " + ruleStack, 0);
+    throw new SchemaParseException(
+        "cannot parse content line [[" + content + "]]", "");
+  }
+
+  /**
+   * the exception to report from a parse that failed with ex.
+   * Productions note themselves on the exceptions that propagate through
+   * them, so the outermost frame of a parse uses this to report a plain
+   * ParseException whose message names the productions, e.g.
+   * <code>cannot parse [[FOO=BAR]] in [RRULE, recur]</code>.
+   */
+  static ParseException reportable(ParseException ex) {
+    if (!(ex instanceof SchemaParseException)) { return ex; }
+    ParseException plain = new ParseException(ex.getMessage(), 0);
+    plain.setStackTrace(ex.getStackTrace());
+    return plain;
+  }
+
+  /**
+   * a parse failure that collects the productions it propagates through,
+   * and which is never seen outside the schema.
+   * @see #reportable
+   */
+  private static final class SchemaParseException extends ParseException {
+    private static final long serialVersionUID = 0;
+
+    private final String problem;
+    private final String detail;
+    /** the enclosing productions, innermost first. */
+    private final List<String> rules = new ArrayList<String>();
+
+    SchemaParseException(String problem, String detail) {
+      super(problem, 0);
+      this.problem = problem;
+      this.detail = detail;
+    }
+
+    /** notes that this was thrown while processing the given production. */
+    SchemaParseException within(String rule) {
+      rules.add(rule);
+      return this;
+    }
+
+    @Override
+    public String getMessage() {
+      List<String> ruleStack = new ArrayList<String>(rules);
+      Collections.reverse(ruleStack);
+      return problem + " in " + ruleStack + detail;
+    }
   }
 
   /**
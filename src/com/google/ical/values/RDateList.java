@@ -14,7 +14,9 @@
 
 package com.google.ical.values;
 
+import com.google.ical.util.PackedDates;
 import java.text.ParseException;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.TimeZone;
 
@@ -28,7 +30,23 @@ import java.util.TimeZone;
 public class RDateList extends AbstractIcalObject {
 
   private TimeZone tzid;
-  private DateValue[] datesUtc;
+  /**
+   * the dates, or null if they were set in packed form and have not been
+   * asked for as DateValues.
+   * Volatile, like the other forms of the dates, since it may be computed
+   * lazily by a reader of an otherwise unchanging list.
+   */
+  private volatile DateValue[] datesUtc;
+  /**
+   * the dates in the packed form described at
+   * {@link IcalParseUtil#parseDateValuePacked}, or null if not yet computed.
+   */
+  private volatile long[] packedDatesUtc;
+  /**
+   * the distinct packed dates in increasing order, or null if not yet
+   * computed.  Shared with callers, so replaced rather than modified.
+   */
+  private volatile long[] sortedPackedDatesUtc;
   private IcalValueType valueType;
 
   public RDateList(String icalString, TimeZone tzid) throws ParseException {
@@ -49,10 +67,13 @@ public class RDateList extends AbstractIcalObject {
   }
 
   public DateValue[] getDatesUtc() {
-    return null != this.datesUtc ? this.datesUtc.clone() : null;
+    DateValue[] datesUtc = datesUtc();
+    return null != datesUtc ? datesUtc.clone() : null;
   }
   public void setDatesUtc(DateValue[] datesUtc) {
     this.datesUtc = datesUtc.clone();
+    this.packedDatesUtc = null;
+    this.sortedPackedDatesUtc = null;
     if (datesUtc.length > 0) {
       setValueType((datesUtc[0] instanceof TimeValue)
                    ? IcalValueType.DATE_TIME
@@ -60,6 +81,95 @@ public class RDateList extends AbstractIcalObject {
     }
   }
 
+  /**
+   * the dates in the same order as {@link #getDatesUtc}, packed as by
+   * {@link PackedDates#pack}.
+   */
+  public long[] getPackedDatesUtc() {
+    long[] packed = packedDatesUtc();
+    return null != packed ? packed.clone() : null;
+  }
+
+  /**
+   * the distinct dates packed as by {@link #getPackedDatesUtc}, in
+   * increasing order.
+   * <p>The array is computed once and shared by every caller until the dates
+   * are next set, so that iterators over the list need not copy or sort it.
+   * It must not be modified.</p>
+   */
+  public long[] getSortedPackedDatesUtc() {
+    long[] sorted = sortedPackedDatesUtc;
+    if (null == sorted) {
+      long[] packed = packedDatesUtc();
+      if (null == packed) { return null; }
+      sorted = packed;
+      for (int i = 1; i < packed.length; ++i) {
+        if (packed[i - 1] >= packed[i]) {
+          sorted = sortedUnique(packed);
+          break;
+        }
+      }
+      sortedPackedDatesUtc = sorted;
+    }
+    return sorted;
+  }
+
+  /** a sorted copy of dates without duplicates. */
+  private static long[] sortedUnique(long[] dates) {
+    long[] sorted = dates.clone();
+    Arrays.sort(sorted);
+    int k = 0;
+    for (int i = 0; i < sorted.length; ++i) {
+      if (0 == k || sorted[i] != sorted[k - 1]) { sorted[k++] = sorted[i]; }
+    }
+    return k < sorted.length ? Arrays.copyOf(sorted, k) : sorted;
+  }
+
+  /** the packed dates, packing them if necessary.  Not a copy. */
+  private long[] packedDatesUtc() {
+    long[] packed = packedDatesUtc;
+    if (null == packed) {
+      DateValue[] datesUtc = this.datesUtc;
+      if (null == datesUtc) { return null; }
+      packed = new long[datesUtc.length];
+      for (int i = 0; i < packed.length; ++i) {
+        packed[i] = PackedDates.pack(datesUtc[i]);
+      }
+      packedDatesUtc = packed;
+    }
+    return packed;
+  }
+
+  /**
+   * sets the dates from their packed form, so that DateValues need only be
+   * created if asked for.
+   * @param packedDatesUtc not copied, so must not be modified by the caller.
+   */
+  void setPackedDatesUtc(long[] packedDatesUtc) {
+    this.packedDatesUtc = packedDatesUtc;
+    this.datesUtc = null;
+    this.sortedPackedDatesUtc = null;
+    if (packedDatesUtc.length > 0) {
+      setValueType(PackedDates.isTimed(packedDatesUtc[0])
+                   ? IcalValueType.DATE_TIME
+                   : IcalValueType.DATE);
+    }
+  }
+
+  /** the dates, unpacking them if necessary.  Not a copy. */
+  private DateValue[] datesUtc() {
+    DateValue[] dates = datesUtc;
+    long[] packed;
+    if (null == dates && null != (packed = packedDatesUtc)) {
+      dates = new DateValue[packed.length];
+      for (int i = 0; i < dates.length; ++i) {
+        dates[i] = PackedDates.unpack(packed[i]);
+      }
+      datesUtc = dates;
+    }
+    return dates;
+  }
+
   /**
    * the type of the values contained by this list as reported by the ical
    * "VALUE" parameter, typically DATE or DATE-TIME.
@@ -89,6 +199,7 @@ public class RDateList extends AbstractIcalObject {
       }
     }
     buf.append(':');
+    DateValue[] datesUtc = datesUtc();
     for (int i = 0; i < datesUtc.length; ++i) {
       if (0 != i) { buf.append(','); }
       DateValue v = datesUtc[i];
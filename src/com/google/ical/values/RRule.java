@@ -49,7 +49,12 @@ public class RRule extends AbstractIcalObject {
   }
 
   public RRule(String icalString) throws ParseException {
-    parse(VcalRewriter.rewriteRule(icalString), RRuleSchema.instance());
+    // Most stored rules are in a simple form that the scanner handles without
+    // the schema's regular expressions.  Anything else, including every
+    // malformed rule, goes through the schema.
+    if (!RRuleScanner.scan(icalString, this)) {
+      parse(VcalRewriter.rewriteRule(icalString), RRuleSchema.instance());
+    }
   }
 
   /**
@@ -138,6 +143,14 @@ public class RRule extends AbstractIcalObject {
     }
   }
 
+  /**
+   * the normalized form of this rule, which is the same for rules that differ
+   * only in spelling.  Later changes to this rule do not affect it.
+   */
+  public CanonicalRRule canonicalize() {
+    return new CanonicalRRule(this);
+  }
+
   /** an approximate number of days between occurences. */
   public int approximateIntervalInDays() {
     int freqLengthDays;
@@ -0,0 +1,419 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.values;
+
+import com.google.ical.util.DTBuilder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * a hand written scanner for the common forms of RRULE and EXRULE content
+ * lines, that avoids the regular expressions and maps of {@link RRuleSchema}.
+ * <p>The scanner only recognizes content lines that it can parse exactly as
+ * the schema would: a bare name with no parameters, followed by
+ * <code>KEY=value</code> parts in ASCII with no whitespace, quotes, extension
+ * parts or repeated keys, and values that are in range.  On anything else it
+ * declines and leaves the rule untouched so that the caller can fall back
+ * to the schema, which reports errors.</p>
+ *
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+final class RRuleScanner {
+
+  // Bits for the parts seen so far, to catch duplicates.
+  private static final int FREQ = 1 << 0, UNTIL = 1 << 1, COUNT = 1 << 2,
+      INTERVAL = 1 << 3, BYSECOND = 1 << 4, BYMINUTE = 1 << 5,
+      BYHOUR = 1 << 6, BYDAY = 1 << 7, BYMONTHDAY = 1 << 8,
+      BYYEARDAY = 1 << 9, BYWEEKNO = 1 << 10, BYMONTH = 1 << 11,
+      BYSETPOS = 1 << 12, WKST = 1 << 13;
+
+  private static final Frequency[] FREQUENCIES = Frequency.values();
+
+  private final CharSequence text;
+  /** the index of the next character to scan. */
+  private int pos;
+  /** the end of the content. */
+  private final int end;
+
+  // The parts scanned so far.  Nothing is written to the rule until the
+  // whole line has been accepted.
+  private int seen;
+  private Frequency freq;
+  private Weekday wkst;
+  private DateValue until;
+  private int count;
+  private int interval;
+  private List<WeekdayNum> byDay;
+  private int[] byMonth, byMonthDay, byWeekNo, byYearDay, byHour, byMinute,
+      bySecond, bySetPos;
+
+  private RRuleScanner(CharSequence text) {
+    this.text = text;
+    this.end = text.length();
+  }
+
+  /**
+   * parses the given content line into out if it is in a form that the
+   * scanner recognizes.
+   * @return true if out was initialized from icalText.  If false, out is
+   *     unchanged and icalText should be parsed via {@link RRuleSchema}.
+   */
+  static boolean scan(CharSequence icalText, RRule out) {
+    RRuleScanner s = new RRuleScanner(icalText);
+    if (!s.isPlain()) { return false; }
+    String name = s.scanName();
+    if (null == name || !s.scanParts()) { return false; }
+    s.applyTo(name, out);
+    return true;
+  }
+
+  /**
+   * true if the content has no characters that could need the schema's
+   * attention such as whitespace, which is trimmed or unfolded, or quotes.
+   */
+  private boolean isPlain() {
+    for (int i = 0; i < end; ++i) {
+      char ch = text.charAt(i);
+      if (ch <= ' ' || ch >= 0x7f || '"' == ch) { return false; }
+    }
+    return true;
+  }
+
+  /**
+   * consumes the name and the colon that follows it.
+   * @return the canonical name, or null if not RRULE or EXRULE.
+   */
+  private String scanName() {
+    int colon = indexOf(':', 0, end);
+    if (colon < 0) { return null; }
+    String name;
+    if (matchesIgnoreCase(0, colon, "RRULE")) {
+      name = "RRULE";
+    } else if (matchesIgnoreCase(0, colon, "EXRULE")) {
+      name = "EXRULE";
+    } else {
+      return null;
+    }
+    pos = colon + 1;
+    return name;
+  }
+
+  /** consumes the semicolon separated parts up to the end of the content. */
+  private boolean scanParts() {
+    // Like String.split, ignore empty trailing parts.
+    int contentEnd = trimTrailing(';', pos, end);
+    if (pos == contentEnd) { return false; }
+    while (true) {
+      int eq = indexOf('=', pos, contentEnd);
+      if (eq < 0) { return false; }
+      int semi = indexOf(';', eq, contentEnd);
+      int partEnd = semi < 0 ? contentEnd : semi;
+      if (!scanPart(pos, eq, eq + 1, partEnd)) { return false; }
+      if (semi < 0) { break; }
+      pos = semi + 1;
+    }
+    return 0 != (seen & FREQ) && (seen & (UNTIL | COUNT)) != (UNTIL | COUNT);
+  }
+
+  private boolean scanPart(int keyStart, int keyEnd, int start, int end) {
+    if (start == end) { return false; }
+    int part;
+    switch (keyEnd - keyStart) {
+      case 4:
+        if (matchesIgnoreCase(keyStart, keyEnd, "FREQ")) {
+          part = FREQ;
+          freq = scanFrequency(start, end);
+          if (null == freq) { return false; }
+        } else if (matchesIgnoreCase(keyStart, keyEnd, "WKST")) {
+          part = WKST;
+          if (end - start != 2) { return false; }
+          wkst = scanWeekday(start);
+          if (null == wkst) { return false; }
+        } else {
+          return false;
+        }
+        break;
+      case 5:
+        if (matchesIgnoreCase(keyStart, keyEnd, "UNTIL")) {
+          part = UNTIL;
+          until = scanDateValue(start, end);
+          if (null == until) { return false; }
+        } else if (matchesIgnoreCase(keyStart, keyEnd, "COUNT")) {
+          part = COUNT;
+          count = scanCount(start, end);
+          if (count < 0) { return false; }
+        } else if (matchesIgnoreCase(keyStart, keyEnd, "BYDAY")) {
+          part = BYDAY;
+          byDay = scanWeekdayNumList(start, end);
+          if (null == byDay) { return false; }
+        } else {
+          return false;
+        }
+        break;
+      case 6:
+        if (!matchesIgnoreCase(keyStart, keyEnd, "BYHOUR")) { return false; }
+        part = BYHOUR;
+        byHour = scanIntList(start, end, false, 0, 23);
+        if (null == byHour) { return false; }
+        break;
+      case 7:
+        if (!matchesIgnoreCase(keyStart, keyEnd, "BYMONTH")) { return false; }
+        part = BYMONTH;
+        byMonth = scanIntList(start, end, true, 1, 12);
+        if (null == byMonth) { return false; }
+        break;
+      case 8:
+        if (matchesIgnoreCase(keyStart, keyEnd, "INTERVAL")) {
+          part = INTERVAL;
+          interval = scanCount(start, end);
+          if (interval < 0) { return false; }
+        } else if (matchesIgnoreCase(keyStart, keyEnd, "BYSECOND")) {
+          part = BYSECOND;
+          bySecond = scanIntList(start, end, false, 0, 59);
+          if (null == bySecond) { return false; }
+        } else if (matchesIgnoreCase(keyStart, keyEnd, "BYMINUTE")) {
+          part = BYMINUTE;
+          byMinute = scanIntList(start, end, false, 0, 59);
+          if (null == byMinute) { return false; }
+        } else if (matchesIgnoreCase(keyStart, keyEnd, "BYWEEKNO")) {
+          part = BYWEEKNO;
+          byWeekNo = scanIntList(start, end, true, 1, 53);
+          if (null == byWeekNo) { return false; }
+        } else if (matchesIgnoreCase(keyStart, keyEnd, "BYSETPOS")) {
+          part = BYSETPOS;
+          bySetPos = scanIntList(start, end, true, 1, 366);
+          if (null == bySetPos) { return false; }
+        } else {
+          return false;
+        }
+        break;
+      case 9:
+        if (!matchesIgnoreCase(keyStart, keyEnd, "BYYEARDAY")) {
+          return false;
+        }
+        part = BYYEARDAY;
+        byYearDay = scanIntList(start, end, true, 1, 366);
+        if (null == byYearDay) { return false; }
+        break;
+      case 10:
+        if (!matchesIgnoreCase(keyStart, keyEnd, "BYMONTHDAY")) {
+          return false;
+        }
+        part = BYMONTHDAY;
+        byMonthDay = scanIntList(start, end, true, 1, 31);
+        if (null == byMonthDay) { return false; }
+        break;
+      default:
+        return false;
+    }
+    if (0 != (seen & part)) { return false; }
+    seen |= part;
+    return true;
+  }
+
+  /** like {@link Frequency#valueOf}, so case sensitive.  Null if none. */
+  private Frequency scanFrequency(int start, int end) {
+    for (Frequency f : FREQUENCIES) {
+      String name = f.name();
+      if (name.length() != end - start) { continue; }
+      int i = 0;
+      while (i < name.length() && text.charAt(start + i) == name.charAt(i)) {
+        ++i;
+      }
+      if (i == name.length()) { return f; }
+    }
+    return null;
+  }
+
+  /** the weekday whose two letter name starts at i, or null. */
+  private Weekday scanWeekday(int i) {
+    int a = upper(text.charAt(i)), b = upper(text.charAt(i + 1));
+    switch (a) {
+      case 'S':
+        return 'U' == b ? Weekday.SU : 'A' == b ? Weekday.SA : null;
+      case 'M':
+        return 'O' == b ? Weekday.MO : null;
+      case 'T':
+        return 'U' == b ? Weekday.TU : 'H' == b ? Weekday.TH : null;
+      case 'W':
+        return 'E' == b ? Weekday.WE : null;
+      case 'F':
+        return 'R' == b ? Weekday.FR : null;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * a date of the form yyyymmdd or yyyymmdd'T'hhMMss['Z'], normalized as by
+   * {@link IcalParseUtil#parseDateValue}.  Null if not of that form.
+   */
+  private DateValue scanDateValue(int start, int end) {
+    int len = end - start;
+    if (len != 8 && len != 15 && len != 16) { return null; }
+    int year = digits(start, 4), month = digits(start + 4, 2),
+        day = digits(start + 6, 2);
+    if ((year | month | day) < 0) { return null; }
+    if (8 == len) { return new DTBuilder(year, month, day).toDate(); }
+    if ('T' != upper(text.charAt(start + 8))) { return null; }
+    if (16 == len && 'Z' != upper(text.charAt(start + 15))) { return null; }
+    int hour = digits(start + 9, 2), minute = digits(start + 11, 2),
+        second = digits(start + 13, 2);
+    if (hour < 0 || hour > 23 || minute < 0 || minute > 59
+        || second < 0 || second > 59) {
+      return null;
+    }
+    return new DTBuilder(year, month, day, hour, minute, second).toDateTime();
+  }
+
+  /** an unsigned count of up to 9 digits, or -1. */
+  private int scanCount(int start, int end) {
+    int len = end - start;
+    return len <= 9 ? digits(start, len) : -1;
+  }
+
+  /**
+   * a comma separated list of integers whose magnitudes are in
+   * [absMin, absMax], or null.
+   * @param signed true if the integers may have a sign.
+   */
+  private int[] scanIntList(
+      int start, int end, boolean signed, int absMin, int absMax) {
+    end = trimTrailing(',', start, end);
+    if (start == end) { return null; }
+    int[] out = new int[count(',', start, end) + 1];
+    int k = 0;
+    for (int i = start; i <= end;) {
+      int itemEnd = indexOf(',', i, end);
+      if (itemEnd < 0) { itemEnd = end; }
+      int digitsStart = i;
+      boolean negative = false;
+      if (signed && itemEnd - i > 1) {
+        char ch = text.charAt(i);
+        if ('-' == ch || '+' == ch) {
+          negative = '-' == ch;
+          ++digitsStart;
+        }
+      }
+      int len = itemEnd - digitsStart;
+      if (len > 3) { return null; }
+      int n = digits(digitsStart, len);
+      if (n < absMin || n > absMax) { return null; }
+      out[k++] = negative ? -n : n;
+      i = itemEnd + 1;
+    }
+    return out;
+  }
+
+  /** a comma separated list of weekdays with optional ordinals, or null. */
+  private List<WeekdayNum> scanWeekdayNumList(int start, int end) {
+    end = trimTrailing(',', start, end);
+    if (start == end) { return null; }
+    List<WeekdayNum> out =
+        new ArrayList<WeekdayNum>(count(',', start, end) + 1);
+    for (int i = start; i <= end;) {
+      int itemEnd = indexOf(',', i, end);
+      if (itemEnd < 0) { itemEnd = end; }
+      if (itemEnd - i < 2) { return null; }
+      int numEnd = itemEnd - 2;
+      int n = 0;
+      if (numEnd != i) {
+        int digitsStart = i;
+        char ch = text.charAt(i);
+        if ('-' == ch || '+' == ch) { ++digitsStart; }
+        int len = numEnd - digitsStart;
+        if (len > 2) { return null; }
+        n = digits(digitsStart, len);
+        if (n < 1 || n > 53) { return null; }
+        if ('-' == ch) { n = -n; }
+      }
+      Weekday wday = scanWeekday(numEnd);
+      if (null == wday) { return null; }
+      out.add(new WeekdayNum(n, wday));
+      i = itemEnd + 1;
+    }
+    return out;
+  }
+
+  private void applyTo(String name, RRule out) {
+    out.setName(name);
+    out.setFreq(freq);
+    if (null != wkst) { out.setWkSt(wkst); }
+    if (null != until) { out.setUntil(until); }
+    if (0 != (seen & COUNT)) { out.setCount(count); }
+    if (0 != (seen & INTERVAL)) { out.setInterval(interval); }
+    if (null != byDay) { out.setByDay(byDay); }
+    if (null != byMonth) { out.setByMonth(byMonth); }
+    if (null != byMonthDay) { out.setByMonthDay(byMonthDay); }
+    if (null != byWeekNo) { out.setByWeekNo(byWeekNo); }
+    if (null != byYearDay) { out.setByYearDay(byYearDay); }
+    if (null != byHour) { out.setByHour(byHour); }
+    if (null != byMinute) { out.setByMinute(byMinute); }
+    if (null != bySecond) { out.setBySecond(bySecond); }
+    if (null != bySetPos) { out.setBySetPos(bySetPos); }
+  }
+
+  /**
+   * the non-negative value of the len ASCII digits at start, or -1 if there
+   * are none or any other characters.
+   */
+  private int digits(int start, int len) {
+    if (len <= 0) { return -1; }
+    int n = 0;
+    for (int i = start, e = start + len; i < e; ++i) {
+      int d = text.charAt(i) - '0';
+      if (d < 0 || d > 9) { return -1; }
+      n = n * 10 + d;
+    }
+    return n;
+  }
+
+  /** the index of the first ch in [start, end), or -1. */
+  private int indexOf(char ch, int start, int end) {
+    for (int i = start; i < end; ++i) {
+      if (text.charAt(i) == ch) { return i; }
+    }
+    return -1;
+  }
+
+  /** the end of [start, end) without any trailing ch. */
+  private int trimTrailing(char ch, int start, int end) {
+    while (end > start && text.charAt(end - 1) == ch) { --end; }
+    return end;
+  }
+
+  private int count(char ch, int start, int end) {
+    int n = 0;
+    for (int i = start; i < end; ++i) {
+      if (text.charAt(i) == ch) { ++n; }
+    }
+    return n;
+  }
+
+  /** true if the chars in [start, end) are upperCase ignoring ASCII case. */
+  private boolean matchesIgnoreCase(int start, int end, String upperCase) {
+    if (end - start != upperCase.length()) { return false; }
+    for (int i = start; i < end; ++i) {
+      if (upper(text.charAt(i)) != upperCase.charAt(i - start)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int upper(char ch) {
+    return 'a' <= ch && ch <= 'z' ? ch - ('a' - 'A') : ch;
+  }
+}
@@ -46,9 +46,8 @@ class RRuleSchema extends IcalSchema{
   // ICAL Object Schema
   /////////////////////////////////
 
-  static RRuleSchema instance() {
-    return new RRuleSchema();
-  }
+  /** the schema is stateless, so all parses share one. */
+  static RRuleSchema instance() { return INSTANCE; }
 
   private RRuleSchema() {
     super(PARAM_RULES, CONTENT_RULES, OBJECT_RULES, XFORM_RULES);
@@ -62,6 +61,8 @@ class RRuleSchema extends IcalSchema{
 
   private static final Map<String, XformRule> XFORM_RULES;
 
+  private static final RRuleSchema INSTANCE;
+
   static {
     Map<String, ParamRule> paramRules = new HashMap<String, ParamRule>();
     Map<String, ContentRule> contentRules = new HashMap<String, ContentRule>();
@@ -507,14 +508,10 @@ class RRuleSchema extends IcalSchema{
         public void apply(IcalSchema schema, String content, IcalObject target)
             throws ParseException {
           RDateList rdates = (RDateList) target;
-          String[] parts = COMMA.split(content);
-          DateValue[] datesUtc = new DateValue[parts.length];
-          for (int i = 0; i < parts.length; ++i) {
-            String part = parts[i];
-            // TODO(msamuel): figure out what to do with periods.
-            datesUtc[i] = IcalParseUtil.parseDateValue(part, rdates.getTzid());
-          }
-          rdates.setDatesUtc(datesUtc);
+          // TODO(msamuel): figure out what to do with periods.
+          rdates.setPackedDatesUtc(
+              IcalParseUtil.parseDateValueListPacked(
+                  content, rdates.getTzid()));
         }
       });
 
@@ -522,6 +519,7 @@ class RRuleSchema extends IcalSchema{
     CONTENT_RULES = Collections.unmodifiableMap(contentRules);
     OBJECT_RULES = Collections.unmodifiableMap(objectRules);
     XFORM_RULES = Collections.unmodifiableMap(xformRules);
+    INSTANCE = new RRuleSchema();
   }
 
 
@@ -35,16 +35,28 @@ public class AllTests extends TestSuite {
     this.addTestSuite(com.google.ical.iter.DateValueComparisonTest.class);
     this.addTestSuite(com.google.ical.iter.FiltersTest.class);
     this.addTestSuite(com.google.ical.iter.GeneratorsTest.class);
+    this.addTestSuite(com.google.ical.iter.InstanceCounterTest.class);
     this.addTestSuite(com.google.ical.iter.IntSetTest.class);
     this.addTestSuite(com.google.ical.iter.MonkeyKeyboardTest.class);
     this.addTestSuite(com.google.ical.iter.RDateIteratorImplTest.class);
     this.addTestSuite(com.google.ical.iter.RRuleIteratorImplTest.class);
+    this.addTestSuite(
+        com.google.ical.iter.ReverseRecurrenceIteratorImplTest.class);
+    this.addTestSuite(com.google.ical.iter.RecurrencePlanCacheTest.class);
+    this.addTestSuite(com.google.ical.iter.RecurrencePlanTest.class);
+    this.addTestSuite(com.google.ical.iter.RuleAnalyzerTest.class);
     this.addTestSuite(com.google.ical.iter.StressTest.class);
     this.addTestSuite(com.google.ical.iter.UtilTest.class);
+    this.addTestSuite(com.google.ical.iter.YearShapeMasksTest.class);
     this.addTestSuite(com.google.ical.util.DTBuilderTest.class);
+    this.addTestSuite(com.google.ical.util.PackedDatesTest.class);
+    this.addTestSuite(com.google.ical.util.RulePartsTest.class);
+    this.addTestSuite(com.google.ical.util.TimeZoneTransitionsTest.class);
+    this.addTestSuite(com.google.ical.values.CanonicalRRuleTest.class);
     this.addTestSuite(com.google.ical.values.IcalParseUtilTest.class);
     this.addTestSuite(com.google.ical.values.PeriodValueImplTest.class);
     this.addTestSuite(com.google.ical.values.RDateListTest.class);
+    this.addTestSuite(com.google.ical.values.RRuleScannerTest.class);
     this.addTestSuite(com.google.ical.values.RRuleTest.class);
     this.addTestSuite(com.google.ical.values.VcalRewriterTest.class);
   }
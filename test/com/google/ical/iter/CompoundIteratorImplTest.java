@@ -15,12 +15,15 @@
 package com.google.ical.iter;
 
 import com.google.ical.values.RDateList;
+import com.google.ical.values.RRule;
 import com.google.ical.values.DateTimeValueImpl;
 import com.google.ical.values.DateValue;
 import com.google.ical.values.DateValueImpl;
 import com.google.ical.util.TimeUtils;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.TimeZone;
 
 import junit.framework.Assert;
@@ -54,6 +57,30 @@ public class CompoundIteratorImplTest extends TestCase {
     RecurrenceIterator ri = RecurrenceIteratorFactory.createRecurrenceIterator(
         rdata, dtStart, tz);
     runRecurrenceIteratorTest(ri, limit, advanceTo, golden);
+    runBatchTest(
+        RecurrenceIteratorFactory.createRecurrenceIterator(rdata, dtStart, tz),
+        limit, advanceTo, golden);
+  }
+  /** like runRecurrenceIteratorTest but fetches dates a few at a time. */
+  private void runBatchTest(
+      RecurrenceIterator ri, int limit, DateValue advanceTo, String golden)
+  throws Exception {
+    if (null != advanceTo) {
+      ri.advanceTo(advanceTo);
+    }
+    StringBuilder sb = new StringBuilder();
+    long[] batch = new long[3];
+    int k = 0;
+    while (k < limit) {
+      int n = ri.nextPacked(batch, 0, Math.min(batch.length, limit - k));
+      for (int i = 0; i < n; ++i) {
+        if (k++ != 0) { sb.append(','); }
+        sb.append(DateValueComparison.fromComparable(batch[i]));
+      }
+      if (0 == n) { break; }
+    }
+    if (ri.hasNext()) { sb.append(",..."); }
+    assertEquals(golden, sb.toString());
   }
   private void runRecurrenceIteratorTest(
       RecurrenceIterator ri, int limit, DateValue advanceTo, String golden)
@@ -431,6 +458,153 @@ public class CompoundIteratorImplTest extends TestCase {
         );
   }
 
+  public void testManySources() throws Exception {
+    // one source per content line, with duplicates, out of order.
+    StringBuilder rdata = new StringBuilder();
+    StringBuilder golden = new StringBuilder();
+    StringBuilder goldenAfterAdvance = new StringBuilder();
+    for (int day = 31; day >= 2; --day) {
+      String date = "200601" + (day < 10 ? "0" : "") + day;
+      rdata.append("RDATE;VALUE=DATE:").append(date).append('\n')
+          .append("RDATE;VALUE=DATE:").append(date).append('\n');
+      if (day % 3 == 0) {
+        rdata.append("EXDATE;VALUE=DATE:").append(date).append('\n');
+      } else {
+        golden.insert(0, "," + date);
+        if (day >= 10) { goldenAfterAdvance.insert(0, "," + date); }
+      }
+    }
+    runRecurrenceIteratorTest(
+        rdata.toString(), new DateValueImpl(2006, 1, 1), PST, 40, null,
+        "20060101" + golden);
+    runRecurrenceIteratorTest(
+        rdata.toString(), new DateValueImpl(2006, 1, 1), PST, 40,
+        new DateValueImpl(2006, 1, 10), goldenAfterAdvance.substring(1));
+  }
+
+  public void testRepeatedDates() throws Exception {
+    // Sub-daily rules with an untimed dtStart repeat dates.  A date repeated
+    // by one source is yielded as often as it repeats it, but dtStart, which
+    // the rule also yields, is yielded once.
+    runRecurrenceIteratorTest(
+        "RRULE:FREQ=MONTHLY;BYMINUTE=13,31;COUNT=41\n"
+        + "RDATE;VALUE=DATE:20300101",
+        new DateValueImpl(2003, 4, 26), UTC, 6, null,
+        "20030426,20030526,20030526,20030626,20030626,20030726,..."
+        );
+  }
+
+  public void testSingleRuleSameAsCompound() throws Exception {
+    // The factory iterates a single RRULE with EXDATEs without a heap, so
+    // check that it agrees with the general merge.
+    assertSingleRuleSameAsCompound(
+        "RRULE:FREQ=DAILY;COUNT=20",
+        new String[] { "EXDATE:20060103,20060105",
+                       "EXDATE:20060105,20060101,20060119" },
+        new DateValueImpl(2006, 1, 1), PST);
+    assertSingleRuleSameAsCompound(
+        "RRULE:FREQ=WEEKLY;BYDAY=MO,WE",
+        new String[] { "EXDATE:20060104T090000Z,20060111T100000Z" },
+        new DateTimeValueImpl(2006, 1, 2, 1, 0, 0), PST);
+    // dtStart is not one of the rule's dates, but is still included.
+    assertSingleRuleSameAsCompound(
+        "RRULE:FREQ=MONTHLY;BYMONTHDAY=-1;BYSETPOS=1",
+        new String[] { "EXDATE:20060228,20060531" },
+        new DateValueImpl(2006, 1, 15), UTC);
+    assertSingleRuleSameAsCompound(
+        "RRULE:FREQ=HOURLY;INTERVAL=5",
+        new String[] { "EXDATE:20060102T050000Z" },
+        new DateTimeValueImpl(2006, 1, 1, 0, 0, 0), UTC);
+    assertSingleRuleSameAsCompound(
+        "RRULE:FREQ=YEARLY;BYMONTH=3;BYDAY=-1SU;UNTIL=20200101",
+        new String[0],
+        new DateTimeValueImpl(2006, 3, 26, 2, 30, 0), EST);
+
+    StringBuilder rdata = new StringBuilder("RRULE:FREQ=DAILY");
+    for (int i = 0; i < 400; i += 3) {
+      rdata.append("\nEXDATE:").append(
+          TimeUtils.add(new DateValueImpl(2006, 1, 1),
+                        new DateValueImpl(0, 0, i)));
+    }
+    assertTrue(RecurrenceIteratorFactory.createRecurrenceIterator(
+                   rdata.toString(), new DateValueImpl(2006, 1, 1), UTC)
+               instanceof SingleRuleIteratorImpl);
+    assertFalse(RecurrenceIteratorFactory.createRecurrenceIterator(
+                    "RRULE:FREQ=DAILY\nRDATE:20060101",
+                    new DateValueImpl(2006, 1, 1), UTC)
+                instanceof SingleRuleIteratorImpl);
+    // hourly dates repeat when dtStart is a date, so are merged in general.
+    assertFalse(RecurrenceIteratorFactory.createRecurrenceIterator(
+                    "RRULE:FREQ=HOURLY;INTERVAL=5\nEXDATE:20060102",
+                    new DateValueImpl(2006, 1, 1), UTC)
+                instanceof SingleRuleIteratorImpl);
+    assertFalse(RecurrenceIteratorFactory.createRecurrenceIterator(
+                    "RRULE:FREQ=MONTHLY;BYMINUTE=13,31;COUNT=41",
+                    new DateValueImpl(2003, 4, 26), UTC)
+                instanceof SingleRuleIteratorImpl);
+  }
+
+  private static void assertSingleRuleSameAsCompound(
+      String rrule, String[] exdates, DateValue dtStart, TimeZone tz)
+      throws Exception {
+    StringBuilder rdata = new StringBuilder(rrule);
+    for (String exdate : exdates) { rdata.append('\n').append(exdate); }
+    DateValue[] advances = {
+      null, dtStart, new DateValueImpl(2006, 1, 4),
+      new DateTimeValueImpl(2006, 2, 27, 12, 0, 0),
+      new DateValueImpl(2007, 1, 1),
+    };
+    for (DateValue advanceTo : advances) {
+      RecurrenceIterator fast = RecurrenceIteratorFactory
+          .createRecurrenceIterator(rdata.toString(), dtStart, tz);
+      assertTrue(fast instanceof SingleRuleIteratorImpl);
+      RecurrenceIterator general = compound(rrule, exdates, dtStart, tz);
+      String message = rdata + " advanced to " + advanceTo;
+      if (null != advanceTo) {
+        fast.advanceTo(advanceTo);
+        general.advanceTo(advanceTo);
+      }
+      for (int i = 0; i < 100 && general.hasNext(); ++i) {
+        assertTrue(message, fast.hasNext());
+        assertEquals(message, general.nextPacked(), fast.nextPacked());
+      }
+      assertEquals(message, general.hasNext(), fast.hasNext());
+
+      fast = RecurrenceIteratorFactory
+          .createRecurrenceIterator(rdata.toString(), dtStart, tz);
+      general = compound(rrule, exdates, dtStart, tz);
+      if (null != advanceTo) {
+        fast.advanceTo(advanceTo);
+        general.advanceTo(advanceTo);
+      }
+      long[] fastBatch = new long[7], generalBatch = new long[7];
+      for (int i = 0; i < 20; ++i) {
+        int n = general.nextPacked(generalBatch, 0, generalBatch.length);
+        assertEquals(message, n, fast.nextPacked(fastBatch, 0, n));
+        for (int j = 0; j < n; ++j) {
+          assertEquals(message, generalBatch[j], fastBatch[j]);
+        }
+      }
+    }
+  }
+
+  /** the general merge of dtStart, rrule, and exdates. */
+  private static RecurrenceIterator compound(
+      String rrule, String[] exdates, DateValue dtStart, TimeZone tz)
+      throws Exception {
+    List<RecurrenceIterator> inclusions = new ArrayList<RecurrenceIterator>();
+    inclusions.add(new RDateIteratorImpl(
+        new DateValue[] { TimeUtils.toUtc(dtStart, tz) }));
+    inclusions.add(RecurrenceIteratorFactory.createRecurrenceIterator(
+        new RRule(rrule), dtStart, tz));
+    List<RecurrenceIterator> exclusions = new ArrayList<RecurrenceIterator>();
+    for (String exdate : exdates) {
+      exclusions.add(RecurrenceIteratorFactory.createRecurrenceIterator(
+          new RDateList(exdate, tz)));
+    }
+    return new CompoundIteratorImpl(inclusions, exclusions);
+  }
+
   public void testMonkeySeptember1() throws Exception {
     // From the Monkey Tester
     // RANDOM SEED 1156837020593
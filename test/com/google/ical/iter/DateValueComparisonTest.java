@@ -65,6 +65,24 @@ public class DateValueComparisonTest extends TestCase {
     }
   }
 
+  public void testFromComparable() throws Exception {
+    DateValue[] dates = {
+      new DateValueImpl(2006, 4, 11),
+      new DateTimeValueImpl(2006, 4, 11, 0, 0, 0),
+      new DateTimeValueImpl(2006, 4, 11, 0, 0, 1),
+      new DateTimeValueImpl(2006, 12, 31, 23, 59, 59),
+      new DateValueImpl(1900, 1, 1),
+      new DateValueImpl(-4, 2, 29),
+    };
+    for (DateValue dv : dates) {
+      long packed = DateValueComparison.comparable(dv);
+      DateValue roundTripped = DateValueComparison.fromComparable(packed);
+      assertEquals(dv, roundTripped);
+      assertEquals(dv.getClass(), roundTripped.getClass());
+      assertEquals(packed, DateValueComparison.comparable(roundTripped));
+    }
+  }
+
   static final int sign3(int i) {
     return i < 0 ? -1 : i != 0 ? 1 : 0;
   }
@@ -15,6 +15,7 @@
 package com.google.ical.iter;
 
 import com.google.ical.values.Weekday;
+import com.google.ical.values.WeekdayNum;
 import com.google.ical.values.DateValue;
 import com.google.ical.values.IcalParseUtil;
 import com.google.ical.util.Predicate;
@@ -97,4 +98,45 @@ public class FiltersTest extends TestCase {
     assertTrue( f2.apply(IcalParseUtil.parseDateValue("20050926")));
   }
 
+  public void testByDayAndByMonthDayFilters() throws Exception {
+    // friday the 13th
+    PackedPredicate f = Filters.and(java.util.Arrays.asList(
+        Filters.byDayFilter(
+            new WeekdayNum[] { new WeekdayNum(0, Weekday.FR) }, false,
+            Weekday.MO),
+        PackedPredicate.ALWAYS_TRUE,
+        Filters.byMonthDayFilter(new int[] { 13 })));
+    assertTrue( f.apply(IcalParseUtil.parseDateValue("20061013")));
+    assertTrue( f.apply(IcalParseUtil.parseDateValue("20061013T120000")));
+    assertTrue(!f.apply(IcalParseUtil.parseDateValue("20061012")));
+    assertTrue(!f.apply(IcalParseUtil.parseDateValue("20061113")));
+    assertTrue( f.applyPacked(
+        DateValueComparison.comparable(2007, 4, 13, 9, 30, 0)));
+    assertTrue(!f.applyPacked(DateValueComparison.comparable(2007, 4, 14)));
+
+    // the last sunday of the month
+    PackedPredicate lastSunday = Filters.byDayFilter(
+        new WeekdayNum[] { new WeekdayNum(-1, Weekday.SU) }, false,
+        Weekday.SU);
+    assertTrue( lastSunday.apply(IcalParseUtil.parseDateValue("20061029")));
+    assertTrue(!lastSunday.apply(IcalParseUtil.parseDateValue("20061022")));
+
+    // the last day of the month
+    PackedPredicate lastDay = Filters.byMonthDayFilter(new int[] { -1 });
+    assertTrue( lastDay.apply(IcalParseUtil.parseDateValue("20080229")));
+    assertTrue(!lastDay.apply(IcalParseUtil.parseDateValue("20080228")));
+  }
+
+  public void testTimeFilters() throws Exception {
+    PackedPredicate f = Filters.byHourFilter(new int[] { 9, 17 });
+    assertTrue( f.apply(IcalParseUtil.parseDateValue("20061013T090000")));
+    assertTrue(!f.apply(IcalParseUtil.parseDateValue("20061013T100000")));
+    // dates without times have no hour
+    assertTrue(!f.apply(IcalParseUtil.parseDateValue("20061013")));
+
+    PackedPredicate g = Filters.bySecondFilter(new int[] { 0, 59 });
+    assertTrue( g.apply(IcalParseUtil.parseDateValue("20061013T090059")));
+    assertTrue(!g.apply(IcalParseUtil.parseDateValue("20061013T090058")));
+  }
+
 }
@@ -0,0 +1,194 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.iter;
+
+import com.google.ical.util.TimeUtils;
+import com.google.ical.values.DateValueImpl;
+import com.google.ical.values.IcalParseUtil;
+import com.google.ical.values.RRule;
+import java.util.TimeZone;
+import junit.framework.TestCase;
+
+/**
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+public class InstanceCounterTest extends TestCase {
+
+  static final TimeZone PST = TimeZone.getTimeZone("America/Los_Angeles");
+  static final TimeZone UTC = TimeUtils.utcTimezone();
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    super.tearDown();
+  }
+
+  private static InstanceCounter counter(
+      String rruleText, String dtStart, TimeZone tz) throws Exception {
+    return new RecurrencePlan(
+        new RRule(rruleText), IcalParseUtil.parseDateValue(dtStart), tz)
+        .counter();
+  }
+
+  private static long comparable(String date) throws Exception {
+    return DateValueComparison.comparable(IcalParseUtil.parseDateValue(date));
+  }
+
+  /**
+   * checks that the counter for the given rule counts the instances in
+   * [from, to) that iterating over the rule yields.
+   * @param from a date, or null to count from the start.
+   */
+  private static void assertCountsAsIterated(
+      String rruleText, String dtStart, TimeZone tz, String from, String to)
+      throws Exception {
+    long fromUtc =
+        null != from ? comparable(from) : RRuleIteratorImpl.NO_DATE;
+    long toUtc = comparable(to);
+    RecurrenceIterator it = new RecurrencePlan(
+        new RRule(rruleText), IcalParseUtil.parseDateValue(dtStart), tz)
+        .iterator();
+    long expected = 0;
+    while (it.hasNext()) {
+      long dUtc = DateValueComparison.comparable(it.next());
+      if (dUtc >= toUtc) { break; }
+      if (dUtc >= fromUtc) { ++expected; }
+    }
+    String message =
+        rruleText + " / " + dtStart + " [" + from + ", " + to + ")";
+    InstanceCounter counter = counter(rruleText, dtStart, tz);
+    assertNotNull(message, counter);
+    assertEquals(message, expected, counter.count(fromUtc, toUtc, 1L << 40));
+  }
+
+  public void testWeekdays() throws Exception {
+    String rule = "RRULE:FREQ=WEEKLY;BYDAY=MO,TU,WE,TH,FR";
+    assertCountsAsIterated(rule, "20060102", UTC, null, "20070101");
+    assertCountsAsIterated(rule, "20060102", UTC, "20060120", "20090317");
+    assertCountsAsIterated(rule, "20060102", UTC, "20060121", "20060123");
+    // 260 weekdays in 2006
+    assertEquals(
+        260,
+        counter(rule, "20060102", UTC).count(
+            RRuleIteratorImpl.NO_DATE, comparable("20070101"), 1000));
+    // stops at the limit
+    assertEquals(
+        100,
+        counter(rule, "20060102", UTC).count(
+            RRuleIteratorImpl.NO_DATE, comparable("20070101"), 100));
+  }
+
+  public void testIntervals() throws Exception {
+    assertCountsAsIterated(
+        "RRULE:FREQ=MONTHLY;INTERVAL=5;BYMONTHDAY=1,-1", "20060131", UTC,
+        "20060301", "20150101");
+    assertCountsAsIterated(
+        "RRULE:FREQ=DAILY;INTERVAL=3;BYMONTH=2,3", "20060131", UTC,
+        null, "20100101");
+    assertCountsAsIterated(
+        "RRULE:FREQ=YEARLY;INTERVAL=2;BYWEEKNO=1,-1;BYDAY=SU", "20060131",
+        UTC, "20060301", "20300101");
+    assertCountsAsIterated(
+        "RRULE:FREQ=HOURLY;INTERVAL=7;BYDAY=SA", "20060131T143000", UTC,
+        "20060301", "20070101");
+    assertCountsAsIterated(
+        "RRULE:FREQ=MINUTELY;INTERVAL=7;BYHOUR=9,17", "20060131T090500",
+        UTC, "20060205T091500", "20060401T170105");
+    assertCountsAsIterated(
+        "RRULE:FREQ=SECONDLY;INTERVAL=13;BYMINUTE=0,30", "20060131T090500",
+        UTC, null, "20060215T120000");
+  }
+
+  public void testWholeDays() throws Exception {
+    // Every generated day has the same number of instances, so whole months
+    // are counted from the day masks.
+    assertCountsAsIterated(
+        "RRULE:FREQ=WEEKLY;BYDAY=MO,WE;BYHOUR=9,17;BYMINUTE=0,30",
+        "20060102T090000", UTC, "20060105T170000", "20090317T093000");
+    assertCountsAsIterated(
+        "RRULE:FREQ=DAILY;INTERVAL=4;BYHOUR=6", "20060102T060000", UTC,
+        "20060111T070000", "20080101T050000");
+    // the hours on a day repeat every 5 days, so days are counted one by one
+    assertCountsAsIterated(
+        "RRULE:FREQ=HOURLY;INTERVAL=5", "20060102T050000", UTC,
+        null, "20070101");
+    assertCountsAsIterated(
+        "RRULE:FREQ=MINUTELY;INTERVAL=5;BYHOUR=9", "20060102T090500", PST,
+        "20060110", "20071231T090700");
+  }
+
+  public void testTimeFilters() throws Exception {
+    assertCountsAsIterated(
+        "RRULE:FREQ=MINUTELY;BYMINUTE=5,10,15;BYHOUR=3", "20060131T030500",
+        UTC, null, "20060401");
+    assertCountsAsIterated(
+        "RRULE:FREQ=SECONDLY;INTERVAL=2;BYSECOND=1,2,3,4", "20060131T030500",
+        UTC, "20060201", "20060203T030500");
+  }
+
+  public void testUntimedInstancesRepeat() throws Exception {
+    // an HOURLY rule with a date start yields each date once per hour
+    assertCountsAsIterated(
+        "RRULE:FREQ=HOURLY;INTERVAL=5", "20060131", UTC, null, "20060301");
+    assertCountsAsIterated(
+        "RRULE:FREQ=HOURLY;INTERVAL=5", "20060131", UTC,
+        "20060202T120000", "20060301T000000");
+  }
+
+  public void testDaylightSavings() throws Exception {
+    // Clocks in Los Angeles sprang forward on 2 April 2006 and fell back on
+    // 29 October 2006.
+    String[] rules = {
+      "RRULE:FREQ=HOURLY",
+      "RRULE:FREQ=HOURLY;INTERVAL=5",
+      "RRULE:FREQ=MINUTELY;INTERVAL=17",
+      "RRULE:FREQ=MINUTELY;BYHOUR=1,2,3;BYMINUTE=0,30",
+      "RRULE:FREQ=DAILY;BYHOUR=1,2,3",
+    };
+    for (String rule : rules) {
+      assertCountsAsIterated(rule, "20060301T013000", PST, null, "20061231");
+      assertCountsAsIterated(
+          rule, "20060301T013000", PST, "20060402T083000", "20060402T113000");
+      assertCountsAsIterated(
+          rule, "20060301T013000", PST, "20061029T073000", "20061029T113000");
+      // counted from the last shift before the window
+      assertCountsAsIterated(
+          rule, "20060301T013000", PST, "20080309T093000", "20080309T113000");
+    }
+  }
+
+  public void testUnknown() throws Exception {
+    // the first instance is too close to a daylight savings shift
+    assertEquals(
+        InstanceCounter.UNKNOWN,
+        counter("RRULE:FREQ=HOURLY", "20060402T013000", PST).count(
+            RRuleIteratorImpl.NO_DATE, comparable("20060501"), 1000));
+    // dates after the year 9999
+    assertEquals(
+        InstanceCounter.UNKNOWN,
+        counter("RRULE:FREQ=YEARLY", "20060402", UTC).count(
+            RRuleIteratorImpl.NO_DATE,
+            DateValueComparison.comparable(new DateValueImpl(10000, 1, 1)),
+            100000));
+    // sets chosen by position are not counted
+    assertNull(counter("RRULE:FREQ=MONTHLY;BYDAY=MO;BYSETPOS=-1", "20060402",
+                       UTC));
+  }
+
+}
@@ -16,6 +16,8 @@ package com.google.ical.iter;
 
 import com.google.ical.values.RDateList;
 import com.google.ical.values.DateValue;
+import com.google.ical.values.DateValueImpl;
+import com.google.ical.util.TimeUtils;
 import java.util.TimeZone;
 
 import junit.framework.TestCase;
@@ -66,6 +68,48 @@ public class RDateIteratorImplTest extends TestCase {
         "RDATE:20060413,20060412,20060412", UTC, "20060412,20060413");
   }
 
+  public void testAdvanceTo() throws Exception {
+    String rdata = "RDATE:20060412,20060301,20060415,20060501,20070101";
+    runRecurrenceIteratorTest(
+        rdata, UTC, "20060301,20060412,20060415,20060501,20070101",
+        new DateValueImpl(2006, 1, 1));
+    runRecurrenceIteratorTest(
+        rdata, UTC, "20060412,20060415,20060501,20070101",
+        new DateValueImpl(2006, 4, 12));
+    runRecurrenceIteratorTest(
+        rdata, UTC, "20060415,20060501,20070101",
+        new DateValueImpl(2006, 4, 13));
+    runRecurrenceIteratorTest(
+        rdata, UTC, "20070101", new DateValueImpl(2006, 12, 31));
+    runRecurrenceIteratorTest(rdata, UTC, "", new DateValueImpl(2007, 1, 2));
+  }
+
+  public void testAdvanceToInLargeList() throws Exception {
+    // every other day for a few decades.
+    StringBuilder rdata = new StringBuilder("RDATE:");
+    DateValue start = new DateValueImpl(2000, 1, 1);
+    int n = 10000;
+    for (int i = 0; i < n; ++i) {
+      if (0 != i) { rdata.append(','); }
+      rdata.append(TimeUtils.add(start, new DateValueImpl(0, 0, 2 * i)));
+    }
+    RecurrenceIterator ri = RecurrenceIteratorFactory.createRecurrenceIterator(
+        new RDateList(rdata.toString(), UTC));
+    for (int i = 0; i < n; i += 2 + i / 3) {
+      DateValue target = TimeUtils.add(start, new DateValueImpl(0, 0, 2 * i));
+      ri.advanceTo(target);
+      // advancing backwards is a no-op.
+      ri.advanceTo(start);
+      assertTrue(ri.hasNext());
+      assertEquals(target, ri.next());
+      ri.advanceTo(TimeUtils.add(target, new DateValueImpl(0, 0, 1)));
+      assertEquals(
+          TimeUtils.add(target, new DateValueImpl(0, 0, 2)), ri.next());
+    }
+    ri.advanceTo(new DateValueImpl(2100, 1, 1));
+    assertFalse(ri.hasNext());
+  }
+
   private void runRecurrenceIteratorTest(
       String icalText, TimeZone tz, String golden)
   throws Exception {
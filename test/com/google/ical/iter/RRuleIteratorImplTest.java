@@ -18,8 +18,11 @@ import com.google.ical.values.DateValue;
 import com.google.ical.values.IcalParseUtil;
 import com.google.ical.values.PeriodValue;
 import com.google.ical.values.RRule;
+import com.google.ical.values.TimeValue;
 import com.google.ical.util.DTBuilder;
 import com.google.ical.util.TimeUtils;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.TimeZone;
 import junit.framework.TestCase;
 
@@ -80,6 +83,23 @@ public class RRuleIteratorImplTest extends TestCase {
     if (n < 0) { sb.append(",..."); }
     assertEquals(golden, sb.toString());
 
+    // the packed stream should yield the same dates
+    PackedRecurrenceIterator pri =
+      RecurrenceIteratorFactory.createRecurrenceIterator(
+          new RRule(rruleText), dtStart, tz);
+    if (null != advanceTo) {
+      pri.advanceToPacked(DateValueComparison.comparable(advanceTo));
+    }
+    sb.setLength(0);
+    k = 0;
+    n = limit;
+    while (pri.hasNext() && --n >= 0) {
+      if (k++ != 0) { sb.append(','); }
+      sb.append(DateValueComparison.fromComparable(pri.nextPacked()));
+    }
+    if (n < 0) { sb.append(",..."); }
+    assertEquals(golden, sb.toString());
+
     if (null == advanceTo) {
       runRecurrenceIteratorTest(rruleText, dtStart, limit, golden, dtStart, tz);
     }
@@ -494,6 +514,14 @@ public class RRuleIteratorImplTest extends TestCase {
         "19980226,19980330,...");
   }
 
+  public void testSetPosFromBothEndsOfTheSameSet() throws Exception {
+    // In months with exactly 4 Mondays, the 1st and 4th to last are the same.
+    runRecurrenceIteratorTest(
+        "RRULE:FREQ=MONTHLY;BYDAY=MO;BYSETPOS=1,-4",
+        IcalParseUtil.parseDateValue("20060102"), 7,
+        "20060102,20060109,20060206,20060306,20060403,20060501,20060508,...");
+  }
+
   public void testEvery3HoursFrom900AmTo500PmOnASpecificDay() throws Exception {
     runRecurrenceIteratorTest(
         "RRULE:FREQ=HOURLY;INTERVAL=3;UNTIL=19970903T090000Z",
@@ -947,6 +975,424 @@ public class RRuleIteratorImplTest extends TestCase {
     // TODO(msamuel): check advancement of more examples
   }
 
+  public void testAdvanceToArithmetic() throws Exception {
+    // rules without BY* parts are advanced by computing the first instance
+    // after the target instead of generating all the intervening ones.
+    runRecurrenceIteratorTest(
+        "RRULE:FREQ=DAILY;INTERVAL=3",
+        IcalParseUtil.parseDateValue("20000101"), 3,
+        "20261017,20261020,20261023,...",
+        IcalParseUtil.parseDateValue("20261016"));
+
+    runRecurrenceIteratorTest(
+        "RRULE:FREQ=MINUTELY;INTERVAL=15",
+        IcalParseUtil.parseDateValue("20000101T000700"), 3,
+        "20161016T083700,20161016T085200,20161016T090700,...",
+        IcalParseUtil.parseDateValue("20161016T082300"));
+
+    runRecurrenceIteratorTest(
+        "RRULE:FREQ=WEEKLY;INTERVAL=2;UNTIL=20070101",
+        IcalParseUtil.parseDateValue("20000103"), 5,
+        "20061211,20061225",
+        IcalParseUtil.parseDateValue("20061210"));
+
+    // advancing onto an instance includes it
+    runRecurrenceIteratorTest(
+        "RRULE:FREQ=SECONDLY;INTERVAL=7",
+        IcalParseUtil.parseDateValue("20060101T000000"), 2,
+        "20060101T000707,20060101T000714,...",
+        IcalParseUtil.parseDateValue("20060101T000707"));
+
+    // and across daylight savings shifts, advancing must agree with iterating
+    String[] rules = {
+      "RRULE:FREQ=HOURLY;INTERVAL=1",
+      "RRULE:FREQ=MINUTELY;INTERVAL=20",
+      "RRULE:FREQ=DAILY",
+    };
+    DateValue[] targets = {
+      IcalParseUtil.parseDateValue("20060402T090000"),
+      IcalParseUtil.parseDateValue("20060402T094000"),
+      IcalParseUtil.parseDateValue("20060402T100000"),
+      IcalParseUtil.parseDateValue("20061029T080000"),
+      IcalParseUtil.parseDateValue("20061029T090000"),
+      IcalParseUtil.parseDateValue("20061029T093000"),
+      IcalParseUtil.parseDateValue("20061029T100000"),
+    };
+    TimeZone pst = TimeZone.getTimeZone("America/Los_Angeles");
+    for (String rule : rules) {
+      for (DateValue target : targets) {
+        assertAdvanceToSameAsSkipping(
+            rule, IcalParseUtil.parseDateValue("20060301T003000"), pst,
+            target);
+      }
+    }
+  }
+
+  public void testAdvanceToWithSetPos() throws Exception {
+    // Sets must be generated from their start, so advancing can't skip into
+    // the middle of one.
+    String[] rules = {
+      "RRULE:FREQ=MONTHLY;BYDAY=MO,TU,WE,TH,FR;BYSETPOS=-1",
+      "RRULE:FREQ=YEARLY;BYDAY=MO,TU,WE,TH,FR;BYSETPOS=1,-1",
+      "RRULE:FREQ=YEARLY;BYMONTH=3,6;BYDAY=SU;BYSETPOS=2",
+      "RRULE:FREQ=WEEKLY;BYDAY=TU,TH,SA;BYSETPOS=1",
+    };
+    DateValue[] targets = {
+      IcalParseUtil.parseDateValue("20050101"),
+      IcalParseUtil.parseDateValue("20060615"),
+      IcalParseUtil.parseDateValue("20070101"),
+      IcalParseUtil.parseDateValue("20071103"),
+    };
+    for (String rule : rules) {
+      for (DateValue target : targets) {
+        assertAdvanceToSameAsSkipping(
+            rule, IcalParseUtil.parseDateValue("19970101"),
+            TimeZone.getTimeZone("Etc/GMT"), target);
+      }
+    }
+  }
+
+  public void testAdvanceToKeepsNextSet() throws Exception {
+    // With a negative BYSETPOS, the first instance of the next set has been
+    // generated before the current set is yielded, so skipping years must
+    // not start past it.
+    runRecurrenceIteratorTest(
+        "RRULE:FREQ=MONTHLY;BYMONTH=3;BYDAY=2WE,SA,MO;BYMONTHDAY=-28,16"
+        + ";BYSETPOS=-1",
+        IcalParseUtil.parseDateValue("20091128"), 3,
+        "20150316,20170304,20190316,...",
+        IcalParseUtil.parseDateValue("20150101"));
+    runRecurrenceIteratorTest(
+        "RRULE:FREQ=YEARLY;INTERVAL=3;BYYEARDAY=-9,187;BYSETPOS=-1,-2",
+        IcalParseUtil.parseDateValue("20020724"), 3,
+        "20050706,20051223,20080705,...",
+        IcalParseUtil.parseDateValue("20050301"));
+    runRecurrenceIteratorTest(
+        "RRULE:FREQ=YEARLY;INTERVAL=2;BYWEEKNO=48;BYSETPOS=2,-3",
+        IcalParseUtil.parseDateValue("20050826T130928"), 3,
+        "20071127T020000,20071130T020000,20091124T020000,...",
+        IcalParseUtil.parseDateValue("20071127T020000"),
+        TimeZone.getTimeZone("America/Sao_Paulo"));
+  }
+
+  public void testCount() throws Exception {
+    TimeZone utc = TimeZone.getTimeZone("Etc/GMT");
+    TimeZone pst = TimeZone.getTimeZone("America/Los_Angeles");
+    // counted arithmetically without generating a year's worth of seconds
+    assertEquals(
+        365L * 24 * 60 * 60,
+        RecurrenceIteratorFactory.count(
+            new RRule("RRULE:FREQ=SECONDLY"),
+            IcalParseUtil.parseDateValue("20060101T000000"), utc,
+            IcalParseUtil.parseDateValue("20060101T000000"),
+            IcalParseUtil.parseDateValue("20070101T000000")));
+
+    String[] rdatas = {
+      "RRULE:FREQ=DAILY",
+      "RRULE:FREQ=MINUTELY;INTERVAL=7;COUNT=1000",
+      "RRULE:FREQ=WEEKLY;INTERVAL=2;UNTIL=20060501T120000Z",
+      "RRULE:FREQ=DAILY;UNTIL=20051231",
+      "RRULE:FREQ=MONTHLY;BYDAY=MO,TU,WE,TH,FR;BYSETPOS=-1",
+      "RRULE:FREQ=DAILY;INTERVAL=3\nEXDATE:20060110,20060113",
+    };
+    String[] dtStarts = { "20060101", "20060101T090000" };
+    String[][] windows = {
+      { "20050101", "20060101" },
+      { "20060101", "20060102" },
+      { "20060102T000000", "20060115" },
+      { "20060105", "20060501T120000" },
+      { "20060501T120000", "20060501T120001" },
+    };
+    for (String rdata : rdatas) {
+      for (String dtStart : dtStarts) {
+        for (TimeZone tz : new TimeZone[] { utc, pst }) {
+          for (String[] window : windows) {
+            assertCountSameAsIterating(
+                rdata, IcalParseUtil.parseDateValue(dtStart), tz,
+                IcalParseUtil.parseDateValue(window[0]),
+                IcalParseUtil.parseDateValue(window[1]));
+          }
+        }
+      }
+    }
+  }
+
+  private void assertCountSameAsIterating(
+      String rdata, DateValue dtStart, TimeZone tz,
+      DateValue fromUtc, DateValue toUtc)
+      throws Exception {
+    long expected = 0;
+    RecurrenceIterator it =
+      RecurrenceIteratorFactory.createRecurrenceIterator(rdata, dtStart, tz);
+    while (it.hasNext()) {
+      DateValue dv = it.next();
+      if (dv.compareTo(toUtc) >= 0) { break; }
+      if (dv.compareTo(fromUtc) >= 0) { ++expected; }
+    }
+    String msg = rdata + " / " + dtStart + " / " + tz.getID() + " / "
+        + fromUtc + " / " + toUtc;
+    assertEquals(
+        msg, expected,
+        RecurrenceIteratorFactory.count(rdata, dtStart, tz, fromUtc, toUtc));
+    if (rdata.indexOf('\n') < 0) {
+      // a bare rule doesn't include dtStart unless the rule does
+      long expectedForRule = 0;
+      it = RecurrenceIteratorFactory.createRecurrenceIterator(
+          new RRule(rdata), dtStart, tz);
+      while (it.hasNext()) {
+        DateValue dv = it.next();
+        if (dv.compareTo(toUtc) >= 0) { break; }
+        if (dv.compareTo(fromUtc) >= 0) { ++expectedForRule; }
+      }
+      assertEquals(
+          msg, expectedForRule,
+          RecurrenceIteratorFactory.count(
+              new RRule(rdata), dtStart, tz, fromUtc, toUtc));
+    }
+  }
+
+  public void testContains() throws Exception {
+    TimeZone utc = TimeZone.getTimeZone("Etc/GMT");
+    TimeZone pst = TimeZone.getTimeZone("America/Los_Angeles");
+    String[] rdatas = {
+      "RRULE:FREQ=DAILY;INTERVAL=3",
+      "RRULE:FREQ=HOURLY;INTERVAL=5;COUNT=30",
+      "RRULE:FREQ=WEEKLY;UNTIL=20060301T000000Z",
+      "RRULE:FREQ=MONTHLY;BYDAY=MO,TU,WE,TH,FR;BYSETPOS=-1",
+      "RRULE:FREQ=YEARLY;BYMONTH=2,3;BYDAY=-1SU;COUNT=7",
+      "RRULE:FREQ=WEEKLY;INTERVAL=2;BYDAY=MO,SA;BYHOUR=1,2;COUNT=37",
+      "RRULE:FREQ=MINUTELY;INTERVAL=7;BYHOUR=9,10",
+      "RRULE:FREQ=DAILY;BYDAY=SA,SU\nEXDATE:20060107\nEXDATE:20060107T090000Z"
+      + "\nRDATE:20051231\nRDATE:20051231T090000Z",
+    };
+    String[] dtStarts = { "20060101", "20060101T090000" };
+    for (String rdata : rdatas) {
+      for (String dtStart : dtStarts) {
+        for (TimeZone tz : new TimeZone[] { utc, pst }) {
+          assertContainsSameAsIterating(
+              rdata, IcalParseUtil.parseDateValue(dtStart), tz);
+        }
+      }
+    }
+
+    // a negative BYSETPOS whose sets are pushed back across the years skipped
+    String rule = "RRULE:FREQ=YEARLY;INTERVAL=2;BYWEEKNO=48;BYSETPOS=2,-3"
+        + ";COUNT=17";
+    DateValue dtStart = IcalParseUtil.parseDateValue("20050826T130928");
+    TimeZone saoPaulo = TimeZone.getTimeZone("America/Sao_Paulo");
+    assertTrue(RecurrenceIteratorFactory.contains(
+        new RRule(rule), dtStart, saoPaulo,
+        IcalParseUtil.parseDateValue("20071127T020000")));
+    assertContainsSameAsIterating(rule, dtStart, saoPaulo);
+  }
+
+  private void assertContainsSameAsIterating(
+      String rdata, DateValue dtStart, TimeZone tz)
+      throws Exception {
+    assertContainsSameAsIterating(
+        rdata, dtStart, tz,
+        RecurrenceIteratorFactory.createRecurrenceIterator(rdata, dtStart, tz),
+        null);
+    if (rdata.indexOf('\n') < 0) {
+      // a bare rule doesn't include dtStart unless the rule does
+      RRule rrule = new RRule(rdata);
+      assertContainsSameAsIterating(
+          rdata, dtStart, tz,
+          RecurrenceIteratorFactory.createRecurrenceIterator(
+              rrule, dtStart, tz),
+          rrule);
+    }
+  }
+
+  private void assertContainsSameAsIterating(
+      String rdata, DateValue dtStart, TimeZone tz, RecurrenceIterator it,
+      RRule rrule)
+      throws Exception {
+    Set<DateValue> instances = new HashSet<DateValue>();
+    DateValue last = null;
+    for (int n = 0; n < 40 && it.hasNext(); ++n) {
+      last = it.next();
+      instances.add(last);
+    }
+    for (DateValue instance : instances.toArray(new DateValue[0])) {
+      for (int delta : new int[] { -1, 0, 1 }) {
+        DTBuilder b = new DTBuilder(instance);
+        b.day += delta;
+        DateValue candidate = b.toDate();
+        if (instance instanceof TimeValue) {
+          b.day -= delta;
+          b.hour += delta;
+          candidate = b.toDateTime();
+        }
+        if (candidate.compareTo(last) > 0) { continue; }
+        assertEquals(
+            rdata + " / " + dtStart + " / " + tz.getID() + " / " + candidate,
+            instances.contains(candidate),
+            null != rrule
+            ? RecurrenceIteratorFactory.contains(rrule, dtStart, tz, candidate)
+            : RecurrenceIteratorFactory.contains(
+                rdata, dtStart, tz, candidate));
+      }
+    }
+  }
+
+  public void testOccurrenceAt() throws Exception {
+    TimeZone utc = TimeZone.getTimeZone("Etc/GMT");
+    TimeZone pst = TimeZone.getTimeZone("America/Los_Angeles");
+    String[] rules = {
+      "RRULE:FREQ=DAILY;INTERVAL=3",
+      "RRULE:FREQ=HOURLY;INTERVAL=5;COUNT=300",
+      "RRULE:FREQ=WEEKLY;UNTIL=20100301T000000Z",
+      "RRULE:FREQ=WEEKLY;BYDAY=TU,TH",
+      "RRULE:FREQ=DAILY;BYDAY=MO,WE",
+      "RRULE:FREQ=MONTHLY;BYDAY=MO,TU,WE,TH,FR;BYSETPOS=-1",
+      "RRULE:FREQ=MONTHLY;BYDAY=FR;BYMONTHDAY=13",
+      "RRULE:FREQ=YEARLY;INTERVAL=3;BYMONTH=2;BYMONTHDAY=28,29",
+      "RRULE:FREQ=MINUTELY;BYMINUTE=0,30;COUNT=1000",
+    };
+    int[] indices = { 0, 1, 5, 37, 100, 499, 1000 };
+    String[] dtStarts = { "20060101", "20060101T090000" };
+    for (String rule : rules) {
+      for (String dtStart : dtStarts) {
+        for (TimeZone tz : new TimeZone[] { utc, pst }) {
+          for (int index : indices) {
+            assertOccurrenceAtSameAsStepping(
+                rule, IcalParseUtil.parseDateValue(dtStart), tz, index);
+          }
+        }
+      }
+    }
+    // sets whose positions depend on the instances of the years either side
+    TimeZone saoPaulo = TimeZone.getTimeZone("America/Sao_Paulo");
+    for (int index : new int[] { 0, 1, 2, 15 }) {
+      assertOccurrenceAtSameAsStepping(
+          "RRULE:FREQ=MONTHLY;BYMONTH=3;BYDAY=2WE,SA,MO;BYMONTHDAY=-28,16"
+          + ";BYHOUR=9,10,11;BYSETPOS=-3;WKST=WE;COUNT=16",
+          IcalParseUtil.parseDateValue("20091128"), saoPaulo, index);
+      assertOccurrenceAtSameAsStepping(
+          "RRULE:FREQ=YEARLY;INTERVAL=2;BYWEEKNO=48;BYSETPOS=2,-3",
+          IcalParseUtil.parseDateValue("20050826T130928"), saoPaulo, index);
+    }
+    // a rule that gives up before dtStart yields where it stopped, though
+    // that is after its UNTIL
+    assertOccurrenceAtSameAsStepping(
+        "RRULE:FREQ=SECONDLY;BYMONTH=9,7;UNTIL=20051126",
+        IcalParseUtil.parseDateValue("20071020"), utc, 0);
+    assertEquals(
+        "20060110",
+        RecurrenceIteratorFactory.occurrenceAt(
+            "RRULE:FREQ=DAILY\nEXDATE:20060103,20060105",
+            IcalParseUtil.parseDateValue("20060101"), utc, 7).toString());
+  }
+
+  private void assertOccurrenceAtSameAsStepping(
+      String rruleText, DateValue dtStart, TimeZone tz, int index)
+      throws Exception {
+    RecurrenceIterator it = RecurrenceIteratorFactory.createRecurrenceIterator(
+        new RRule(rruleText), dtStart, tz);
+    DateValue expected = null;
+    for (int n = 0; n <= index && it.hasNext(); ++n) {
+      DateValue dv = it.next();
+      if (n == index) { expected = dv; }
+    }
+    assertEquals(
+        rruleText + " / " + dtStart + " / " + tz.getID() + " / " + index,
+        expected,
+        RecurrenceIteratorFactory.occurrenceAt(
+            new RRule(rruleText), dtStart, tz, index));
+  }
+
+  private void assertAdvanceToSameAsSkipping(
+      String rruleText, DateValue dtStart, TimeZone tz, DateValue advanceTo)
+      throws Exception {
+    RecurrenceIterator skipping =
+      RecurrenceIteratorFactory.createRecurrenceIterator(
+          new RRule(rruleText), dtStart, tz);
+    DateValue expected = null;
+    while (skipping.hasNext()) {
+      DateValue dv = skipping.next();
+      if (dv.compareTo(advanceTo) >= 0) {
+        expected = dv;
+        break;
+      }
+    }
+    RecurrenceIterator advancing =
+      RecurrenceIteratorFactory.createRecurrenceIterator(
+          new RRule(rruleText), dtStart, tz);
+    advancing.advanceTo(advanceTo);
+    if (null == expected) {
+      assertFalse(rruleText + " / " + advanceTo, advancing.hasNext());
+    } else {
+      assertTrue(rruleText + " / " + advanceTo, advancing.hasNext());
+      assertEquals(rruleText + " / " + advanceTo, expected, advancing.next());
+    }
+  }
+
+  public void testAdvanceToWithCount() throws Exception {
+    // COUNT rules are advanced by counting the instances skipped.
+    runRecurrenceIteratorTest(
+        "RRULE:FREQ=MONTHLY;BYDAY=FR;BYMONTHDAY=13;COUNT=5",
+        IcalParseUtil.parseDateValue("19970902"), 10,
+        "19990813,20001013",
+        IcalParseUtil.parseDateValue("19990701"));
+    runRecurrenceIteratorTest(
+        "RRULE:FREQ=DAILY;COUNT=10",
+        IcalParseUtil.parseDateValue("20060101"), 10,
+        "",
+        IcalParseUtil.parseDateValue("20260101"));
+
+    // advancing part way through the count
+    RecurrenceIterator ri = RecurrenceIteratorFactory.createRecurrenceIterator(
+        new RRule("RRULE:FREQ=WEEKLY;BYDAY=MO,WE;COUNT=6"),
+        IcalParseUtil.parseDateValue("20060102"), UTC);
+    assertEquals(IcalParseUtil.parseDateValue("20060102"), ri.next());
+    assertEquals(IcalParseUtil.parseDateValue("20060104"), ri.next());
+    ri.advanceTo(IcalParseUtil.parseDateValue("20060111"));
+    assertEquals(IcalParseUtil.parseDateValue("20060111"), ri.next());
+    assertEquals(IcalParseUtil.parseDateValue("20060116"), ri.next());
+    assertEquals(IcalParseUtil.parseDateValue("20060118"), ri.next());
+    assertFalse(ri.hasNext());
+
+    // counts that end near daylight savings shifts
+    TimeZone pst = TimeZone.getTimeZone("America/Los_Angeles");
+    DateValue[] targets = {
+      IcalParseUtil.parseDateValue("20061029T070000"),
+      IcalParseUtil.parseDateValue("20061029T083000"),
+      IcalParseUtil.parseDateValue("20061029T093000"),
+      IcalParseUtil.parseDateValue("20061029T103000"),
+      IcalParseUtil.parseDateValue("20061030T000000"),
+    };
+    for (int count = 1; count <= 5; ++count) {
+      for (DateValue target : targets) {
+        assertAdvanceToSameAsSkipping(
+            "RRULE:FREQ=HOURLY;BYMINUTE=30;COUNT=" + count,
+            IcalParseUtil.parseDateValue("20061029T003000"), pst, target);
+        assertAdvanceToSameAsSkipping(
+            "RRULE:FREQ=MINUTELY;INTERVAL=30;COUNT=" + (count + 2),
+            IcalParseUtil.parseDateValue("20061029T000000"), pst, target);
+      }
+    }
+
+    // a date in UTC may start after timed instances on the day before in
+    // local time
+    assertAdvanceToSameAsSkipping(
+        "RRULE:FREQ=DAILY;BYHOUR=14,15,23;COUNT=1137",
+        IcalParseUtil.parseDateValue("20160919T201919"), pst,
+        IcalParseUtil.parseDateValue("20161201"));
+
+    // skipping months must not carry on from the day generated in the month
+    // before
+    ri = RecurrenceIteratorFactory.createRecurrenceIterator(
+        new RRule("RRULE:FREQ=HOURLY;BYDAY=WE;COUNT=500"),
+        IcalParseUtil.parseDateValue("20230102T205833"), UTC);
+    ri.advanceTo(IcalParseUtil.parseDateValue("20230308T055832"));
+    assertEquals(
+        IcalParseUtil.parseDateValue("20230308T055833"), ri.next());
+    ri.advanceTo(IcalParseUtil.parseDateValue("20230406T025834"));
+    assertEquals(
+        IcalParseUtil.parseDateValue("20230412T005833"), ri.next());
+  }
+
   /** a testcase that yielded dupes due to bysetPos evilness */
   public void testCaseThatYieldedDupes() throws Exception {
     runRecurrenceIteratorTest(
@@ -1045,6 +1491,17 @@ public class RRuleIteratorImplTest extends TestCase {
         + "19090501T075748,19090502T075706,19090507T075706,...");
   }
 
+  public void testBySetPosAfterTimesOnOneDay() throws Exception {
+    // Emitting a set member resets the builder's time, which used to make
+    // the sub-daily generators start the day over instead of moving on.
+    runRecurrenceIteratorTest(
+        "RRULE:FREQ=WEEKLY;BYHOUR=2,4,18;BYSETPOS=-1,1",
+        IcalParseUtil.parseDateValue("20850516T091404"), 8,
+        "20850516T181404,20850523T021404,20850523T041404,20850523T181404,"
+        + "20850530T021404,20850530T041404,20850530T181404,20850606T021404,"
+        + "...");
+  }
+
   public void testMonkeyHourly() throws Exception {
     runRecurrenceIteratorTest(
         "EXRULE:FREQ=HOURLY;INTERVAL=1;BYMONTHDAY=12,10,-4",
@@ -1094,7 +1551,28 @@ public class RRuleIteratorImplTest extends TestCase {
 
   // TODO(msamuel): test that until date properly compared to UTC dates.
 
-  // TODO(msamuel): test that monotonically increasing over timezone boundaries
+  public void testMonotonicOverDaylightSavingsShifts() throws Exception {
+    // 2:30 doesn't happen on 2 Apr 2006 in PST.  It is treated as daylight
+    // time, so is the same time in UTC as 1:30 standard time, and is dropped
+    // instead of being yielded twice.
+    runRecurrenceIteratorTest(
+        "RRULE:FREQ=HOURLY;BYMINUTE=30",
+        IcalParseUtil.parseDateValue("20060402T003000"), 4,
+        "20060402T083000,20060402T093000,20060402T103000,20060402T113000,...",
+        PST);
+    runRecurrenceIteratorTest(
+        "RRULE:FREQ=HOURLY;COUNT=3",
+        IcalParseUtil.parseDateValue("20060402T003000"), 4,
+        "20060402T083000,20060402T093000,20060402T103000",
+        PST);
+    // 1:30 happens twice on 29 Oct 2006, but is only generated once, as
+    // standard time.
+    runRecurrenceIteratorTest(
+        "RRULE:FREQ=HOURLY;BYMINUTE=30",
+        IcalParseUtil.parseDateValue("20061029T003000"), 4,
+        "20061029T073000,20061029T093000,20061029T103000,20061029T113000,...",
+        PST);
+  }
 
   // TODO(msamuel): test that advanceTo handles timezones properly
 
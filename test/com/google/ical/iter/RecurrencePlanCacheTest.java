@@ -0,0 +1,163 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.iter;
+
+import com.google.ical.values.DateTimeValueImpl;
+import com.google.ical.values.DateValue;
+import com.google.ical.values.DateValueImpl;
+import com.google.ical.values.RRule;
+import java.text.ParseException;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+/**
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+public class RecurrencePlanCacheTest extends TestCase {
+
+  static final TimeZone PST = TimeZone.getTimeZone("America/Los_Angeles");
+  static final TimeZone EST = TimeZone.getTimeZone("America/New_York");
+
+  private static final DateValue START = new DateValueImpl(2006, 1, 2);
+
+  public void testCounts() throws Exception {
+    RecurrencePlanCache cache = new RecurrencePlanCache(2);
+    String weekdays = "RRULE:FREQ=WEEKLY;BYDAY=MO,TU,WE,TH,FR";
+    String monthly = "RRULE:FREQ=MONTHLY;BYMONTHDAY=2";
+    String yearly = "RRULE:FREQ=YEARLY";
+
+    RecurrencePlan plan = cache.get(weekdays, START, PST);
+    assertCounts(cache, 0, 1, 0, 1);
+    assertSame(plan, cache.get(weekdays, START, PST));
+    assertCounts(cache, 1, 1, 0, 1);
+    // The timezone, and whether dtStart has a time, are part of the key.
+    assertNotSame(plan, cache.get(weekdays, START, EST));
+    assertCounts(cache, 1, 2, 0, 2);
+    assertNotSame(plan, cache.get(
+        weekdays, new DateTimeValueImpl(2006, 1, 2, 0, 0, 0), PST));
+    assertCounts(cache, 1, 3, 1, 2);
+    // But the date is not, since this rule does not take its days from it.
+    RecurrencePlan later = cache.get(
+        weekdays, new DateValueImpl(2006, 3, 8), PST);
+    assertCounts(cache, 1, 4, 2, 2);
+    assertSame(later, cache.get(weekdays, new DateValueImpl(2006, 3, 8), PST));
+    RecurrencePlan earlier = cache.get(weekdays, START, PST);
+    assertCounts(cache, 3, 4, 2, 2);
+    assertNotSame(later, earlier);
+    assertEquals(take(plan.iterator()), take(earlier.iterator()));
+    // Rules are keyed by their canonical form.
+    cache.get("RRULE:BYDAY=FR,TH,WE,TU,MO;INTERVAL=1;FREQ=WEEKLY", START, PST);
+    assertCounts(cache, 4, 4, 2, 2);
+
+    // The least recently used is evicted.
+    cache.clear();
+    cache.get(weekdays, START, PST);
+    cache.get(monthly, START, PST);
+    cache.get(weekdays, START, PST);
+    assertCounts(cache, 5, 6, 2, 2);
+    cache.get(yearly, START, PST);  // evicts monthly
+    assertCounts(cache, 5, 7, 3, 2);
+    cache.get(weekdays, START, PST);
+    assertCounts(cache, 6, 7, 3, 2);
+    cache.get(monthly, START, PST);
+    assertCounts(cache, 6, 8, 4, 2);
+  }
+
+  public void testStartShape() throws Exception {
+    RecurrencePlanCache cache = new RecurrencePlanCache(16);
+    // Takes its day from dtStart.
+    String monthly = "RRULE:FREQ=MONTHLY;COUNT=3";
+    // Takes its month and day from dtStart.
+    String yearly = "RRULE:FREQ=YEARLY;COUNT=3";
+    DateValue[] starts = {
+      new DateValueImpl(2006, 1, 2),
+      new DateValueImpl(2007, 1, 2),
+      new DateValueImpl(2006, 2, 2),
+      new DateValueImpl(2006, 1, 3),
+    };
+    for (DateValue start : starts) {
+      assertEquals(
+          take(RecurrenceIteratorFactory.createRecurrencePlan(
+              new RRule(monthly), start, PST).iterator()),
+          take(cache.get(monthly, start, PST).iterator()));
+      assertEquals(
+          take(RecurrenceIteratorFactory.createRecurrencePlan(
+              new RRule(yearly), start, PST).iterator()),
+          take(cache.get(yearly, start, PST).iterator()));
+    }
+    // monthly compiled for day 2 and day 3, and yearly for 1/2, 2/2 and 1/3.
+    assertCounts(cache, 3, 5, 0, 5);
+  }
+
+  public void testBadRule() throws Exception {
+    RecurrencePlanCache cache = new RecurrencePlanCache(4);
+    try {
+      cache.get("RRULE:FREQ=FORTNIGHTLY", START, PST);
+      fail();
+    } catch (ParseException ex) {
+      // expected
+    }
+    assertEquals(0, cache.size());
+    try {
+      new RecurrencePlanCache(0);
+      fail();
+    } catch (IllegalArgumentException ex) {
+      // expected
+    }
+  }
+
+  public void testIterablesUsingCache() throws Exception {
+    RecurrencePlanCache cache = new RecurrencePlanCache(16);
+    String[] rdatas = {
+      "RRULE:FREQ=WEEKLY;BYDAY=MO,TU,WE,TH,FR\nEXDATE:20060104,20060110",
+      "RRULE:FREQ=WEEKLY;BYDAY=MO,TU,WE,TH,FR\nRDATE:20060107",
+      "RRULE:FREQ=MONTHLY;BYDAY=1MO;COUNT=3\n"
+      + "EXRULE:FREQ=WEEKLY;BYDAY=MO,TU,WE,TH,FR;INTERVAL=5",
+      "RRULE:FREQ=DAILY;INTERVAL=3\nRRULE:FREQ=WEEKLY;BYDAY=MO,TU,WE,TH,FR",
+    };
+    for (int pass = 0; pass < 2; ++pass) {
+      for (String rdata : rdatas) {
+        String golden = take(RecurrenceIteratorFactory.createRecurrenceIterable(
+            rdata, START, PST, true).iterator());
+        RecurrenceIterable iterable =
+            RecurrenceIteratorFactory.createRecurrenceIterable(
+                rdata, START, PST, true, cache);
+        assertEquals(rdata, golden, take(iterable.iterator()));
+        assertEquals(rdata, golden, take(iterable.iterator()));
+      }
+    }
+    // 4 distinct rules over 6 rule lines per pass.
+    assertCounts(cache, 8, 4, 0, 4);
+  }
+
+  private static void assertCounts(
+      RecurrencePlanCache cache, long hits, long misses, long evictions,
+      int size) {
+    assertEquals(cache.toString(), hits, cache.hitCount());
+    assertEquals(cache.toString(), misses, cache.missCount());
+    assertEquals(cache.toString(), evictions, cache.evictionCount());
+    assertEquals(cache.toString(), size, cache.size());
+  }
+
+  private static String take(RecurrenceIterator it) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 30 && it.hasNext(); ++i) {
+      sb.append(it.next()).append(',');
+    }
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,142 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.iter;
+
+import com.google.ical.values.DateTimeValueImpl;
+import com.google.ical.values.DateValue;
+import com.google.ical.values.DateValueImpl;
+import com.google.ical.values.RRule;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+/**
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+public class RecurrencePlanTest extends TestCase {
+
+  static final TimeZone PST = TimeZone.getTimeZone("America/Los_Angeles");
+
+  private static final String[] RULES = {
+    "RRULE:FREQ=DAILY;COUNT=10",
+    "RRULE:FREQ=WEEKLY;INTERVAL=2;BYDAY=MO,WE,FR;UNTIL=20071231",
+    "RRULE:FREQ=MONTHLY;BYDAY=MO,TU,WE,TH,FR;BYSETPOS=-1",
+    "RRULE:FREQ=YEARLY;BYMONTH=2;BYMONTHDAY=29",
+    "RRULE:FREQ=YEARLY;BYWEEKNO=20;BYDAY=MO",
+    "RRULE:FREQ=YEARLY;BYYEARDAY=1,100,200;COUNT=20",
+    "RRULE:FREQ=HOURLY;INTERVAL=3;BYHOUR=9,12,15",
+    "RRULE:FREQ=MINUTELY;INTERVAL=90;COUNT=30",
+    "RRULE:FREQ=YEARLY;BYMONTH=2;BYMONTHDAY=30",
+  };
+
+  public void testIteratorsMatchFreshIterators() throws Exception {
+    DateValue[] starts = {
+      new DateValueImpl(2006, 1, 31),
+      new DateTimeValueImpl(2006, 3, 12, 1, 30, 0),
+    };
+    for (String rule : RULES) {
+      for (DateValue dtStart : starts) {
+        RRule rrule = new RRule(rule);
+        RecurrencePlan plan = RecurrenceIteratorFactory.createRecurrencePlan(
+            rrule, dtStart, PST);
+        String golden = Arrays.toString(take(
+            RecurrenceIteratorFactory.createRecurrenceIterator(
+                rrule, dtStart, PST), 50));
+        // The plan can be iterated repeatedly, and iterators don't share
+        // state.
+        RecurrenceIterator a = plan.iterator(), b = plan.iterator();
+        assertEquals(rule, golden, Arrays.toString(take(a, 50)));
+        assertEquals(rule, golden, Arrays.toString(take(b, 50)));
+        assertEquals(rule, golden, Arrays.toString(take(plan.iterator(), 50)));
+      }
+    }
+  }
+
+  public void testCanonicalFormIteratesTheSame() throws Exception {
+    String[] rules = {
+      "RRULE:FREQ=WEEKLY;INTERVAL=1;WKST=MO;BYDAY=FR,MO,FR;COUNT=12",
+      "RRULE:FREQ=MONTHLY;BYDAY=FR,MO,FR;BYSETPOS=-1,1,-1",
+      "RRULE:FREQ=HOURLY;BYHOUR=9,3,6,3;BYSETPOS=-1,1,5",
+      "RRULE:FREQ=HOURLY;BYHOUR=3,6,9;BYMINUTE=0,0;BYSETPOS=1",
+      "RRULE:FREQ=MINUTELY;INTERVAL=15;BYSETPOS=2",
+      "RRULE:FREQ=SECONDLY;BYSECOND=10,20,30;BYSETPOS=-1",
+      "RRULE:FREQ=YEARLY;BYWEEKNO=20,-1,20;BYDAY=MO;WKST=MO",
+    };
+    DateValue[] starts = {
+      new DateValueImpl(2006, 1, 31),
+      new DateTimeValueImpl(2006, 3, 12, 1, 30, 0),
+    };
+    for (String rule : rules) {
+      RRule rrule = new RRule(rule);
+      RRule canonical = rrule.canonicalize().toRRule();
+      for (DateValue dtStart : starts) {
+        assertEquals(
+            rule,
+            Arrays.toString(take(
+                RecurrenceIteratorFactory.createRecurrenceIterator(
+                    rrule, dtStart, PST), 50)),
+            Arrays.toString(take(
+                RecurrenceIteratorFactory.createRecurrenceIterator(
+                    canonical, dtStart, PST), 50)));
+      }
+    }
+  }
+
+  public void testChangesToRuleDontAffectPlan() throws Exception {
+    RRule rrule = new RRule("RRULE:FREQ=MONTHLY;BYMONTHDAY=1,15;COUNT=4");
+    DateValue dtStart = new DateValueImpl(2006, 1, 1);
+    RecurrencePlan plan = RecurrenceIteratorFactory.createRecurrencePlan(
+        rrule, dtStart, PST);
+    rrule.getByMonthDay()[1] = 20;
+    rrule.setCount(2);
+    assertEquals("[20060101, 20060115, 20060201, 20060215]",
+                 Arrays.toString(take(plan.iterator(), 10)));
+  }
+
+  public void testSharedBetweenThreads() throws Exception {
+    final RecurrencePlan plan = RecurrenceIteratorFactory.createRecurrencePlan(
+        new RRule("RRULE:FREQ=WEEKLY;BYDAY=TU,TH;BYMONTH=1,6"),
+        new DateValueImpl(2006, 1, 3), PST);
+    final String golden = Arrays.toString(take(plan.iterator(), 200));
+    final List<String> failures = new ArrayList<String>();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; ++t) {
+      threads[t] = new Thread() {
+          @Override
+          public void run() {
+            for (int i = 0; i < 50; ++i) {
+              String actual = Arrays.toString(take(plan.iterator(), 200));
+              if (!golden.equals(actual)) {
+                synchronized (failures) { failures.add(actual); }
+              }
+            }
+          }
+        };
+      threads[t].start();
+    }
+    for (Thread thread : threads) { thread.join(); }
+    assertEquals(new ArrayList<String>(), failures);
+  }
+
+  private static DateValue[] take(RecurrenceIterator it, int n) {
+    List<DateValue> dates = new ArrayList<DateValue>();
+    while (dates.size() < n && it.hasNext()) { dates.add(it.next()); }
+    return dates.toArray(new DateValue[dates.size()]);
+  }
+
+}
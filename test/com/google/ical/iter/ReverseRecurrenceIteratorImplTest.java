@@ -0,0 +1,112 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.iter;
+
+import com.google.ical.values.DateValue;
+import com.google.ical.values.IcalParseUtil;
+import com.google.ical.util.TimeUtils;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+/**
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+public class ReverseRecurrenceIteratorImplTest extends TestCase {
+
+  static final TimeZone PST = TimeZone.getTimeZone("America/Los_Angeles");
+  static final TimeZone UTC = TimeUtils.utcTimezone();
+
+  public void testRetreatTo() throws Exception {
+    ReverseRecurrenceIterator it =
+      RecurrenceIteratorFactory.createReverseRecurrenceIterator(
+          "RRULE:FREQ=DAILY", IcalParseUtil.parseDateValue("20060101"), UTC,
+          true, IcalParseUtil.parseDateValue("20060110"));
+    assertEquals("20060110", it.next().toString());
+    assertEquals("20060109", it.next().toString());
+    // retreating past dates already returned is a no-op
+    it.retreatTo(IcalParseUtil.parseDateValue("20060120"));
+    assertEquals("20060108", it.next().toString());
+    it.retreatTo(IcalParseUtil.parseDateValue("20060103"));
+    assertEquals("20060103", it.next().toString());
+    assertEquals("20060102", it.next().toString());
+    assertEquals("20060101", it.next().toString());
+    assertFalse(it.hasNext());
+  }
+
+  public void testEmpty() throws Exception {
+    ReverseRecurrenceIterator it =
+      RecurrenceIteratorFactory.createReverseRecurrenceIterator(
+          "RRULE:FREQ=DAILY", IcalParseUtil.parseDateValue("20060101"), UTC,
+          true, IcalParseUtil.parseDateValue("20051231"));
+    assertFalse(it.hasNext());
+  }
+
+  public void testReverseOfForward() throws Exception {
+    assertReverseOfForward(
+        "RRULE:FREQ=DAILY", "20060101", UTC, "20060110");
+    assertReverseOfForward(
+        "RRULE:FREQ=MONTHLY;BYDAY=MO,TU,WE,TH,FR;BYSETPOS=-1",
+        "19970101", UTC, "20070101");
+    assertReverseOfForward(
+        "RRULE:FREQ=YEARLY;COUNT=10;BYMONTH=2;BYMONTHDAY=29",
+        "20000229", UTC, "21000101");
+    assertReverseOfForward(
+        "RRULE:FREQ=MINUTELY;INTERVAL=7", "20060101T090000", PST,
+        "20060108T000000");
+    assertReverseOfForward(
+        "RRULE:FREQ=WEEKLY;BYDAY=TU\nEXDATE:20060110\nRDATE:20051225",
+        "20060103", UTC, "20060301");
+    // Each window advances a fresh iterator, which counts the instances that
+    // it skips from those counted for the window after it.
+    assertReverseOfForward(
+        "RRULE:FREQ=WEEKLY;BYDAY=MO,TU,WE,TH,FR;COUNT=3000", "20060102", UTC,
+        "21000101");
+    assertReverseOfForward(
+        "RRULE:FREQ=HOURLY;INTERVAL=5;COUNT=6000", "20060102T100000", PST,
+        "20100101T000000");
+  }
+
+  private static void assertReverseOfForward(
+      String rdata, String dtStartStr, TimeZone tz, String endUtcStr)
+      throws Exception {
+    DateValue dtStart = IcalParseUtil.parseDateValue(dtStartStr);
+    long endUtc = DateValueComparison.comparable(
+        IcalParseUtil.parseDateValue(endUtcStr));
+
+    List<Long> golden = new ArrayList<Long>();
+    RecurrenceIterator forward =
+      RecurrenceIteratorFactory.createRecurrenceIterator(rdata, dtStart, tz);
+    while (forward.hasNext()) {
+      long d = forward.nextPacked();
+      if (d > endUtc) { break; }
+      golden.add(d);
+    }
+    Collections.reverse(golden);
+
+    List<Long> actual = new ArrayList<Long>();
+    ReverseRecurrenceIterator reverse =
+      RecurrenceIteratorFactory.createReverseRecurrenceIterator(
+          rdata, dtStart, tz, true, DateValueComparison.fromComparable(endUtc));
+    while (reverse.hasNext()) {
+      actual.add(reverse.nextPacked());
+    }
+    assertEquals(rdata, golden, actual);
+  }
+
+}
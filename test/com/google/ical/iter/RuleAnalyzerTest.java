@@ -0,0 +1,133 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.iter;
+
+import com.google.ical.values.DateTimeValueImpl;
+import com.google.ical.values.DateValue;
+import com.google.ical.values.DateValueImpl;
+import com.google.ical.values.RRule;
+import com.google.ical.util.TimeUtils;
+
+import junit.framework.TestCase;
+
+/**
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+public class RuleAnalyzerTest extends TestCase {
+
+  private static final DateValue JAN_31_2006 = new DateValueImpl(2006, 1, 31);
+
+  public void testImpossibleDayOfMonth() throws Exception {
+    assertEmpty("RRULE:FREQ=YEARLY;BYMONTH=2;BYMONTHDAY=30", JAN_31_2006);
+    assertEmpty("RRULE:FREQ=MONTHLY;BYMONTH=4,6,9,11;BYMONTHDAY=31",
+                JAN_31_2006);
+    assertEmpty("RRULE:FREQ=DAILY;BYMONTH=2;BYMONTHDAY=-30", JAN_31_2006);
+    assertNotEmpty("RRULE:FREQ=YEARLY;BYMONTH=2;BYMONTHDAY=29", JAN_31_2006);
+    assertNotEmpty("RRULE:FREQ=YEARLY;BYMONTH=2,3;BYMONTHDAY=30",
+                   JAN_31_2006);
+    assertNotEmpty("RRULE:FREQ=MONTHLY;BYMONTHDAY=31", JAN_31_2006);
+  }
+
+  public void testDayInferredFromStart() throws Exception {
+    // The day of the month comes from dtStart.
+    assertEmpty("RRULE:FREQ=YEARLY;BYMONTH=2", JAN_31_2006);
+    assertEmpty("RRULE:FREQ=MONTHLY;BYMONTH=2", JAN_31_2006);
+    assertNotEmpty("RRULE:FREQ=YEARLY;BYMONTH=3", JAN_31_2006);
+    assertNotEmpty("RRULE:FREQ=YEARLY;BYMONTH=2;BYDAY=MO", JAN_31_2006);
+    assertEmpty("RRULE:FREQ=YEARLY;BYMONTH=4,6",
+                new DateTimeValueImpl(2006, 1, 31, 12, 0, 0));
+    // So does the month for yearly rules.
+    assertNotEmpty("RRULE:FREQ=YEARLY",
+                   new DateTimeValueImpl(2006, 1, 31, 12, 0, 0));
+    // but a weekly rule repeats the day of the week instead.
+    assertNotEmpty("RRULE:FREQ=WEEKLY;BYMONTH=2", JAN_31_2006);
+  }
+
+  public void testWeekdays() throws Exception {
+    assertNotEmpty("RRULE:FREQ=MONTHLY;BYMONTHDAY=13;BYDAY=FR", JAN_31_2006);
+    // Jan 1 and Dec 31 fall on the same day in non leap years.
+    assertNotEmpty("RRULE:FREQ=YEARLY;BYYEARDAY=1,-1;BYDAY=SU", JAN_31_2006);
+    // Feb 29 is on every day of the week in some leap year.
+    assertNotEmpty("RRULE:FREQ=YEARLY;BYMONTH=2;BYMONTHDAY=29;BYDAY=WE",
+                   JAN_31_2006);
+  }
+
+  public void testDayOfYear() throws Exception {
+    assertEmpty("RRULE:FREQ=YEARLY;BYYEARDAY=60;BYMONTH=1", JAN_31_2006);
+    assertNotEmpty("RRULE:FREQ=YEARLY;BYYEARDAY=60;BYMONTH=3", JAN_31_2006);
+    assertNotEmpty("RRULE:FREQ=YEARLY;BYYEARDAY=60;BYMONTH=2", JAN_31_2006);
+    assertNotEmpty("RRULE:FREQ=YEARLY;BYYEARDAY=-366", JAN_31_2006);
+    // BYYEARDAY is ignored for other frequencies.
+    assertNotEmpty("RRULE:FREQ=MONTHLY;BYYEARDAY=60;BYMONTH=1", JAN_31_2006);
+  }
+
+  public void testInterval() throws Exception {
+    // Only leap years have a 366th day, and 2005 + 4n is never one.
+    assertEmpty("RRULE:FREQ=YEARLY;INTERVAL=4;BYYEARDAY=366",
+                new DateValueImpl(2005, 1, 1));
+    assertNotEmpty("RRULE:FREQ=YEARLY;INTERVAL=4;BYYEARDAY=366",
+                   new DateValueImpl(2004, 1, 1));
+    // 2100, 2200, and 2300 are not leap years but 2400 is.
+    assertNotEmpty("RRULE:FREQ=YEARLY;INTERVAL=100;BYMONTH=2;BYMONTHDAY=29",
+                   new DateValueImpl(2100, 1, 1));
+    assertEmpty("RRULE:FREQ=YEARLY;INTERVAL=400;BYMONTH=2;BYMONTHDAY=29",
+                new DateValueImpl(2100, 1, 1));
+    // Monthly rules visit every year.
+    assertNotEmpty("RRULE:FREQ=MONTHLY;INTERVAL=48;BYMONTH=2;BYMONTHDAY=29",
+                   new DateValueImpl(2005, 2, 1));
+  }
+
+  public void testZeroSetPos() throws Exception {
+    // The parser rejects BYSETPOS=0, but rules built in code can have it.
+    RRule rrule = new RRule("RRULE:FREQ=YEARLY;BYMONTHDAY=1,-1");
+    rrule.setBySetPos(new int[] { 0 });
+    assertTrue(RuleAnalyzer.isEmpty(rrule, JAN_31_2006));
+    rrule.setBySetPos(new int[] { 0, -1 });
+    assertFalse(RuleAnalyzer.isEmpty(rrule, JAN_31_2006));
+    // Sub-daily rules ignore BYSETPOS.
+    rrule = new RRule("RRULE:FREQ=HOURLY;BYHOUR=1,2");
+    rrule.setBySetPos(new int[] { 0 });
+    assertFalse(RuleAnalyzer.isEmpty(rrule, JAN_31_2006));
+  }
+
+  public void testFactoryReturnsEmptyIterator() throws Exception {
+    RecurrenceIterator it = RecurrenceIteratorFactory.createRecurrenceIterator(
+        new RRule("RRULE:FREQ=YEARLY;BYMONTH=2;BYMONTHDAY=30"), JAN_31_2006,
+        TimeUtils.utcTimezone());
+    assertFalse(it.hasNext());
+    // dtStart is still part of a series.
+    it = RecurrenceIteratorFactory.createRecurrenceIterator(
+        "RRULE:FREQ=YEARLY;BYMONTH=2;BYMONTHDAY=30", JAN_31_2006,
+        TimeUtils.utcTimezone());
+    assertTrue(it.hasNext());
+    assertEquals(JAN_31_2006, it.next());
+    assertFalse(it.hasNext());
+  }
+
+  private static void assertEmpty(String rrule, DateValue dtStart)
+      throws Exception {
+    assertTrue(rrule, RuleAnalyzer.isEmpty(new RRule(rrule), dtStart));
+  }
+
+  private static void assertNotEmpty(String rrule, DateValue dtStart)
+      throws Exception {
+    RRule rule = new RRule(rrule);
+    assertFalse(rrule, RuleAnalyzer.isEmpty(rule, dtStart));
+    // and the iterator agrees.
+    assertTrue(rrule, RecurrenceIteratorFactory.createRecurrenceIterator(
+        rule, dtStart, TimeUtils.utcTimezone()).hasNext());
+  }
+
+}
@@ -134,10 +134,31 @@ public class UtilTest extends TestCase {
         0, Util.dayNumToDate(dow0, nDays, -44, Weekday.TU, d0, nInMonth));
   }
 
-  public void testUniquify() throws Exception {
-    int[] ints = new int[] { 1, 4, 4, 2, 7, 3, 8, 0, 0, 3 };
-    ints = Util.uniquify(ints);
-    assertEquals("0,1,2,3,4,7,8", arrToString(ints));
+  public void testGallopTo() throws Exception {
+    long[] sorted = new long[] { 1, 3, 3, 4, 7, 10, 12, 15, 20, 21, 30 };
+    assertEquals(0, Util.gallopTo(sorted, 0, 0));
+    assertEquals(0, Util.gallopTo(sorted, 0, 1));
+    assertEquals(1, Util.gallopTo(sorted, 0, 2));
+    assertEquals(1, Util.gallopTo(sorted, 0, 3));
+    assertEquals(4, Util.gallopTo(sorted, 0, 5));
+    assertEquals(4, Util.gallopTo(sorted, 3, 7));
+    assertEquals(4, Util.gallopTo(sorted, 4, 7));
+    assertEquals(5, Util.gallopTo(sorted, 4, 8));
+    assertEquals(10, Util.gallopTo(sorted, 2, 30));
+    assertEquals(11, Util.gallopTo(sorted, 0, 31));
+    assertEquals(11, Util.gallopTo(sorted, 11, 0));
+    assertEquals(0, Util.gallopTo(new long[0], 0, 5));
+    // start is a lower bound, so earlier elements are not considered.
+    assertEquals(6, Util.gallopTo(sorted, 6, 0));
+    for (int start = 0; start <= sorted.length; ++start) {
+      for (long key = -1; key <= 32; ++key) {
+        int expected = start;
+        while (expected < sorted.length && sorted[expected] < key) {
+          ++expected;
+        }
+        assertEquals(expected, Util.gallopTo(sorted, start, key));
+      }
+    }
   }
 
   public void testRollToNextWeekStart() throws Exception {
@@ -286,15 +307,6 @@ public class UtilTest extends TestCase {
         3,
         Util.invertWeekdayNum(new WeekdayNum(-2, Weekday.WE), Weekday.WE, 28));
   }
-
-  private static String arrToString(int[] arr) {
-    StringBuilder sb = new StringBuilder();
-    for (int i = 0; i < arr.length; ++i) {
-      if (0 != i) { sb.append(','); }
-      sb.append(arr[i]);
-    }
-    return sb.toString();
-  }
 }
 
             // For dow0 == MO
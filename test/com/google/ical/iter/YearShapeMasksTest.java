@@ -0,0 +1,104 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.iter;
+
+import com.google.ical.util.TimeUtils;
+import com.google.ical.values.Weekday;
+import junit.framework.TestCase;
+
+/**
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+public class YearShapeMasksTest extends TestCase {
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    super.tearDown();
+  }
+
+  public void testShapeOf() throws Exception {
+    // 2006 is not a leap year and started on a Sunday
+    assertEquals(Weekday.SU.ordinal(), YearShapeMasks.shapeOf(2006));
+    // 2008 is a leap year and started on a Tuesday
+    assertEquals(7 + Weekday.TU.ordinal(), YearShapeMasks.shapeOf(2008));
+    // the calendar repeats every 400 years
+    for (int year = 1900; year < 2300; ++year) {
+      assertEquals(YearShapeMasks.shapeOf(year),
+                   YearShapeMasks.shapeOf(year + 400));
+    }
+  }
+
+  public void testNextSetBit() throws Exception {
+    long[] mask = new long[YearShapeMasks.MASK_LENGTH];
+    mask[0] = 1L | (1L << 63);
+    mask[1] = 1L << 1;
+    mask[5] = 1L << (365 - 320);
+    assertEquals(0, YearShapeMasks.nextSetBit(mask, 0, 366));
+    assertEquals(63, YearShapeMasks.nextSetBit(mask, 1, 366));
+    assertEquals(65, YearShapeMasks.nextSetBit(mask, 64, 366));
+    assertEquals(365, YearShapeMasks.nextSetBit(mask, 66, 366));
+    assertEquals(-1, YearShapeMasks.nextSetBit(mask, 66, 365));
+    assertEquals(-1, YearShapeMasks.nextSetBit(mask, 1, 63));
+    assertEquals(-1, YearShapeMasks.nextSetBit(mask, 5, 5));
+  }
+
+  public void testBitCount() throws Exception {
+    long[] mask = new long[YearShapeMasks.MASK_LENGTH];
+    mask[0] = 1L | (1L << 63);
+    mask[1] = 1L << 1;
+    mask[3] = -1L;
+    mask[5] = 1L << (365 - 320);
+    assertEquals(68, YearShapeMasks.bitCount(mask, 0, 366));
+    assertEquals(1, YearShapeMasks.bitCount(mask, 0, 63));
+    assertEquals(2, YearShapeMasks.bitCount(mask, 0, 64));
+    assertEquals(2, YearShapeMasks.bitCount(mask, 63, 66));
+    assertEquals(64, YearShapeMasks.bitCount(mask, 66, 365));
+    assertEquals(10, YearShapeMasks.bitCount(mask, 200, 210));
+    assertEquals(0, YearShapeMasks.bitCount(mask, 5, 5));
+  }
+
+  public void testMasksMatchEveryYearOfTheSameShape() throws Exception {
+    // the last day of each month and the 1st of Jan.
+    YearShapeMasks masks = new YearShapeMasks(new YearShapeMasks.MonthDays() {
+        @Override
+        int[] daysIn(int year, int month) {
+          return month == 1
+              ? new int[] { 1, 31 }
+              : new int[] { TimeUtils.monthLength(year, month) };
+        }
+      });
+    for (int year = 1890; year <= 2110; ++year) {
+      long[] mask = masks.maskForYear(year);
+      int doy = -1;
+      int n = 0;
+      while ((doy = YearShapeMasks.nextSetBit(mask, doy + 1, 366)) >= 0) {
+        ++n;
+      }
+      assertEquals(13, n);
+      assertTrue(0 != (mask[0] & 1));
+      int lastDoy = TimeUtils.yearLength(year) - 1;
+      assertTrue(0 != (mask[lastDoy >> 6] & (1L << lastDoy)));
+      int feb28 = TimeUtils.dayOfYear(year, 2, 28);
+      assertEquals(!TimeUtils.isLeapYear(year),
+                   0 != (mask[feb28 >> 6] & (1L << feb28)));
+    }
+  }
+
+}
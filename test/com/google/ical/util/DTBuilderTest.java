@@ -15,7 +15,9 @@
 package com.google.ical.util;
 
 import com.google.ical.values.DateTimeValueImpl;
+import com.google.ical.values.DateValue;
 import com.google.ical.values.DateValueImpl;
+import com.google.ical.values.Weekday;
 
 import junit.framework.TestCase;
 
@@ -155,4 +157,69 @@ public class DTBuilderTest extends TestCase {
     dtb.normalize();
     assertEquals("2006-2-12 8:0:0", dtb.toString());
   }
+
+  public void testNormalizeInRangeFieldsUnchanged() throws Exception {
+    DTBuilder dtb = new DTBuilder(2004, 2, 29, 23, 59, 59);
+    dtb.normalize();
+    assertEquals("2004-2-29 23:59:59", dtb.toString());
+    dtb = new DTBuilder(2005, 2, 29, 0, 0, 0);
+    dtb.normalize();
+    assertEquals("2005-3-1 0:0:0", dtb.toString());
+    dtb = new DTBuilder(2006, 4, 31, 0, 0, 0);
+    dtb.normalize();
+    assertEquals("2006-5-1 0:0:0", dtb.toString());
+    dtb = new DTBuilder(2006, 12, 31, 23, 59, 60);
+    dtb.normalize();
+    assertEquals("2007-1-1 0:0:0", dtb.toString());
+    dtb = new DTBuilder(2006, 1, 1, 0, 0, -1);
+    dtb.normalize();
+    assertEquals("2005-12-31 23:59:59", dtb.toString());
+  }
+
+  public void testFixedDayAndDayOfWeek() throws Exception {
+    DTBuilder dtb = new DTBuilder(1999, 12, 1, 0, 0, 0);
+    int fixed = TimeUtils.fixedFromGregorian(1999, 12, 1);
+    for (int i = 0; i < 800; ++i) {
+      DateValue d = dtb.toDate();
+      assertEquals(d.toString(), fixed++, dtb.fixedDay());
+      assertEquals(d.toString(), Weekday.valueOf(d), dtb.dayOfWeek());
+      ++dtb.day;
+      dtb.normalize();
+    }
+    assertEquals("2002-2-8 0:0:0", dtb.toString());
+    // the remembered month start follows changes to the fields
+    dtb.year = 1900;
+    dtb.month = 3;
+    dtb.day = 1;
+    assertEquals(TimeUtils.fixedFromGregorian(1900, 3, 1), dtb.fixedDay());
+    assertEquals(Weekday.TH, dtb.dayOfWeek());
+    dtb.day = 31;
+    assertEquals(TimeUtils.fixedFromGregorian(1900, 3, 31), dtb.fixedDay());
+  }
+
+  public void testDayOfYearAndDaysBetween() throws Exception {
+    DTBuilder dtb = new DTBuilder(1999, 12, 1, 0, 0, 0);
+    for (int i = 0; i < 800; ++i) {
+      DateValue d = dtb.toDate();
+      int y = d.year(), m = d.month(), day = d.day();
+      assertEquals(d.toString(), TimeUtils.dayOfYear(y, m, day),
+                   dtb.dayOfYear());
+      assertEquals(d.toString(), Weekday.firstDayOfWeekInMonth(y, m),
+                   dtb.firstDayOfWeekInMonth());
+      assertEquals(d.toString(), Weekday.firstDayOfWeekInMonth(y, 1),
+                   dtb.firstDayOfWeekInYear());
+      assertEquals(d.toString(), 0, dtb.daysBetween(y, m, day));
+      assertEquals(d.toString(), TimeUtils.daysBetween(y, m, day, 2000, 2, 29),
+                   dtb.daysBetween(2000, 2, 29));
+      assertEquals(d.toString(), TimeUtils.daysBetween(y, m, day, y, m, 1),
+                   dtb.daysBetween(y, m, 1));
+      ++dtb.day;
+      dtb.normalize();
+    }
+    // only the year and month need be normalized
+    dtb = new DTBuilder(2001, 4, 31);
+    assertEquals(TimeUtils.dayOfYear(2001, 5, 1), dtb.dayOfYear());
+    assertEquals(30, dtb.daysBetween(2001, 4, 1));
+    assertEquals(31, dtb.daysBetween(2001, 3, 31));
+  }
 }
@@ -0,0 +1,70 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.util;
+
+import com.google.ical.values.DateTimeValueImpl;
+import com.google.ical.values.DateValue;
+import com.google.ical.values.DateValueImpl;
+
+import junit.framework.TestCase;
+
+/**
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+public class PackedDatesTest extends TestCase {
+
+  public void testRoundTrip() throws Exception {
+    DateValue[] dates = {
+      new DateValueImpl(2006, 1, 1),
+      new DateTimeValueImpl(2006, 1, 1, 0, 0, 0),
+      new DateTimeValueImpl(2006, 12, 31, 23, 59, 59),
+      new DateValueImpl(1, 2, 28),
+      new DateTimeValueImpl(9999, 7, 4, 12, 30, 15),
+    };
+    for (DateValue dv : dates) {
+      long packed = PackedDates.pack(dv);
+      assertEquals(dv.toString(), PackedDates.unpack(packed).toString());
+      assertEquals(dv.year(), PackedDates.year(packed));
+      assertEquals(dv.month(), PackedDates.month(packed));
+      assertEquals(dv.day(), PackedDates.day(packed));
+      assertEquals(dv instanceof DateTimeValueImpl,
+                   PackedDates.isTimed(packed));
+    }
+    long packed = PackedDates.packDateTime(2006, 12, 31, 23, 59, 58);
+    assertEquals(23, PackedDates.hour(packed));
+    assertEquals(59, PackedDates.minute(packed));
+    assertEquals(58, PackedDates.second(packed));
+  }
+
+  public void testOrdering() throws Exception {
+    DateValue[] ascending = {
+      new DateValueImpl(2005, 12, 31),
+      new DateTimeValueImpl(2005, 12, 31, 23, 59, 59),
+      new DateValueImpl(2006, 1, 1),
+      new DateTimeValueImpl(2006, 1, 1, 0, 0, 0),
+      new DateTimeValueImpl(2006, 1, 1, 0, 0, 1),
+      new DateTimeValueImpl(2006, 1, 1, 1, 0, 0),
+      new DateValueImpl(2006, 1, 2),
+      new DateValueImpl(2006, 2, 1),
+    };
+    for (int i = 1; i < ascending.length; ++i) {
+      assertTrue(ascending[i - 1].compareTo(ascending[i]) < 0);
+      assertTrue(ascending[i].toString(),
+                 PackedDates.pack(ascending[i - 1])
+                 < PackedDates.pack(ascending[i]));
+    }
+  }
+
+}
@@ -0,0 +1,47 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.util;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+public class RulePartsTest extends TestCase {
+
+  public void testUniquify() throws Exception {
+    int[] ints = new int[] { 1, 4, 4, 2, 7, 3, 8, 0, 0, 3 };
+    assertEquals("[0, 1, 2, 3, 4, 7, 8]",
+                 Arrays.toString(RuleParts.uniquify(ints)));
+    assertEquals("[1, 4, 4, 2, 7, 3, 8, 0, 0, 3]", Arrays.toString(ints));
+    assertEquals("[]", Arrays.toString(RuleParts.uniquify(new int[0])));
+  }
+
+  public void testFilterBySetPos() throws Exception {
+    int[] byMonth = new int[] { 5, 2, 4, 3, 2 };
+    assertEquals("[2, 5]", Arrays.toString(
+        RuleParts.filterBySetPos(byMonth, new int[] { 1, -1 })));
+    assertEquals("[3]", Arrays.toString(
+        RuleParts.filterBySetPos(byMonth, new int[] { 2, -3, 0 })));
+    // Positions out of range select nothing.
+    assertEquals("[4]", Arrays.toString(
+        RuleParts.filterBySetPos(byMonth, new int[] { 5, -5, 3 })));
+    assertEquals("[]", Arrays.toString(
+        RuleParts.filterBySetPos(byMonth, new int[] { 0 })));
+  }
+
+}
@@ -0,0 +1,144 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.util;
+
+import com.google.ical.values.DateTimeValue;
+import com.google.ical.values.DateTimeValueImpl;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.SimpleTimeZone;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+/**
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+public class TimeZoneTransitionsTest extends TestCase {
+
+  private static final TimeZone PST =
+      TimeZone.getTimeZone("America/Los_Angeles");
+
+  public void testSkippedAndRepeatedLocalTimes() throws Exception {
+    // 2:30 is skipped when clocks spring forward, and treated as daylight
+    // time.
+    assertEquals("20060402T093000",
+                 TimeUtils.toUtc(time(2006, 4, 2, 2, 30), PST).toString());
+    // 1:30 happens twice when clocks fall back, and is treated as standard
+    // time.
+    assertEquals("20061029T093000",
+                 TimeUtils.toUtc(time(2006, 10, 29, 1, 30), PST).toString());
+    assertEquals("20061029T013000",
+                 TimeUtils.fromUtc(time(2006, 10, 29, 8, 30), PST).toString());
+    assertEquals("20061029T013000",
+                 TimeUtils.fromUtc(time(2006, 10, 29, 9, 30), PST).toString());
+  }
+
+  public void testSameAsCalendar() throws Exception {
+    TimeZone[] zones = {
+      PST,
+      TimeZone.getTimeZone("Europe/London"),
+      // half hour daylight savings shifts
+      TimeZone.getTimeZone("Australia/Lord_Howe"),
+      TimeZone.getTimeZone("Asia/Kolkata"),
+      // skipped a whole day in 2011
+      TimeZone.getTimeZone("Pacific/Apia"),
+      new SimpleTimeZone(
+          -5 * 60 * 60 * 1000, "Custom",
+          Calendar.MARCH, 8, -Calendar.SUNDAY, 2 * 60 * 60 * 1000,
+          Calendar.NOVEMBER, 1, -Calendar.SUNDAY, 2 * 60 * 60 * 1000),
+    };
+    Random rnd = new Random(4);
+    for (TimeZone zone : zones) {
+      TimeZoneTransitions transitions = TimeZoneTransitions.forZone(zone);
+      // Every two hours or so through a couple of years either side of a
+      // change to the zone's rules, and a few random times in other years.
+      long start = secs(2005, 1, 1), end = secs(2013, 1, 1);
+      for (long secs = start; secs < end; secs += 7200 + rnd.nextInt(600)) {
+        assertSameAsCalendar(zone, transitions, secs);
+      }
+      for (int i = 0; i < 1000; ++i) {
+        assertSameAsCalendar(
+            zone, transitions,
+            secs(1500 + rnd.nextInt(1200), 1, 1)
+            + (long) rnd.nextInt(366 * 24 * 60) * 60);
+      }
+    }
+  }
+
+  public void testNextTransition() throws Exception {
+    TimeZoneTransitions transitions = TimeZoneTransitions.forZone(PST);
+    // clocks sprang forward at 2006-04-02T10:00Z and fell back at
+    // 2006-10-29T09:00Z
+    long spring = secs(2006, 4, 2) + 10 * 3600;
+    long fall = secs(2006, 10, 29) + 9 * 3600;
+    long end = secs(2007, 1, 1);
+    assertEquals(spring, transitions.nextTransition(secs(2006, 1, 1), end));
+    assertEquals(fall, transitions.nextTransition(spring, end));
+    assertEquals(end, transitions.nextTransition(fall, end));
+    // across the new year, and limited
+    assertEquals(spring, transitions.nextTransition(secs(2005, 11, 1), end));
+    assertEquals(secs(2006, 3, 1),
+                 transitions.nextTransition(secs(2005, 11, 1),
+                                            secs(2006, 3, 1)));
+    assertEquals(secs(2007, 3, 11) + 10 * 3600,
+                 transitions.nextTransition(fall, secs(2008, 1, 1)));
+    // the years after those tabulated
+    assertEquals(-1, transitions.nextTransition(
+        secs(2700, 1, 1), secs(2701, 1, 1)));
+  }
+
+  public void testChangesToZoneDontAffectTable() throws Exception {
+    SimpleTimeZone zone = new SimpleTimeZone(3600 * 1000, "Mutable");
+    TimeZoneTransitions transitions = TimeZoneTransitions.forZone(zone);
+    zone.setRawOffset(7200 * 1000);
+    assertEquals(3600, transitions.offsetFromUtc(secs(2006, 1, 1)));
+    assertEquals(7200, TimeZoneTransitions.forZone(zone)
+                 .offsetFromUtc(secs(2006, 1, 1)));
+  }
+
+  private static DateTimeValue time(
+      int year, int month, int day, int hour, int minute) {
+    return new DateTimeValueImpl(year, month, day, hour, minute, 0);
+  }
+
+  private static long secs(int year, int month, int day) {
+    return TimeUtils.fixedFromGregorian(year, month, day) * 24L * 60 * 60;
+  }
+
+  private static void assertSameAsCalendar(
+      TimeZone zone, TimeZoneTransitions transitions, long secs) {
+    DateTimeValue time = TimeUtils.timeFromSecsSinceEpoch(secs);
+    assertEquals(zone.getID() + " " + time,
+                 calendarOffset(zone, zone, time),
+                 transitions.offsetFromLocal(secs));
+    assertEquals(zone.getID() + " " + time,
+                 calendarOffset(zone, TimeUtils.utcTimezone(), time),
+                 transitions.offsetFromUtc(secs));
+  }
+
+  /** the offset of zone at time in timeBasis, computed via a calendar. */
+  private static int calendarOffset(
+      TimeZone zone, TimeZone timeBasis, DateTimeValue time) {
+    Calendar cal = new GregorianCalendar(timeBasis);
+    cal.clear();
+    cal.set(time.year(), time.month() - 1, time.day(),
+            time.hour(), time.minute(), time.second());
+    int millis = zone.getOffset(cal.getTimeInMillis());
+    return (millis + (millis < 0 ? -500 : 500)) / 1000;
+  }
+
+}
@@ -0,0 +1,112 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.values;
+
+import junit.framework.TestCase;
+
+/**
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+public class CanonicalRRuleTest extends TestCase {
+
+  private static CanonicalRRule canon(String rule) throws Exception {
+    return new RRule(rule).canonicalize();
+  }
+
+  private static void assertCanonical(String golden, String... rules)
+      throws Exception {
+    CanonicalRRule expected = canon(golden);
+    assertEquals(golden, expected.toIcal());
+    for (String rule : rules) {
+      CanonicalRRule actual = canon(rule);
+      assertEquals(rule, golden, actual.toIcal());
+      assertEquals(rule, expected, actual);
+      assertEquals(rule, expected.fingerprint(), actual.fingerprint());
+      assertEquals(rule, expected.hashCode(), actual.hashCode());
+    }
+  }
+
+  public void testPartOrder() throws Exception {
+    assertCanonical("RRULE:FREQ=WEEKLY;COUNT=3;BYDAY=MO,FR",
+                    "RRULE:COUNT=3;BYDAY=MO,FR;FREQ=WEEKLY",
+                    "RRULE:BYDAY=FR,MO;FREQ=WEEKLY;COUNT=3");
+  }
+
+  public void testDefaults() throws Exception {
+    assertCanonical("RRULE:FREQ=DAILY;COUNT=3",
+                    "RRULE:FREQ=DAILY;INTERVAL=1;COUNT=3",
+                    "RRULE:FREQ=DAILY;WKST=MO;COUNT=3",
+                    "RRULE:FREQ=DAILY;WKST=MO;INTERVAL=1;COUNT=3");
+    assertFalse(canon("RRULE:FREQ=DAILY;WKST=SU").equals(
+        canon("RRULE:FREQ=DAILY")));
+    assertFalse(canon("RRULE:FREQ=DAILY;INTERVAL=2").equals(
+        canon("RRULE:FREQ=DAILY")));
+  }
+
+  public void testDuplicates() throws Exception {
+    assertCanonical(
+        "RRULE:FREQ=MONTHLY;BYMONTHDAY=-1,1,15;BYDAY=-1MO,MO,1MO",
+        "RRULE:FREQ=MONTHLY;BYMONTHDAY=15,1,-1,15;BYDAY=1MO,MO,-1MO,MO",
+        "RRULE:FREQ=MONTHLY;BYDAY=-1MO,MO,1MO;BYMONTHDAY=1,-1,15");
+  }
+
+  public void testSubDailySetPosFolded() throws Exception {
+    assertCanonical("RRULE:FREQ=HOURLY;BYHOUR=3,9",
+                    "RRULE:FREQ=HOURLY;BYHOUR=3,6,9;BYSETPOS=1,-1",
+                    "RRULE:FREQ=HOURLY;BYHOUR=9,3,6,3;BYSETPOS=-1,1,5");
+    // Folded before removing duplicates, as the iterators only fold when
+    // there is at most one of the smaller parts.
+    assertCanonical("RRULE:FREQ=HOURLY;BYHOUR=3,6,9;BYMINUTE=0",
+                    "RRULE:FREQ=HOURLY;BYHOUR=3,6,9;BYMINUTE=0,0;BYSETPOS=1");
+    assertCanonical("RRULE:FREQ=MINUTELY;BYMINUTE=10",
+                    "RRULE:FREQ=MINUTELY;BYMINUTE=10,20,30;BYSETPOS=1");
+    assertCanonical("RRULE:FREQ=SECONDLY;BYSECOND=30",
+                    "RRULE:FREQ=SECONDLY;BYSECOND=10,20,30;BYSETPOS=-1");
+    // Sub-daily rules ignore BYSETPOS where it can't be folded.
+    assertCanonical("RRULE:FREQ=MINUTELY;INTERVAL=15",
+                    "RRULE:FREQ=MINUTELY;INTERVAL=15;BYSETPOS=2");
+    // but daily and longer rules don't.
+    assertCanonical("RRULE:FREQ=MONTHLY;BYDAY=MO,FR;BYSETPOS=-1,1",
+                    "RRULE:FREQ=MONTHLY;BYDAY=FR,MO;BYSETPOS=1,-1,1");
+  }
+
+  public void testOtherPartsPreserved() throws Exception {
+    assertCanonical("EXRULE;X-A=1;X-B=2:FREQ=YEARLY;WKST=SU"
+                    + ";UNTIL=20071231T100000Z;INTERVAL=2;BYYEARDAY=100"
+                    + ";BYMONTH=1,2;BYWEEKNO=-1,20"
+                    + ";BYMINUTE=0,30;BYSECOND=15",
+                    "EXRULE;X-B=2;X-A=1:FREQ=YEARLY;BYSECOND=15;BYMINUTE=30,0"
+                    + ";BYWEEKNO=20,-1;BYMONTH=2,1;BYYEARDAY=100;INTERVAL=2"
+                    + ";UNTIL=20071231T100000Z;WKST=SU");
+    assertFalse(canon("EXRULE:FREQ=DAILY").equals(canon("RRULE:FREQ=DAILY")));
+  }
+
+  public void testToRRule() throws Exception {
+    RRule source = new RRule("RRULE:FREQ=WEEKLY;BYDAY=FR,MO,FR;INTERVAL=1");
+    CanonicalRRule canonical = source.canonicalize();
+    source.setInterval(3);
+    RRule copy = canonical.toRRule();
+    assertEquals("RRULE:FREQ=WEEKLY;BYDAY=MO,FR", copy.toIcal());
+    copy.getByDay().clear();
+    assertEquals("RRULE:FREQ=WEEKLY;BYDAY=MO,FR", canonical.toIcal());
+    assertEquals(canonical, canonical.toRRule().canonicalize());
+  }
+
+  public void testFingerprintIsStable() throws Exception {
+    // Fingerprints may be stored, so must not change between releases.
+    assertEquals(0x39db10eaf9c3c57fL, canon("RRULE:FREQ=DAILY").fingerprint());
+  }
+
+}
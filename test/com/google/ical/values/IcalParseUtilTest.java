@@ -14,7 +14,9 @@
 
 package com.google.ical.values;
 
+import com.google.ical.iter.DateValueComparison;
 import java.text.ParseException;
+import java.util.Arrays;
 import java.util.TimeZone;
 import junit.framework.TestCase;
 
@@ -98,4 +100,59 @@ public class IcalParseUtilTest extends TestCase {
     assertEquals("foo", IcalParseUtil.unfoldIcal("f\r\to\n o\r\n "));
   }
 
+  public void testParseDateValuePacked() throws Exception {
+    String[] dates = {
+      "20060225", "20060229", "20061231", "00000101", "20060225T000000",
+      "20060225T235959", "20060225T120000Z", "20060229T120000",
+      "20061231T200000", "20060101T030000", "20060402T023000",
+      "20061029T013000", "120060101",
+    };
+    TimeZone[] zones = {
+      null, UTC, PDT, TimeZone.getTimeZone("Asia/Tokyo"),
+    };
+    for (String date : dates) {
+      for (TimeZone zone : zones) {
+        String msg = date + " in " + (null != zone ? zone.getID() : null);
+        long golden = DateValueComparison.comparable(
+            IcalParseUtil.parseDateValue(date, zone));
+        assertEquals(msg, golden, IcalParseUtil.parseDateValuePacked(
+            date, 0, date.length(), zone));
+        String padded = "::" + date + ",,";
+        assertEquals(msg, golden, IcalParseUtil.parseDateValuePacked(
+            padded, 2, 2 + date.length(), zone));
+      }
+    }
+  }
+
+  public void testBadDateValuePacked() throws Exception {
+    String[] bad = {
+      "", "2006010", "20060101T", "20060101T240000", "20060101T126000",
+      "20060101t120000", "20060101T120000z", "2006-01-01", "20060101 ",
+    };
+    for (String date : bad) {
+      try {
+        IcalParseUtil.parseDateValuePacked(date, 0, date.length(), PDT);
+        fail(date);
+      } catch (ParseException ex) {
+        // pass
+      }
+    }
+  }
+
+  public void testParseDateValueListPacked() throws Exception {
+    assertEquals(
+        "[" + DateValueComparison.comparable(new DateValueImpl(2006, 1, 1))
+        + ", " + DateValueComparison.comparable(
+            new DateTimeValueImpl(2006, 1, 2, 20, 0, 0)) + "]",
+        Arrays.toString(IcalParseUtil.parseDateValueListPacked(
+            "20060101,20060102T120000,,", PDT)));
+    assertEquals(0, IcalParseUtil.parseDateValueListPacked(",", PDT).length);
+    try {
+      IcalParseUtil.parseDateValueListPacked("20060101,,20060102", PDT);
+      fail("empty item");
+    } catch (ParseException ex) {
+      // pass
+    }
+  }
+
 }
@@ -14,10 +14,12 @@
 
 package com.google.ical.values;
 
+import com.google.ical.iter.DateValueComparison;
 import com.google.ical.values.DateTimeValueImpl;
 import com.google.ical.values.DateValueImpl;
 
 import junit.framework.TestCase;
+import java.util.Arrays;
 import java.util.TimeZone;
 
 /**
@@ -56,6 +58,56 @@ public class RDateListTest extends TestCase {
                  rd3.getDatesUtc()[1]);
   }
 
+  public void testPackedDates() throws Exception {
+    RDateList rd = new RDateList(
+        "EXDATE:20060412T120000,20060412,20060413T153000Z,20060412", PST);
+    DateValue[] datesUtc = rd.getDatesUtc();
+    long[] packed = rd.getPackedDatesUtc();
+    assertEquals(4, packed.length);
+    for (int i = 0; i < packed.length; ++i) {
+      assertEquals(DateValueComparison.comparable(datesUtc[i]), packed[i]);
+    }
+    assertEquals(IcalValueType.DATE_TIME, rd.getValueType());
+    // the copies returned are independent of the list
+    packed[0] = 0;
+    assertFalse(0 == rd.getPackedDatesUtc()[0]);
+
+    RDateList set = new RDateList(PST);
+    set.setName("EXDATE");
+    set.setDatesUtc(datesUtc);
+    assertEquals(Arrays.toString(rd.getPackedDatesUtc()),
+                 Arrays.toString(set.getPackedDatesUtc()));
+    assertEquals(rd.toIcal(), set.toIcal());
+  }
+
+  public void testSortedPackedDates() throws Exception {
+    RDateList rd = new RDateList(
+        "EXDATE:20060413T153000Z,20060412,20060412T120000,20060412", PST);
+    long[] sorted = rd.getSortedPackedDatesUtc();
+    assertEquals(
+        "[" + DateValueComparison.comparable(new DateValueImpl(2006, 4, 12))
+        + ", " + DateValueComparison.comparable(
+            new DateTimeValueImpl(2006, 4, 12, 19, 0, 0))
+        + ", " + DateValueComparison.comparable(
+            new DateTimeValueImpl(2006, 4, 13, 15, 30, 0))
+        + "]",
+        Arrays.toString(sorted));
+    // computed once and shared
+    assertSame(sorted, rd.getSortedPackedDatesUtc());
+    // the dates in their original order are unaffected
+    assertEquals(4, rd.getPackedDatesUtc().length);
+    assertEquals(4, rd.getDatesUtc().length);
+
+    rd.setDatesUtc(new DateValue[] { new DateValueImpl(2007, 1, 1) });
+    assertEquals(
+        "[" + DateValueComparison.comparable(new DateValueImpl(2007, 1, 1))
+        + "]",
+        Arrays.toString(rd.getSortedPackedDatesUtc()));
+
+    RDateList empty = new RDateList(PST);
+    assertEquals(0, empty.getSortedPackedDatesUtc().length);
+  }
+
   public void testRDateListParsingWithExplicitTzid() throws Exception {
     RDateList rd = new RDateList(
         "RDATE;TZID=\"America/New_York\":20060412T120000", PST);
@@ -0,0 +1,97 @@
+// Copyright (C) 2006 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.ical.values;
+
+import java.text.ParseException;
+import junit.framework.TestCase;
+
+/**
+ * @author mikesamuel+svn@gmail.com (Mike Samuel)
+ */
+public class RRuleScannerTest extends TestCase {
+
+  public void testAgreesWithSchema() throws Exception {
+    assertScanned("RRULE:FREQ=DAILY");
+    assertScanned("EXRULE:FREQ=MONTHLY;INTERVAL=2;BYDAY=FR;BYSETPOS=-1");
+    assertScanned("rrule:freq=YEARLY;bymonth=3;byday=2su;wkst=su");
+    assertScanned("RRULE:FREQ=WEEKLY;UNTIL=20071231T235959Z;BYDAY=MO,WE,FR");
+    assertScanned("RRULE:FREQ=WEEKLY;UNTIL=20071231t235959;BYDAY=+1MO,-53FR");
+    assertScanned("RRULE:FREQ=YEARLY;UNTIL=20070230;BYYEARDAY=-366,1,+100");
+    assertScanned("RRULE:FREQ=MONTHLY;COUNT=0;BYMONTHDAY=-31,31,01");
+    assertScanned("RRULE:FREQ=SECONDLY;BYSECOND=0,59;BYMINUTE=0;BYHOUR=23");
+    assertScanned("RRULE:FREQ=YEARLY;BYWEEKNO=-53,53;INTERVAL=999999999");
+    assertScanned("RRULE:FREQ=WEEKLY;COUNT=4;BYDAY=TU,SU,;;");
+  }
+
+  public void testDeclines() throws Exception {
+    assertNotScanned("RRULE:FREQ=FORTNIGHTLY");
+    assertNotScanned("RRULE:freq=daily");
+    assertNotScanned("RRULE:COUNT=3");
+    assertNotScanned("RRULE:FREQ=DAILY;COUNT=3;UNTIL=20060101");
+    assertNotScanned("RRULE:FREQ=DAILY;COUNT=3;COUNT=4");
+    assertNotScanned("RRULE:FREQ=DAILY;COUNT=");
+    assertNotScanned("RRULE:FREQ=DAILY;;COUNT=3");
+    assertNotScanned("RRULE:FREQ=DAILY;BYHOUR=24");
+    assertNotScanned("RRULE:FREQ=DAILY;BYHOUR=-1");
+    assertNotScanned("RRULE:FREQ=DAILY;BYMONTH=0");
+    assertNotScanned("RRULE:FREQ=DAILY;BYMONTH=1,,2");
+    assertNotScanned("RRULE:FREQ=DAILY;BYDAY=0MO");
+    assertNotScanned("RRULE:FREQ=DAILY;BYDAY=+MO");
+    assertNotScanned("RRULE:FREQ=DAILY;BYDAY=MONDAY");
+    assertNotScanned("RRULE:FREQ=DAILY;UNTIL=20060101T240000");
+    assertNotScanned("RRULE:FREQ=DAILY;X-FOO=BAR");
+    assertNotScanned("RRULE;X-FOO=BAR:FREQ=DAILY");
+    assertNotScanned("RRULE:FREQ=DAILY\r\n ;COUNT=3");
+    assertNotScanned(" RRULE:FREQ=DAILY");
+    assertNotScanned("RDATE:FREQ=DAILY");
+    assertNotScanned("RRULE:D1 #5");
+  }
+
+  public void testMalformedRulesStillRejected() throws Exception {
+    String[] malformed = {
+      "RRULE:FREQ=FORTNIGHTLY",
+      "RRULE:FREQ=DAILY;COUNT=3;UNTIL=20060101",
+      "RRULE:FREQ=DAILY;COUNT=3;COUNT=4",
+      "RRULE:FREQ=DAILY;BYHOUR=24",
+      "RRULE:COUNT=3",
+    };
+    for (String rule : malformed) {
+      try {
+        new RRule(rule);
+        fail(rule);
+      } catch (ParseException ex) {
+        // pass
+      }
+    }
+  }
+
+  private static void assertScanned(String icalText) throws Exception {
+    RRule scanned = new RRule();
+    assertTrue(icalText, RRuleScanner.scan(icalText, scanned));
+    RRule parsed = new RRule();
+    parsed.parse(VcalRewriter.rewriteRule(icalText), RRuleSchema.instance());
+    assertEquals(icalText, parsed.toIcal(), scanned.toIcal());
+    assertEquals(icalText, parsed.getName(), scanned.getName());
+    assertEquals(icalText, String.valueOf(parsed.getUntil()),
+                 String.valueOf(scanned.getUntil()));
+  }
+
+  private static void assertNotScanned(String icalText) {
+    RRule rule = new RRule();
+    String before = rule.toIcal();
+    assertFalse(icalText, RRuleScanner.scan(icalText, rule));
+    assertEquals(icalText, before, rule.toIcal());
+  }
+}
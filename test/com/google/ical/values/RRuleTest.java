@@ -14,6 +14,7 @@
 
 package com.google.ical.values;
 
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -82,4 +83,37 @@ public class RRuleTest extends TestCase {
       throw errorList.get(0);
     }
   }
+
+  public void testParseErrorsNameTheProduction() throws Exception {
+    assertParseError(
+        "RRULE:FREQ=DAILY;BYDAY=XX",
+        "cannot parse [[XX]] in [RRULE, recur, BYDAY, bywdaylist]");
+    assertParseError(
+        "EXRULE:FREQ=DAILY;COUNT=3;COUNT=4",
+        "duplicate part [[COUNT=4]] in [EXRULE, recur]");
+    assertParseError(
+        "RRULE:FREQ=DAILY;COUNT=1;UNTIL=20060101",
+        "cannot parse [[FREQ=DAILY;COUNT=1;UNTIL=20060101]] in [RRULE, recur]"
+        + " : UNTIL & COUNT are exclusive");
+    assertParseError(
+        "RRULE;FOO=BAR:FREQ=DAILY",
+        "parameter FOO has bad value [[BAR]] in [RRULE, rrulparam]");
+    assertParseError(
+        "RRULE", "cannot parse content line [[RRULE]] in []");
+    // The schema is shared, so a failure leaves nothing behind for the next
+    // parse.
+    assertEquals("RRULE:FREQ=DAILY;COUNT=3",
+                 new RRule("RRULE:FREQ=DAILY;COUNT=3").toIcal());
+    assertSame(RRuleSchema.instance(), RRuleSchema.instance());
+  }
+
+  private static void assertParseError(String icalText, String message) {
+    try {
+      new RRule(icalText);
+      fail(icalText);
+    } catch (ParseException ex) {
+      assertEquals(message, ex.getMessage());
+      assertSame(ParseException.class, ex.getClass());
+    }
+  }
 }